@@ -0,0 +1,52 @@
+package ffam.agent.data;
+
+import ffam.benchmark.ReplayJdbcTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Roster load as AgentSkillIndex runs it on startup and refresh: the agent row mapper over every row returned.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AgentRepositoryBenchmark {
+    @Param({"10", "1000"})
+    public int agentCount;
+
+    private AgentRepository agentRepository;
+
+    @Setup
+    public void setUp() throws SQLException {
+        Object[][] rows = new Object[agentCount][];
+        for (int i = 0; i < agentCount; i++) {
+            rows[i] = new Object[]{"agent-" + i, "Agent " + i, 1, i % 2, i % 3 == 0 ? 1 : 0};
+        }
+        agentRepository = new AgentRepository(new ReplayJdbcTemplate(
+                new String[]{"AGENT_ID", "AGENT_NAME", "SKILL_1", "SKILL_2", "SKILL_3"},
+                new int[]{Types.VARCHAR, Types.VARCHAR, Types.NUMERIC, Types.NUMERIC, Types.NUMERIC},
+                rows));
+    }
+
+    @Benchmark
+    public List<Agent> findAll() {
+        return agentRepository.findAll();
+    }
+}
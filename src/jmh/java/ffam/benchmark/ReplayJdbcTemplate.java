@@ -0,0 +1,50 @@
+package ffam.benchmark;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+import java.sql.SQLException;
+
+/**
+ * Answers every query with the same in-memory rows, so a benchmark measures the repository's own mapping code
+ * through its public methods without a database. Not thread safe, keep one per benchmark thread.
+ */
+public class ReplayJdbcTemplate extends JdbcTemplate {
+    private final CachedRowSet rows;
+
+    public ReplayJdbcTemplate(String[] columns, int[] sqlTypes, Object[][] values) throws SQLException {
+        RowSetMetaDataImpl metaData = new RowSetMetaDataImpl();
+        metaData.setColumnCount(columns.length);
+        for (int i = 0; i < columns.length; i++) {
+            metaData.setColumnName(i + 1, columns[i]);
+            metaData.setColumnLabel(i + 1, columns[i]);
+            metaData.setColumnType(i + 1, sqlTypes[i]);
+        }
+        rows = RowSetProvider.newFactory().createCachedRowSet();
+        rows.setMetaData(metaData);
+        for (Object[] row : values) {
+            rows.moveToInsertRow();
+            for (int i = 0; i < row.length; i++) {
+                rows.updateObject(i + 1, row[i]);
+            }
+            rows.insertRow();
+        }
+        rows.moveToCurrentRow();
+    }
+
+    // Every query(...) overload taking SQL and binds ends up here
+    @Override
+    public <T> T query(PreparedStatementCreator psc, PreparedStatementSetter pss, ResultSetExtractor<T> rse) {
+        try {
+            rows.beforeFirst();
+            return rse.extractData(rows);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
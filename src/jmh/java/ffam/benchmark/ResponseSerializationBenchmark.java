@@ -0,0 +1,70 @@
+package ffam.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ffam.agent.api.AgentsResponse;
+import ffam.task.api.TaskResponse;
+import ffam.task.domain.Task;
+import ffam.task.domain.TaskPriority;
+import ffam.task.domain.TaskStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Response bodies written with an ObjectMapper built the way Spring Boot builds its own:
+ * the POST /task response and a GET /agent page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseSerializationBenchmark {
+    @Param({"1", "100"})
+    public int agentCount;
+
+    private ObjectMapper objectMapper;
+    private TaskResponse taskResponse;
+    private List<AgentsResponse> agentsResponses;
+
+    @Setup
+    public void setUp() {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        taskResponse = new TaskResponse("task-1", "agent-1", TaskStatus.IN_PROGRESS);
+        agentsResponses = new ArrayList<>(agentCount);
+        for (int i = 0; i < agentCount; i++) {
+            String agentId = "agent-" + i;
+            List<Task> taskList = new ArrayList<>();
+            for (int j = 0; j < 3; j++) {
+                taskList.add(new Task("task-" + i + "-" + j, j == 0 ? TaskPriority.HIGH : TaskPriority.LOW,
+                        true, j % 2 == 0, false, TaskStatus.IN_PROGRESS, agentId));
+            }
+            agentsResponses.add(new AgentsResponse(agentId, taskList));
+        }
+    }
+
+    @Benchmark
+    public byte[] taskResponse() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(taskResponse);
+    }
+
+    @Benchmark
+    public byte[] agentsResponses() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(agentsResponses);
+    }
+}
@@ -0,0 +1,44 @@
+package ffam.general;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Task id generation in both modes, as AddTaskUseCase does it: generate and format as a string.
+ * Runs on 8 threads to show the shared SecureRandom of RANDOM contending.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class UuidGeneratorBenchmark {
+    @Param({"RANDOM", "TIME_ORDERED"})
+    public UuidGenerator.Mode mode;
+
+    private UuidGenerator uuidGenerator;
+
+    @Setup
+    public void setUp() {
+        uuidGenerator = new UuidGenerator(mode);
+    }
+
+    @Benchmark
+    public String randomUUID() {
+        return uuidGenerator.randomUUID().toString();
+    }
+}
@@ -0,0 +1,40 @@
+package ffam.task.api;
+
+import ffam.task.domain.TaskPriority;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validation of an accepted request and of a rejected one, which also allocates the error response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaskRequestValidatorBenchmark {
+    private final TaskRequestValidator taskRequestValidator = new TaskRequestValidator();
+    private final TaskRequest validTaskRequest = new TaskRequest(TaskPriority.HIGH, true, false, true);
+    private final TaskRequest noSkillTaskRequest = new TaskRequest(TaskPriority.LOW, false, false, false);
+
+    @Benchmark
+    public Optional<TaskRequestValidationErrorResponse> isValid_valid() {
+        return taskRequestValidator.isValid(validTaskRequest);
+    }
+
+    @Benchmark
+    public Optional<TaskRequestValidationErrorResponse> isValid_noSkill() {
+        return taskRequestValidator.isValid(noSkillTaskRequest);
+    }
+}
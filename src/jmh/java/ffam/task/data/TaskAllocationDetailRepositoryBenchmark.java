@@ -0,0 +1,63 @@
+package ffam.task.data;
+
+import ffam.benchmark.ReplayJdbcTemplate;
+import ffam.configuration.cache.LookupCache;
+import ffam.task.domain.TaskAllocationDetail;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Folding TASK_ALLOCATION joined to TASK_ALLOCATION_ITEM rows back into one TaskAllocationDetail per agent,
+ * as the occupancy engine does at startup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaskAllocationDetailRepositoryBenchmark {
+    @Param({"100", "10000"})
+    public int agentCount;
+
+    @Param({"1", "3"})
+    public int tasksPerAgent;
+
+    private TaskAllocationDetailRepository taskAllocationDetailRepository;
+
+    @Setup
+    public void setUp() throws SQLException {
+        Timestamp dateCreated = new Timestamp(System.currentTimeMillis());
+        Object[][] rows = new Object[agentCount * tasksPerAgent][];
+        for (int i = 0; i < rows.length; i++) {
+            int agent = i / tasksPerAgent;
+            rows[i] = new Object[]{"agent-" + agent, agent % 2, dateCreated, 1L, "task-" + i};
+        }
+        taskAllocationDetailRepository = new TaskAllocationDetailRepository(new ReplayJdbcTemplate(
+                new String[]{"AGENT_ID", "TASK_PRIORITY", "DATE_CREATED", "VERSION", "TASK_ID"},
+                new int[]{Types.VARCHAR, Types.NUMERIC, Types.TIMESTAMP, Types.NUMERIC, Types.VARCHAR},
+                rows),
+                LookupCache.create("taskAllocations", agentCount, new SimpleMeterRegistry()));
+    }
+
+    @Benchmark
+    public List<TaskAllocationDetail> findAll() {
+        return taskAllocationDetailRepository.findAll();
+    }
+}
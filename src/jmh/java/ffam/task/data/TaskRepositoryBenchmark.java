@@ -0,0 +1,71 @@
+package ffam.task.data;
+
+import ffam.benchmark.ReplayJdbcTemplate;
+import ffam.configuration.cache.LookupCache;
+import ffam.task.domain.Task;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The task row mapper, through findByTaskIds (one IN-list statement per chunk) and findAgentTasksPage
+ * (rows folded into one task list per agent).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaskRepositoryBenchmark {
+    private static final int TASKS_PER_AGENT = 3;
+
+    @Param({"10", "500"})
+    public int taskCount;
+
+    private TaskRepository taskRepository;
+    private List<String> taskIds;
+
+    @Setup
+    public void setUp() throws SQLException {
+        Object[][] rows = new Object[taskCount][];
+        taskIds = new ArrayList<>(taskCount);
+        for (int i = 0; i < taskCount; i++) {
+            String taskId = "task-" + i;
+            String agentId = "agent-" + (i / TASKS_PER_AGENT);
+            rows[i] = new Object[]{agentId, taskId, i % 2, 1, 0, i % 2, "IN_PROGRESS", agentId};
+            taskIds.add(taskId);
+        }
+        taskRepository = new TaskRepository(new ReplayJdbcTemplate(
+                new String[]{"ALLOCATION_AGENT_ID", "TASK_ID", "PRIORITY", "SKILL_1", "SKILL_2", "SKILL_3", "STATUS", "AGENT_ID"},
+                new int[]{Types.VARCHAR, Types.VARCHAR, Types.NUMERIC, Types.NUMERIC, Types.NUMERIC, Types.NUMERIC, Types.VARCHAR, Types.VARCHAR},
+                rows),
+                LookupCache.create("tasks", taskCount, new SimpleMeterRegistry()));
+    }
+
+    @Benchmark
+    public List<Task> findByTaskIds() {
+        return taskRepository.findByTaskIds(taskIds);
+    }
+
+    @Benchmark
+    public String findAgentTasksPage(Blackhole blackhole) {
+        return taskRepository.findAgentTasksPage(null, taskCount, (agentId, taskList) -> blackhole.consume(taskList));
+    }
+}
@@ -0,0 +1,162 @@
+package ffam.task.domain;
+
+import ffam.agent.data.Agent;
+import ffam.agent.data.AgentRepository;
+import ffam.agent.data.AgentSkillIndex;
+import ffam.agent.data.SkillMask;
+import ffam.benchmark.ReplayJdbcTemplate;
+import ffam.configuration.cache.LookupCache;
+import ffam.task.data.TaskAllocationDetailRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Idle agent selection for a stream of tasks, over the seeded AGENT_LOOKUP roster repeated teams times.
+ * Every task holds its agent until LOAD times the roster size later tasks have arrived. A task that finds no idle
+ * agent with the skills is counted as rejected, as a LOW priority task would be with V006.
+ * The score is the throughput of selecting and then taking and releasing the agent in the {@link AgentOccupancyEngine},
+ * which should not depend on teams. The assigned and rejected counters give the rejection rate of the strategy.
+ * SKEWED is mostly single skill tasks with a few that need two or all three skills, UNIFORM draws every skill set alike.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AssignmentStrategyBenchmark {
+    private static final double LOAD = 0.8;
+    // Power of two, the task stream repeats after this many tasks
+    private static final int STREAM_LENGTH = 4096;
+    // AGENT_NAME, SKILL_1, SKILL_2, SKILL_3 as seeded by the changelog
+    private static final Object[][] SEEDED_ROSTER = {
+            {"CaptainMarvel", 1, 1, 1},
+            {"Thor", 1, 1, 0},
+            {"IronMan", 1, 0, 1},
+            {"Hulk", 0, 1, 1},
+            {"DrStrange", 1, 0, 0},
+            {"SpiderMan", 0, 1, 0},
+            {"Vision", 0, 0, 1}};
+
+    @Param({"FIRST_IDLE", "SCARCITY_AWARE"})
+    public String strategy;
+
+    @Param({"SKEWED", "UNIFORM"})
+    public String mix;
+
+    @Param({"1", "100"})
+    public int teams;
+
+    private AgentOccupancyEngine agentOccupancyEngine;
+    private AssignmentStrategy assignmentStrategy;
+    private int[] requiredMasks;
+    private List<String> taskId;
+    private ZonedDateTime now;
+    // Agent of each task still in progress, freed when its slot comes round again
+    private String[] inProgress;
+    private int slot;
+    private int position;
+
+    @Setup
+    public void setUp() throws SQLException {
+        Object[][] rows = new Object[SEEDED_ROSTER.length * teams][];
+        for (int team = 0; team < teams; team++) {
+            for (int i = 0; i < SEEDED_ROSTER.length; i++) {
+                Object[] seeded = SEEDED_ROSTER[i];
+                rows[team * SEEDED_ROSTER.length + i] = new Object[]{"agent-" + team + "-" + i, seeded[0], seeded[1], seeded[2], seeded[3]};
+            }
+        }
+        AgentSkillIndex agentSkillIndex = new AgentSkillIndex(new AgentRepository(new ReplayJdbcTemplate(
+                new String[]{"AGENT_ID", "AGENT_NAME", "SKILL_1", "SKILL_2", "SKILL_3"},
+                new int[]{Types.VARCHAR, Types.VARCHAR, Types.NUMERIC, Types.NUMERIC, Types.NUMERIC},
+                rows)), event -> { });
+        agentSkillIndex.load();
+        // No agent is busy to begin with
+        agentOccupancyEngine = new AgentOccupancyEngine(new TaskAllocationDetailRepository(new ReplayJdbcTemplate(
+                new String[]{"AGENT_ID", "TASK_PRIORITY", "DATE_CREATED", "VERSION", "TASK_ID"},
+                new int[]{Types.VARCHAR, Types.NUMERIC, Types.TIMESTAMP, Types.NUMERIC, Types.VARCHAR},
+                new Object[0][]),
+                LookupCache.create("taskAllocations", 1, new SimpleMeterRegistry())),
+                agentSkillIndex);
+        agentOccupancyEngine.rebuild();
+        assignmentStrategy = "SCARCITY_AWARE".equals(strategy)
+                ? new ScarcityAwareAssignmentStrategy(agentOccupancyEngine)
+                : new FirstIdleAssignmentStrategy(agentOccupancyEngine);
+        taskId = Collections.singletonList("task");
+        now = ZonedDateTime.now();
+
+        Random random = new Random(42);
+        requiredMasks = new int[STREAM_LENGTH];
+        for (int i = 0; i < STREAM_LENGTH; i++) {
+            requiredMasks[i] = "SKEWED".equals(mix) ? skewed(random) : 1 + random.nextInt(SkillMask.ALL);
+        }
+        inProgress = new String[Math.max(1, (int) (LOAD * rows.length))];
+    }
+
+    @Benchmark
+    public Optional<Agent> select(Outcomes outcomes) {
+        if (inProgress[slot] != null) {
+            agentOccupancyEngine.release(inProgress[slot], 0);
+            inProgress[slot] = null;
+        }
+        Optional<Agent> agent = assignmentStrategy.select(requiredMasks[position]);
+        if (agent.isPresent()) {
+            agentOccupancyEngine.update(new TaskAllocationDetail(agent.get().getAgentId(), taskId, TaskPriority.LOW, now, 0));
+            inProgress[slot] = agent.get().getAgentId();
+            outcomes.assigned++;
+        } else {
+            outcomes.rejected++;
+        }
+        slot = slot + 1 == inProgress.length ? 0 : slot + 1;
+        position = (position + 1) & (STREAM_LENGTH - 1);
+        return agent;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Outcomes {
+        public long assigned;
+        public long rejected;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            assigned = 0;
+            rejected = 0;
+        }
+    }
+
+    //region private
+    // 80% need one skill, 15% two and 5% all three
+    private static int skewed(Random random) {
+        int draw = random.nextInt(100);
+        if (draw < 80) {
+            return 1 << random.nextInt(3);
+        }
+        if (draw < 95) {
+            return SkillMask.ALL & ~(1 << random.nextInt(3));
+        }
+        return SkillMask.ALL;
+    }
+    //endregion
+}
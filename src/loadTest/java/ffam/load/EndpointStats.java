@@ -0,0 +1,57 @@
+package ffam.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and outcomes of one endpoint. An outcome is the HTTP status, followed by the error code for errors
+ * (e.g. "422 V006"), so busy and no-skill rejections are counted apart from each other and from failures.
+ */
+public class EndpointStats {
+    private final String endpoint;
+    private final Histogram latencies = new ConcurrentHistogram(TimeUnit.SECONDS.toMicros(60), 3);
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+    public EndpointStats(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    // Latency counts from when the request was due, not from when a client got round to sending it
+    public void record(long latencyNanos, String outcome) {
+        latencies.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), latencies.getHighestTrackableValue()));
+        outcomes.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+    }
+
+    // A request that could not be sent, e.g. a completion with no created task left to complete
+    public void skip(String reason) {
+        outcomes.computeIfAbsent(reason, key -> new LongAdder()).increment();
+    }
+
+    public long count() {
+        return latencies.getTotalCount();
+    }
+
+    public double percentileMillis(double percentile) {
+        return latencies.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    public double maxMillis() {
+        return latencies.getMaxValue() / 1000.0;
+    }
+
+    public Map<String, Long> outcomes() {
+        Map<String, Long> results = new TreeMap<>();
+        outcomes.forEach((outcome, count) -> results.put(outcome, count.sum()));
+        return results;
+    }
+}
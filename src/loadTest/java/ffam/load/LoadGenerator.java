@@ -0,0 +1,233 @@
+package ffam.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPatch;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends the traffic of a {@link LoadProfile}. Every endpoint runs on its own fixed schedule (open loop), and a request
+ * that has to wait for a free client is timed from when it was due. A slow service therefore shows up as high
+ * latency, instead of as fewer requests sent at a comfortable pace.
+ */
+@Slf4j
+public class LoadGenerator {
+    static final String CREATE = "POST /task";
+    static final String COMPLETE = "PATCH /task";
+    static final String READ = "GET /agent";
+
+    private static final int RECENT_AGENTS = 1024;
+
+    private final LoadProfile loadProfile;
+    private final String baseUrl;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, EndpointStats> endpointStats = new HashMap<>();
+    // Created tasks waiting for their PATCH /task. Completions run at completionRate times the create rate, oldest first
+    private final Queue<String> createdTaskIds = new ConcurrentLinkedQueue<>();
+    // Agents recently given a task, for GET /agent?agentId=
+    private final AtomicReferenceArray<String> recentAgentIds = new AtomicReferenceArray<>(RECENT_AGENTS);
+    private final AtomicLong createdCount = new AtomicLong();
+    private final CloseableHttpClient httpClient;
+
+    public LoadGenerator(LoadProfile loadProfile, String baseUrl) {
+        this.loadProfile = loadProfile;
+        this.baseUrl = baseUrl;
+        // One pooled connection per client, all to the same host
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(loadProfile.getClients());
+        connectionManager.setDefaultMaxPerRoute(loadProfile.getClients());
+        this.httpClient = HttpClients.custom().setConnectionManager(connectionManager).build();
+        for (String endpoint : Arrays.asList(CREATE, COMPLETE, READ)) {
+            endpointStats.put(endpoint, new EndpointStats(endpoint));
+        }
+    }
+
+    // Runs the warmup and the measured period, and returns the stats of the measured period
+    public List<EndpointStats> run() throws InterruptedException {
+        ExecutorService clients = new ThreadPoolExecutor(
+                loadProfile.getClients(), loadProfile.getClients(),
+                0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>());
+
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(loadProfile.getWarmupSeconds());
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(loadProfile.getDurationSeconds());
+        List<Thread> schedules = Arrays.asList(
+                schedule(CREATE, loadProfile.getCreateRate(), start, end, measureFrom, clients, this::create),
+                schedule(COMPLETE, loadProfile.getCreateRate() * loadProfile.getCompletionRate(), start, end, measureFrom, clients, this::complete),
+                schedule(READ, loadProfile.getReadRate(), start, end, measureFrom, clients, this::read));
+        log.info("Sending load to {} : warmup {}s, then measuring {}s", baseUrl, loadProfile.getWarmupSeconds(), loadProfile.getDurationSeconds());
+        for (Thread schedule : schedules) {
+            schedule.join();
+        }
+        clients.shutdown();
+        if (!clients.awaitTermination(1, TimeUnit.MINUTES)) {
+            log.warn("Requests still in flight after one minute, they are left out of the results");
+            clients.shutdownNow();
+        }
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            log.warn("Unable to close the http client", e);
+        }
+        return Arrays.asList(endpointStats.get(CREATE), endpointStats.get(COMPLETE), endpointStats.get(READ));
+    }
+
+    //region private
+    private interface Call {
+        // Sends one request and returns its outcome, or null when there was nothing to send
+        String send() throws IOException;
+    }
+
+    private Thread schedule(String endpoint,
+                            double rate,
+                            long start,
+                            long end,
+                            long measureFrom,
+                            ExecutorService clients,
+                            Call call) {
+        EndpointStats stats = endpointStats.get(endpoint);
+        Thread thread = new Thread(() -> {
+            if (rate <= 0) {
+                return;
+            }
+            double intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+            for (long i = 0; ; i++) {
+                long due = start + (long) (i * intervalNanos);
+                if (due >= end) {
+                    return;
+                }
+                LockSupport.parkNanos(due - System.nanoTime());
+                clients.execute(() -> {
+                    String outcome;
+                    try {
+                        outcome = call.send();
+                    } catch (IOException e) {
+                        outcome = e.getClass().getSimpleName();
+                    }
+                    if (due < measureFrom) {
+                        return;
+                    }
+                    if (outcome == null) {
+                        stats.skip("skipped, nothing to complete");
+                    } else {
+                        stats.record(System.nanoTime() - due, outcome);
+                    }
+                });
+            }
+        }, "load-" + endpoint);
+        thread.start();
+        return thread;
+    }
+
+    private String create() throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double[] skillRatios = loadProfile.getSkillRatios();
+        boolean[] skills = new boolean[3];
+        // A task needs at least one skill, draw again until it has one
+        while (!(skills[0] || skills[1] || skills[2])) {
+            for (int i = 0; i < skills.length; i++) {
+                skills[i] = random.nextDouble() < skillRatios[i];
+            }
+        }
+        Map<String, Object> taskRequest = new HashMap<>();
+        taskRequest.put("taskPriority", random.nextDouble() < loadProfile.getHighPriorityRatio() ? "HIGH" : "LOW");
+        taskRequest.put("skill1", skills[0]);
+        taskRequest.put("skill2", skills[1]);
+        taskRequest.put("skill3", skills[2]);
+
+        HttpPost httpPost = new HttpPost(baseUrl + "/task");
+        httpPost.setEntity(new ByteArrayEntity(objectMapper.writeValueAsBytes(taskRequest), ContentType.APPLICATION_JSON));
+        Response response = send(httpPost);
+        if (response.isSuccess()) {
+            JsonNode taskResponse = objectMapper.readTree(response.body);
+            createdTaskIds.add(taskResponse.path("taskId").asText());
+            recentAgentIds.set((int) (createdCount.getAndIncrement() % RECENT_AGENTS), taskResponse.path("agentId").asText());
+        }
+        return response.outcome();
+    }
+
+    private String complete() throws IOException {
+        String taskId = createdTaskIds.poll();
+        if (taskId == null) {
+            return null;
+        }
+        return send(new HttpPatch(baseUrl + "/task?taskId=" + URLEncoder.encode(taskId, "UTF-8"))).outcome();
+    }
+
+    private String read() throws IOException {
+        long created = createdCount.get();
+        if (created == 0) {
+            return send(new HttpGet(baseUrl + "/agent?limit=100")).outcome();
+        }
+        int index = ThreadLocalRandom.current().nextInt((int) Math.min(created, RECENT_AGENTS));
+        return send(new HttpGet(baseUrl + "/agent?agentId=" + URLEncoder.encode(recentAgentIds.get(index), "UTF-8"))).outcome();
+    }
+
+    private Response send(HttpRequestBase request) throws IOException {
+        request.setHeader("Accept", "application/json");
+        try (CloseableHttpResponse httpResponse = httpClient.execute(request)) {
+            // Reading the body to the end hands the connection back to the pool for the next request
+            byte[] body = httpResponse.getEntity() == null ? new byte[0] : EntityUtils.toByteArray(httpResponse.getEntity());
+            return new Response(httpResponse.getStatusLine().getStatusCode(), body);
+        }
+    }
+
+    private String errorCode(byte[] body) {
+        try {
+            return objectMapper.readTree(body).path("errorCode").asText("");
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    private class Response {
+        private final int status;
+        private final byte[] body;
+
+        private Response(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        private boolean isSuccess() {
+            return status >= 200 && status < 300;
+        }
+
+        private String outcome() {
+            if (isSuccess()) {
+                return String.valueOf(status);
+            }
+            String errorCode = errorCode(body);
+            return errorCode.isEmpty() ? String.valueOf(status) : status + " " + errorCode;
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,51 @@
+package ffam.load;
+
+import lombok.Value;
+
+import java.util.Arrays;
+
+/**
+ * What traffic to send and for how long. Read from -Dload.* system properties, see ReadMe for the full list.
+ * Each endpoint gets its own open-loop rate: requests are sent on schedule whether or not earlier ones have answered.
+ */
+@Value
+public class LoadProfile {
+    // Service to drive. When empty, the service is booted in this JVM against the configured database
+    private String baseUrl;
+    private int durationSeconds;
+    private int warmupSeconds;
+    // Requests in flight at most, the rest wait their turn and that wait counts towards their latency
+    private int clients;
+    // POST /task per second
+    private double createRate;
+    // Share of created tasks that are completed with PATCH /task
+    private double completionRate;
+    // GET /agent per second
+    private double readRate;
+    // Share of created tasks that are HIGH priority
+    private double highPriorityRatio;
+    // Chance that a created task asks for SKILL_1, SKILL_2 and SKILL_3
+    private double[] skillRatios;
+
+    public static LoadProfile fromSystemProperties() {
+        return new LoadProfile(
+                System.getProperty("load.baseUrl", ""),
+                Integer.getInteger("load.durationSeconds", 60),
+                Integer.getInteger("load.warmupSeconds", 10),
+                Integer.getInteger("load.clients", 500),
+                doubleProperty("load.createRate", 200),
+                doubleProperty("load.completionRate", 0.8),
+                doubleProperty("load.readRate", 50),
+                doubleProperty("load.highPriorityRatio", 0.2),
+                Arrays.stream(System.getProperty("load.skillRatios", "0.6,0.3,0.1").split(","))
+                        .mapToDouble(Double::parseDouble)
+                        .toArray());
+    }
+
+    //region private
+    private static double doubleProperty(String name, double defaultValue) {
+        String value = System.getProperty(name);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+    //endregion
+}
@@ -0,0 +1,110 @@
+package ffam.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import ffam.Application;
+import ffam.task.data.TaskAllocationDetailRepository;
+import ffam.task.data.TaskRepository;
+import ffam.task.domain.AgentOccupancyEngine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Entry point of ./gradlew loadTest. Boots the service on a random port against the configured database,
+ * unless load.baseUrl points at one that is already running, then drives a {@link LoadProfile} at it.
+ * Prints throughput, latency percentiles and outcomes per endpoint, and writes them as JSON to load.resultsFile.
+ */
+@Slf4j
+public class LoadTestRunner {
+    private static final double[] PERCENTILES = {50, 99, 99.9};
+
+    public static void main(String[] args) throws Exception {
+        LoadProfile loadProfile = LoadProfile.fromSystemProperties();
+        ConfigurableApplicationContext context = null;
+        String baseUrl = loadProfile.getBaseUrl();
+        if (baseUrl.isEmpty()) {
+            context = boot();
+            baseUrl = "http://localhost:" + ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+        }
+        try {
+            List<EndpointStats> results = new LoadGenerator(loadProfile, baseUrl).run();
+            System.out.println(format(results, loadProfile.getDurationSeconds()));
+            write(results, loadProfile, new File(System.getProperty("load.resultsFile", "build/reports/loadTest/results.json")));
+        } finally {
+            if (context != null) {
+                context.close();
+            }
+        }
+    }
+
+    //region private
+    // Same start-up as Application, on a free port. Tasks of earlier runs are removed so every run starts with idle agents,
+    // as the feature tests do
+    private static ConfigurableApplicationContext boot() {
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+                .properties("server.port=0")
+                .run();
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        jdbcTemplate.execute("DELETE from TASK_ALLOCATION");
+        jdbcTemplate.execute("DELETE from TASK");
+        context.getBean(TaskRepository.class).clearCache();
+        context.getBean(TaskAllocationDetailRepository.class).clearCache();
+        context.getBean(AgentOccupancyEngine.class).rebuild();
+        return context;
+    }
+
+    private static String format(List<EndpointStats> results, int durationSeconds) {
+        StringBuilder stringBuilder = new StringBuilder(String.format("%n%-12s %10s %10s %10s %10s %10s  %s%n",
+                "endpoint", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "outcomes"));
+        for (EndpointStats stats : results) {
+            stringBuilder.append(String.format("%-12s %10.1f %10.2f %10.2f %10.2f %10.2f  %s%n",
+                    stats.getEndpoint(),
+                    (double) stats.count() / durationSeconds,
+                    stats.percentileMillis(PERCENTILES[0]),
+                    stats.percentileMillis(PERCENTILES[1]),
+                    stats.percentileMillis(PERCENTILES[2]),
+                    stats.maxMillis(),
+                    stats.outcomes()));
+        }
+        return stringBuilder.toString();
+    }
+
+    private static void write(List<EndpointStats> results, LoadProfile loadProfile, File resultsFile) throws IOException {
+        List<Map<String, Object>> endpoints = new ArrayList<>();
+        for (EndpointStats stats : results) {
+            Map<String, Object> latencies = new LinkedHashMap<>();
+            for (double percentile : PERCENTILES) {
+                latencies.put("p" + String.valueOf(percentile).replace(".0", ""), stats.percentileMillis(percentile));
+            }
+            latencies.put("max", stats.maxMillis());
+
+            Map<String, Object> endpoint = new LinkedHashMap<>();
+            endpoint.put("endpoint", stats.getEndpoint());
+            endpoint.put("requests", stats.count());
+            endpoint.put("throughput", (double) stats.count() / loadProfile.getDurationSeconds());
+            endpoint.put("latencyMillis", latencies);
+            endpoint.put("outcomes", stats.outcomes());
+            endpoints.add(endpoint);
+        }
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("profile", loadProfile);
+        report.put("endpoints", endpoints);
+
+        resultsFile.getAbsoluteFile().getParentFile().mkdirs();
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(resultsFile, report);
+        log.info("Results written to {}", resultsFile.getAbsolutePath());
+    }
+    //endregion
+}
@@ -1,5 +1,8 @@
 package ffam.agent.api;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ffam.general.UseCaseExecutor;
 import ffam.task.api.TaskRequestBusinessErrorResponse;
 import ffam.task.api.TaskRequestServerErrorResponse;
 import ffam.task.api.TaskRequestValidationErrorResponse;
@@ -21,22 +24,38 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @Slf4j
 public class AgentsController {
 
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 1000;
+    static final int STREAM_PAGE_SIZE = 500;
+
     private final TaskAllocationDetailRepository taskAllocationDetailRepository;
     private final TaskRepository taskRepository;
+    private final ObjectMapper objectMapper;
+    private final UseCaseExecutor useCaseExecutor;
 
     @Autowired
-    public AgentsController(TaskAllocationDetailRepository taskAllocationDetailRepository, TaskRepository taskRepository) {
+    public AgentsController(TaskAllocationDetailRepository taskAllocationDetailRepository, TaskRepository taskRepository, ObjectMapper objectMapper, UseCaseExecutor useCaseExecutor) {
         this.taskAllocationDetailRepository = taskAllocationDetailRepository;
         this.taskRepository = taskRepository;
+        this.objectMapper = objectMapper;
+        this.useCaseExecutor = useCaseExecutor;
     }
 
     @ApiOperation(
@@ -44,7 +63,8 @@ public class AgentsController {
             code = 200,
             response = TaskResponse.class,
             responseContainer = "List",
-            notes = "200 list has been successfully returned",
+            notes = "200 list has been successfully returned. Pass limit and cursor to page through the agents, " +
+                    "the cursor of the next page is in the " + NEXT_CURSOR_HEADER + " header",
             produces = MediaType.APPLICATION_JSON_VALUE)
     @ApiResponses({
             // validation errors
@@ -64,8 +84,35 @@ public class AgentsController {
             method = RequestMethod.GET,
             value = "/agent",
             produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<?> getAgentList(
-            @RequestParam(required = false) String agentId) {
+    public DeferredResult<ResponseEntity<?>> getAgentList(
+            @RequestParam(required = false) String agentId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit) {
+        return useCaseExecutor.submit(() -> agentList(agentId, cursor, limit));
+    }
+
+    // Registered for stream=true without an agentId only. Spring picks the streaming handler from the declared return type.
+    // A single agent is small, so with an agentId the request goes to getAgentList
+    @ApiOperation(
+            value = "Stream List of Agents and Tasks ",
+            code = 200,
+            response = AgentsResponse.class,
+            responseContainer = "List",
+            notes = "200 every agent is written page by page, in agent id order. Ignored when agentId is given",
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    @RequestMapping(
+            method = RequestMethod.GET,
+            value = "/agent",
+            params = {"stream=true", "!agentId"},
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAgentList() {
+        //Write every agent page by page, without holding the list
+        log.info("Processing GET /agent for all agents, streaming");
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(streamAgents());
+    }
+
+    //region private
+    private ResponseEntity<?> agentList(String agentId, String cursor, Integer limit) {
         if (StringUtils.isNotEmpty(agentId)) {
             //If Agent Id is Present
             //Send the List with Single Agent Details
@@ -79,12 +126,14 @@ public class AgentsController {
                 return ResponseEntity.unprocessableEntity().body(new TaskRequestBusinessErrorResponse("V201", "No Tasks Available for this agent"));
             }
             val taskAllocationDetail = taskAllocationDetailOptional.get();
-            List<Task> taskList = new ArrayList<>();
-            for (String taskId : taskAllocationDetail.getTaskId()) {
-                val task = taskRepository.findByTaskId(taskId);
-                task.ifPresent(taskList::add);
-            }
-            return ResponseEntity.ok().body(Arrays.asList(new AgentsResponse(agentId, taskList)));
+            val tasks = findTasks(Collections.singletonList(taskAllocationDetail));
+            return ResponseEntity.ok().body(Arrays.asList(new AgentsResponse(agentId, taskList(taskAllocationDetail, tasks))));
+        }
+
+        if (cursor != null || limit != null) {
+            //Send one page of agents, keyed by agent id
+            log.info("Processing GET /agent page after [{}]", cursor);
+            return getAgentPage(cursor, limit == null ? DEFAULT_PAGE_SIZE : limit);
         }
 
         //If not Present
@@ -95,19 +144,94 @@ public class AgentsController {
             return ResponseEntity.unprocessableEntity().body(new TaskRequestBusinessErrorResponse("V202", "No Tasks Available for any agent"));
         }
 
+        // Load the tasks of every agent at once, then hand them out per agent
+        val tasks = findTasks(taskAllocationDetailList);
         List<AgentsResponse> agentsResponseList = new ArrayList<>();
         for (TaskAllocationDetail taskAllocationDetail : taskAllocationDetailList) {
             if (taskAllocationDetail.getTaskId() != null
                     && !taskAllocationDetail.getTaskId().isEmpty()) {
-                List<Task> taskList = new ArrayList<>();
-                for (String taskId : taskAllocationDetail.getTaskId()) {
-                    val task = taskRepository.findByTaskId(taskId);
-                    task.ifPresent(taskList::add);
-                }
                 agentsResponseList.add(new AgentsResponse(taskAllocationDetail.getAgentId(),
-                        taskList));
+                        taskList(taskAllocationDetail, tasks)));
             }
         }
         return ResponseEntity.ok().body(agentsResponseList);
     }
+
+    private ResponseEntity<?> getAgentPage(String cursor, int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().body(new TaskRequestValidationErrorResponse("V203", "Limit must be between 1 and " + MAX_PAGE_SIZE));
+        }
+        String afterAgentId = null;
+        if (cursor != null) {
+            try {
+                afterAgentId = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(new TaskRequestValidationErrorResponse("V204", "Invalid Cursor"));
+            }
+        }
+
+        List<AgentsResponse> agentsResponseList = new ArrayList<>(limit);
+        val nextAfterAgentId = taskRepository.findAgentTasksPage(afterAgentId, limit,
+                (pageAgentId, taskList) -> agentsResponseList.add(new AgentsResponse(pageAgentId, taskList)));
+        if (agentsResponseList.isEmpty() && afterAgentId == null && nextAfterAgentId == null) {
+            return ResponseEntity.unprocessableEntity().body(new TaskRequestBusinessErrorResponse("V202", "No Tasks Available for any agent"));
+        }
+
+        val response = ResponseEntity.ok();
+        if (nextAfterAgentId != null) {
+            // There may be more. The next page starts after the last allocation this one read, listed or not
+            response.header(NEXT_CURSOR_HEADER, Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(nextAfterAgentId.getBytes(StandardCharsets.UTF_8)));
+        }
+        return response.body(agentsResponseList);
+    }
+
+    // A JSON array of every agent, same shape as the list response but in agent id order. Empty when no agent has tasks.
+    // Each page is read through the use case executor and written after its connection went back to the pool,
+    // so a slow client never holds a connection
+    private StreamingResponseBody streamAgents() {
+        return outputStream -> {
+            try (JsonGenerator jsonGenerator = objectMapper.getFactory().createGenerator(outputStream)) {
+                jsonGenerator.writeStartArray();
+                String afterAgentId = null;
+                do {
+                    List<AgentsResponse> agentsResponseList = new ArrayList<>(STREAM_PAGE_SIZE);
+                    val pageAfterAgentId = afterAgentId;
+                    afterAgentId = useCaseExecutor.call(() -> taskRepository.findAgentTasksPage(pageAfterAgentId, STREAM_PAGE_SIZE,
+                            (pageAgentId, taskList) -> agentsResponseList.add(new AgentsResponse(pageAgentId, taskList))));
+                    for (AgentsResponse agentsResponse : agentsResponseList) {
+                        jsonGenerator.writeObject(agentsResponse);
+                    }
+                } while (afterAgentId != null);
+                jsonGenerator.writeEndArray();
+            }
+        };
+    }
+
+    private Map<String, Task> findTasks(List<TaskAllocationDetail> taskAllocationDetailList) {
+        List<String> taskIds = new ArrayList<>();
+        for (TaskAllocationDetail taskAllocationDetail : taskAllocationDetailList) {
+            if (taskAllocationDetail.getTaskId() != null) {
+                taskIds.addAll(taskAllocationDetail.getTaskId());
+            }
+        }
+        Map<String, Task> tasks = new HashMap<>();
+        for (Task task : taskRepository.findByTaskIds(taskIds)) {
+            tasks.put(task.getTaskId(), task);
+        }
+        return tasks;
+    }
+
+    // In allocation order. Tasks that no longer exist are left out
+    private static List<Task> taskList(TaskAllocationDetail taskAllocationDetail, Map<String, Task> tasks) {
+        List<Task> taskList = new ArrayList<>();
+        for (String taskId : taskAllocationDetail.getTaskId()) {
+            val task = tasks.get(taskId);
+            if (task != null) {
+                taskList.add(task);
+            }
+        }
+        return taskList;
+    }
+    //endregion
 }
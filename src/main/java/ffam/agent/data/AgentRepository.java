@@ -12,6 +12,14 @@ import java.util.List;
 @Slf4j
 @Repository
 public class AgentRepository {
+    private static final String SELECT_AGENT =
+            "SELECT AGENT_ID, AGENT_NAME, SKILL_1, SKILL_2, SKILL_3 " +
+                    "FROM AGENT_LOOKUP ";
+    // AgentSkillIndex keeps this order as the roster order and compares reloads with the last one
+    private static final String FIND_ALL =
+            SELECT_AGENT +
+                    "ORDER BY AGENT_ID";
+
     private final JdbcTemplate jdbcTemplate;
 
     @Autowired
@@ -19,8 +27,11 @@ public class AgentRepository {
         this.jdbcTemplate = jdbcTemplate;
     }
 
-    public List<Agent> findBySkillSet(boolean skill1, boolean skill2, boolean skill3) {
-        List<Agent> results = jdbcTemplate.query(buildSql(skill1, skill2, skill3), agentRowMapper, new Object[]{});
+    public List<Agent> findAll() {
+        List<Agent> results = jdbcTemplate.query(
+                FIND_ALL,
+                new Object[]{},
+                agentRowMapper);
 
         return results;
     }
@@ -42,28 +53,5 @@ public class AgentRepository {
                         skill3
                 );
             };
-
-    String buildSql(boolean skill1, boolean skill2, boolean skill3) {
-        StringBuilder stringBuilder = new StringBuilder().append("SELECT AGENT_ID, AGENT_NAME, SKILL_1, SKILL_2, SKILL_3 " +
-                "FROM AGENT_LOOKUP " +
-                "WHERE ");
-
-        if (skill1) {
-            stringBuilder.append(" SKILL_1 = 1 ");
-        }
-        if (skill2) {
-            if (stringBuilder.toString().endsWith("1 ")) {
-                stringBuilder.append(" AND ");
-            }
-            stringBuilder.append(" SKILL_2 = 1 ");
-        }
-        if (skill3) {
-            if (stringBuilder.toString().endsWith("1 ")) {
-                stringBuilder.append(" AND ");
-            }
-            stringBuilder.append(" SKILL_3 = 1 ");
-        }
-        return stringBuilder.toString();
-    }
     //endregion
 }
@@ -0,0 +1,15 @@
+package ffam.agent.data;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published by {@link AgentSkillIndex} after it picked up a change to AGENT_LOOKUP, so views keyed by skill mask can
+ * be rebuilt.
+ */
+public class AgentRosterChangedEvent extends ApplicationEvent {
+    private static final long serialVersionUID = 1L;
+
+    public AgentRosterChangedEvent(AgentSkillIndex source) {
+        super(source);
+    }
+}
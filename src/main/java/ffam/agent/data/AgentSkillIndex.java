@@ -0,0 +1,104 @@
+package ffam.agent.data;
+
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+
+/**
+ * In-memory view of AGENT_LOOKUP keyed by skill mask.
+ * For every combination of required skills, the list of eligible agents is precomputed once and published as an
+ * immutable snapshot, so lookups are lock-free and never go to the database. The snapshot is swapped as a whole
+ * when the roster changes, and an {@link AgentRosterChangedEvent} is published.
+ */
+@Slf4j
+@Component
+public class AgentSkillIndex {
+    private final AgentRepository agentRepository;
+    private final ApplicationEventPublisher applicationEventPublisher;
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyList());
+
+    @Autowired
+    public AgentSkillIndex(AgentRepository agentRepository, ApplicationEventPublisher applicationEventPublisher) {
+        this.agentRepository = agentRepository;
+        this.applicationEventPublisher = applicationEventPublisher;
+    }
+
+    @PostConstruct
+    public void load() {
+        rebuild(agentRepository.findAll());
+    }
+
+    // AGENT_LOOKUP almost never changes. Re-read it periodically and only rebuild if the roster is different
+    @Scheduled(initialDelayString = "${ffam.agent-index.refresh-interval-ms:60000}",
+            fixedDelayString = "${ffam.agent-index.refresh-interval-ms:60000}")
+    public void refresh() {
+        val agents = agentRepository.findAll();
+        if (!agents.equals(snapshot.agents)) {
+            rebuild(agents);
+            applicationEventPublisher.publishEvent(new AgentRosterChangedEvent(this));
+        }
+    }
+
+    public List<Agent> findBySkillSet(boolean skill1, boolean skill2, boolean skill3) {
+        return findBySkillMask(SkillMask.of(skill1, skill2, skill3));
+    }
+
+    public List<Agent> findBySkillMask(int requiredMask) {
+        return snapshot.eligibleAgents.get(requiredMask);
+    }
+
+    public List<Agent> findAll() {
+        return snapshot.agents;
+    }
+
+    // Skill mask of the agent, empty if the agent is not on the roster
+    public OptionalInt findSkillMask(String agentId) {
+        Integer skillMask = snapshot.skillMasks.get(agentId);
+        return skillMask == null ? OptionalInt.empty() : OptionalInt.of(skillMask);
+    }
+
+    //region private-default
+    void rebuild(List<Agent> agents) {
+        snapshot = new Snapshot(agents);
+        log.info("Agent skill index rebuilt with {} agents", agents.size());
+    }
+
+    private static class Snapshot {
+        private final List<Agent> agents;
+        private final List<List<Agent>> eligibleAgents;
+        private final Map<String, Integer> skillMasks;
+
+        private Snapshot(List<Agent> agents) {
+            this.agents = Collections.unmodifiableList(new ArrayList<>(agents));
+            Map<String, Integer> skillMasks = new HashMap<>();
+            for (Agent agent : this.agents) {
+                skillMasks.put(agent.getAgentId(), SkillMask.of(agent));
+            }
+            this.skillMasks = Collections.unmodifiableMap(skillMasks);
+            List<List<Agent>> eligibleAgents = new ArrayList<>(SkillMask.COMBINATIONS);
+            for (int requiredMask = 0; requiredMask < SkillMask.COMBINATIONS; requiredMask++) {
+                List<Agent> eligible = new ArrayList<>();
+                for (Agent agent : this.agents) {
+                    // Keep the roster order so the first eligible agent is the one with the lowest AGENT_ID
+                    if (SkillMask.covers(SkillMask.of(agent), requiredMask)) {
+                        eligible.add(agent);
+                    }
+                }
+                eligibleAgents.add(Collections.unmodifiableList(eligible));
+            }
+            this.eligibleAgents = Collections.unmodifiableList(eligibleAgents);
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,26 @@
+package ffam.agent.data;
+
+/**
+ * Encodes the SKILL_1..SKILL_3 flags as a bitmask. Bit 0 is Skill 1, bit 1 is Skill 2 and bit 2 is Skill 3.
+ */
+public final class SkillMask {
+    public static final int NONE = 0;
+    public static final int ALL = 0b111;
+    public static final int COMBINATIONS = ALL + 1;
+
+    private SkillMask() {
+    }
+
+    public static int of(boolean skill1, boolean skill2, boolean skill3) {
+        return (skill1 ? 0b001 : 0) | (skill2 ? 0b010 : 0) | (skill3 ? 0b100 : 0);
+    }
+
+    public static int of(Agent agent) {
+        return of(agent.isSkill1(), agent.isSkill2(), agent.isSkill3());
+    }
+
+    // The agent must possess all the skills required by the task
+    public static boolean covers(int agentMask, int requiredMask) {
+        return (agentMask & requiredMask) == requiredMask;
+    }
+}
@@ -0,0 +1,30 @@
+package ffam.configuration;
+
+import ffam.configuration.cache.LookupCache;
+import ffam.task.domain.Task;
+import ffam.task.domain.TaskAllocationDetail;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Optional;
+
+// Lookups by id that are repeated far more often than the rows change. Misses are cached too, as Optional.empty()
+@Configuration
+public class CacheConfiguration {
+
+    @Bean
+    public LookupCache<String, Optional<Task>> taskCache(
+            @Value("${ffam.cache.tasks.maximum-size:10000}") long maximumSize,
+            MeterRegistry meterRegistry) {
+        return LookupCache.create("tasks", maximumSize, meterRegistry);
+    }
+
+    @Bean
+    public LookupCache<String, Optional<TaskAllocationDetail>> taskAllocationCache(
+            @Value("${ffam.cache.task-allocations.maximum-size:10000}") long maximumSize,
+            MeterRegistry meterRegistry) {
+        return LookupCache.create("taskAllocations", maximumSize, meterRegistry);
+    }
+}
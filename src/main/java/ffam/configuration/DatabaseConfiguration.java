@@ -1,5 +1,10 @@
 package ffam.configuration;
 
+import ffam.configuration.pool.ConnectionPoolMetrics;
+import ffam.configuration.pool.MeteredDataSource;
+import ffam.configuration.pool.MeteredStatementCache;
+import ffam.configuration.pool.TimedValidator;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.tomcat.jdbc.pool.DataSource;
 import org.springframework.beans.factory.annotation.Value;
@@ -23,9 +28,11 @@ public class DatabaseConfiguration {
             @Value("${spring.datasource.db-connection-timeout-seconds}") int connectionTimeout,
             @Value("${spring.datasource.initial_pool_size}") int initialPoolSize,
             @Value("${spring.datasource.maxIdle}") int maxIdle,
-            @Value("${spring.datasource.maxActive}") int maxActive
+            @Value("${spring.datasource.maxActive}") int maxActive,
+            @Value("${spring.datasource.statement-cache-size:32}") int statementCacheSize,
+            MeterRegistry meterRegistry
     ) throws SQLException, InterruptedException {
-        return new org.springframework.jdbc.core.JdbcTemplate(dataSource(url, connectionTimeout, initialPoolSize, maxIdle, maxActive));
+        return new org.springframework.jdbc.core.JdbcTemplate(dataSource(url, connectionTimeout, initialPoolSize, maxIdle, maxActive, statementCacheSize, meterRegistry));
     }
 
     @Bean
@@ -35,10 +42,13 @@ public class DatabaseConfiguration {
             @Value("${spring.datasource.db-connection-timeout-seconds}") int connectionTimeout,
             @Value("${spring.datasource.initial_pool_size}") int initialPoolSize,
             @Value("${spring.datasource.maxIdle}") int maxIdle,
-            @Value("${spring.datasource.maxActive}") int maxActive
+            @Value("${spring.datasource.maxActive}") int maxActive,
+            @Value("${spring.datasource.statement-cache-size:32}") int statementCacheSize,
+            MeterRegistry meterRegistry
     ) throws SQLException, InterruptedException {
 
         DataSource dataSource = new DataSource();
+        ConnectionPoolMetrics connectionPoolMetrics = new ConnectionPoolMetrics(meterRegistry, dataSource);
         dataSource.setUrl(url);
         dataSource.setDriverClassName("oracle.jdbc.OracleDriver");
         dataSource.setInitialSize(initialPoolSize);
@@ -50,9 +60,14 @@ public class DatabaseConfiguration {
         dataSource.setInitSQL("SELECT 1 FROM DUAL");
         dataSource.setTestOnConnect(true);
         dataSource.setValidationQuery("SELECT 1 FROM DUAL");
+        // Runs the validation query itself so its round trip shows up as ffam.pool.validation
+        dataSource.setValidator(new TimedValidator(dataSource.getValidationQuery(), connectionPoolMetrics));
         dataSource.setTestOnBorrow(true);
         dataSource.setLogAbandoned(true);
         dataSource.setLogValidationErrors(true);
+        // Keeps each connection's prepared statements open for reuse. The pool's max counts statements across all connections
+        dataSource.setJdbcInterceptors(MeteredStatementCache.class.getName() +
+                "(prepared=true,callable=false,max=" + statementCacheSize * maxActive + ")");
 
         log.info(" InitSQL :"+dataSource.getInitSQL());
         log.info(" ValidationSQL :"+dataSource.getValidationQuery());
@@ -81,7 +96,7 @@ public class DatabaseConfiguration {
             }
         }
 
-        return dataSource;
+        return new MeteredDataSource(dataSource, connectionPoolMetrics, dataSource.getSuspectTimeout());
     }
 
 }
@@ -0,0 +1,21 @@
+package ffam.configuration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+@Configuration
+@EnableScheduling
+public class SchedulingConfiguration {
+
+    // The default scheduler has a single thread, an archive batch would hold up the write-behind flush behind it
+    @Bean
+    public ThreadPoolTaskScheduler taskScheduler(@Value("${ffam.scheduler.pool-size:4}") int poolSize) {
+        ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.setPoolSize(poolSize);
+        taskScheduler.setThreadNamePrefix("ffam-scheduler-");
+        return taskScheduler;
+    }
+}
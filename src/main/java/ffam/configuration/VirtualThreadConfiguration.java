@@ -0,0 +1,36 @@
+package ffam.configuration;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.coyote.AbstractProtocol;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * With ffam.threads.virtual=true, Tomcat runs every request on its own virtual thread instead of its bounded
+ * worker pool, so a request waiting on JDBC no longer holds an OS thread. Needs JDK 21 or later.
+ * Meant to run with ffam.async.enabled=false: the use cases then run on the request's virtual thread as well,
+ * and the connection pool is what bounds the work in flight.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "ffam.threads.virtual", havingValue = "true")
+public class VirtualThreadConfiguration {
+
+    // Closed with the context, Spring calls shutdown on it
+    @Bean
+    public ExecutorService requestExecutor() {
+        log.info("Serving requests on virtual threads");
+        return VirtualThreads.newVirtualThreadPerTaskExecutor();
+    }
+
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadTomcatCustomizer(ExecutorService requestExecutor) {
+        return factory -> factory.addConnectorCustomizers(connector ->
+                ((AbstractProtocol<?>) connector.getProtocolHandler()).setExecutor(requestExecutor));
+    }
+}
@@ -0,0 +1,46 @@
+package ffam.configuration;
+
+import ffam.general.CompletedResultReturnValueHandler;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.servlet.mvc.method.annotation.DeferredResultMethodReturnValueHandler;
+import org.springframework.web.servlet.mvc.method.annotation.HttpEntityMethodProcessor;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Configuration
+public class WebConfiguration {
+
+    // Handlers added through WebMvcConfigurer come after Spring's own, so this one is put in front of them instead.
+    // Spring Data REST has an adapter of its own, the controllers use the one from Spring MVC
+    @Bean
+    public SmartInitializingSingleton completedResultReturnValueHandlerInstaller(
+            @Qualifier("requestMappingHandlerAdapter") RequestMappingHandlerAdapter requestMappingHandlerAdapter) {
+        return () -> {
+            List<HandlerMethodReturnValueHandler> returnValueHandlers = requestMappingHandlerAdapter.getReturnValueHandlers();
+            HandlerMethodReturnValueHandler responseEntityHandler = find(returnValueHandlers, HttpEntityMethodProcessor.class);
+            HandlerMethodReturnValueHandler deferredResultHandler = find(returnValueHandlers, DeferredResultMethodReturnValueHandler.class);
+            List<HandlerMethodReturnValueHandler> handlers = new ArrayList<>(returnValueHandlers.size() + 1);
+            handlers.add(new CompletedResultReturnValueHandler(responseEntityHandler, deferredResultHandler));
+            handlers.addAll(returnValueHandlers);
+            requestMappingHandlerAdapter.setReturnValueHandlers(handlers);
+        };
+    }
+
+    //region private
+    private static HandlerMethodReturnValueHandler find(List<HandlerMethodReturnValueHandler> returnValueHandlers,
+                                                        Class<? extends HandlerMethodReturnValueHandler> type) {
+        for (HandlerMethodReturnValueHandler returnValueHandler : returnValueHandlers) {
+            if (type.isInstance(returnValueHandler)) {
+                return returnValueHandler;
+            }
+        }
+        throw new IllegalStateException("No " + type.getSimpleName() + " registered");
+    }
+    //endregion
+}
@@ -0,0 +1,109 @@
+package ffam.configuration.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.function.Function;
+
+/**
+ * Bounded read-through cache in front of a repository lookup. The least recently used entries are evicted past
+ * maximumSize, and hits, misses and evictions are published as the cache.* metrics tagged with the cache name.
+ * Writers invalidate the keys they change once the change is visible to other connections, that is after their
+ * transaction commits, or right away when there is none. Each key hashes to one of STRIPES stamps that every
+ * invalidation of the key bumps. A loaded value is only kept if its stamp did not move while it was loading, checked
+ * and stored under the stripe's lock, so the cache never holds a row older than the last change.
+ */
+public class LookupCache<K, V> {
+    static final int STRIPES = 64;
+
+    private final Cache<K, V> cache;
+    private final Object[] locks = new Object[STRIPES];
+    // Guarded by the lock of the same stripe
+    private final long[] stamps = new long[STRIPES];
+
+    private LookupCache(Cache<K, V> cache) {
+        this.cache = cache;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            locks[stripe] = new Object();
+        }
+    }
+
+    public static <K, V> LookupCache<K, V> create(String name, long maximumSize, MeterRegistry meterRegistry) {
+        Cache<K, V> cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+        GuavaCacheMetrics.monitor(meterRegistry, cache, name);
+        return new LookupCache<>(cache);
+    }
+
+    public V get(K key, Function<K, V> loader) {
+        V cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        int stripe = stripe(key);
+        long stampBefore;
+        synchronized (locks[stripe]) {
+            stampBefore = stamps[stripe];
+        }
+        V loaded = loader.apply(key);
+        synchronized (locks[stripe]) {
+            if (stamps[stripe] == stampBefore) {
+                cache.put(key, loaded);
+            }
+        }
+        return loaded;
+    }
+
+    public void invalidate(K key) {
+        invalidateAll(Collections.singletonList(key));
+    }
+
+    public void invalidateAll(Collection<? extends K> keys) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // Readers load the old row until the transaction commits. Nothing changes if it rolls back
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    discard(keys);
+                }
+            });
+        } else {
+            discard(keys);
+        }
+    }
+
+    // For changes made behind the repositories' back, e.g. tests clearing the tables
+    public void clear() {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            synchronized (locks[stripe]) {
+                stamps[stripe]++;
+            }
+        }
+        cache.invalidateAll();
+    }
+
+    //region private
+    private void discard(Collection<? extends K> keys) {
+        for (K key : keys) {
+            int stripe = stripe(key);
+            synchronized (locks[stripe]) {
+                stamps[stripe]++;
+                cache.invalidate(key);
+            }
+        }
+    }
+
+    private static int stripe(Object key) {
+        int hash = key.hashCode();
+        return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % STRIPES;
+    }
+    //endregion
+}
@@ -0,0 +1,48 @@
+package ffam.configuration.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every public repository method, tagged with the method and the exception it threw, if any.
+ * Includes the wait for a pooled connection, which the pool metrics break down separately.
+ */
+@Aspect
+@Component
+public class RepositoryTimer {
+    static final String REPOSITORY = "ffam.repository";
+    static final String NONE = "none";
+
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public RepositoryTimer(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Around("within(@org.springframework.stereotype.Repository *) && execution(public * *(..))")
+    public Object time(ProceedingJoinPoint joinPoint) throws Throwable {
+        long start = meterRegistry.config().clock().monotonicTime();
+        String exception = NONE;
+        try {
+            return joinPoint.proceed();
+        } catch (Throwable e) {
+            exception = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            Timer.builder(REPOSITORY)
+                    .description("Time taken by a repository method")
+                    .tag("method", joinPoint.getSignature().getDeclaringType().getSimpleName() + "." + joinPoint.getSignature().getName())
+                    .tag("exception", exception)
+                    .register(meterRegistry)
+                    .record(meterRegistry.config().clock().monotonicTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package ffam.configuration.metrics;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Times a public use case method that answers with a ResponseEntity, see {@link UseCaseTimer}.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface TimedUseCase {
+}
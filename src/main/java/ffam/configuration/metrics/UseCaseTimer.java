@@ -0,0 +1,84 @@
+package ffam.configuration.metrics;
+
+import ffam.agent.data.SkillMask;
+import ffam.task.api.ErrorResponse;
+import ffam.task.api.TaskRequest;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every {@link TimedUseCase} method, tagged with the use case, its outcome, and the priority and skill mask
+ * of the task asked for. The outcome is "success", the error code of the response (V004, V006, V101, ...) or the
+ * exception thrown, so each branch of the assignment logic gets its own timer.
+ */
+@Aspect
+@Component
+public class UseCaseTimer {
+    static final String USE_CASE = "ffam.usecase";
+    static final String SUCCESS = "success";
+    // Tag value for use cases that are not given a TaskRequest
+    static final String NONE = "none";
+
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public UseCaseTimer(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Around("execution(public * *(..)) && @annotation(ffam.configuration.metrics.TimedUseCase)")
+    public Object time(ProceedingJoinPoint joinPoint) throws Throwable {
+        long start = meterRegistry.config().clock().monotonicTime();
+        String outcome = null;
+        try {
+            Object result = joinPoint.proceed();
+            outcome = outcome(result);
+            return result;
+        } catch (Throwable e) {
+            outcome = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            TaskRequest taskRequest = taskRequest(joinPoint.getArgs());
+            Timer.builder(USE_CASE)
+                    .description("Time taken by a use case, by outcome and by the kind of task asked for")
+                    .tag("usecase", joinPoint.getSignature().getDeclaringType().getSimpleName() + "." + joinPoint.getSignature().getName())
+                    .tag("outcome", outcome)
+                    .tag("priority", taskRequest == null || taskRequest.getTaskPriority() == null ? NONE : taskRequest.getTaskPriority().name())
+                    .tag("skills", taskRequest == null ? NONE : String.valueOf(SkillMask.of(taskRequest.isSkill1(), taskRequest.isSkill2(), taskRequest.isSkill3())))
+                    .register(meterRegistry)
+                    .record(meterRegistry.config().clock().monotonicTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    //region private
+    private static String outcome(Object result) {
+        if (result instanceof ResponseEntity) {
+            ResponseEntity<?> responseEntity = (ResponseEntity<?>) result;
+            if (!responseEntity.getStatusCode().is2xxSuccessful() && responseEntity.getBody() instanceof ErrorResponse) {
+                return ((ErrorResponse) responseEntity.getBody()).getErrorCode();
+            }
+            if (!responseEntity.getStatusCode().is2xxSuccessful()) {
+                return String.valueOf(responseEntity.getStatusCodeValue());
+            }
+        }
+        return SUCCESS;
+    }
+
+    private static TaskRequest taskRequest(Object[] args) {
+        for (Object arg : args) {
+            if (arg instanceof TaskRequest) {
+                return (TaskRequest) arg;
+            }
+        }
+        return null;
+    }
+    //endregion
+}
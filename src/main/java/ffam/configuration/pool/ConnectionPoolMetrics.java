@@ -0,0 +1,100 @@
+package ffam.configuration.pool;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.tomcat.jdbc.pool.DataSource;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of the tomcat-jdbc pool. Borrow wait, hold time and abandoned connections are tagged with the
+ * {@link PoolCaller} that took the connection, so they can be told apart per repository method.
+ */
+public class ConnectionPoolMetrics {
+    static final String BORROW = "ffam.pool.borrow";
+    static final String HELD = "ffam.pool.held";
+    static final String VALIDATION = "ffam.pool.validation";
+    static final String ABANDONED = "ffam.pool.abandoned";
+    static final String STATEMENT_CACHE = "ffam.pool.statement.cache";
+    static final String CALLER_TAG = "caller";
+
+    private final MeterRegistry meterRegistry;
+    private final Timer validationTimer;
+    private final Counter statementCacheHits;
+    private final Counter statementCacheMisses;
+
+    public ConnectionPoolMetrics(MeterRegistry meterRegistry, DataSource dataSource) {
+        this.meterRegistry = meterRegistry;
+        this.validationTimer = Timer.builder(VALIDATION)
+                .description("Time spent validating a connection before it is handed out")
+                .register(meterRegistry);
+        this.statementCacheHits = Counter.builder(STATEMENT_CACHE)
+                .description("Prepared statements found in the connection's statement cache, or not")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.statementCacheMisses = Counter.builder(STATEMENT_CACHE)
+                .description("Prepared statements found in the connection's statement cache, or not")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        Gauge.builder(STATEMENT_CACHE + ".hit.ratio", this, ConnectionPoolMetrics::statementCacheHitRatio)
+                .description("Share of prepared statements served from the statement cache")
+                .register(meterRegistry);
+        Gauge.builder("ffam.pool.active", dataSource, DataSource::getNumActive)
+                .description("Connections handed out")
+                .register(meterRegistry);
+        Gauge.builder("ffam.pool.idle", dataSource, DataSource::getNumIdle)
+                .description("Connections waiting in the pool")
+                .register(meterRegistry);
+        Gauge.builder("ffam.pool.size", dataSource, DataSource::getSize)
+                .description("Connections open to the database")
+                .register(meterRegistry);
+        Gauge.builder("ffam.pool.waiting", dataSource, DataSource::getWaitCount)
+                .description("Threads waiting for a connection")
+                .register(meterRegistry);
+        Gauge.builder("ffam.pool.max", dataSource, DataSource::getMaxActive)
+                .description("Most connections the pool opens")
+                .register(meterRegistry);
+        MeteredStatementCache.register(dataSource.getPoolProperties().getName(), this);
+    }
+
+    void recordBorrow(String caller, long nanos) {
+        Timer.builder(BORROW)
+                .description("Time to get a connection from the pool, waiting and validation included")
+                .tag(CALLER_TAG, caller)
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordHeld(String caller, long nanos) {
+        Timer.builder(HELD)
+                .description("Time from borrowing a connection to returning it")
+                .tag(CALLER_TAG, caller)
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordAbandoned(String caller) {
+        Counter.builder(ABANDONED)
+                .description("Connections held longer than the pool's suspect timeout")
+                .tag(CALLER_TAG, caller)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    void recordValidation(long nanos) {
+        validationTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordStatementCache(boolean hit) {
+        (hit ? statementCacheHits : statementCacheMisses).increment();
+    }
+
+    //region private
+    private double statementCacheHitRatio() {
+        double lookups = statementCacheHits.count() + statementCacheMisses.count();
+        return lookups == 0 ? 0 : statementCacheHits.count() / lookups;
+    }
+    //endregion
+}
@@ -0,0 +1,58 @@
+package ffam.configuration.pool;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times each borrow from the pool and how long the connection is held until it is closed.
+ * Connections held past suspectTimeoutSeconds are counted as abandoned when they finally come back.
+ */
+public class MeteredDataSource extends DelegatingDataSource {
+    private final ConnectionPoolMetrics connectionPoolMetrics;
+    private final long suspectNanos;
+
+    public MeteredDataSource(javax.sql.DataSource targetDataSource, ConnectionPoolMetrics connectionPoolMetrics, int suspectTimeoutSeconds) {
+        super(targetDataSource);
+        this.connectionPoolMetrics = connectionPoolMetrics;
+        this.suspectNanos = TimeUnit.SECONDS.toNanos(suspectTimeoutSeconds);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        String caller = PoolCaller.current();
+        long start = System.nanoTime();
+        Connection connection = super.getConnection();
+        long borrowed = System.nanoTime();
+        connectionPoolMetrics.recordBorrow(caller, borrowed - start);
+        return held(connection, caller, borrowed);
+    }
+
+    //region private
+    private Connection held(Connection connection, String caller, long borrowed) {
+        boolean[] closed = {false};
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if ("close".equals(method.getName()) && !closed[0]) {
+                        closed[0] = true;
+                        long heldNanos = System.nanoTime() - borrowed;
+                        connectionPoolMetrics.recordHeld(caller, heldNanos);
+                        if (heldNanos > suspectNanos) {
+                            connectionPoolMetrics.recordAbandoned(caller);
+                        }
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                });
+    }
+    //endregion
+}
@@ -0,0 +1,38 @@
+package ffam.configuration.pool;
+
+import org.apache.tomcat.jdbc.pool.ConnectionPool;
+import org.apache.tomcat.jdbc.pool.PooledConnection;
+import org.apache.tomcat.jdbc.pool.interceptor.StatementCache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * tomcat-jdbc's per-connection prepared statement cache, counting hits and misses.
+ * The pool creates interceptors by class name, so the metrics of each pool are looked up by pool name.
+ */
+public class MeteredStatementCache extends StatementCache {
+    private static final Map<String, ConnectionPoolMetrics> METRICS = new ConcurrentHashMap<>();
+
+    private volatile ConnectionPoolMetrics connectionPoolMetrics;
+
+    static void register(String poolName, ConnectionPoolMetrics connectionPoolMetrics) {
+        METRICS.put(poolName, connectionPoolMetrics);
+    }
+
+    @Override
+    public void reset(ConnectionPool parent, PooledConnection con) {
+        super.reset(parent, con);
+        connectionPoolMetrics = parent == null ? null : METRICS.get(parent.getName());
+    }
+
+    @Override
+    public CachedStatement isCached(String sql) {
+        CachedStatement cachedStatement = super.isCached(sql);
+        ConnectionPoolMetrics metrics = connectionPoolMetrics;
+        if (metrics != null) {
+            metrics.recordStatementCache(cachedStatement != null);
+        }
+        return cachedStatement;
+    }
+}
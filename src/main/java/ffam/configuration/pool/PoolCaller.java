@@ -0,0 +1,43 @@
+package ffam.configuration.pool;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Remembers which repository method, or transactional method, the current thread is in, so connections borrowed
+ * on its behalf can be tagged with it. Runs before the transaction advice, which borrows the connection of a
+ * transaction up front.
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class PoolCaller {
+    static final String UNKNOWN = "other";
+
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+    @Around("within(@org.springframework.stereotype.Repository *) && execution(public * *(..)) " +
+            "|| within(ffam..*) && @annotation(org.springframework.transaction.annotation.Transactional)")
+    public Object tag(ProceedingJoinPoint joinPoint) throws Throwable {
+        String outer = CURRENT.get();
+        if (outer != null) {
+            // The outermost call owns the connection
+            return joinPoint.proceed();
+        }
+        CURRENT.set(joinPoint.getSignature().getDeclaringType().getSimpleName() + "." + joinPoint.getSignature().getName());
+        try {
+            return joinPoint.proceed();
+        } finally {
+            CURRENT.remove();
+        }
+    }
+
+    static String current() {
+        String caller = CURRENT.get();
+        return caller == null ? UNKNOWN : caller;
+    }
+}
@@ -0,0 +1,36 @@
+package ffam.configuration.pool;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.tomcat.jdbc.pool.Validator;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Runs the pool's validation query and times it. Takes the place of the pool's own validation query handling.
+ */
+@Slf4j
+public class TimedValidator implements Validator {
+    private final String validationQuery;
+    private final ConnectionPoolMetrics connectionPoolMetrics;
+
+    public TimedValidator(String validationQuery, ConnectionPoolMetrics connectionPoolMetrics) {
+        this.validationQuery = validationQuery;
+        this.connectionPoolMetrics = connectionPoolMetrics;
+    }
+
+    @Override
+    public boolean validate(Connection connection, int validateAction) {
+        long start = System.nanoTime();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(validationQuery);
+            return true;
+        } catch (SQLException e) {
+            log.warn("Connection failed validation", e);
+            return false;
+        } finally {
+            connectionPoolMetrics.recordValidation(System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package ffam.general;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.core.ResolvableType;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+import java.lang.reflect.Type;
+
+/**
+ * Writes a {@link DeferredResult} that already holds its ResponseEntity the way a returned ResponseEntity is written,
+ * on the request thread. Spring would otherwise start async processing and dispatch the request a second time just to
+ * write it. {@link UseCaseExecutor} returns such results when async mode is off and for requests it turns away.
+ * A DeferredResult still waiting for its result goes to Spring's own handler.
+ */
+public class CompletedResultReturnValueHandler implements HandlerMethodReturnValueHandler {
+    private final HandlerMethodReturnValueHandler responseEntityHandler;
+    private final HandlerMethodReturnValueHandler deferredResultHandler;
+
+    public CompletedResultReturnValueHandler(HandlerMethodReturnValueHandler responseEntityHandler,
+                                             HandlerMethodReturnValueHandler deferredResultHandler) {
+        this.responseEntityHandler = responseEntityHandler;
+        this.deferredResultHandler = deferredResultHandler;
+    }
+
+    @Override
+    public boolean supportsReturnType(MethodParameter returnType) {
+        return DeferredResult.class.isAssignableFrom(returnType.getParameterType());
+    }
+
+    @Override
+    public void handleReturnValue(Object returnValue,
+                                  MethodParameter returnType,
+                                  ModelAndViewContainer mavContainer,
+                                  NativeWebRequest webRequest) throws Exception {
+        DeferredResult<?> deferredResult = (DeferredResult<?>) returnValue;
+        if (deferredResult != null && deferredResult.hasResult() && !(deferredResult.getResult() instanceof Throwable)) {
+            responseEntityHandler.handleReturnValue(deferredResult.getResult(), new ResultReturnType(returnType), mavContainer, webRequest);
+        } else {
+            deferredResultHandler.handleReturnValue(returnValue, returnType, mavContainer, webRequest);
+        }
+    }
+
+    //region private
+    // The return type as if the method had returned its ResponseEntity directly
+    private static class ResultReturnType extends MethodParameter {
+        private final Type resultType;
+
+        private ResultReturnType(MethodParameter returnType) {
+            super(returnType);
+            this.resultType = ResolvableType.forMethodParameter(returnType).getGeneric().getType();
+        }
+
+        private ResultReturnType(ResultReturnType original) {
+            super(original);
+            this.resultType = original.resultType;
+        }
+
+        @Override
+        public Class<?> getParameterType() {
+            return ResolvableType.forType(resultType).resolve(Object.class);
+        }
+
+        @Override
+        public Type getGenericParameterType() {
+            return resultType;
+        }
+
+        @Override
+        public ResultReturnType clone() {
+            return new ResultReturnType(this);
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,194 @@
+package ffam.general;
+
+import ffam.task.api.TaskRequestServerErrorResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs the use cases behind the controllers. In async mode they run on a bounded pool with one thread per pooled
+ * connection, so a Tomcat thread only accepts the request and goes back to serve others (including /actuator/health)
+ * while the JDBC calls wait. Requests beyond the queue are turned away at once, and requests not answered in time
+ * get a timeout response, instead of piling up. A request that times out after its use case started is told it is
+ * still being processed, not that it failed. Async mode is off by default: the use case runs on the calling thread,
+ * and {@link CompletedResultReturnValueHandler} writes its response without an async dispatch.
+ */
+@Slf4j
+@Component
+public class UseCaseExecutor {
+    static final String QUEUED = "ffam.usecase.executor.queued";
+    static final String ACTIVE = "ffam.usecase.executor.active";
+    static final String WAIT = "ffam.usecase.executor.wait";
+    static final String REJECTED = "ffam.usecase.executor.rejected";
+    static final String TIMEOUTS = "ffam.usecase.executor.timeouts";
+
+    private final boolean async;
+    private final long timeoutMillis;
+    private final ThreadPoolExecutor executor;
+    private final Timer waitTimer;
+    private final Counter rejectedCounter;
+    private final Counter timeoutCounter;
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public UseCaseExecutor(@Value("${ffam.async.enabled:false}") boolean async,
+                           @Value("${spring.datasource.maxActive}") int threads,
+                           @Value("${ffam.async.queue-capacity:1000}") int queueCapacity,
+                           @Value("${ffam.async.timeout-ms:10000}") long timeoutMillis,
+                           MeterRegistry meterRegistry) {
+        this.async = async;
+        this.timeoutMillis = timeoutMillis;
+        this.meterRegistry = meterRegistry;
+        this.executor = new ThreadPoolExecutor(threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                threadFactory());
+        Gauge.builder(QUEUED, executor, e -> e.getQueue().size())
+                .description("Requests waiting for a use case thread")
+                .register(meterRegistry);
+        Gauge.builder(ACTIVE, executor, ThreadPoolExecutor::getActiveCount)
+                .description("Use case threads running a request")
+                .register(meterRegistry);
+        this.waitTimer = Timer.builder(WAIT)
+                .description("Time a request waited for a use case thread")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder(REJECTED)
+                .description("Requests turned away because the queue was full")
+                .register(meterRegistry);
+        this.timeoutCounter = Counter.builder(TIMEOUTS)
+                .description("Requests answered with a timeout")
+                .register(meterRegistry);
+    }
+
+    public static DeferredResult<ResponseEntity<?>> completed(ResponseEntity<?> responseEntity) {
+        DeferredResult<ResponseEntity<?>> deferredResult = new DeferredResult<>();
+        deferredResult.setResult(responseEntity);
+        return deferredResult;
+    }
+
+    public DeferredResult<ResponseEntity<?>> submit(Supplier<ResponseEntity<?>> useCase) {
+        if (!async) {
+            return completed(useCase.get());
+        }
+
+        DeferredResult<ResponseEntity<?>> deferredResult = new DeferredResult<>(timeoutMillis);
+        // Taken by whichever comes first: the use case thread starting it, or the timeout
+        AtomicBoolean claimed = new AtomicBoolean();
+        long queuedAt = meterRegistry.config().clock().monotonicTime();
+        Future<?> future;
+        try {
+            future = executor.submit(() -> {
+                if (!claimed.compareAndSet(false, true)) {
+                    return;
+                }
+                waitTimer.record(meterRegistry.config().clock().monotonicTime() - queuedAt, TimeUnit.NANOSECONDS);
+                try {
+                    deferredResult.setResult(useCase.get());
+                } catch (RuntimeException e) {
+                    // Spring resolves it like an exception thrown on the request thread, by default a 500 as before
+                    deferredResult.setErrorResult(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            log.warn("Use case queue is full, turning the request away");
+            return completed(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(new TaskRequestServerErrorResponse("V008", "Server is busy, try again later")));
+        }
+        // A request still in the queue when it times out is dropped and gets V009, so it can be retried.
+        // One already running finishes and may well succeed, so it gets V010 rather than a failure
+        deferredResult.onTimeout(() -> {
+            timeoutCounter.increment();
+            if (claimed.compareAndSet(false, true)) {
+                future.cancel(false);
+                deferredResult.setResult(timedOut());
+            } else {
+                deferredResult.setResult(stillProcessing());
+            }
+        });
+        return deferredResult;
+    }
+
+    // One step of a response written over time, such as a page of a stream. In async mode it runs on the pool like a
+    // use case and the caller waits for it, so the connection it takes goes back before the caller writes the result.
+    // The response is already under way, so a full queue or a timeout is thrown rather than answered
+    public <T> T call(Supplier<T> step) {
+        if (!async) {
+            return step.get();
+        }
+
+        Future<T> future;
+        try {
+            future = executor.submit(step::get);
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            log.warn("Use case queue is full, failing the step");
+            throw e;
+        }
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timeoutCounter.increment();
+            future.cancel(false);
+            throw new IllegalStateException("Step did not finish within " + timeoutMillis + " ms", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+            throw new IllegalStateException("Interrupted while waiting for the step", e);
+        }
+    }
+
+    public static ResponseEntity<?> timedOut() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(new TaskRequestServerErrorResponse("V009", "Request timed out"));
+    }
+
+    // The outcome is not known yet. A retry of a create could assign a second task
+    public static ResponseEntity<?> stillProcessing() {
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(new TaskRequestServerErrorResponse("V010", "Request is still being processed, check its outcome before retrying"));
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    //region private
+    private static ThreadFactory threadFactory() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "use-case-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+    //endregion
+}
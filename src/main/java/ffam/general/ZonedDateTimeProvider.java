@@ -1,27 +1,110 @@
 package ffam.general;
 
-import lombok.val;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 
+/**
+ * The database clock, served locally.
+ * The DB time is read once per sync interval and now() extrapolates from it with System.nanoTime, so a timestamp
+ * costs no round trip. The offset of the DB clock from the JVM clock and the drift corrected at each sync are
+ * published as gauges.
+ */
+@Slf4j
 @Component
 public class ZonedDateTimeProvider {
     private final JdbcTemplate jdbcTemplate;
+    private final LongSupplier nanoTime;
+    private final Supplier<Instant> wallClock;
+    private volatile Anchor anchor;
+    private volatile long offsetMillis;
+    private volatile long driftMillis;
 
     @Autowired
-    public ZonedDateTimeProvider(JdbcTemplate jdbcTemplate) {
+    public ZonedDateTimeProvider(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        this(jdbcTemplate, meterRegistry, System::nanoTime, Instant::now);
+    }
+
+    ZonedDateTimeProvider(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry, LongSupplier nanoTime, Supplier<Instant> wallClock) {
         this.jdbcTemplate = jdbcTemplate;
+        this.nanoTime = nanoTime;
+        this.wallClock = wallClock;
+        Gauge.builder("ffam.clock.db.offset", this, provider -> provider.offsetMillis)
+                .description("DB clock minus JVM clock, as of the last sync")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        Gauge.builder("ffam.clock.db.drift", this, provider -> provider.driftMillis)
+                .description("DB clock minus the local extrapolation, corrected at the last sync")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void load() {
+        synchronize();
+    }
+
+    @Scheduled(initialDelayString = "${ffam.clock.sync-interval-ms:30000}",
+            fixedDelayString = "${ffam.clock.sync-interval-ms:30000}")
+    public void refresh() {
+        try {
+            synchronize();
+        } catch (DataAccessException e) {
+            // Keep extrapolating from the last sync, the JVM clock does not drift far in one interval
+            log.warn("Unable to read the DB clock, keeping the previous sync", e);
+        }
     }
 
     public ZonedDateTime now() {
-        val now = jdbcTemplate.query(
+        return ZonedDateTime.ofInstant(anchor.at(nanoTime.getAsLong()), ZoneId.systemDefault());
+    }
+
+    //region private
+    private void synchronize() {
+        long before = nanoTime.getAsLong();
+        Timestamp dbNow = jdbcTemplate.query(
                 "SELECT CURRENT_TIMESTAMP AS now FROM DUAL",
                 (rs, index) -> rs.getTimestamp("now")).get(0);
+        long after = nanoTime.getAsLong();
+        Instant jvmNow = wallClock.get();
+
+        // The DB read its clock somewhere within the round trip. Assume the middle of it
+        long midpoint = before + (after - before) / 2;
+        Anchor synchronizedAnchor = new Anchor(dbNow.toInstant(), midpoint);
+        if (anchor != null) {
+            driftMillis = Duration.between(anchor.at(midpoint), synchronizedAnchor.dbInstant).toMillis();
+        }
+        offsetMillis = Duration.between(jvmNow, synchronizedAnchor.at(after)).toMillis();
+        anchor = synchronizedAnchor;
+    }
+
+    // A DB clock reading and the nanoTime it was taken at
+    private static class Anchor {
+        private final Instant dbInstant;
+        private final long nanoTime;
+
+        private Anchor(Instant dbInstant, long nanoTime) {
+            this.dbInstant = dbInstant;
+            this.nanoTime = nanoTime;
+        }
 
-        return ZonedDateTime.ofInstant(now.toInstant(), ZoneId.systemDefault());
+        private Instant at(long nanoTime) {
+            return dbInstant.plusNanos(nanoTime - this.nanoTime);
+        }
     }
+    //endregion
 }
@@ -5,6 +5,7 @@ import com.google.common.base.Predicates;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
 import springfox.documentation.builders.ParameterBuilder;
 import springfox.documentation.builders.RequestHandlerSelectors;
 import springfox.documentation.schema.ModelRef;
@@ -34,6 +35,12 @@ public class SwaggerConfiguration {
                         newRule(
                                 typeResolver.resolve(ResponseEntity.class, WildcardType.class),
                                 typeResolver.resolve(WildcardType.class)
+                        ),
+                        // Controllers answer later, from the use case executor
+                        newRule(
+                                typeResolver.resolve(DeferredResult.class,
+                                        typeResolver.resolve(ResponseEntity.class, WildcardType.class)),
+                                typeResolver.resolve(WildcardType.class)
                         )
                 )
                 .useDefaultResponseMessages(false)
@@ -0,0 +1,10 @@
+package ffam.task.api;
+
+/**
+ * Body of a rejected request. The error code tells the caller, and the metrics, which rule turned it down.
+ */
+public interface ErrorResponse {
+    String getErrorCode();
+
+    String getErrorResponse();
+}
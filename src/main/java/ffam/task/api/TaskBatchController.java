@@ -0,0 +1,86 @@
+package ffam.task.api;
+
+import ffam.general.UseCaseExecutor;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
+
+@RestController
+@Slf4j
+public class TaskBatchController {
+    static final int MAX_BATCH_SIZE = 500;
+
+    private final TaskBatchControllerUseCase taskBatchControllerUseCase;
+    private final UseCaseExecutor useCaseExecutor;
+
+    @Autowired
+    public TaskBatchController(TaskBatchControllerUseCase taskBatchControllerUseCase, UseCaseExecutor useCaseExecutor) {
+        this.taskBatchControllerUseCase = taskBatchControllerUseCase;
+        this.useCaseExecutor = useCaseExecutor;
+    }
+
+    @ApiOperation(
+            value = "Add many Tasks at once, each one assigned an Agent",
+            code = 200,
+            response = TaskBatchItemResponse.class,
+            responseContainer = "List",
+            notes = "200 the batch has been processed. Each task has its own outcome, at the position of its request",
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    @ApiResponses({
+            // validation errors
+            @ApiResponse(code = 400,
+                    response = TaskRequestValidationErrorResponse.class,
+                    message = "the given batch is invalid")
+    })
+    @RequestMapping(
+            method = RequestMethod.POST,
+            value = "/task/batch",
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public DeferredResult<ResponseEntity<?>> addTasks(@RequestBody List<TaskRequest> taskRequests) {
+
+        if (taskRequests == null || taskRequests.isEmpty() || taskRequests.size() > MAX_BATCH_SIZE) {
+            return UseCaseExecutor.completed(ResponseEntity.badRequest().body(new TaskRequestValidationErrorResponse("V104", "Batch must contain between 1 and " + MAX_BATCH_SIZE + " tasks")));
+        }
+
+        log.info("Processing POST /task/batch with {} tasks", taskRequests.size());
+        return useCaseExecutor.submit(() -> ResponseEntity.ok().body(taskBatchControllerUseCase.createTasks(taskRequests)));
+    }
+
+    @ApiOperation(
+            value = "Complete many Tasks at once",
+            code = 200,
+            response = TaskBatchItemResponse.class,
+            responseContainer = "List",
+            notes = "200 the batch has been processed. Each task has its own outcome, at the position of its id",
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    @ApiResponses({
+            // validation errors
+            @ApiResponse(code = 400,
+                    response = TaskRequestValidationErrorResponse.class,
+                    message = "the given batch is invalid")
+    })
+    @RequestMapping(
+            method = RequestMethod.PATCH,
+            value = "/task/batch",
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public DeferredResult<ResponseEntity<?>> finishTasks(@RequestBody List<String> taskIds) {
+
+        if (taskIds == null || taskIds.isEmpty() || taskIds.size() > MAX_BATCH_SIZE) {
+            return UseCaseExecutor.completed(ResponseEntity.badRequest().body(new TaskRequestValidationErrorResponse("V104", "Batch must contain between 1 and " + MAX_BATCH_SIZE + " tasks")));
+        }
+
+        log.info("Processing PATCH /task/batch with {} tasks", taskIds.size());
+        return useCaseExecutor.submit(() -> ResponseEntity.ok().body(taskBatchControllerUseCase.finishTasks(taskIds)));
+    }
+}
@@ -0,0 +1,122 @@
+package ffam.task.api;
+
+import ffam.task.domain.AgentOccupancyEngine;
+import ffam.task.domain.PlannedAllocation;
+import ffam.task.domain.TaskAllocationDetailUseCase;
+import ffam.task.domain.TaskBatchPlan;
+import ffam.task.domain.TaskBatchPlanner;
+import ffam.task.domain.TaskBatchWriter;
+import ffam.task.domain.TaskCompletionPlan;
+import ffam.task.domain.TaskCompletionPlanner;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+@Slf4j
+@Component
+public class TaskBatchControllerUseCase {
+    // A batch is planned against the in-memory occupancy. If an agent's row changed meanwhile, re-plan the whole batch
+    static final int MAX_ATTEMPTS = 3;
+
+    private final TaskBatchPlanner taskBatchPlanner;
+    private final TaskCompletionPlanner taskCompletionPlanner;
+    private final TaskBatchWriter taskBatchWriter;
+    private final AgentOccupancyEngine agentOccupancyEngine;
+    private final TaskAllocationDetailUseCase taskAllocationDetailUseCase;
+
+    @Autowired
+    public TaskBatchControllerUseCase(TaskBatchPlanner taskBatchPlanner,
+                                      TaskCompletionPlanner taskCompletionPlanner,
+                                      TaskBatchWriter taskBatchWriter,
+                                      AgentOccupancyEngine agentOccupancyEngine,
+                                      TaskAllocationDetailUseCase taskAllocationDetailUseCase) {
+        this.taskBatchPlanner = taskBatchPlanner;
+        this.taskCompletionPlanner = taskCompletionPlanner;
+        this.taskBatchWriter = taskBatchWriter;
+        this.agentOccupancyEngine = agentOccupancyEngine;
+        this.taskAllocationDetailUseCase = taskAllocationDetailUseCase;
+    }
+
+    public List<TaskBatchItemResponse> createTasks(List<TaskRequest> taskRequests) {
+        TaskBatchPlan taskBatchPlan = null;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            taskBatchPlan = taskBatchPlanner.plan(taskRequests);
+            if (taskBatchPlan.getPlannedAllocations().isEmpty()) {
+                // Every task failed on its own. Nothing to write
+                return taskBatchPlan.getResponses();
+            }
+
+            Set<String> conflicts;
+            try {
+                conflicts = taskBatchWriter.write(taskBatchPlan.getPlannedAllocations());
+            } catch (DuplicateKeyException e) {
+                // Someone created the row of an agent that had none. Which one is not known, reload them all
+                conflicts = agentIds(taskBatchPlan.getPlannedAllocations());
+            }
+            if (conflicts.isEmpty()) {
+                if (!taskBatchWriter.isWriteBehind()) {
+                    taskBatchPlan.getPlannedAllocations().forEach(plannedAllocation ->
+                            agentOccupancyEngine.update(plannedAllocation.getTaskAllocationDetail()));
+                }
+                return taskBatchPlan.getResponses();
+            }
+            conflicts.forEach(taskAllocationDetailUseCase::reload);
+        }
+
+        log.error("Unable to write a batch of {} tasks after {} attempts", taskRequests.size(), MAX_ATTEMPTS);
+        return failPlanned(taskBatchPlan.getResponses(), "V005", "Can't Create a Task At this time");
+    }
+
+    public List<TaskBatchItemResponse> finishTasks(List<String> taskIds) {
+        TaskCompletionPlan taskCompletionPlan = null;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            taskCompletionPlan = taskCompletionPlanner.plan(taskIds);
+            if (taskCompletionPlan.getPlannedRemovals().isEmpty()) {
+                return taskCompletionPlan.getResponses();
+            }
+
+            val conflicts = taskBatchWriter.complete(taskCompletionPlan.getPlannedRemovals());
+            if (conflicts.isEmpty()) {
+                if (!taskBatchWriter.isWriteBehind()) {
+                    taskCompletionPlan.getPlannedRemovals().forEach(plannedRemoval -> {
+                        val taskAllocationDetail = plannedRemoval.getTaskAllocationDetail();
+                        if (plannedRemoval.isReleased()) {
+                            agentOccupancyEngine.release(taskAllocationDetail.getAgentId(), plannedRemoval.getExpectedVersion());
+                        } else {
+                            agentOccupancyEngine.update(taskAllocationDetail);
+                        }
+                    });
+                }
+                return taskCompletionPlan.getResponses();
+            }
+            conflicts.forEach(taskAllocationDetailUseCase::reload);
+        }
+
+        log.error("Unable to complete a batch of {} tasks after {} attempts", taskIds.size(), MAX_ATTEMPTS);
+        return failPlanned(taskCompletionPlan.getResponses(), "V101", "Unable to delete the task at this time");
+    }
+
+    //region private
+    private static Set<String> agentIds(List<PlannedAllocation> plannedAllocations) {
+        Set<String> agentIds = new HashSet<>();
+        plannedAllocations.forEach(plannedAllocation -> agentIds.add(plannedAllocation.getTaskAllocationDetail().getAgentId()));
+        return agentIds;
+    }
+
+    // Items that were planned but never written get the error, the others keep their own
+    private static List<TaskBatchItemResponse> failPlanned(List<TaskBatchItemResponse> responses, String errorCode, String errorResponse) {
+        List<TaskBatchItemResponse> results = new ArrayList<>(responses.size());
+        for (TaskBatchItemResponse response : responses) {
+            results.add(response.isError() ? response : TaskBatchItemResponse.error(errorCode, errorResponse));
+        }
+        return results;
+    }
+    //endregion
+}
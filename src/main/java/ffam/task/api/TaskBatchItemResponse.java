@@ -0,0 +1,33 @@
+package ffam.task.api;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import ffam.task.domain.TaskStatus;
+import lombok.Value;
+
+/**
+ * Outcome of one task of a batch, at the same position as its request.
+ * Either the task fields of a {@link TaskResponse} or an error code and message are set.
+ */
+@Value
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TaskBatchItemResponse {
+    private String taskId;
+    private String agentId;
+    private TaskStatus taskStatus;
+    private String errorCode;
+    private String errorResponse;
+
+    public static TaskBatchItemResponse of(String taskId, String agentId, TaskStatus taskStatus) {
+        return new TaskBatchItemResponse(taskId, agentId, taskStatus, null, null);
+    }
+
+    public static TaskBatchItemResponse error(String errorCode, String errorResponse) {
+        return new TaskBatchItemResponse(null, null, null, errorCode, errorResponse);
+    }
+
+    @JsonIgnore
+    public boolean isError() {
+        return errorCode != null;
+    }
+}
@@ -1,5 +1,6 @@
 package ffam.task.api;
 
+import ffam.general.UseCaseExecutor;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
@@ -10,6 +11,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 @RestController
 @Slf4j
@@ -17,11 +19,15 @@ public class TaskController {
 
     private final TaskRequestValidator taskRequestValidator;
     private final TaskControllerUseCase taskControllerUseCase;
+    private final UseCaseExecutor useCaseExecutor;
+    private final TaskRequestDispatcher taskRequestDispatcher;
 
     @Autowired
-    public TaskController(TaskRequestValidator taskRequestValidator, TaskControllerUseCase taskControllerUseCase) {
+    public TaskController(TaskRequestValidator taskRequestValidator, TaskControllerUseCase taskControllerUseCase, UseCaseExecutor useCaseExecutor, TaskRequestDispatcher taskRequestDispatcher) {
         this.taskRequestValidator = taskRequestValidator;
         this.taskControllerUseCase = taskControllerUseCase;
+        this.useCaseExecutor = useCaseExecutor;
+        this.taskRequestDispatcher = taskRequestDispatcher;
     }
 
     @ApiOperation(
@@ -47,14 +53,18 @@ public class TaskController {
     @RequestMapping(
             method = RequestMethod.POST,
             value = "/task")
-    public ResponseEntity<?> addTask(@RequestBody TaskRequest taskRequest) {
+    public DeferredResult<ResponseEntity<?>> addTask(@RequestBody TaskRequest taskRequest) {
 
         val validationErrorOptional = taskRequestValidator.isValid(taskRequest);
         if (validationErrorOptional.isPresent()) {
-            return ResponseEntity.badRequest().body(validationErrorOptional.get());
+            return UseCaseExecutor.completed(ResponseEntity.badRequest().body(validationErrorOptional.get()));
         }
 
-        return taskControllerUseCase.createTask(taskRequest);
+        if (taskRequestDispatcher.isEnabled()) {
+            // Planned and written together with the other requests arriving now
+            return taskRequestDispatcher.submit(taskRequest);
+        }
+        return useCaseExecutor.submit(() -> taskControllerUseCase.createTask(taskRequest));
     }
 
     @ApiOperation(
@@ -81,12 +91,12 @@ public class TaskController {
             method = RequestMethod.PATCH,
             value = "/task",
             produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<?> finishTask(@RequestParam String taskId) {
+    public DeferredResult<ResponseEntity<?>> finishTask(@RequestParam String taskId) {
 
         if (StringUtils.isEmpty(taskId)) {
-            return ResponseEntity.badRequest().body(new TaskRequestValidationErrorResponse("V103", "Given Request is Invalid"));
+            return UseCaseExecutor.completed(ResponseEntity.badRequest().body(new TaskRequestValidationErrorResponse("V103", "Given Request is Invalid")));
         }
 
-        return taskControllerUseCase.finishTask(taskId);
+        return useCaseExecutor.submit(() -> taskControllerUseCase.finishTask(taskId));
     }
 }
@@ -1,7 +1,9 @@
 package ffam.task.api;
 
 import ffam.agent.data.Agent;
-import ffam.agent.data.AgentRepository;
+import ffam.agent.data.AgentSkillIndex;
+import ffam.agent.data.SkillMask;
+import ffam.configuration.metrics.TimedUseCase;
 import ffam.task.data.TaskAllocationDetailRepository;
 import ffam.task.data.TaskRepository;
 import ffam.task.domain.*;
@@ -19,27 +21,30 @@ public class TaskControllerUseCase {
 
     private final AddTaskUseCase addTaskUseCase;
     private final AddTaskWhenAgentBusyUseCase addTaskWhenAgentBusyUseCase;
-    private final AgentRepository agentRepository;
+    private final AgentSkillIndex agentSkillIndex;
     private final TaskRepository taskRepository;
     private final TaskAllocationDetailUseCase taskAllocationDetailUseCase;
+    private final AssignmentStrategy assignmentStrategy;
 
     @Autowired
-    public TaskControllerUseCase(AgentRepository agentRepository, TaskRepository taskRepository, AddTaskUseCase addTaskUseCase, AddTaskWhenAgentBusyUseCase addTaskWhenAgentBusyUseCase, TaskAllocationDetailUseCase taskAllocationDetailUseCase) {
-        this.agentRepository = agentRepository;
+    public TaskControllerUseCase(AgentSkillIndex agentSkillIndex, TaskRepository taskRepository, AddTaskUseCase addTaskUseCase, AddTaskWhenAgentBusyUseCase addTaskWhenAgentBusyUseCase, TaskAllocationDetailUseCase taskAllocationDetailUseCase, AssignmentStrategy assignmentStrategy) {
+        this.agentSkillIndex = agentSkillIndex;
         this.taskRepository = taskRepository;
         this.addTaskUseCase = addTaskUseCase;
         this.addTaskWhenAgentBusyUseCase = addTaskWhenAgentBusyUseCase;
         this.taskAllocationDetailUseCase = taskAllocationDetailUseCase;
+        this.assignmentStrategy = assignmentStrategy;
     }
 
     // An agent cannot be assigned a task if they’re already working on a task of equal or higher priority.
     // The system will always prefer an agent that is not assigned any task to an agent already assigned to a task.
     // If all agents are currently working on a lower priority task, the system will pick the agent that started working on his/her current task the most recently.
     // If no agent is able to take the task, the service should return an error.
+    @TimedUseCase
     public ResponseEntity<?> createTask(TaskRequest taskRequest) {
 
         // The agent must possess all the skills required by the task. Look Up agents who can perform the task
-        List<Agent> eligibleAgents = agentRepository.findBySkillSet(taskRequest.isSkill1(),
+        List<Agent> eligibleAgents = agentSkillIndex.findBySkillSet(taskRequest.isSkill1(),
                 taskRequest.isSkill2(), taskRequest.isSkill3());
 
         if (eligibleAgents == null || eligibleAgents.isEmpty()) {
@@ -47,14 +52,11 @@ public class TaskControllerUseCase {
             return ResponseEntity.unprocessableEntity().body(new TaskRequestBusinessErrorResponse("V004", "No Agents Available with the SkillSet"));
         }
 
-        for (Agent agent : eligibleAgents) {
-            val taskList = taskRepository.findByAgentIdAndStatus(agent.getAgentId(), TaskStatus.IN_PROGRESS);
-            if (taskList == null || taskList.isEmpty()) {
-                // No tasks assigned to the agent
-                // Agent is eligible to pick up the job
-                // Assign Agent to the Job
-                return addTaskUseCase.addTask(agent.getAgentId(), taskRequest);
-            }
+        // No tasks assigned to the agent. The assignment strategy decides which idle agent picks up the job
+        val idleAgent = assignmentStrategy.select(SkillMask.of(taskRequest.isSkill1(), taskRequest.isSkill2(), taskRequest.isSkill3()));
+        if (idleAgent.isPresent()) {
+            // Assign Agent to the Job
+            return addTaskUseCase.addTask(idleAgent.get().getAgentId(), taskRequest);
         }
 
         // Done with all the agents - No agent's Task List is not Empty
@@ -65,10 +67,11 @@ public class TaskControllerUseCase {
         }
 
         // All Agents are currently working here
-        // Get the task allocation detail list by Date Created DSC
-        return addTaskWhenAgentBusyUseCase.addTask(eligibleAgents, taskRequest);
+        // Find the eligible agent that most recently started a low priority task
+        return addTaskWhenAgentBusyUseCase.addTask(taskRequest);
     }
 
+    @TimedUseCase
     public ResponseEntity<?> finishTask(String taskId) {
         val taskOptional = taskRepository.findByTaskId(taskId);
 
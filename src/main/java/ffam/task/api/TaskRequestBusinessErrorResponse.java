@@ -3,7 +3,7 @@ package ffam.task.api;
 import lombok.Value;
 
 @Value
-public class TaskRequestBusinessErrorResponse {
+public class TaskRequestBusinessErrorResponse implements ErrorResponse {
     String errorCode;
     String errorResponse;
 }
@@ -0,0 +1,214 @@
+package ffam.task.api;
+
+import ffam.general.UseCaseExecutor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Micro-batching of POST /task (ffam.dispatcher.enabled). Requests arriving together are gathered for up to window-ms
+ * after the first one, or until max-batch-size of them are waiting, and planned and written as one batch by
+ * {@link TaskBatchControllerUseCase#createTasks(List)}. Tasks of a batch see each other's assignments, so they never
+ * race for the same idle agent, and one transaction writes them all. Batches run one at a time on the dispatcher
+ * thread. Requests arriving while a batch runs form the next one, so batches grow with the load.
+ */
+@Slf4j
+@Component
+public class TaskRequestDispatcher {
+    static final String QUEUED = "ffam.dispatcher.queued";
+    static final String BATCH_SIZE = "ffam.dispatcher.batch.size";
+    static final String REJECTED = "ffam.dispatcher.rejected";
+    static final String TIMEOUTS = "ffam.dispatcher.timeouts";
+    // How long the idle dispatcher waits for a request before checking whether it is shutting down
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final boolean enabled;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final long timeoutMillis;
+    private final TaskBatchControllerUseCase taskBatchControllerUseCase;
+    private final BlockingQueue<PendingTask> queue;
+    private final DistributionSummary batchSize;
+    private final Counter rejectedCounter;
+    private final Counter timeoutCounter;
+    private volatile boolean running;
+    private Thread dispatcherThread;
+
+    @Autowired
+    public TaskRequestDispatcher(@Value("${ffam.dispatcher.enabled:false}") boolean enabled,
+                                 @Value("${ffam.dispatcher.window-ms:2}") long windowMillis,
+                                 @Value("${ffam.dispatcher.max-batch-size:64}") int maxBatchSize,
+                                 @Value("${ffam.async.queue-capacity:1000}") int queueCapacity,
+                                 @Value("${ffam.async.timeout-ms:10000}") long timeoutMillis,
+                                 TaskBatchControllerUseCase taskBatchControllerUseCase,
+                                 MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxBatchSize = maxBatchSize;
+        this.timeoutMillis = timeoutMillis;
+        this.taskBatchControllerUseCase = taskBatchControllerUseCase;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        Gauge.builder(QUEUED, queue, BlockingQueue::size)
+                .description("Task requests waiting for the next batch")
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder(BATCH_SIZE)
+                .description("Task requests planned and written together")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder(REJECTED)
+                .description("Task requests turned away because the queue was full")
+                .register(meterRegistry);
+        this.timeoutCounter = Counter.builder(TIMEOUTS)
+                .description("Task requests answered with a timeout")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        dispatcherThread = new Thread(this::dispatch, "task-dispatcher");
+        dispatcherThread.setDaemon(true);
+        dispatcherThread.start();
+    }
+
+    public DeferredResult<ResponseEntity<?>> submit(TaskRequest taskRequest) {
+        DeferredResult<ResponseEntity<?>> deferredResult = new DeferredResult<>(timeoutMillis);
+        PendingTask pendingTask = new PendingTask(taskRequest, deferredResult);
+        if (!queue.offer(pendingTask)) {
+            rejectedCounter.increment();
+            log.warn("Task request queue is full, turning the request away");
+            deferredResult.setResult(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(new TaskRequestServerErrorResponse("V008", "Server is busy, try again later")));
+            return deferredResult;
+        }
+        // A request still waiting when it times out is left out of its batch and gets V009.
+        // One already taken into a batch is written anyway, so it gets V010 rather than a failure
+        deferredResult.onTimeout(() -> {
+            timeoutCounter.increment();
+            deferredResult.setResult(pendingTask.claim() ? UseCaseExecutor.timedOut() : UseCaseExecutor.stillProcessing());
+        });
+        return deferredResult;
+    }
+
+    // Requests still queued are dispatched before the thread stops
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        if (dispatcherThread != null) {
+            dispatcherThread.join(timeoutMillis);
+        }
+    }
+
+    //region private-default
+    // Waits for a first request, then gathers the batch around it
+    List<PendingTask> nextBatch() throws InterruptedException {
+        PendingTask first = running ? queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS) : queue.poll();
+        if (first == null) {
+            return new ArrayList<>();
+        }
+        List<PendingTask> batch = new ArrayList<>(maxBatchSize);
+        batch.add(first);
+        queue.drainTo(batch, maxBatchSize - batch.size());
+        long deadline = System.nanoTime() + windowNanos;
+        while (batch.size() < maxBatchSize) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            PendingTask next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+            queue.drainTo(batch, maxBatchSize - batch.size());
+        }
+        return batch;
+    }
+
+    void run(List<PendingTask> batch) {
+        List<PendingTask> live = new ArrayList<>(batch.size());
+        List<TaskRequest> taskRequests = new ArrayList<>(batch.size());
+        for (PendingTask pendingTask : batch) {
+            if (pendingTask.claim()) {
+                live.add(pendingTask);
+                taskRequests.add(pendingTask.taskRequest);
+            }
+        }
+        if (live.isEmpty()) {
+            return;
+        }
+        batchSize.record(live.size());
+        try {
+            List<TaskBatchItemResponse> responses = taskBatchControllerUseCase.createTasks(taskRequests);
+            for (int i = 0; i < live.size(); i++) {
+                live.get(i).deferredResult.setResult(toResponseEntity(responses.get(i)));
+            }
+        } catch (RuntimeException e) {
+            // Spring resolves it like an exception thrown on each request thread, by default a 500 as before
+            live.forEach(pendingTask -> pendingTask.deferredResult.setErrorResult(e));
+        }
+    }
+
+    static class PendingTask {
+        private final TaskRequest taskRequest;
+        private final DeferredResult<ResponseEntity<?>> deferredResult;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        PendingTask(TaskRequest taskRequest, DeferredResult<ResponseEntity<?>> deferredResult) {
+            this.taskRequest = taskRequest;
+            this.deferredResult = deferredResult;
+        }
+
+        // Taken by whichever comes first: the batch or the timeout
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+    //endregion
+
+    //region private
+    private void dispatch() {
+        try {
+            while (running || !queue.isEmpty()) {
+                run(nextBatch());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // The same responses as a single POST /task
+    private static ResponseEntity<?> toResponseEntity(TaskBatchItemResponse response) {
+        if (!response.isError()) {
+            return ResponseEntity.ok().body(new TaskResponse(response.getTaskId(), response.getAgentId(), response.getTaskStatus()));
+        }
+        if ("V007".equals(response.getErrorCode())) {
+            return ResponseEntity.unprocessableEntity().body(new TaskRequestServerErrorResponse(response.getErrorCode(), response.getErrorResponse()));
+        }
+        return ResponseEntity.unprocessableEntity().body(new TaskRequestBusinessErrorResponse(response.getErrorCode(), response.getErrorResponse()));
+    }
+    //endregion
+}
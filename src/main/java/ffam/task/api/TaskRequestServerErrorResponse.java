@@ -3,7 +3,7 @@ package ffam.task.api;
 import lombok.Value;
 
 @Value
-public class TaskRequestServerErrorResponse {
+public class TaskRequestServerErrorResponse implements ErrorResponse {
     String errorCode;
     String errorResponse;
 }
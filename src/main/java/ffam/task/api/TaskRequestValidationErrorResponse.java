@@ -3,7 +3,7 @@ package ffam.task.api;
 import lombok.Value;
 
 @Value
-public class TaskRequestValidationErrorResponse {
+public class TaskRequestValidationErrorResponse implements ErrorResponse {
     String errorCode;
     String errorResponse;
 }
@@ -0,0 +1,52 @@
+package ffam.task.data;
+
+import ffam.task.domain.TaskAllocationDetail;
+import ffam.task.domain.TaskPriority;
+import lombok.Value;
+
+import java.time.ZonedDateTime;
+
+/**
+ * One change to an agent's allocation, as kept in the {@link AllocationJournal} until it is flushed to
+ * TASK_ALLOCATION and TASK_ALLOCATION_ITEM.
+ * ADD and REMOVE carry the agent's row as it is after the change. RELEASE deletes the row.
+ */
+@Value
+public class AllocationChange {
+    public enum Type {ADD, REMOVE, RELEASE}
+
+    private Type type;
+    private String agentId;
+    private String taskId;
+    // Priority of the added task. Not used by REMOVE and RELEASE
+    private TaskPriority taskPriority;
+    // The agent's row after the change. Not used by RELEASE
+    private TaskPriority rowPriority;
+    private ZonedDateTime dateCreated;
+    private long version;
+
+    // The task was allocated to the agent, whose allocation is now the given one
+    public static AllocationChange added(TaskAllocationDetail taskAllocationDetail, String taskId, TaskPriority taskPriority) {
+        return new AllocationChange(Type.ADD,
+                taskAllocationDetail.getAgentId(),
+                taskId,
+                taskPriority,
+                taskAllocationDetail.getTaskPriority(),
+                taskAllocationDetail.getDateCreated(),
+                taskAllocationDetail.getVersion());
+    }
+
+    // The task was taken off the agent, whose allocation is now the given one. An allocation with no task left releases the agent
+    public static AllocationChange removed(TaskAllocationDetail taskAllocationDetail, String taskId) {
+        if (taskAllocationDetail.getTaskId().isEmpty()) {
+            return new AllocationChange(Type.RELEASE, taskAllocationDetail.getAgentId(), taskId, null, null, null, 0);
+        }
+        return new AllocationChange(Type.REMOVE,
+                taskAllocationDetail.getAgentId(),
+                taskId,
+                null,
+                taskAllocationDetail.getTaskPriority(),
+                taskAllocationDetail.getDateCreated(),
+                taskAllocationDetail.getVersion());
+    }
+}
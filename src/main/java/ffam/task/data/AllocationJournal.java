@@ -0,0 +1,342 @@
+package ffam.task.data;
+
+import ffam.task.domain.TaskPriority;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local, append-only journal of allocation changes for the write-behind mode (ffam.write-behind.enabled).
+ * A change is appended in memory first, in the same step as {@link ffam.task.domain.AgentOccupancyEngine} takes it,
+ * so each agent's changes are journalled in order. {@link #sync()} then writes and fsyncs every change appended so far:
+ * requests that call it together share one write and one fsync. The flusher takes the pending changes to the database
+ * and discards the segment files it no longer needs. Segments left over from a crash are recovered at startup.
+ */
+@Slf4j
+@Component
+public class AllocationJournal {
+    static final String PENDING = "ffam.journal.pending";
+    static final String SYNC = "ffam.journal.sync";
+    static final String SYNC_CHANGES = "ffam.journal.sync.changes";
+    static final String SYNC_FAILURES = "ffam.journal.sync.failures";
+
+    private static final String SEGMENT_PREFIX = "allocations-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String NONE = "";
+
+    private final boolean enabled;
+    private final Path directory;
+    private final MeterRegistry meterRegistry;
+    private final Timer syncTimer;
+    private final DistributionSummary syncChanges;
+    private final Counter syncFailures;
+
+    // Guards the changes below. Only held briefly, appends happen while the occupancy holds the agent
+    private final Object lock = new Object();
+    private final List<AllocationChange> pending = new ArrayList<>();
+    private final List<AllocationChange> unwritten = new ArrayList<>();
+    private long appendedSequence;
+    private boolean rotateRequested;
+
+    // Guards the segment files. Held by the one caller writing a group of changes
+    private final Object syncLock = new Object();
+    // Segment files by number, the last one is written to. Each knows the sequence of the last change it holds
+    private final TreeMap<Long, Long> segments = new TreeMap<>();
+    private FileChannel channel;
+    private volatile long syncedSequence;
+
+    @Autowired
+    public AllocationJournal(@Value("${ffam.write-behind.enabled:false}") boolean enabled,
+                             @Value("${ffam.write-behind.directory:journal}") String directory,
+                             MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.meterRegistry = meterRegistry;
+        Gauge.builder(PENDING, this, AllocationJournal::pendingCount)
+                .description("Allocation changes not flushed to the database yet")
+                .register(meterRegistry);
+        this.syncTimer = Timer.builder(SYNC)
+                .description("Time taken to write and fsync a group of allocation changes")
+                .register(meterRegistry);
+        this.syncChanges = DistributionSummary.builder(SYNC_CHANGES)
+                .description("Allocation changes written by one fsync")
+                .register(meterRegistry);
+        this.syncFailures = Counter.builder(SYNC_FAILURES)
+                .description("Groups of allocation changes that could not be written to the journal")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Reads the segments left by an earlier run, oldest change first. They are deleted by the next discard
+    public List<AllocationChange> recover() {
+        List<AllocationChange> changes = new ArrayList<>();
+        synchronized (syncLock) {
+            for (Path segment : findSegments()) {
+                changes.addAll(read(segment));
+                segments.put(segmentNumber(segment), 0L);
+            }
+        }
+        return changes;
+    }
+
+    public void append(List<AllocationChange> changes) {
+        synchronized (lock) {
+            pending.addAll(changes);
+            unwritten.addAll(changes);
+            appendedSequence += changes.size();
+        }
+    }
+
+    // Returns once every change appended so far is on disk
+    public void sync() {
+        long target;
+        synchronized (lock) {
+            target = appendedSequence;
+        }
+        synchronized (syncLock) {
+            if (syncedSequence >= target) {
+                // Written together with the changes of an earlier caller
+                return;
+            }
+            List<AllocationChange> changes;
+            long sequence;
+            boolean rotate;
+            synchronized (lock) {
+                changes = new ArrayList<>(unwritten);
+                unwritten.clear();
+                sequence = appendedSequence;
+                rotate = rotateRequested;
+                rotateRequested = false;
+            }
+
+            long start = meterRegistry.config().clock().monotonicTime();
+            try {
+                if (channel == null || rotate) {
+                    openSegment();
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(encode(changes).getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                // The changes are already taken by the occupancy and still pending, so they reach the database with
+                // the next flush and the caller goes on. Only a crash before then loses them
+                syncFailures.increment();
+                log.error("Unable to write {} allocation changes to the journal, they only reach the database with the next flush",
+                        changes.size(), e);
+                abandonSegment(sequence);
+                return;
+            }
+            segments.put(segments.lastKey(), sequence);
+            syncedSequence = sequence;
+            syncTimer.record(meterRegistry.config().clock().monotonicTime() - start, TimeUnit.NANOSECONDS);
+            syncChanges.record(changes.size());
+        }
+    }
+
+    // Hands every change not flushed yet to the flusher, oldest first. The next write starts a new segment,
+    // so the segments holding these changes can be discarded once they are in the database
+    public PendingAllocationChanges takePending() {
+        synchronized (lock) {
+            PendingAllocationChanges taken = new PendingAllocationChanges(new ArrayList<>(pending), appendedSequence);
+            if (!pending.isEmpty()) {
+                pending.clear();
+                rotateRequested = true;
+            }
+            return taken;
+        }
+    }
+
+    // The flush failed. Put the changes back in front of the ones appended since, to be flushed next time
+    public void restore(PendingAllocationChanges taken) {
+        synchronized (lock) {
+            pending.addAll(0, taken.getChanges());
+        }
+    }
+
+    // Deletes the segments whose changes are all in the database. The segment being written to is kept
+    public void discard(long flushedSequence) {
+        synchronized (syncLock) {
+            Iterator<Long> segmentNumbers = segments.keySet().iterator();
+            while (segmentNumbers.hasNext()) {
+                long segmentNumber = segmentNumbers.next();
+                if (channel != null && segmentNumber == segments.lastKey()) {
+                    break;
+                }
+                if (segments.get(segmentNumber) > flushedSequence) {
+                    break;
+                }
+                delete(segmentNumber);
+                segmentNumbers.remove();
+            }
+        }
+    }
+
+    // Once everything was flushed, nothing in the journal is needed anymore
+    @PreDestroy
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+            if (pendingCount() == 0) {
+                segments.keySet().forEach(this::delete);
+                segments.clear();
+            }
+        }
+    }
+
+    //region private
+    private int pendingCount() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    // The segment may end with a partly written change. Nothing more is written to it, so recovery reads past it into
+    // the next segment. It is kept until the changes that failed are in the database
+    private void abandonSegment(long sequence) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Unable to close the journal segment", e);
+            }
+            channel = null;
+        }
+        if (!segments.isEmpty()) {
+            segments.put(segments.lastKey(), sequence);
+        }
+    }
+
+    private void openSegment() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        Files.createDirectories(directory);
+        long segmentNumber = segments.isEmpty() ? nextSegmentNumber() : segments.lastKey() + 1;
+        channel = FileChannel.open(segmentPath(segmentNumber), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        segments.put(segmentNumber, syncedSequence);
+    }
+
+    // Continues after the segments already on disk, in case they were not recovered
+    private long nextSegmentNumber() {
+        List<Path> existing = findSegments();
+        return existing.isEmpty() ? 1 : segmentNumber(existing.get(existing.size() - 1)) + 1;
+    }
+
+    private List<Path> findSegments() {
+        if (!Files.isDirectory(directory)) {
+            return Collections.emptyList();
+        }
+        TreeMap<Long, Path> found = new TreeMap<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            paths.forEach(path -> found.put(segmentNumber(path), path));
+        } catch (IOException e) {
+            throw new DataAccessResourceFailureException("Unable to list the allocation journal", e);
+        }
+        return new ArrayList<>(found.values());
+    }
+
+    private Path segmentPath(long segmentNumber) {
+        return directory.resolve(String.format("%s%019d%s", SEGMENT_PREFIX, segmentNumber, SEGMENT_SUFFIX));
+    }
+
+    private static long segmentNumber(Path segment) {
+        String fileName = segment.getFileName().toString();
+        return Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private void delete(long segmentNumber) {
+        try {
+            Files.deleteIfExists(segmentPath(segmentNumber));
+        } catch (IOException e) {
+            log.warn("Unable to delete journal segment {}", segmentPath(segmentNumber), e);
+        }
+    }
+
+    // A crash can leave the last line of a segment half written. It and anything after it is left out
+    private static List<AllocationChange> read(Path segment) {
+        List<AllocationChange> changes = new ArrayList<>();
+        String content;
+        try {
+            content = new String(Files.readAllBytes(segment), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new DataAccessResourceFailureException("Unable to read journal segment " + segment, e);
+        }
+        int lineStart = 0;
+        for (int lineEnd = content.indexOf('\n'); lineEnd >= 0; lineEnd = content.indexOf('\n', lineStart)) {
+            try {
+                changes.add(decode(content.substring(lineStart, lineEnd)));
+            } catch (RuntimeException e) {
+                log.warn("Unreadable change in journal segment {}, skipping the rest of it", segment, e);
+                return changes;
+            }
+            lineStart = lineEnd + 1;
+        }
+        if (lineStart < content.length()) {
+            log.warn("Journal segment {} ends with a partly written change, skipping it", segment);
+        }
+        return changes;
+    }
+
+    // One line per change, tab separated
+    private static String encode(List<AllocationChange> changes) {
+        StringBuilder stringBuilder = new StringBuilder();
+        for (AllocationChange change : changes) {
+            stringBuilder.append(change.getType()).append('\t')
+                    .append(change.getAgentId()).append('\t')
+                    .append(change.getTaskId()).append('\t')
+                    .append(change.getTaskPriority() == null ? NONE : change.getTaskPriority()).append('\t')
+                    .append(change.getRowPriority() == null ? NONE : change.getRowPriority()).append('\t')
+                    .append(change.getDateCreated() == null ? NONE : change.getDateCreated()).append('\t')
+                    .append(change.getVersion()).append('\n');
+        }
+        return stringBuilder.toString();
+    }
+
+    private static AllocationChange decode(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 7) {
+            throw new IllegalArgumentException("Expected 7 fields, found " + fields.length);
+        }
+        return new AllocationChange(AllocationChange.Type.valueOf(fields[0]),
+                fields[1],
+                fields[2],
+                fields[3].isEmpty() ? null : TaskPriority.valueOf(fields[3]),
+                fields[4].isEmpty() ? null : TaskPriority.valueOf(fields[4]),
+                fields[5].isEmpty() ? null : ZonedDateTime.parse(fields[5]),
+                Long.parseLong(fields[6]));
+    }
+    //endregion
+}
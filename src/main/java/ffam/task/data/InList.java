@@ -0,0 +1,56 @@
+package ffam.task.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Bind-parameter IN lists with a fixed set of statement texts.
+ * Lists are padded to the next power of two by repeating the last value, so a statement with an IN list has at most
+ * one text per power of two up to MAX_SIZE. Each text is built once and parsed once per connection.
+ * Oracle allows at most 1000 expressions in an IN list, longer lists are split into chunks of MAX_SIZE.
+ * Every other repository statement has a single fixed text with its values in binds, for the same reason.
+ */
+final class InList {
+    static final int MAX_SIZE = 512;
+
+    private InList() {
+    }
+
+    // One statement per padded size: prefix ?, ?, ... suffix
+    static String[] statements(String prefix, String suffix) {
+        String[] statements = new String[Integer.numberOfTrailingZeros(MAX_SIZE) + 1];
+        for (int i = 0; i < statements.length; i++) {
+            statements[i] = prefix + String.join(", ", Collections.nCopies(1 << i, "?")) + suffix;
+        }
+        return statements;
+    }
+
+    static String statement(String[] statements, int size) {
+        return statements[Integer.numberOfTrailingZeros(paddedSize(size))];
+    }
+
+    static Object[] arguments(List<String> values) {
+        Object[] arguments = new Object[paddedSize(values.size())];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = values.get(Math.min(i, values.size() - 1));
+        }
+        return arguments;
+    }
+
+    // Distinct values in chunks of at most MAX_SIZE
+    static List<List<String>> chunks(Collection<String> values) {
+        List<String> distinctValues = new ArrayList<>(new LinkedHashSet<>(values));
+        List<List<String>> chunks = new ArrayList<>();
+        for (int from = 0; from < distinctValues.size(); from += MAX_SIZE) {
+            chunks.add(distinctValues.subList(from, Math.min(from + MAX_SIZE, distinctValues.size())));
+        }
+        return chunks;
+    }
+
+    static int paddedSize(int size) {
+        return size <= 1 ? 1 : Math.min(MAX_SIZE, Integer.highestOneBit(size - 1) << 1);
+    }
+}
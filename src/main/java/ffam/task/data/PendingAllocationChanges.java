@@ -0,0 +1,15 @@
+package ffam.task.data;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * The allocation changes taken from the {@link AllocationJournal} by one flush, oldest first.
+ * Once they are in the database, the journal segments up to sequence can be discarded.
+ */
+@Value
+public class PendingAllocationChanges {
+    private List<AllocationChange> changes;
+    private long sequence;
+}
@@ -1,107 +1,392 @@
 package ffam.task.data;
 
-import ffam.general.ZonedDateTimeProvider;
+import ffam.configuration.cache.LookupCache;
+import ffam.task.domain.PlannedAllocation;
+import ffam.task.domain.PlannedRemoval;
+import ffam.task.domain.Task;
 import ffam.task.domain.TaskAllocationDetail;
 import ffam.task.domain.TaskPriority;
 import lombok.extern.slf4j.Slf4j;
+import lombok.val;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.sql.Date;
 import java.sql.ResultSet;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 @Slf4j
 @Repository
 public class TaskAllocationDetailRepository {
+    // Expected version of an agent that has no TASK_ALLOCATION row yet. A new row starts at NO_VERSION + 1
+    public static final long NO_VERSION = -1;
+
+    private static final String SELECT_TASK_ALLOCATION =
+            "SELECT a.AGENT_ID, a.TASK_PRIORITY, a.DATE_CREATED, a.VERSION, i.TASK_ID " +
+                    "FROM TASK_ALLOCATION a " +
+                    "JOIN TASK_ALLOCATION_ITEM i ON i.AGENT_ID = a.AGENT_ID ";
+    private static final String FIND_ALL =
+            SELECT_TASK_ALLOCATION +
+                    "ORDER BY a.DATE_CREATED DESC, a.AGENT_ID, i.DATE_CREATED ";
+    private static final String FIND_BY_AGENT_ID =
+            SELECT_TASK_ALLOCATION +
+                    "WHERE a.AGENT_ID = ? " +
+                    "ORDER BY i.DATE_CREATED ";
+    private static final String[] LOCK_VERSIONS = InList.statements(
+            "SELECT AGENT_ID, VERSION FROM TASK_ALLOCATION " +
+                    "WHERE AGENT_ID IN (", ") " +
+                    "FOR UPDATE");
+    // Creates the agent's row, or updates it if it is still at the expected version
+    private static final String MERGE_TASK_ALLOCATION =
+            "MERGE INTO TASK_ALLOCATION a " +
+                    "USING (SELECT ? AS AGENT_ID FROM DUAL) s " +
+                    "ON (a.AGENT_ID = s.AGENT_ID) " +
+                    "WHEN MATCHED THEN UPDATE SET " +
+                    "a.TASK_PRIORITY = ? , " +
+                    "a.DATE_CREATED = ? , " +
+                    "a.VERSION = a.VERSION + 1 " +
+                    "WHERE a.VERSION = ? " +
+                    "WHEN NOT MATCHED THEN INSERT (AGENT_ID, TASK_PRIORITY, DATE_CREATED, VERSION) " +
+                    "VALUES (s.AGENT_ID, ?, ?, ?) " +
+                    "WHERE ? = ? ";
+    private static final String INSERT_TASK_ALLOCATION_ITEM =
+            "INSERT INTO TASK_ALLOCATION_ITEM (AGENT_ID, TASK_ID, TASK_PRIORITY, DATE_CREATED) " +
+                    "VALUES (?, ?, ?, ?) ";
+    private static final String UPDATE_TASK_ALLOCATION_PRIORITY =
+            "UPDATE TASK_ALLOCATION " +
+                    "SET TASK_PRIORITY = ? , " +
+                    "VERSION = VERSION + 1 " +
+                    "WHERE AGENT_ID = ? AND VERSION = ? ";
+    private static final String DELETE_TASK_ALLOCATION_ITEM =
+            "DELETE FROM TASK_ALLOCATION_ITEM WHERE AGENT_ID = ? AND TASK_ID = ? ";
+    private static final String DELETE_TASK_ALLOCATION =
+            "DELETE FROM TASK_ALLOCATION WHERE AGENT_ID = ? AND VERSION = ? ";
+    // Write-behind: the journal already decided the agent's row, set it whatever its version
+    private static final String UPSERT_TASK_ALLOCATION =
+            "MERGE INTO TASK_ALLOCATION a " +
+                    "USING (SELECT ? AS AGENT_ID FROM DUAL) s " +
+                    "ON (a.AGENT_ID = s.AGENT_ID) " +
+                    "WHEN MATCHED THEN UPDATE SET " +
+                    "a.TASK_PRIORITY = ? , " +
+                    "a.DATE_CREATED = ? , " +
+                    "a.VERSION = ? " +
+                    "WHEN NOT MATCHED THEN INSERT (AGENT_ID, TASK_PRIORITY, DATE_CREATED, VERSION) " +
+                    "VALUES (s.AGENT_ID, ?, ?, ?) ";
+    private static final String MERGE_TASK_ALLOCATION_ITEM =
+            "MERGE INTO TASK_ALLOCATION_ITEM i " +
+                    "USING (SELECT ? AS TASK_ID FROM DUAL) s " +
+                    "ON (i.TASK_ID = s.TASK_ID) " +
+                    "WHEN NOT MATCHED THEN INSERT (AGENT_ID, TASK_ID, TASK_PRIORITY, DATE_CREATED) " +
+                    "VALUES (?, s.TASK_ID, ?, ?) ";
+    private static final String RELEASE_TASK_ALLOCATION =
+            "DELETE FROM TASK_ALLOCATION WHERE AGENT_ID = ? ";
+
     private final JdbcTemplate jdbcTemplate;
-    private final ZonedDateTimeProvider zonedDateTimeProvider;
+    private final LookupCache<String, Optional<TaskAllocationDetail>> taskAllocationCache;
 
     @Autowired
-    public TaskAllocationDetailRepository(JdbcTemplate jdbcTemplate, ZonedDateTimeProvider zonedDateTimeProvider) {
+    public TaskAllocationDetailRepository(JdbcTemplate jdbcTemplate,
+                                          LookupCache<String, Optional<TaskAllocationDetail>> taskAllocationCache) {
         this.jdbcTemplate = jdbcTemplate;
-        this.zonedDateTimeProvider = zonedDateTimeProvider;
+        this.taskAllocationCache = taskAllocationCache;
     }
 
     public List<TaskAllocationDetail> findAll() {
         List<TaskAllocationDetail> results = jdbcTemplate.query(
-                "SELECT AGENT_ID, TASK_ID, TASK_PRIORITY, DATE_CREATED " +
-                        "FROM TASK_ALLOCATION " +
-                        "ORDER BY DATE_CREATED DESC ",
+                FIND_ALL,
                 new Object[]{},
-                taskAllocationDetailRowMapper);
+                taskAllocationDetailExtractor);
 
         return results;
     }
 
+    // Read through the allocation cache. Every method below that changes an agent's rows invalidates it
     public Optional<TaskAllocationDetail> findByAgentId(String agentId) {
-        List<TaskAllocationDetail> results = jdbcTemplate.query(
-                "SELECT AGENT_ID, TASK_ID, TASK_PRIORITY, DATE_CREATED " +
-                        "FROM TASK_ALLOCATION WHERE AGENT_ID = ? ",
-                new Object[]{agentId},
-                taskAllocationDetailRowMapper);
-
-        return results.isEmpty() ? Optional.empty() : Optional.of(results.get(0));
+        return taskAllocationCache.get(agentId, this::loadByAgentId);
     }
 
-    public boolean create(String agentId,
-                          String taskId,
-                          TaskPriority taskPriority) {
-        int count = jdbcTemplate.update(
-                "INSERT INTO TASK_ALLOCATION (TASK_ID, AGENT_ID, TASK_PRIORITY) VALUES (?, ?, ?)",
-                new Object[]{taskId, agentId, taskPriority == TaskPriority.HIGH ? 1 : 0}
-        );
+    // Allocates one more task to the agent, creating the agent's row if it had none.
+    // The write only happens if the row is still at expectedVersion (or still absent for NO_VERSION), and the version is bumped.
+    // Returns false if someone else changed the row first
+    @Transactional
+    public boolean addTask(String agentId,
+                           String taskId,
+                           TaskPriority taskPriority,
+                           ZonedDateTime dateCreated,
+                           long expectedVersion) {
+        val priority = taskPriority == TaskPriority.HIGH ? 1 : 0;
+        val created = Date.from(dateCreated.toInstant());
+        // Also when the write loses to someone else's, so the reload after the conflict sees their row
+        taskAllocationCache.invalidate(agentId);
+        try {
+            int count = jdbcTemplate.update(
+                    MERGE_TASK_ALLOCATION,
+                    mergeTaskAllocationArguments(agentId, priority, created, expectedVersion));
+            if (count == 0) {
+                return false;
+            }
+        } catch (DuplicateKeyException e) {
+            // Another request inserted the row for this agent between our MERGE's match and insert
+            log.warn("Concurrent insert of TASK_ALLOCATION for agent : [{}]", agentId);
+            return false;
+        }
 
-        return count > 0;
+        jdbcTemplate.update(
+                INSERT_TASK_ALLOCATION_ITEM,
+                new Object[]{agentId, taskId, priority, created});
+        return true;
     }
 
-    public boolean update(String agentId,
-                          TaskPriority taskPriority,
-                          List<String> taskIdList,
-                          Optional<ZonedDateTime> zonedDateTimeOptional) {
+    // Locks the TASK_ALLOCATION rows of the given agents until the transaction ends and returns their versions.
+    // Agents without a row are left out
+    public Map<String, Long> lockVersions(Collection<String> agentIds) {
+        Map<String, Long> versions = new HashMap<>();
+        for (List<String> chunk : InList.chunks(agentIds)) {
+            jdbcTemplate.query(
+                    InList.statement(LOCK_VERSIONS, chunk.size()),
+                    InList.arguments(chunk),
+                    (ResultSet rs) -> {
+                        versions.put(rs.getString("AGENT_ID"), rs.getLong("VERSION"));
+                    });
+        }
+        return versions;
+    }
+
+    // addTask for many agents at once: one batch for the TASK_ALLOCATION rows and one for the new items.
+    // Meant to run in the caller's transaction after lockVersions confirmed every expected version
+    public void addTasks(List<PlannedAllocation> plannedAllocations) {
+        List<Object[]> allocationArguments = new ArrayList<>(plannedAllocations.size());
+        List<Object[]> itemArguments = new ArrayList<>();
+        for (PlannedAllocation plannedAllocation : plannedAllocations) {
+            val taskAllocationDetail = plannedAllocation.getTaskAllocationDetail();
+            val agentId = taskAllocationDetail.getAgentId();
+            val created = Date.from(taskAllocationDetail.getDateCreated().toInstant());
+            allocationArguments.add(mergeTaskAllocationArguments(agentId,
+                    taskAllocationDetail.getTaskPriority() == TaskPriority.HIGH ? 1 : 0,
+                    created,
+                    plannedAllocation.getExpectedVersion()));
+            for (Task task : plannedAllocation.getAddedTasks()) {
+                itemArguments.add(new Object[]{agentId, task.getTaskId(), task.getTaskPriority() == TaskPriority.HIGH ? 1 : 0, created});
+            }
+        }
+        jdbcTemplate.batchUpdate(MERGE_TASK_ALLOCATION, allocationArguments);
+        jdbcTemplate.batchUpdate(INSERT_TASK_ALLOCATION_ITEM, itemArguments);
+        List<String> agentIds = new ArrayList<>(plannedAllocations.size());
+        plannedAllocations.forEach(plannedAllocation -> agentIds.add(plannedAllocation.getTaskAllocationDetail().getAgentId()));
+        taskAllocationCache.invalidateAll(agentIds);
+    }
 
+    // Takes one task off the agent, who still has others left. DATE_CREATED is left as is.
+    // Returns false if the row is no longer at expectedVersion
+    @Transactional
+    public boolean removeTask(String agentId,
+                              String taskId,
+                              TaskPriority remainingTaskPriority,
+                              long expectedVersion) {
+        taskAllocationCache.invalidate(agentId);
         int count = jdbcTemplate.update(
-                "UPDATE TASK_ALLOCATION " +
-                        "SET TASK_ID = ? ," +
-                        "TASK_PRIORITY = ? , " +
-                        "DATE_CREATED = ?  " +
-                        "WHERE AGENT_ID = ? ",
-                new Object[]{String.join(",", taskIdList),
-                        taskPriority == TaskPriority.HIGH ? 1 : 0, // If already present and updating, take newer state
-                        zonedDateTimeOptional.map(zonedDateTime -> Date.from(zonedDateTime.toInstant())).orElseGet(() -> Date.from(zonedDateTimeProvider.now().toInstant())),
-                        agentId});
+                UPDATE_TASK_ALLOCATION_PRIORITY,
+                new Object[]{remainingTaskPriority == TaskPriority.HIGH ? 1 : 0, agentId, expectedVersion});
+        if (count == 0) {
+            return false;
+        }
 
-        return count > 0;
+        jdbcTemplate.update(
+                DELETE_TASK_ALLOCATION_ITEM,
+                new Object[]{agentId, taskId});
+        return true;
     }
 
-    public boolean delete(String agentId) {
+    // removeTask and delete for many agents at once: one batch for the rows that go, one for the rows that stay and
+    // one for the items of the rows that stay. Meant to run in the caller's transaction after lockVersions confirmed
+    // every expected version
+    public void removeTasks(List<PlannedRemoval> plannedRemovals) {
+        List<Object[]> deleteArguments = new ArrayList<>();
+        List<Object[]> updateArguments = new ArrayList<>();
+        List<Object[]> itemArguments = new ArrayList<>();
+        for (PlannedRemoval plannedRemoval : plannedRemovals) {
+            val taskAllocationDetail = plannedRemoval.getTaskAllocationDetail();
+            val agentId = taskAllocationDetail.getAgentId();
+            if (plannedRemoval.isReleased()) {
+                deleteArguments.add(new Object[]{agentId, plannedRemoval.getExpectedVersion()});
+                continue;
+            }
+            updateArguments.add(new Object[]{taskAllocationDetail.getTaskPriority() == TaskPriority.HIGH ? 1 : 0,
+                    agentId,
+                    plannedRemoval.getExpectedVersion()});
+            for (String taskId : plannedRemoval.getRemovedTaskIds()) {
+                itemArguments.add(new Object[]{agentId, taskId});
+            }
+        }
+        if (!deleteArguments.isEmpty()) {
+            jdbcTemplate.batchUpdate(DELETE_TASK_ALLOCATION, deleteArguments);
+        }
+        if (!updateArguments.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPDATE_TASK_ALLOCATION_PRIORITY, updateArguments);
+            jdbcTemplate.batchUpdate(DELETE_TASK_ALLOCATION_ITEM, itemArguments);
+        }
+        List<String> agentIds = new ArrayList<>(plannedRemovals.size());
+        plannedRemovals.forEach(plannedRemoval -> agentIds.add(plannedRemoval.getTaskAllocationDetail().getAgentId()));
+        taskAllocationCache.invalidateAll(agentIds);
+    }
+
+    // Deletes the agent's row. Its TASK_ALLOCATION_ITEM rows go with it (ON DELETE CASCADE).
+    // Transactional like addTask and removeTask, so the cache entry is invalidated once the delete is committed
+    @Transactional
+    public boolean delete(String agentId,
+                          long expectedVersion) {
+        taskAllocationCache.invalidate(agentId);
         int count = jdbcTemplate.update(
-                "DELETE FROM TASK_ALLOCATION WHERE AGENT_ID = ? ",
-                new Object[]{agentId}
+                DELETE_TASK_ALLOCATION,
+                new Object[]{agentId, expectedVersion}
         );
         return count > 0;
     }
 
-    //region private
-    private final RowMapper<TaskAllocationDetail> taskAllocationDetailRowMapper =
-            (ResultSet rs, int rowNum) -> {
-                List<String> taskId = new ArrayList<>(Arrays.asList(rs.getString("TASK_ID").split(",")));
-                TaskPriority taskPriority = rs.getInt("TASK_PRIORITY") == 1 ? TaskPriority.HIGH : TaskPriority.LOW;
-                String agentId = rs.getString("AGENT_ID");
-                ZonedDateTime createdDate = ZonedDateTime.ofInstant(rs.getTimestamp("DATE_CREATED").toInstant(), ZoneId.systemDefault());
-                return new TaskAllocationDetail(
+    // Write-behind: brings the tables up to date with changes taken from the AllocationJournal, oldest first.
+    // The changes of each agent are folded first, so an agent gets one row write however many changes it had.
+    // Rows are set to the state the journal recorded instead of being checked against a version, so applying the same
+    // changes again after a crash is harmless. Returns the number of agents written
+    @Transactional
+    public int applyChanges(List<AllocationChange> changes) {
+        Map<String, FoldedChanges> foldedChanges = new LinkedHashMap<>();
+        for (AllocationChange change : changes) {
+            foldedChanges.computeIfAbsent(change.getAgentId(), agentId -> new FoldedChanges()).fold(change);
+        }
+
+        List<Object[]> releaseArguments = new ArrayList<>();
+        List<Object[]> upsertArguments = new ArrayList<>();
+        List<Object[]> removedItemArguments = new ArrayList<>();
+        List<Object[]> addedItemArguments = new ArrayList<>();
+        foldedChanges.forEach((agentId, folded) -> {
+            if (folded.released) {
+                releaseArguments.add(new Object[]{agentId});
+            }
+            if (folded.row != null) {
+                val priority = folded.row.getRowPriority() == TaskPriority.HIGH ? 1 : 0;
+                val created = Date.from(folded.row.getDateCreated().toInstant());
+                upsertArguments.add(new Object[]{agentId,
+                        priority, created, folded.row.getVersion(),
+                        priority, created, folded.row.getVersion()});
+            }
+            for (String taskId : folded.removedItems) {
+                removedItemArguments.add(new Object[]{agentId, taskId});
+            }
+            for (AllocationChange added : folded.addedItems.values()) {
+                addedItemArguments.add(new Object[]{added.getTaskId(),
                         agentId,
-                        taskId,
-                        taskPriority,
-                        createdDate
-                );
+                        added.getTaskPriority() == TaskPriority.HIGH ? 1 : 0,
+                        Date.from(added.getDateCreated().toInstant())});
+            }
+        });
+        // Deletes go first, a released row may have been created again since
+        batchUpdate(RELEASE_TASK_ALLOCATION, releaseArguments);
+        batchUpdate(UPSERT_TASK_ALLOCATION, upsertArguments);
+        batchUpdate(DELETE_TASK_ALLOCATION_ITEM, removedItemArguments);
+        batchUpdate(MERGE_TASK_ALLOCATION_ITEM, addedItemArguments);
+        taskAllocationCache.invalidateAll(foldedChanges.keySet());
+        return foldedChanges.size();
+    }
+
+    // TASK_ALLOCATION was changed without going through this repository
+    public void clearCache() {
+        taskAllocationCache.clear();
+    }
+
+    //region private
+    private Optional<TaskAllocationDetail> loadByAgentId(String agentId) {
+        List<TaskAllocationDetail> results = jdbcTemplate.query(
+                FIND_BY_AGENT_ID,
+                new Object[]{agentId},
+                taskAllocationDetailExtractor);
+
+        return results.isEmpty() ? Optional.empty() : Optional.of(results.get(0));
+    }
+
+    private void batchUpdate(String sql, List<Object[]> batchArguments) {
+        if (!batchArguments.isEmpty()) {
+            jdbcTemplate.batchUpdate(sql, batchArguments);
+        }
+    }
+
+    // What is left of one agent's changes: whether its row was deleted on the way, the row it ends with (none if
+    // the last change released it), and the items added and removed since the row was last deleted
+    private static class FoldedChanges {
+        private boolean released;
+        private AllocationChange row;
+        private final Map<String, AllocationChange> addedItems = new LinkedHashMap<>();
+        private final Set<String> removedItems = new LinkedHashSet<>();
+
+        private void fold(AllocationChange change) {
+            switch (change.getType()) {
+                case ADD:
+                    addedItems.put(change.getTaskId(), change);
+                    row = change;
+                    break;
+                case REMOVE:
+                    // Added and removed before the flush: the item never reaches the database
+                    if (addedItems.remove(change.getTaskId()) == null) {
+                        removedItems.add(change.getTaskId());
+                    }
+                    row = change;
+                    break;
+                case RELEASE:
+                    // Deleting the row deletes its items too
+                    released = true;
+                    row = null;
+                    addedItems.clear();
+                    removedItems.clear();
+                    break;
+            }
+        }
+    }
+
+    private static Object[] mergeTaskAllocationArguments(String agentId, int priority, java.util.Date created, long expectedVersion) {
+        return new Object[]{agentId,
+                priority, created, expectedVersion,
+                priority, created, NO_VERSION + 1,
+                expectedVersion, NO_VERSION};
+    }
+
+    // One row per allocated task. Rows of the same agent are adjacent, fold them into one TaskAllocationDetail
+    private final ResultSetExtractor<List<TaskAllocationDetail>> taskAllocationDetailExtractor =
+            (ResultSet rs) -> {
+                List<TaskAllocationDetail> results = new ArrayList<>();
+                String currentAgentId = null;
+                List<String> taskId = null;
+                while (rs.next()) {
+                    String agentId = rs.getString("AGENT_ID");
+                    if (!agentId.equals(currentAgentId)) {
+                        currentAgentId = agentId;
+                        taskId = new ArrayList<>();
+                        TaskPriority taskPriority = rs.getInt("TASK_PRIORITY") == 1 ? TaskPriority.HIGH : TaskPriority.LOW;
+                        ZonedDateTime createdDate = ZonedDateTime.ofInstant(rs.getTimestamp("DATE_CREATED").toInstant(), ZoneId.systemDefault());
+                        long version = rs.getLong("VERSION");
+                        results.add(new TaskAllocationDetail(
+                                agentId,
+                                taskId,
+                                taskPriority,
+                                createdDate,
+                                version
+                        ));
+                    }
+                    taskId.add(rs.getString("TASK_ID"));
+                }
+                return results;
             };
 
     //endregion
@@ -1,5 +1,6 @@
 package ffam.task.data;
 
+import ffam.configuration.cache.LookupCache;
 import ffam.task.domain.Task;
 import ffam.task.domain.TaskPriority;
 import ffam.task.domain.TaskStatus;
@@ -7,47 +8,137 @@ import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiConsumer;
 
 @Slf4j
 @Repository
 public class TaskRepository {
+    static final int IN_LIST_CHUNK_SIZE = InList.MAX_SIZE;
+
+    private static final String SELECT_TASK =
+            "SELECT TASK_ID, PRIORITY, SKILL_1, SKILL_2, SKILL_3, STATUS, AGENT_ID " +
+                    "FROM TASK ";
+    private static final String FIND_BY_TASK_ID =
+            SELECT_TASK +
+                    "WHERE TASK_ID = ? ";
+    private static final String[] FIND_BY_TASK_IDS = InList.statements(
+            SELECT_TASK +
+                    "WHERE TASK_ID IN (", ") ");
+    private static final String SELECT_TASK_HISTORY =
+            "SELECT TASK_ID, PRIORITY, SKILL_1, SKILL_2, SKILL_3, STATUS, AGENT_ID " +
+                    "FROM TASK_HISTORY ";
+    private static final String FIND_HISTORY_BY_TASK_ID =
+            SELECT_TASK_HISTORY +
+                    "WHERE TASK_ID = ? ";
+    private static final String[] FIND_HISTORY_BY_TASK_IDS = InList.statements(
+            SELECT_TASK_HISTORY +
+                    "WHERE TASK_ID IN (", ") ");
+    private static final String AGENT_TASK_COLUMNS =
+            "t.TASK_ID, t.PRIORITY, t.SKILL_1, t.SKILL_2, t.SKILL_3, t.STATUS, t.AGENT_ID ";
+    // Outer joins keep a row for every agent of the page, even one whose tasks are gone, so the page can say where it ended
+    private static final String SELECT_AGENT_TASKS_PAGE =
+            "SELECT a.AGENT_ID AS ALLOCATION_AGENT_ID, " + AGENT_TASK_COLUMNS;
+    // Every AGENT_ID sorts at or after CHR(0). Without a predicate on it the first page plans as a full scan of the key
+    private static final String FIND_FIRST_AGENT_TASKS_PAGE =
+            SELECT_AGENT_TASKS_PAGE +
+                    "FROM (SELECT AGENT_ID FROM (" +
+                    "SELECT AGENT_ID FROM TASK_ALLOCATION " +
+                    "WHERE AGENT_ID >= CHR(0) " +
+                    "ORDER BY AGENT_ID) WHERE ROWNUM <= ?) a " +
+                    "LEFT JOIN TASK_ALLOCATION_ITEM i ON i.AGENT_ID = a.AGENT_ID " +
+                    "LEFT JOIN TASK t ON t.TASK_ID = i.TASK_ID " +
+                    "ORDER BY a.AGENT_ID, i.DATE_CREATED ";
+    private static final String FIND_NEXT_AGENT_TASKS_PAGE =
+            SELECT_AGENT_TASKS_PAGE +
+                    "FROM (SELECT AGENT_ID FROM (" +
+                    "SELECT AGENT_ID FROM TASK_ALLOCATION " +
+                    "WHERE AGENT_ID > ? " +
+                    "ORDER BY AGENT_ID) WHERE ROWNUM <= ?) a " +
+                    "LEFT JOIN TASK_ALLOCATION_ITEM i ON i.AGENT_ID = a.AGENT_ID " +
+                    "LEFT JOIN TASK t ON t.TASK_ID = i.TASK_ID " +
+                    "ORDER BY a.AGENT_ID, i.DATE_CREATED ";
+    private static final String INSERT_TASK =
+            "INSERT INTO TASK(TASK_ID, PRIORITY, SKILL_1, SKILL_2, SKILL_3, STATUS, AGENT_ID) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_TASK_STATUS =
+            "UPDATE TASK " +
+                    "SET STATUS = ?, DATE_COMPLETED = CASE WHEN ? = 'COMPLETE' THEN SYSTIMESTAMP END " +
+                    "WHERE TASK_ID = ?";
+    // ROWNUM is applied before locked rows are skipped, so a batch can come back short while another archiver runs
+    private static final String LOCK_COMPLETED =
+            "SELECT TASK_ID FROM TASK " +
+                    "WHERE STATUS = ? " +
+                    "AND (DATE_COMPLETED < ? OR DATE_COMPLETED IS NULL) " +
+                    "AND ROWNUM <= ? " +
+                    "FOR UPDATE SKIP LOCKED";
+    private static final String[] ARCHIVE_TASKS = InList.statements(
+            "INSERT INTO TASK_HISTORY(TASK_ID, PRIORITY, SKILL_1, SKILL_2, SKILL_3, STATUS, AGENT_ID, DATE_COMPLETED) " +
+                    "SELECT TASK_ID, PRIORITY, SKILL_1, SKILL_2, SKILL_3, STATUS, AGENT_ID, DATE_COMPLETED " +
+                    "FROM TASK " +
+                    "WHERE TASK_ID IN (", ") ");
+    private static final String[] DELETE_TASKS = InList.statements(
+            "DELETE FROM TASK " +
+                    "WHERE TASK_ID IN (", ") ");
+
     private final JdbcTemplate jdbcTemplate;
+    private final LookupCache<String, Optional<Task>> taskCache;
 
     @Autowired
-    public TaskRepository(JdbcTemplate jdbcTemplate) {
+    public TaskRepository(JdbcTemplate jdbcTemplate, LookupCache<String, Optional<Task>> taskCache) {
         this.jdbcTemplate = jdbcTemplate;
+        this.taskCache = taskCache;
     }
 
+    // Read through the task cache. Every method below that changes a TASK row invalidates it.
+    // Archived tasks are found in TASK_HISTORY
     public Optional<Task> findByTaskId(String taskId) {
-        val results = jdbcTemplate.query(
-                "SELECT TASK_ID, PRIORITY, SKILL_1, SKILL_2, SKILL_3, STATUS, AGENT_ID " +
-                        "FROM TASK " +
-                        "WHERE TASK_ID = ? ",
-                new Object[]{taskId},
-                taskRowMapper);
-
-        return results.isEmpty() ? Optional.empty() : Optional.of((Task) results.get(0));
+        return taskCache.get(taskId, this::loadTask);
     }
 
-    public List<Task> findByAgentIdAndStatus(String agentId,
-                                             TaskStatus taskStatus) {
-        List<Task> results = jdbcTemplate.query(
-                "SELECT TASK_ID, PRIORITY, SKILL_1, SKILL_2, SKILL_3, STATUS, AGENT_ID " +
-                        "FROM TASK " +
-                        "WHERE AGENT_ID = ? " +
-                        "AND STATUS = ?",
-                new Object[]{agentId, taskStatus.name()},
-                taskRowMapper);
-
+    // Loads many tasks in as few round trips as possible. Oracle allows at most 1000 expressions in an IN list,
+    // so the ids are sent in chunks. Ids not in TASK are looked up in TASK_HISTORY. Tasks that do not exist are left out
+    public List<Task> findByTaskIds(Collection<String> taskIds) {
+        List<Task> results = findByTaskIds(FIND_BY_TASK_IDS, taskIds);
+        if (results.size() < taskIds.size()) {
+            Set<String> missingTaskIds = new HashSet<>(taskIds);
+            results.forEach(task -> missingTaskIds.remove(task.getTaskId()));
+            if (!missingTaskIds.isEmpty()) {
+                results.addAll(findByTaskIds(FIND_HISTORY_BY_TASK_IDS, missingTaskIds));
+            }
+        }
         return results;
     }
 
+    // Tasks of up to limit allocated agents with an AGENT_ID after afterAgentId (all agents when null), in AGENT_ID order.
+    // One call per agent, with its tasks in allocation order. Agents none of whose tasks are in TASK are left out.
+    // Returns the AGENT_ID the next page starts after, or null when this page reached the last allocated agent
+    public String findAgentTasksPage(String afterAgentId,
+                                     int limit,
+                                     BiConsumer<String, List<Task>> agentTasksConsumer) {
+        val agentTasksHandler = new AgentTasksHandler(agentTasksConsumer);
+        jdbcTemplate.query(
+                afterAgentId == null ? FIND_FIRST_AGENT_TASKS_PAGE : FIND_NEXT_AGENT_TASKS_PAGE,
+                afterAgentId == null ? new Object[]{limit} : new Object[]{afterAgentId, limit},
+                agentTasksHandler);
+        agentTasksHandler.finish();
+        return agentTasksHandler.allocationCount == limit ? agentTasksHandler.lastAllocationAgentId : null;
+    }
+
     public boolean create(String agentId,
                           String taskId,
                           TaskPriority taskPriority,
@@ -56,8 +147,7 @@ public class TaskRepository {
                           boolean skill2,
                           boolean skill3) {
         int count = jdbcTemplate.update(
-                "INSERT INTO TASK(TASK_ID, PRIORITY, SKILL_1, SKILL_2, SKILL_3, STATUS, AGENT_ID) " +
-                        "VALUES (?, ?, ?, ?, ?, ?, ?)",
+                INSERT_TASK,
                 new Object[]{
                         taskId,
                         taskPriority == TaskPriority.HIGH ? 1 : 0,
@@ -68,23 +158,138 @@ public class TaskRepository {
                         agentId
                 }
         );
+        taskCache.invalidate(taskId);
 
         return count > 0;
     }
 
+    // Inserts the tasks in one JDBC batch
+    public void createAll(List<Task> tasks) {
+        List<Object[]> arguments = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            arguments.add(new Object[]{
+                    task.getTaskId(),
+                    task.getTaskPriority() == TaskPriority.HIGH ? 1 : 0,
+                    task.isSkill1(),
+                    task.isSkill2(),
+                    task.isSkill3(),
+                    task.getTaskStatus().name(),
+                    task.getAgentId()
+            });
+        }
+        jdbcTemplate.batchUpdate(INSERT_TASK, arguments);
+        List<String> taskIds = new ArrayList<>(tasks.size());
+        tasks.forEach(task -> taskIds.add(task.getTaskId()));
+        taskCache.invalidateAll(taskIds);
+    }
+
     public boolean updateTaskStatus(String taskId,
                                     TaskStatus taskStatus) {
         int count = jdbcTemplate.update(
-                "UPDATE TASK " +
-                        "SET STATUS = ? " +
-                        "WHERE TASK_ID = ?",
-
-                new Object[]{taskStatus.name(), taskId});
+                UPDATE_TASK_STATUS,
+                new Object[]{taskStatus.name(), taskStatus.name(), taskId});
+        taskCache.invalidate(taskId);
 
         return count > 0;
     }
 
+    // Sets the status of every given task in one JDBC batch
+    public void updateTaskStatuses(Collection<String> taskIds,
+                                   TaskStatus taskStatus) {
+        List<Object[]> arguments = new ArrayList<>(taskIds.size());
+        for (String taskId : taskIds) {
+            arguments.add(new Object[]{taskStatus.name(), taskStatus.name(), taskId});
+        }
+        jdbcTemplate.batchUpdate(UPDATE_TASK_STATUS, arguments);
+        taskCache.invalidateAll(taskIds);
+    }
+
+    // Moves up to limit tasks completed before completedBefore from TASK to TASK_HISTORY and returns how many it moved.
+    // Tasks completed before DATE_COMPLETED existed have none and always qualify. Rows another transaction holds are
+    // skipped. Archived tasks are still found, unchanged, so the task cache stays valid
+    @Transactional
+    public int archiveCompleted(ZonedDateTime completedBefore,
+                                int limit) {
+        List<String> taskIds = jdbcTemplate.queryForList(
+                LOCK_COMPLETED,
+                new Object[]{TaskStatus.COMPLETE.name(), Timestamp.from(completedBefore.toInstant()), limit},
+                String.class);
+        for (List<String> chunk : InList.chunks(taskIds)) {
+            jdbcTemplate.update(InList.statement(ARCHIVE_TASKS, chunk.size()), InList.arguments(chunk));
+            jdbcTemplate.update(InList.statement(DELETE_TASKS, chunk.size()), InList.arguments(chunk));
+        }
+        return taskIds.size();
+    }
+
+    // TASK was changed without going through this repository
+    public void clearCache() {
+        taskCache.clear();
+    }
+
     //region private
+    private Optional<Task> loadTask(String taskId) {
+        List<Task> results = jdbcTemplate.query(
+                FIND_BY_TASK_ID,
+                new Object[]{taskId},
+                taskRowMapper);
+        if (results.isEmpty()) {
+            results = jdbcTemplate.query(
+                    FIND_HISTORY_BY_TASK_ID,
+                    new Object[]{taskId},
+                    taskRowMapper);
+        }
+
+        return results.isEmpty() ? Optional.empty() : Optional.of(results.get(0));
+    }
+
+    private List<Task> findByTaskIds(String[] statements, Collection<String> taskIds) {
+        List<Task> results = new ArrayList<>(taskIds.size());
+        for (List<String> chunk : InList.chunks(taskIds)) {
+            results.addAll(jdbcTemplate.query(
+                    InList.statement(statements, chunk.size()),
+                    InList.arguments(chunk),
+                    taskRowMapper));
+        }
+        return results;
+    }
+
+    // Rows of the same agent are adjacent. Collects them and hands the agent over when the next one starts.
+    // A row without a task only counts the allocation
+    private class AgentTasksHandler implements RowCallbackHandler {
+        private final BiConsumer<String, List<Task>> agentTasksConsumer;
+        private String agentId;
+        private List<Task> taskList = new ArrayList<>();
+        private int allocationCount;
+        private String lastAllocationAgentId;
+
+        private AgentTasksHandler(BiConsumer<String, List<Task>> agentTasksConsumer) {
+            this.agentTasksConsumer = agentTasksConsumer;
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            String allocationAgentId = rs.getString("ALLOCATION_AGENT_ID");
+            if (!allocationAgentId.equals(agentId)) {
+                finish();
+                agentId = allocationAgentId;
+                allocationCount++;
+                lastAllocationAgentId = allocationAgentId;
+            }
+            // STATUS is never null in TASK, so a null one means the outer join found no task
+            if (rs.getString("STATUS") != null) {
+                taskList.add(taskRowMapper.mapRow(rs, taskList.size()));
+            }
+        }
+
+        private void finish() {
+            if (agentId != null && !taskList.isEmpty()) {
+                agentTasksConsumer.accept(agentId, taskList);
+                taskList = new ArrayList<>();
+            }
+            agentId = null;
+        }
+    }
+
     private final RowMapper<Task> taskRowMapper =
             (ResultSet rs, int rowNum) -> {
                 String taskId = rs.getString("TASK_ID");
@@ -1,5 +1,6 @@
 package ffam.task.domain;
 
+import ffam.configuration.metrics.TimedUseCase;
 import ffam.general.UuidGenerator;
 import ffam.task.api.TaskRequest;
 import ffam.task.api.TaskRequestBusinessErrorResponse;
@@ -23,6 +24,7 @@ public class AddTaskUseCase {
         this.taskAllocationDetailUseCase = taskAllocationDetailUseCase;
     }
 
+    @TimedUseCase
     public ResponseEntity<?> addTask(String agentId, TaskRequest taskRequest) {
         val taskId = uuidGenerator.randomUUID().toString();
         // Add a record to the task allocation table
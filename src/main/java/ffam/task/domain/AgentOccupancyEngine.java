@@ -0,0 +1,326 @@
+package ffam.task.domain;
+
+import ffam.agent.data.Agent;
+import ffam.agent.data.AgentRosterChangedEvent;
+import ffam.agent.data.AgentSkillIndex;
+import ffam.agent.data.SkillMask;
+import ffam.task.data.TaskAllocationDetailRepository;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+import static ffam.task.data.TaskAllocationDetailRepository.NO_VERSION;
+
+/**
+ * Authoritative in-memory view of what every agent is working on.
+ * It is rebuilt from TASK_ALLOCATION at startup and kept up to date by {@link TaskAllocationDetailUseCase} after every
+ * successful assign and complete, so assignment decisions never have to read TASK or TASK_ALLOCATION.
+ * The database stays the durable record. This assumes a single service instance owns the allocation tables.
+ * In write-behind mode the occupancy takes every change first and the database catches up from the
+ * {@link ffam.task.data.AllocationJournal}.
+ * Agents on LOW priority work are also kept in one sorted set per agent skill mask, most recently started first, so
+ * the agent a HIGH priority task should preempt is found without looking at every allocation.
+ * Likewise idle agents are kept in one set per agent skill mask in roster order, so an idle agent with the skills is
+ * found by looking at the head of at most one set per skill mask.
+ */
+@Slf4j
+@Component
+public class AgentOccupancyEngine {
+    private static final Comparator<TaskAllocationDetail> BY_DATE_CREATED_DESC =
+            Comparator.comparing(TaskAllocationDetail::getDateCreated).reversed();
+    private static final Comparator<TaskAllocationDetail> PREEMPTION_ORDER =
+            BY_DATE_CREATED_DESC.thenComparing(TaskAllocationDetail::getAgentId);
+
+    private final TaskAllocationDetailRepository taskAllocationDetailRepository;
+    private final AgentSkillIndex agentSkillIndex;
+    private final ConcurrentMap<String, TaskAllocationDetail> allocations = new ConcurrentHashMap<>();
+    // Indexed by the agent's skill mask. Only changed from within allocations.compute for the same agent
+    private final List<ConcurrentSkipListSet<TaskAllocationDetail>> lowPriorityBySkillMask = new ArrayList<>(SkillMask.COMBINATIONS);
+    // Indexed by the agent's skill mask, like the above. Holds the roster agents with no allocation
+    private final List<ConcurrentSkipListSet<RosterEntry>> idleBySkillMask = new ArrayList<>(SkillMask.COMBINATIONS);
+    // The entry each idle agent has in idleBySkillMask
+    private final ConcurrentMap<String, RosterEntry> idleEntries = new ConcurrentHashMap<>();
+    private volatile Map<String, RosterEntry> roster = Collections.emptyMap();
+    // Write-behind: single agent changes share it, a batch of changes takes it alone
+    private final ReadWriteLock batchLock = new ReentrantReadWriteLock();
+
+    @Autowired
+    public AgentOccupancyEngine(TaskAllocationDetailRepository taskAllocationDetailRepository,
+                                AgentSkillIndex agentSkillIndex) {
+        this.taskAllocationDetailRepository = taskAllocationDetailRepository;
+        this.agentSkillIndex = agentSkillIndex;
+        for (int skillMask = 0; skillMask < SkillMask.COMBINATIONS; skillMask++) {
+            lowPriorityBySkillMask.add(new ConcurrentSkipListSet<>(PREEMPTION_ORDER));
+            idleBySkillMask.add(new ConcurrentSkipListSet<>(RosterEntry.ROSTER_ORDER));
+        }
+    }
+
+    @PostConstruct
+    public void rebuild() {
+        Map<String, TaskAllocationDetail> loaded = new ConcurrentHashMap<>();
+        for (TaskAllocationDetail taskAllocationDetail : taskAllocationDetailRepository.findAll()) {
+            loaded.put(taskAllocationDetail.getAgentId(), immutableCopy(taskAllocationDetail));
+        }
+        allocations.clear();
+        lowPriorityBySkillMask.forEach(ConcurrentSkipListSet::clear);
+        idleBySkillMask.forEach(ConcurrentSkipListSet::clear);
+        idleEntries.clear();
+        allocations.putAll(loaded);
+        reindex();
+        log.info("Agent occupancy rebuilt with {} busy agents", loaded.size());
+    }
+
+    // Agents may have joined or left the roster, or moved to another skill mask.
+    // Each agent is moved on its own, so selections running meanwhile see it either before or after the change
+    @EventListener(AgentRosterChangedEvent.class)
+    public void reindex() {
+        val agents = agentSkillIndex.findAll();
+        Map<String, RosterEntry> updatedRoster = new HashMap<>();
+        for (int position = 0; position < agents.size(); position++) {
+            val agent = agents.get(position);
+            updatedRoster.put(agent.getAgentId(), new RosterEntry(position, agent));
+        }
+        roster = Collections.unmodifiableMap(updatedRoster);
+
+        Set<String> agentIds = new HashSet<>(updatedRoster.keySet());
+        agentIds.addAll(allocations.keySet());
+        agentIds.addAll(idleEntries.keySet());
+        for (String agentId : agentIds) {
+            allocations.compute(agentId, (key, current) -> {
+                markBusy(agentId);
+                if (current == null) {
+                    markIdle(agentId);
+                    return null;
+                }
+                return replace(current, current);
+            });
+        }
+    }
+
+    public Optional<TaskAllocationDetail> findByAgentId(String agentId) {
+        return Optional.ofNullable(allocations.get(agentId));
+    }
+
+    public boolean hasBusyAgents() {
+        return !allocations.isEmpty();
+    }
+
+    // The agent that most recently started LOW priority work, among agents with all the required skills.
+    // Looks at the head of at most one set per skill mask
+    public Optional<TaskAllocationDetail> findPreemptionCandidate(int requiredMask) {
+        return findPreemptionCandidate(requiredMask, agentId -> false);
+    }
+
+    // Same as above, passing over the agents the caller already has other plans for
+    public Optional<TaskAllocationDetail> findPreemptionCandidate(int requiredMask, Predicate<String> excluded) {
+        TaskAllocationDetail candidate = null;
+        for (int skillMask = 0; skillMask < SkillMask.COMBINATIONS; skillMask++) {
+            if (!SkillMask.covers(skillMask, requiredMask)) {
+                continue;
+            }
+            for (TaskAllocationDetail lowPriority : lowPriorityBySkillMask.get(skillMask)) {
+                if (!excluded.test(lowPriority.getAgentId())) {
+                    if (candidate == null || PREEMPTION_ORDER.compare(lowPriority, candidate) < 0) {
+                        candidate = lowPriority;
+                    }
+                    break;
+                }
+            }
+        }
+        return Optional.ofNullable(candidate);
+    }
+
+    // The first idle agent of the first tier that has one, passing over the excluded agents. Each tier lists agent
+    // skill masks, and agents of one tier are taken in roster order. Looks at the head of at most one set per skill mask
+    public Optional<Agent> findIdleAgent(int[][] tiers, Predicate<String> excluded) {
+        for (int[] tier : tiers) {
+            RosterEntry candidate = null;
+            for (int skillMask : tier) {
+                for (RosterEntry idle : idleBySkillMask.get(skillMask)) {
+                    if (!excluded.test(idle.agent.getAgentId())) {
+                        if (candidate == null || RosterEntry.ROSTER_ORDER.compare(idle, candidate) < 0) {
+                            candidate = idle;
+                        }
+                        break;
+                    }
+                }
+            }
+            if (candidate != null) {
+                return Optional.of(candidate.agent);
+            }
+        }
+        return Optional.empty();
+    }
+
+    // Same order as TASK_ALLOCATION read by Date Created DSC
+    public List<TaskAllocationDetail> findAll() {
+        List<TaskAllocationDetail> results = new ArrayList<>(allocations.values());
+        results.sort(BY_DATE_CREATED_DESC);
+        return results;
+    }
+
+    // Record the allocation state that was just written to TASK_ALLOCATION.
+    // Writers can finish out of order, so an older version never replaces a newer one
+    public void update(TaskAllocationDetail taskAllocationDetail) {
+        val updated = immutableCopy(taskAllocationDetail);
+        allocations.compute(updated.getAgentId(),
+                (key, current) -> current == null || updated.getVersion() >= current.getVersion() ? replace(current, updated) : current);
+    }
+
+    // Record that the agent's TASK_ALLOCATION row was deleted at the given version
+    public void release(String agentId, long version) {
+        allocations.computeIfPresent(agentId,
+                (key, current) -> current.getVersion() <= version ? replace(current, null) : current);
+    }
+
+    // Write-behind: the occupancy is where versions are checked, before anything reaches TASK_ALLOCATION.
+    // Takes the new allocation if the agent is still at expectedVersion (NO_VERSION for an idle agent), and runs
+    // onChange in the same step so that what it records for the agent stays in order. No task left releases the agent
+    public boolean compareAndSet(String agentId, long expectedVersion, TaskAllocationDetail updated, Runnable onChange) {
+        val replacement = updated.getTaskId().isEmpty() ? null : immutableCopy(updated);
+        AtomicBoolean changed = new AtomicBoolean();
+        batchLock.readLock().lock();
+        try {
+            allocations.compute(agentId, (key, current) -> {
+                if (version(current) != expectedVersion) {
+                    return current;
+                }
+                onChange.run();
+                changed.set(true);
+                return replace(current, replacement);
+            });
+        } finally {
+            batchLock.readLock().unlock();
+        }
+        return changed.get();
+    }
+
+    // Same as above for several agents at once: either all of them change or none does. onChange runs before any
+    // agent changes and while no other change can be taken, so if it throws none does.
+    // Returns the agents that are no longer at their expected version
+    public Set<String> compareAndSetAll(Map<String, Long> expectedVersions, List<TaskAllocationDetail> updated, Runnable onChange) {
+        batchLock.writeLock().lock();
+        try {
+            Set<String> conflicts = new HashSet<>();
+            expectedVersions.forEach((agentId, expectedVersion) -> {
+                if (version(allocations.get(agentId)) != expectedVersion) {
+                    conflicts.add(agentId);
+                }
+            });
+            if (!conflicts.isEmpty()) {
+                return conflicts;
+            }
+            onChange.run();
+            for (TaskAllocationDetail taskAllocationDetail : updated) {
+                val replacement = taskAllocationDetail.getTaskId().isEmpty() ? null : immutableCopy(taskAllocationDetail);
+                allocations.compute(taskAllocationDetail.getAgentId(), (key, current) -> replace(current, replacement));
+            }
+            return conflicts;
+        } finally {
+            batchLock.writeLock().unlock();
+        }
+    }
+
+    // Replace whatever is held for the agent with what was just read from TASK_ALLOCATION
+    public void reset(String agentId, Optional<TaskAllocationDetail> taskAllocationDetailOptional) {
+        val updated = taskAllocationDetailOptional.map(AgentOccupancyEngine::immutableCopy).orElse(null);
+        allocations.compute(agentId, (key, current) -> replace(current, updated));
+    }
+
+    //region private
+    private static long version(TaskAllocationDetail taskAllocationDetail) {
+        return taskAllocationDetail == null ? NO_VERSION : taskAllocationDetail.getVersion();
+    }
+
+    // Keeps the LOW priority and idle sets in step with the allocation held for the agent. Returns the new allocation
+    private TaskAllocationDetail replace(TaskAllocationDetail current, TaskAllocationDetail updated) {
+        if (current != null) {
+            unindex(current);
+        }
+        if (updated != null) {
+            index(updated);
+        }
+        if (current == null && updated != null) {
+            markBusy(updated.getAgentId());
+        } else if (current != null && updated == null) {
+            markIdle(current.getAgentId());
+        }
+        return updated;
+    }
+
+    // Only called from within allocations.compute for the same agent
+    private void markIdle(String agentId) {
+        val rosterEntry = roster.get(agentId);
+        if (rosterEntry != null) {
+            idleEntries.put(agentId, rosterEntry);
+            idleBySkillMask.get(rosterEntry.skillMask).add(rosterEntry);
+        }
+    }
+
+    private void markBusy(String agentId) {
+        val rosterEntry = idleEntries.remove(agentId);
+        if (rosterEntry != null) {
+            idleBySkillMask.get(rosterEntry.skillMask).remove(rosterEntry);
+        }
+    }
+
+    private void index(TaskAllocationDetail taskAllocationDetail) {
+        OptionalInt skillMask = agentSkillIndex.findSkillMask(taskAllocationDetail.getAgentId());
+        if (taskAllocationDetail.getTaskPriority() == TaskPriority.LOW && skillMask.isPresent()) {
+            lowPriorityBySkillMask.get(skillMask.getAsInt()).add(taskAllocationDetail);
+        }
+    }
+
+    private void unindex(TaskAllocationDetail taskAllocationDetail) {
+        if (taskAllocationDetail.getTaskPriority() == TaskPriority.LOW) {
+            lowPriorityBySkillMask.forEach(lowPriority -> lowPriority.remove(taskAllocationDetail));
+        }
+    }
+
+    private static class RosterEntry {
+        // Agents of an earlier roster may still be in the sets while the roster changes, agent ids keep them apart
+        private static final Comparator<RosterEntry> ROSTER_ORDER =
+                Comparator.<RosterEntry>comparingInt(rosterEntry -> rosterEntry.position)
+                        .thenComparing(rosterEntry -> rosterEntry.agent.getAgentId());
+
+        private final int position;
+        private final Agent agent;
+        private final int skillMask;
+
+        private RosterEntry(int position, Agent agent) {
+            this.position = position;
+            this.agent = agent;
+            this.skillMask = SkillMask.of(agent);
+        }
+    }
+
+    private static TaskAllocationDetail immutableCopy(TaskAllocationDetail taskAllocationDetail) {
+        return new TaskAllocationDetail(taskAllocationDetail.getAgentId(),
+                Collections.unmodifiableList(new ArrayList<>(taskAllocationDetail.getTaskId())),
+                taskAllocationDetail.getTaskPriority(),
+                taskAllocationDetail.getDateCreated(),
+                taskAllocationDetail.getVersion());
+    }
+    //endregion
+}
@@ -0,0 +1,104 @@
+package ffam.task.domain;
+
+import ffam.task.data.AllocationJournal;
+import ffam.task.data.TaskAllocationDetailRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind: every flush interval, takes the changes recorded in the {@link AllocationJournal} to TASK_ALLOCATION
+ * in one transaction, then discards the journal segments they came from. If the database is unavailable the changes
+ * stay pending and go with the next flush.
+ * At startup, changes an earlier run left in the journal are written first, even if write-behind has been turned off
+ * since, and the occupancy is rebuilt from the result.
+ */
+@Slf4j
+@Component
+public class AllocationFlusher {
+    static final String FLUSH = "ffam.journal.flush";
+    static final String FLUSH_AGENTS = "ffam.journal.flush.agents";
+    static final String FLUSH_FAILURES = "ffam.journal.flush.failures";
+    // Segments recovered at startup hold changes up to this sequence
+    private static final long RECOVERED = 0;
+
+    private final AllocationJournal allocationJournal;
+    private final TaskAllocationDetailRepository taskAllocationDetailRepository;
+    private final AgentOccupancyEngine agentOccupancyEngine;
+    private final MeterRegistry meterRegistry;
+    private final Timer flushTimer;
+    private final DistributionSummary flushAgents;
+    private final Counter flushFailures;
+
+    @Autowired
+    public AllocationFlusher(AllocationJournal allocationJournal,
+                             TaskAllocationDetailRepository taskAllocationDetailRepository,
+                             AgentOccupancyEngine agentOccupancyEngine,
+                             MeterRegistry meterRegistry) {
+        this.allocationJournal = allocationJournal;
+        this.taskAllocationDetailRepository = taskAllocationDetailRepository;
+        this.agentOccupancyEngine = agentOccupancyEngine;
+        this.meterRegistry = meterRegistry;
+        this.flushTimer = Timer.builder(FLUSH)
+                .description("Time taken to write a flush of allocation changes to the database")
+                .register(meterRegistry);
+        this.flushAgents = DistributionSummary.builder(FLUSH_AGENTS)
+                .description("Agents whose allocation was written by one flush")
+                .register(meterRegistry);
+        this.flushFailures = Counter.builder(FLUSH_FAILURES)
+                .description("Flushes that failed and were left for the next one")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void recover() {
+        val changes = allocationJournal.recover();
+        if (changes.isEmpty()) {
+            return;
+        }
+        int agents = taskAllocationDetailRepository.applyChanges(changes);
+        allocationJournal.discard(RECOVERED);
+        agentOccupancyEngine.rebuild();
+        log.info("Replayed {} allocation changes of {} agents from the journal", changes.size(), agents);
+    }
+
+    @Scheduled(initialDelayString = "${ffam.write-behind.flush-interval-ms:100}",
+            fixedDelayString = "${ffam.write-behind.flush-interval-ms:100}")
+    public synchronized void flush() {
+        if (!allocationJournal.isEnabled()) {
+            return;
+        }
+        val pending = allocationJournal.takePending();
+        if (pending.getChanges().isEmpty()) {
+            return;
+        }
+        long start = meterRegistry.config().clock().monotonicTime();
+        try {
+            int agents = taskAllocationDetailRepository.applyChanges(pending.getChanges());
+            allocationJournal.discard(pending.getSequence());
+            flushTimer.record(meterRegistry.config().clock().monotonicTime() - start, TimeUnit.NANOSECONDS);
+            flushAgents.record(agents);
+        } catch (DataAccessException e) {
+            allocationJournal.restore(pending);
+            flushFailures.increment();
+            log.error("Unable to flush {} allocation changes, keeping them for the next flush", pending.getChanges().size(), e);
+        }
+    }
+
+    // Whatever is still pending goes to the database before the journal is closed
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+}
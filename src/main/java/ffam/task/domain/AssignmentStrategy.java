@@ -0,0 +1,22 @@
+package ffam.task.domain;
+
+import ffam.agent.data.Agent;
+
+import java.util.Optional;
+import java.util.function.Predicate;
+
+/**
+ * Decides which idle agent a task goes to, among the agents with all the skills it requires.
+ * The implementation is chosen with ffam.assignment.strategy. Selection runs on every POST /task, so it must not go to
+ * the database, and its cost must not grow with the roster: implementations order the agent skill masks once and let
+ * {@link AgentOccupancyEngine#findIdleAgent(int[][], Predicate)} look at the head of each.
+ */
+public interface AssignmentStrategy {
+
+    // The idle agent a task needing requiredMask goes to, passing over the excluded agents. Empty if none is idle
+    Optional<Agent> select(int requiredMask, Predicate<String> excluded);
+
+    default Optional<Agent> select(int requiredMask) {
+        return select(requiredMask, agentId -> false);
+    }
+}
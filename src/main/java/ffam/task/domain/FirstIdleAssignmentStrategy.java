@@ -0,0 +1,41 @@
+package ffam.task.domain;
+
+import ffam.agent.data.Agent;
+import ffam.agent.data.SkillMask;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.function.Predicate;
+
+/**
+ * The first idle agent in roster order, which is AGENT_ID order. The default.
+ */
+@Component
+@ConditionalOnProperty(name = "ffam.assignment.strategy", havingValue = "FIRST_IDLE", matchIfMissing = true)
+public class FirstIdleAssignmentStrategy implements AssignmentStrategy {
+    private final AgentOccupancyEngine agentOccupancyEngine;
+    // Indexed by the required skill mask: a single tier holding every agent skill mask that covers it
+    private final int[][][] tiers = new int[SkillMask.COMBINATIONS][][];
+
+    @Autowired
+    public FirstIdleAssignmentStrategy(AgentOccupancyEngine agentOccupancyEngine) {
+        this.agentOccupancyEngine = agentOccupancyEngine;
+        for (int requiredMask = 0; requiredMask < SkillMask.COMBINATIONS; requiredMask++) {
+            int[] tier = new int[1 << Integer.bitCount(SkillMask.ALL & ~requiredMask)];
+            int covering = 0;
+            for (int skillMask = 0; skillMask < SkillMask.COMBINATIONS; skillMask++) {
+                if (SkillMask.covers(skillMask, requiredMask)) {
+                    tier[covering++] = skillMask;
+                }
+            }
+            tiers[requiredMask] = new int[][]{tier};
+        }
+    }
+
+    @Override
+    public Optional<Agent> select(int requiredMask, Predicate<String> excluded) {
+        return agentOccupancyEngine.findIdleAgent(tiers[requiredMask], excluded);
+    }
+}
@@ -0,0 +1,16 @@
+package ffam.task.domain;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * The allocation an agent ends up with after a batch, and the tasks the batch added to it.
+ * The batch only writes if the agent's TASK_ALLOCATION row is still at expectedVersion.
+ */
+@Value
+public class PlannedAllocation {
+    private TaskAllocationDetail taskAllocationDetail;
+    private long expectedVersion;
+    private List<Task> addedTasks;
+}
@@ -0,0 +1,21 @@
+package ffam.task.domain;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * The allocation an agent is left with after a batch completes some of its tasks, and the tasks it completed.
+ * An allocation with no task left means the agent's TASK_ALLOCATION row is deleted.
+ * The batch only writes if the agent's TASK_ALLOCATION row is still at expectedVersion.
+ */
+@Value
+public class PlannedRemoval {
+    private TaskAllocationDetail taskAllocationDetail;
+    private long expectedVersion;
+    private List<String> removedTaskIds;
+
+    public boolean isReleased() {
+        return taskAllocationDetail.getTaskId().isEmpty();
+    }
+}
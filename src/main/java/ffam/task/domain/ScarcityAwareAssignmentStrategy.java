@@ -0,0 +1,55 @@
+package ffam.task.domain;
+
+import ffam.agent.data.Agent;
+import ffam.agent.data.SkillMask;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+/**
+ * The idle agent with the fewest skills beyond the ones the task requires, roster order among equals.
+ * A single skill task goes to a specialist while there is one, keeping the generalists free for the tasks only they
+ * can take.
+ */
+@Component
+@ConditionalOnProperty(name = "ffam.assignment.strategy", havingValue = "SCARCITY_AWARE")
+public class ScarcityAwareAssignmentStrategy implements AssignmentStrategy {
+    private final AgentOccupancyEngine agentOccupancyEngine;
+    // Indexed by the required skill mask: the agent skill masks that cover it, one tier per number of surplus skills
+    private final int[][][] tiers = new int[SkillMask.COMBINATIONS][][];
+
+    @Autowired
+    public ScarcityAwareAssignmentStrategy(AgentOccupancyEngine agentOccupancyEngine) {
+        this.agentOccupancyEngine = agentOccupancyEngine;
+        for (int requiredMask = 0; requiredMask < SkillMask.COMBINATIONS; requiredMask++) {
+            tiers[requiredMask] = tiersBySurplusSkills(requiredMask);
+        }
+    }
+
+    @Override
+    public Optional<Agent> select(int requiredMask, Predicate<String> excluded) {
+        return agentOccupancyEngine.findIdleAgent(tiers[requiredMask], excluded);
+    }
+
+    //region private-default
+    static int[][] tiersBySurplusSkills(int requiredMask) {
+        List<int[]> tiers = new ArrayList<>();
+        int surplusSkills = SkillMask.ALL & ~requiredMask;
+        for (int surplusCount = 0; surplusCount <= Integer.bitCount(surplusSkills); surplusCount++) {
+            List<Integer> tier = new ArrayList<>();
+            for (int skillMask = 0; skillMask < SkillMask.COMBINATIONS; skillMask++) {
+                if (SkillMask.covers(skillMask, requiredMask) && Integer.bitCount(skillMask & surplusSkills) == surplusCount) {
+                    tier.add(skillMask);
+                }
+            }
+            tiers.add(tier.stream().mapToInt(Integer::intValue).toArray());
+        }
+        return tiers.toArray(new int[0][]);
+    }
+    //endregion
+}
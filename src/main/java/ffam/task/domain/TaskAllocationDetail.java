@@ -11,4 +11,5 @@ public class TaskAllocationDetail {
     private List<String> taskId;
     private TaskPriority taskPriority;
     private ZonedDateTime dateCreated;
+    private long version;
 }
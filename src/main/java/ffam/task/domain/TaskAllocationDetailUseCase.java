@@ -1,70 +1,148 @@
 package ffam.task.domain;
 
+import ffam.general.ZonedDateTimeProvider;
+import ffam.task.data.AllocationChange;
+import ffam.task.data.AllocationJournal;
 import ffam.task.data.TaskAllocationDetailRepository;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
+import static ffam.task.data.TaskAllocationDetailRepository.NO_VERSION;
 import static ffam.task.domain.TaskPriority.LOW;
 
 @Slf4j
 @Component
 public class TaskAllocationDetailUseCase {
+    // Every TASK_ALLOCATION write is guarded by the row version. On a conflict, re-read the row and try again
+    static final int MAX_ATTEMPTS = 3;
+
     private final TaskAllocationDetailRepository taskAllocationDetailRepository;
+    private final AgentOccupancyEngine agentOccupancyEngine;
+    private final ZonedDateTimeProvider zonedDateTimeProvider;
+    private final AllocationJournal allocationJournal;
 
     @Autowired
-    public TaskAllocationDetailUseCase(TaskAllocationDetailRepository taskAllocationDetailRepository) {
+    public TaskAllocationDetailUseCase(TaskAllocationDetailRepository taskAllocationDetailRepository,
+                                       AgentOccupancyEngine agentOccupancyEngine,
+                                       ZonedDateTimeProvider zonedDateTimeProvider,
+                                       AllocationJournal allocationJournal) {
         this.taskAllocationDetailRepository = taskAllocationDetailRepository;
+        this.agentOccupancyEngine = agentOccupancyEngine;
+        this.zonedDateTimeProvider = zonedDateTimeProvider;
+        this.allocationJournal = allocationJournal;
     }
 
     public boolean createOrUpdate(String agentId,
                                   String taskId,
                                   TaskPriority taskPriority) {
-        //Check id the row exists per agent
-        val taskAllocationDetailOptional = taskAllocationDetailRepository.findByAgentId(agentId);
-        if (!taskAllocationDetailOptional.isPresent()) {
-            return taskAllocationDetailRepository.create(agentId, taskId, taskPriority);
-        }
+        val now = zonedDateTimeProvider.now();
+        //Check if the agent already has an allocation
+        Optional<TaskAllocationDetail> taskAllocationDetailOptional = agentOccupancyEngine.findByAgentId(agentId);
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            List<String> taskIdList = taskAllocationDetailOptional.isPresent()
+                    ? new ArrayList<>(taskAllocationDetailOptional.get().getTaskId())
+                    : new ArrayList<>();
+            taskIdList.add(taskId);
+            long expectedVersion = taskAllocationDetailOptional.map(TaskAllocationDetail::getVersion).orElse(NO_VERSION);
+            val updated = new TaskAllocationDetail(agentId, taskIdList, taskPriority, now, expectedVersion + 1);
 
-        List<String> taskIdList = taskAllocationDetailOptional.get().getTaskId();
-        taskIdList.add(taskId);
-        return taskAllocationDetailRepository.update(agentId, taskPriority, taskIdList, Optional.empty());
+            if (allocationJournal.isEnabled()) {
+                if (writeBehind(expectedVersion, updated, AllocationChange.added(updated, taskId, taskPriority))) {
+                    return true;
+                }
+            } else if (taskAllocationDetailRepository.addTask(agentId, taskId, taskPriority, now, expectedVersion)) {
+                // Creates the row if the agent had none, otherwise takes the newer state
+                agentOccupancyEngine.update(updated);
+                return true;
+            }
+            taskAllocationDetailOptional = reload(agentId);
+        }
+        log.error("Unable to add Task Id : [{}] for agent : [{}] after {} attempts", taskId, agentId, MAX_ATTEMPTS);
+        return false;
     }
 
     public boolean deleteTask(String agentId,
                               String taskId,
                               TaskPriority taskPriority) {
-        //Check id the row exists per agent
-        val taskAllocationDetailOptional = taskAllocationDetailRepository.findByAgentId(agentId);
-        if (!taskAllocationDetailOptional.isPresent()) {
-            //Not Present
-            return false;
+        //Check if the agent has an allocation
+        Optional<TaskAllocationDetail> taskAllocationDetailOptional = agentOccupancyEngine.findByAgentId(agentId);
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            if (!taskAllocationDetailOptional.isPresent()) {
+                //Not Present
+                return false;
+            }
+            val taskAllocationDetail = taskAllocationDetailOptional.get();
+            if (!taskAllocationDetail.getTaskId().contains(taskId)) {
+                //Task Id is not present in the task allocation list
+                log.error("Task Id : [{}] is present on Task and not on TaskAllocationDetail for agent : [{}]", taskId, agentId);
+                return false;
+            }
+            //Update - Contains Task Id - Check if that's the only one or multiple
+            List<String> taskIdList = new ArrayList<>(taskAllocationDetail.getTaskId());
+            taskIdList.remove(taskId);
+            long expectedVersion = taskAllocationDetail.getVersion();
+
+            if (allocationJournal.isEnabled()) {
+                // Same as below, an allocation with no task left releases the agent
+                val remainingTaskPriority = taskPriority == TaskPriority.HIGH ? LOW : taskAllocationDetail.getTaskPriority();
+                val remaining = new TaskAllocationDetail(agentId, taskIdList, remainingTaskPriority,
+                        taskAllocationDetail.getDateCreated(), expectedVersion + 1);
+                if (writeBehind(expectedVersion, remaining, AllocationChange.removed(remaining, taskId))) {
+                    return true;
+                }
+            } else if (taskIdList.isEmpty()) {
+                // No more tasks left for the agent. Clean the record up
+                if (taskAllocationDetailRepository.delete(agentId, expectedVersion)) {
+                    agentOccupancyEngine.release(agentId, expectedVersion);
+                    return true;
+                }
+            } else {
+                // More tasks left for the agent. Keep the record here. But just remove single task
+                // If removing a HIGH Priority task, overall priority now becomes LOW. Otherwise, it stays at previous
+                // Preserve the original latest time that the agent started working on the previous task. Task might be complete/in progress ?
+                val remainingTaskPriority = taskPriority == TaskPriority.HIGH ? LOW : taskAllocationDetail.getTaskPriority();
+                if (taskAllocationDetailRepository.removeTask(agentId, taskId, remainingTaskPriority, expectedVersion)) {
+                    agentOccupancyEngine.update(new TaskAllocationDetail(agentId, taskIdList, remainingTaskPriority,
+                            taskAllocationDetail.getDateCreated(), expectedVersion + 1));
+                    return true;
+                }
+            }
+            taskAllocationDetailOptional = reload(agentId);
         }
-        val taskAllocationDetail = taskAllocationDetailOptional.get();
-        if (!taskAllocationDetail.getTaskId().contains(taskId)) {
-            //Task Id is not present in the task allocation list
-            log.error("Task Id : [{}] is present on Task and not on TaskAllocationDetail for agent : [{}]", taskId, agentId);
-            return false;
+        log.error("Unable to remove Task Id : [{}] for agent : [{}] after {} attempts", taskId, agentId, MAX_ATTEMPTS);
+        return false;
+    }
+
+    // The row changed under us. Take the current row as the new starting point and bring the occupancy up to date.
+    // With write-behind the occupancy is ahead of TASK_ALLOCATION and already holds the change
+    public Optional<TaskAllocationDetail> reload(String agentId) {
+        log.info("TASK_ALLOCATION for agent : [{}] changed concurrently. Reloading", agentId);
+        if (allocationJournal.isEnabled()) {
+            return agentOccupancyEngine.findByAgentId(agentId);
         }
-        //Update - Contains Task Id - Check if that's the only one or multiple
-        List<String> taskIdList = taskAllocationDetailOptional.get().getTaskId();
-        taskIdList.remove(taskId);
+        val taskAllocationDetailOptional = taskAllocationDetailRepository.findByAgentId(agentId);
+        agentOccupancyEngine.reset(agentId, taskAllocationDetailOptional);
+        return taskAllocationDetailOptional;
+    }
 
-        if (taskIdList.isEmpty()) {
-            // No more tasks left for the agent. Clean the record up
-            return taskAllocationDetailRepository.delete(agentId);
-        } else {
-            // More tasks left for the agent. Keep the record here. But just remove single task
-            // If removing a HIGH Priority task, overall priority now becomes LOW. Otherwise, it stays at previous
-            // Preserve the original latest time that the agent started working on the previous task. Task might be complete/in progress ?
-            return taskAllocationDetailRepository.update(agentId,
-                    taskPriority == TaskPriority.HIGH ? LOW : taskAllocationDetail.getTaskPriority(),
-                    taskIdList,
-                    Optional.of(taskAllocationDetailOptional.get().getDateCreated()));
+    //region private
+    // The occupancy takes the change if the agent is still at expectedVersion, and the journal records it in the same step.
+    // Returns once the change is on disk, or the journal failed and the change only waits for the next flush.
+    // Either way the occupancy holds it, so the caller goes on to write the task. TASK_ALLOCATION catches up on the next flush
+    private boolean writeBehind(long expectedVersion, TaskAllocationDetail updated, AllocationChange change) {
+        if (!agentOccupancyEngine.compareAndSet(updated.getAgentId(), expectedVersion, updated,
+                () -> allocationJournal.append(Collections.singletonList(change)))) {
+            return false;
         }
+        allocationJournal.sync();
+        return true;
     }
+    //endregion
 }
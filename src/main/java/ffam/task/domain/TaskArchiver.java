@@ -0,0 +1,85 @@
+package ffam.task.domain;
+
+import ffam.general.ZonedDateTimeProvider;
+import ffam.task.data.TaskRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps TASK down to the tasks in progress and the recently completed ones.
+ * Every archive interval, one batch of at most batch-size tasks that were completed longer than the retention window
+ * ago is moved to TASK_HISTORY, in its own transaction. The batch size bounds the rows locked at once, and the batch
+ * size over the interval bounds the rate. A backlog is worked off one batch per interval.
+ * Archived tasks are still found by {@link TaskRepository#findByTaskId(String)}. Off unless ffam.archive.enabled is set.
+ */
+@Slf4j
+@Component
+public class TaskArchiver {
+    static final String ARCHIVED = "ffam.archive.tasks";
+    static final String BATCH = "ffam.archive.batch";
+    static final String FAILURES = "ffam.archive.failures";
+
+    private final boolean enabled;
+    private final Duration retention;
+    private final int batchSize;
+    private final TaskRepository taskRepository;
+    private final ZonedDateTimeProvider zonedDateTimeProvider;
+    private final MeterRegistry meterRegistry;
+    private final Counter archived;
+    private final Timer batchTimer;
+    private final Counter failures;
+
+    @Autowired
+    public TaskArchiver(@Value("${ffam.archive.enabled:false}") boolean enabled,
+                        @Value("${ffam.archive.retention-hours:24}") long retentionHours,
+                        @Value("${ffam.archive.batch-size:500}") int batchSize,
+                        TaskRepository taskRepository,
+                        ZonedDateTimeProvider zonedDateTimeProvider,
+                        MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.retention = Duration.ofHours(retentionHours);
+        this.batchSize = batchSize;
+        this.taskRepository = taskRepository;
+        this.zonedDateTimeProvider = zonedDateTimeProvider;
+        this.meterRegistry = meterRegistry;
+        this.archived = Counter.builder(ARCHIVED)
+                .description("Completed tasks moved from TASK to TASK_HISTORY")
+                .register(meterRegistry);
+        this.batchTimer = Timer.builder(BATCH)
+                .description("Time taken to archive one batch of completed tasks")
+                .register(meterRegistry);
+        this.failures = Counter.builder(FAILURES)
+                .description("Archive batches that failed and were left for the next interval")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(initialDelayString = "${ffam.archive.interval-ms:1000}",
+            fixedDelayString = "${ffam.archive.interval-ms:1000}")
+    public void archive() {
+        if (!enabled) {
+            return;
+        }
+        long start = meterRegistry.config().clock().monotonicTime();
+        try {
+            int count = taskRepository.archiveCompleted(zonedDateTimeProvider.now().minus(retention), batchSize);
+            batchTimer.record(meterRegistry.config().clock().monotonicTime() - start, TimeUnit.NANOSECONDS);
+            archived.increment(count);
+            if (count > 0) {
+                log.debug("Archived {} completed tasks", count);
+            }
+        } catch (DataAccessException e) {
+            failures.increment();
+            log.error("Unable to archive completed tasks, trying again next interval", e);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package ffam.task.domain;
+
+import ffam.task.api.TaskBatchItemResponse;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Assignments decided for a whole batch before anything is written.
+ * One response per request, in request order, and one planned allocation per agent that received tasks.
+ */
+@Value
+public class TaskBatchPlan {
+    private List<TaskBatchItemResponse> responses;
+    private List<PlannedAllocation> plannedAllocations;
+}
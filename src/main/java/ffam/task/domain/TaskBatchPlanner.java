@@ -0,0 +1,160 @@
+package ffam.task.domain;
+
+import ffam.agent.data.Agent;
+import ffam.agent.data.AgentSkillIndex;
+import ffam.agent.data.SkillMask;
+import ffam.general.UuidGenerator;
+import ffam.general.ZonedDateTimeProvider;
+import ffam.task.api.TaskBatchItemResponse;
+import ffam.task.api.TaskRequest;
+import ffam.task.api.TaskRequestValidator;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static ffam.task.data.TaskAllocationDetailRepository.NO_VERSION;
+
+/**
+ * Decides the agent of every task of a batch in one pass, with the same rules as a single POST /task.
+ * Assignments made earlier in the batch count as if they were already written, so two tasks of the same batch never
+ * go to the same idle agent. Nothing is written here.
+ */
+@Component
+public class TaskBatchPlanner {
+    private final TaskRequestValidator taskRequestValidator;
+    private final AgentSkillIndex agentSkillIndex;
+    private final AgentOccupancyEngine agentOccupancyEngine;
+    private final UuidGenerator uuidGenerator;
+    private final ZonedDateTimeProvider zonedDateTimeProvider;
+    private final AssignmentStrategy assignmentStrategy;
+
+    @Autowired
+    public TaskBatchPlanner(TaskRequestValidator taskRequestValidator,
+                            AgentSkillIndex agentSkillIndex,
+                            AgentOccupancyEngine agentOccupancyEngine,
+                            UuidGenerator uuidGenerator,
+                            ZonedDateTimeProvider zonedDateTimeProvider,
+                            AssignmentStrategy assignmentStrategy) {
+        this.taskRequestValidator = taskRequestValidator;
+        this.agentSkillIndex = agentSkillIndex;
+        this.agentOccupancyEngine = agentOccupancyEngine;
+        this.uuidGenerator = uuidGenerator;
+        this.zonedDateTimeProvider = zonedDateTimeProvider;
+        this.assignmentStrategy = assignmentStrategy;
+    }
+
+    public TaskBatchPlan plan(List<TaskRequest> taskRequests) {
+        val now = zonedDateTimeProvider.now();
+        // Agents the batch assigns tasks to, in the order they were first picked
+        Map<String, PlannedAgent> plannedAgents = new LinkedHashMap<>();
+        List<TaskBatchItemResponse> responses = new ArrayList<>(taskRequests.size());
+        for (TaskRequest taskRequest : taskRequests) {
+            responses.add(plan(taskRequest, plannedAgents));
+        }
+
+        List<PlannedAllocation> plannedAllocations = new ArrayList<>(plannedAgents.size());
+        for (PlannedAgent plannedAgent : plannedAgents.values()) {
+            plannedAllocations.add(new PlannedAllocation(
+                    new TaskAllocationDetail(plannedAgent.agentId,
+                            plannedAgent.taskIdList,
+                            plannedAgent.taskPriority,
+                            now,
+                            plannedAgent.expectedVersion + 1),
+                    plannedAgent.expectedVersion,
+                    plannedAgent.addedTasks));
+        }
+        return new TaskBatchPlan(responses, plannedAllocations);
+    }
+
+    //region private
+    private TaskBatchItemResponse plan(TaskRequest taskRequest, Map<String, PlannedAgent> plannedAgents) {
+        val validationErrorOptional = taskRequestValidator.isValid(taskRequest);
+        if (validationErrorOptional.isPresent()) {
+            return TaskBatchItemResponse.error(validationErrorOptional.get().getErrorCode(), validationErrorOptional.get().getErrorResponse());
+        }
+
+        // The agent must possess all the skills required by the task
+        List<Agent> eligibleAgents = agentSkillIndex.findBySkillSet(taskRequest.isSkill1(),
+                taskRequest.isSkill2(), taskRequest.isSkill3());
+        if (eligibleAgents == null || eligibleAgents.isEmpty()) {
+            return TaskBatchItemResponse.error("V004", "No Agents Available with the SkillSet");
+        }
+
+        // Prefer an agent that is not assigned any task, neither before nor by this batch
+        val requiredMask = SkillMask.of(taskRequest.isSkill1(), taskRequest.isSkill2(), taskRequest.isSkill3());
+        val idleAgent = assignmentStrategy.select(requiredMask, plannedAgents::containsKey);
+        if (idleAgent.isPresent()) {
+            return assign(idleAgent.get().getAgentId(), taskRequest, plannedAgents);
+        }
+
+        if (taskRequest.getTaskPriority() == TaskPriority.LOW) {
+            return TaskBatchItemResponse.error("V006", "All Agents are busy at this time");
+        }
+
+        // A HIGH priority task takes the agent that most recently started LOW priority work.
+        // Agents this batch put on LOW priority work started after everyone else, the latest one last
+        PlannedAgent latestLowPriority = null;
+        for (PlannedAgent plannedAgent : plannedAgents.values()) {
+            if (plannedAgent.taskPriority == TaskPriority.LOW
+                    && SkillMask.covers(agentSkillIndex.findSkillMask(plannedAgent.agentId).orElse(SkillMask.NONE), requiredMask)) {
+                latestLowPriority = plannedAgent;
+            }
+        }
+        if (latestLowPriority != null) {
+            return assign(latestLowPriority.agentId, taskRequest, plannedAgents);
+        }
+
+        if (!agentOccupancyEngine.hasBusyAgents() && plannedAgents.isEmpty()) {
+            // Eligible agents exist and none of them is idle, yet nobody is busy. Same as a single POST /task
+            return TaskBatchItemResponse.error("V007", "Internal Server Error");
+        }
+        val candidate = agentOccupancyEngine.findPreemptionCandidate(requiredMask, plannedAgents::containsKey);
+        if (candidate.isPresent()) {
+            return assign(candidate.get().getAgentId(), taskRequest, plannedAgents);
+        }
+        return TaskBatchItemResponse.error("V006", "All Agents are busy at this time");
+    }
+
+    private TaskBatchItemResponse assign(String agentId, TaskRequest taskRequest, Map<String, PlannedAgent> plannedAgents) {
+        val plannedAgent = plannedAgents.computeIfAbsent(agentId, this::plannedAgent);
+        val taskId = uuidGenerator.randomUUID().toString();
+        plannedAgent.taskIdList.add(taskId);
+        plannedAgent.taskPriority = taskRequest.getTaskPriority();
+        plannedAgent.addedTasks.add(new Task(taskId,
+                taskRequest.getTaskPriority(),
+                taskRequest.isSkill1(),
+                taskRequest.isSkill2(),
+                taskRequest.isSkill3(),
+                TaskStatus.IN_PROGRESS,
+                agentId));
+        return TaskBatchItemResponse.of(taskId, agentId, TaskStatus.IN_PROGRESS);
+    }
+
+    private PlannedAgent plannedAgent(String agentId) {
+        val current = agentOccupancyEngine.findByAgentId(agentId);
+        return new PlannedAgent(agentId,
+                current.map(TaskAllocationDetail::getVersion).orElse(NO_VERSION),
+                current.map(TaskAllocationDetail::getTaskId).orElse(Collections.emptyList()));
+    }
+
+    private static class PlannedAgent {
+        private final String agentId;
+        private final long expectedVersion;
+        private final List<String> taskIdList;
+        private final List<Task> addedTasks = new ArrayList<>();
+        private TaskPriority taskPriority;
+
+        private PlannedAgent(String agentId, long expectedVersion, List<String> taskIdList) {
+            this.agentId = agentId;
+            this.expectedVersion = expectedVersion;
+            this.taskIdList = new ArrayList<>(taskIdList);
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,140 @@
+package ffam.task.domain;
+
+import ffam.task.data.AllocationChange;
+import ffam.task.data.AllocationJournal;
+import ffam.task.data.TaskAllocationDetailRepository;
+import ffam.task.data.TaskRepository;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static ffam.task.data.TaskAllocationDetailRepository.NO_VERSION;
+
+/**
+ * Writes a {@link TaskBatchPlan} or a {@link TaskCompletionPlan} in a single transaction: the TASK rows, the
+ * TASK_ALLOCATION rows and the TASK_ALLOCATION_ITEM rows each go in one JDBC batch.
+ * In write-behind mode only the TASK rows are written here. {@link AgentOccupancyEngine} checks the versions and takes
+ * the allocations, and the {@link AllocationJournal} records them for the next flush.
+ */
+@Component
+public class TaskBatchWriter {
+    private final TaskRepository taskRepository;
+    private final TaskAllocationDetailRepository taskAllocationDetailRepository;
+    private final AgentOccupancyEngine agentOccupancyEngine;
+    private final AllocationJournal allocationJournal;
+
+    @Autowired
+    public TaskBatchWriter(TaskRepository taskRepository,
+                           TaskAllocationDetailRepository taskAllocationDetailRepository,
+                           AgentOccupancyEngine agentOccupancyEngine,
+                           AllocationJournal allocationJournal) {
+        this.taskRepository = taskRepository;
+        this.taskAllocationDetailRepository = taskAllocationDetailRepository;
+        this.agentOccupancyEngine = agentOccupancyEngine;
+        this.allocationJournal = allocationJournal;
+    }
+
+    // With write-behind the occupancy already holds what was written, callers must not record it again
+    public boolean isWriteBehind() {
+        return allocationJournal.isEnabled();
+    }
+
+    // Returns the agents whose TASK_ALLOCATION row changed since the plan was made. Nothing is written if there are any
+    @Transactional
+    public Set<String> write(List<PlannedAllocation> plannedAllocations) {
+        Map<String, Long> expectedVersions = new LinkedHashMap<>();
+        plannedAllocations.forEach(plannedAllocation -> expectedVersions.put(
+                plannedAllocation.getTaskAllocationDetail().getAgentId(), plannedAllocation.getExpectedVersion()));
+        List<Task> tasks = new ArrayList<>();
+        plannedAllocations.forEach(plannedAllocation -> tasks.addAll(plannedAllocation.getAddedTasks()));
+        if (allocationJournal.isEnabled()) {
+            List<TaskAllocationDetail> updated = new ArrayList<>();
+            List<AllocationChange> changes = new ArrayList<>();
+            for (PlannedAllocation plannedAllocation : plannedAllocations) {
+                updated.add(plannedAllocation.getTaskAllocationDetail());
+                for (Task task : plannedAllocation.getAddedTasks()) {
+                    changes.add(AllocationChange.added(plannedAllocation.getTaskAllocationDetail(), task.getTaskId(), task.getTaskPriority()));
+                }
+            }
+            return writeBehind(expectedVersions, updated, changes, () -> taskRepository.createAll(tasks));
+        }
+
+        val conflicts = lockAndCheckVersions(expectedVersions);
+        if (!conflicts.isEmpty()) {
+            return conflicts;
+        }
+
+        taskRepository.createAll(tasks);
+        taskAllocationDetailRepository.addTasks(plannedAllocations);
+        return conflicts;
+    }
+
+    // Same as write, for a batch of completed tasks: one change per agent, then one status update for all the tasks
+    @Transactional
+    public Set<String> complete(List<PlannedRemoval> plannedRemovals) {
+        Map<String, Long> expectedVersions = new LinkedHashMap<>();
+        plannedRemovals.forEach(plannedRemoval -> expectedVersions.put(
+                plannedRemoval.getTaskAllocationDetail().getAgentId(), plannedRemoval.getExpectedVersion()));
+        List<String> taskIds = new ArrayList<>();
+        plannedRemovals.forEach(plannedRemoval -> taskIds.addAll(plannedRemoval.getRemovedTaskIds()));
+        if (allocationJournal.isEnabled()) {
+            List<TaskAllocationDetail> updated = new ArrayList<>();
+            List<AllocationChange> changes = new ArrayList<>();
+            for (PlannedRemoval plannedRemoval : plannedRemovals) {
+                updated.add(plannedRemoval.getTaskAllocationDetail());
+                for (String taskId : plannedRemoval.getRemovedTaskIds()) {
+                    changes.add(AllocationChange.removed(plannedRemoval.getTaskAllocationDetail(), taskId));
+                }
+            }
+            return writeBehind(expectedVersions, updated, changes,
+                    () -> taskRepository.updateTaskStatuses(taskIds, TaskStatus.COMPLETE));
+        }
+
+        val conflicts = lockAndCheckVersions(expectedVersions);
+        if (!conflicts.isEmpty()) {
+            return conflicts;
+        }
+
+        taskAllocationDetailRepository.removeTasks(plannedRemovals);
+        taskRepository.updateTaskStatuses(taskIds, TaskStatus.COMPLETE);
+        return conflicts;
+    }
+
+    //region private
+    // The occupancy checks every version and takes every allocation at once. The TASK rows are written in the same
+    // step, before the journal records the changes or any allocation changes, so a failed write leaves both as they
+    // were. The changes are made durable before returning
+    private Set<String> writeBehind(Map<String, Long> expectedVersions,
+                                   List<TaskAllocationDetail> updated,
+                                   List<AllocationChange> changes,
+                                   Runnable taskWrite) {
+        val conflicts = agentOccupancyEngine.compareAndSetAll(expectedVersions, updated, () -> {
+            taskWrite.run();
+            allocationJournal.append(changes);
+        });
+        if (conflicts.isEmpty()) {
+            allocationJournal.sync();
+        }
+        return conflicts;
+    }
+
+    private Set<String> lockAndCheckVersions(Map<String, Long> expectedVersions) {
+        val versions = taskAllocationDetailRepository.lockVersions(new ArrayList<>(expectedVersions.keySet()));
+        Set<String> conflicts = new HashSet<>();
+        expectedVersions.forEach((agentId, expectedVersion) -> {
+            if (versions.getOrDefault(agentId, NO_VERSION).longValue() != expectedVersion) {
+                conflicts.add(agentId);
+            }
+        });
+        return conflicts;
+    }
+    //endregion
+}
@@ -0,0 +1,16 @@
+package ffam.task.domain;
+
+import ffam.task.api.TaskBatchItemResponse;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Allocation changes decided for a batch of completed tasks before anything is written.
+ * One response per task id, in request order, and one planned removal per agent that completes tasks.
+ */
+@Value
+public class TaskCompletionPlan {
+    private List<TaskBatchItemResponse> responses;
+    private List<PlannedRemoval> plannedRemovals;
+}
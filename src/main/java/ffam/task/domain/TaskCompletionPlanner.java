@@ -0,0 +1,108 @@
+package ffam.task.domain;
+
+import ffam.task.api.TaskBatchItemResponse;
+import ffam.task.data.TaskRepository;
+import lombok.val;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups a batch of completed tasks by agent, with the same rules as a single PATCH /task.
+ * All tasks are looked up in one multi-get and every agent gets a single allocation change. Nothing is written here.
+ */
+@Component
+public class TaskCompletionPlanner {
+    private final TaskRepository taskRepository;
+    private final AgentOccupancyEngine agentOccupancyEngine;
+
+    @Autowired
+    public TaskCompletionPlanner(TaskRepository taskRepository, AgentOccupancyEngine agentOccupancyEngine) {
+        this.taskRepository = taskRepository;
+        this.agentOccupancyEngine = agentOccupancyEngine;
+    }
+
+    public TaskCompletionPlan plan(List<String> taskIds) {
+        List<String> validTaskIds = new ArrayList<>(taskIds.size());
+        taskIds.forEach(taskId -> {
+            if (StringUtils.isNotEmpty(taskId)) {
+                validTaskIds.add(taskId);
+            }
+        });
+        Map<String, Task> tasks = new HashMap<>();
+        taskRepository.findByTaskIds(validTaskIds).forEach(task -> tasks.put(task.getTaskId(), task));
+
+        // Agents the batch completes tasks of, in the order they were first seen
+        Map<String, PlannedAgent> plannedAgents = new LinkedHashMap<>();
+        List<TaskBatchItemResponse> responses = new ArrayList<>(taskIds.size());
+        for (String taskId : taskIds) {
+            responses.add(plan(taskId, tasks, plannedAgents));
+        }
+
+        List<PlannedRemoval> plannedRemovals = new ArrayList<>(plannedAgents.size());
+        for (PlannedAgent plannedAgent : plannedAgents.values()) {
+            val current = plannedAgent.current;
+            plannedRemovals.add(new PlannedRemoval(
+                    new TaskAllocationDetail(current.getAgentId(),
+                            plannedAgent.taskIdList,
+                            plannedAgent.taskPriority,
+                            current.getDateCreated(),
+                            current.getVersion() + 1),
+                    current.getVersion(),
+                    plannedAgent.removedTaskIds));
+        }
+        return new TaskCompletionPlan(responses, plannedRemovals);
+    }
+
+    //region private
+    private TaskBatchItemResponse plan(String taskId, Map<String, Task> tasks, Map<String, PlannedAgent> plannedAgents) {
+        if (StringUtils.isEmpty(taskId)) {
+            return TaskBatchItemResponse.error("V103", "Given Request is Invalid");
+        }
+        val task = tasks.get(taskId);
+        if (task == null) {
+            return TaskBatchItemResponse.error("V102", "No such task present");
+        }
+
+        val agentId = task.getAgentId();
+        PlannedAgent plannedAgent = plannedAgents.get(agentId);
+        if (plannedAgent == null) {
+            val current = agentOccupancyEngine.findByAgentId(agentId);
+            if (!current.isPresent()) {
+                return TaskBatchItemResponse.error("V101", "Unable to delete the task at this time");
+            }
+            plannedAgent = new PlannedAgent(current.get());
+        }
+        // Also covers a task id repeated in the batch, which the first occurrence already took off
+        if (!plannedAgent.taskIdList.remove(taskId)) {
+            return TaskBatchItemResponse.error("V101", "Unable to delete the task at this time");
+        }
+        plannedAgents.putIfAbsent(agentId, plannedAgent);
+        plannedAgent.removedTaskIds.add(taskId);
+        // Removing a HIGH Priority task leaves the agent on LOW. DATE_CREATED stays as it is
+        if (task.getTaskPriority() == TaskPriority.HIGH) {
+            plannedAgent.taskPriority = TaskPriority.LOW;
+        }
+        return TaskBatchItemResponse.of(taskId, agentId, TaskStatus.COMPLETE);
+    }
+
+    private static class PlannedAgent {
+        private final TaskAllocationDetail current;
+        private final List<String> taskIdList;
+        private final List<String> removedTaskIds = new ArrayList<>();
+        private TaskPriority taskPriority;
+
+        private PlannedAgent(TaskAllocationDetail current) {
+            this.current = current;
+            this.taskIdList = new ArrayList<>(current.getTaskId());
+            this.taskPriority = current.getTaskPriority();
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,219 @@
+package ffam.agent.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ffam.general.UseCaseExecutor;
+import ffam.task.api.TaskRequestBusinessErrorResponse;
+import ffam.task.api.TaskRequestValidationErrorResponse;
+import ffam.task.data.TaskAllocationDetailRepository;
+import ffam.task.data.TaskRepository;
+import ffam.task.domain.Task;
+import ffam.task.domain.TaskAllocationDetail;
+import ffam.task.domain.TaskPriority;
+import ffam.task.domain.TaskStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class AgentsControllerTest {
+    private final Task task1 = new Task("taskId1", TaskPriority.LOW, true, false, false, TaskStatus.IN_PROGRESS, "agentId1");
+    private final Task task2 = new Task("taskId2", TaskPriority.HIGH, true, false, false, TaskStatus.IN_PROGRESS, "agentId1");
+    private final Task task3 = new Task("taskId3", TaskPriority.LOW, false, true, false, TaskStatus.IN_PROGRESS, "agentId2");
+
+    private TaskAllocationDetailRepository taskAllocationDetailRepository;
+    private TaskRepository taskRepository;
+    private AgentsController subject;
+
+    @Before
+    public void setUp() {
+        taskAllocationDetailRepository = mock(TaskAllocationDetailRepository.class, RETURNS_SMART_NULLS);
+        taskRepository = mock(TaskRepository.class, RETURNS_SMART_NULLS);
+        subject = new AgentsController(taskAllocationDetailRepository, taskRepository, new ObjectMapper(), new UseCaseExecutor(false, 1, 1, 1000, new SimpleMeterRegistry()));
+    }
+
+    //region getAgentList
+    @Test
+    public void test_getAgentList_loadsTasksOfAllAgentsInOneMultiGet() {
+        when(taskAllocationDetailRepository.findAll()).thenReturn(Arrays.asList(
+                new TaskAllocationDetail("agentId2", Arrays.asList("taskId3"), TaskPriority.LOW, ZonedDateTime.now(), 0),
+                new TaskAllocationDetail("agentId1", Arrays.asList("taskId2", "taskId1"), TaskPriority.HIGH, ZonedDateTime.now().minusDays(1), 0)));
+        when(taskRepository.findByTaskIds(anyCollection())).thenReturn(Arrays.asList(task1, task2, task3));
+
+        val response = (ResponseEntity<?>) subject.getAgentList(null, null, null).getResult();
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals(Arrays.asList(new AgentsResponse("agentId2", Arrays.asList(task3)),
+                new AgentsResponse("agentId1", Arrays.asList(task2, task1))), response.getBody());
+
+        verify(taskRepository, times(1)).findByTaskIds(Arrays.asList("taskId3", "taskId2", "taskId1"));
+        verifyNoMoreInteractions(taskRepository);
+    }
+    //endregion
+
+    //region getAgentList page
+    @Test
+    public void test_getAgentList_returnsFirstPageWithNextCursor_whenPageIsFull() {
+        when(taskRepository.findAgentTasksPage(isNull(), eq(2), any())).thenAnswer(agentTasksPage("agentId2",
+                new AgentsResponse("agentId1", Arrays.asList(task1, task2)),
+                new AgentsResponse("agentId2", Arrays.asList(task3))));
+
+        val response = (ResponseEntity<?>) subject.getAgentList(null, null, 2).getResult();
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals(Arrays.asList(new AgentsResponse("agentId1", Arrays.asList(task1, task2)),
+                new AgentsResponse("agentId2", Arrays.asList(task3))), response.getBody());
+        assertEquals(cursor("agentId2"), response.getHeaders().getFirst(AgentsController.NEXT_CURSOR_HEADER));
+
+        verifyZeroInteractions(taskAllocationDetailRepository);
+    }
+
+    @Test
+    public void test_getAgentList_returnsLastPageWithoutNextCursor() {
+        when(taskRepository.findAgentTasksPage(eq("agentId2"), eq(AgentsController.DEFAULT_PAGE_SIZE), any())).thenAnswer(agentTasksPage(null,
+                new AgentsResponse("agentId3", Arrays.asList(task3))));
+
+        val response = (ResponseEntity<?>) subject.getAgentList(null, cursor("agentId2"), null).getResult();
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals(Arrays.asList(new AgentsResponse("agentId3", Arrays.asList(task3))), response.getBody());
+        assertFalse(response.getHeaders().containsKey(AgentsController.NEXT_CURSOR_HEADER));
+    }
+
+    @Test
+    public void test_getAgentList_returnsNextCursor_whenLastAllocationOfPageHasNoTasks() {
+        when(taskRepository.findAgentTasksPage(isNull(), eq(2), any())).thenAnswer(agentTasksPage("agentId2",
+                new AgentsResponse("agentId1", Arrays.asList(task1))));
+
+        val response = (ResponseEntity<?>) subject.getAgentList(null, null, 2).getResult();
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals(Arrays.asList(new AgentsResponse("agentId1", Arrays.asList(task1))), response.getBody());
+        assertEquals(cursor("agentId2"), response.getHeaders().getFirst(AgentsController.NEXT_CURSOR_HEADER));
+    }
+
+    @Test
+    public void test_getAgentList_returnsUnProcessableEntity_whenFirstPageEmpty() {
+        when(taskRepository.findAgentTasksPage(isNull(), anyInt(), any())).thenAnswer(agentTasksPage(null));
+
+        val response = (ResponseEntity<?>) subject.getAgentList(null, null, 10).getResult();
+        assertEquals(422, response.getStatusCode().value());
+        assertEquals(new TaskRequestBusinessErrorResponse("V202", "No Tasks Available for any agent"), response.getBody());
+    }
+
+    @Test
+    public void test_getAgentList_returnsBadRequest_whenLimitOutOfRange() {
+        assertEquals(400, ((ResponseEntity<?>) subject.getAgentList(null, null, 0).getResult()).getStatusCode().value());
+        val response = (ResponseEntity<?>) subject.getAgentList(null, null, AgentsController.MAX_PAGE_SIZE + 1).getResult();
+        assertEquals(400, response.getStatusCode().value());
+        assertEquals("V203", ((TaskRequestValidationErrorResponse) response.getBody()).getErrorCode());
+
+        verifyZeroInteractions(taskRepository);
+    }
+
+    @Test
+    public void test_getAgentList_returnsBadRequest_whenCursorInvalid() {
+        val response = (ResponseEntity<?>) subject.getAgentList(null, "not a cursor!", null).getResult();
+        assertEquals(400, response.getStatusCode().value());
+        assertEquals(new TaskRequestValidationErrorResponse("V204", "Invalid Cursor"), response.getBody());
+
+        verifyZeroInteractions(taskRepository);
+    }
+    //endregion
+
+    //region streamAgentList
+    @Test
+    public void test_streamAgentList_writesEveryAgentAsJsonArray_pageByPage() throws Exception {
+        when(taskRepository.findAgentTasksPage(isNull(), eq(AgentsController.STREAM_PAGE_SIZE), any())).thenAnswer(agentTasksPage("agentId1",
+                new AgentsResponse("agentId1", Arrays.asList(task1))));
+        when(taskRepository.findAgentTasksPage(eq("agentId1"), eq(AgentsController.STREAM_PAGE_SIZE), any())).thenAnswer(agentTasksPage(null,
+                new AgentsResponse("agentId2", Arrays.asList(task3))));
+
+        val outputStream = new ByteArrayOutputStream();
+        subject.streamAgentList().getBody().writeTo(outputStream);
+
+        val objectMapper = new ObjectMapper();
+        val expected = objectMapper.writeValueAsString(Arrays.asList(
+                new AgentsResponse("agentId1", Arrays.asList(task1)),
+                new AgentsResponse("agentId2", Arrays.asList(task3))));
+        assertEquals(expected, new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+        verify(taskRepository, times(2)).findAgentTasksPage(any(), anyInt(), any());
+    }
+
+    @Test
+    public void test_streamAgentList_writesEmptyArray_whenNoAgentHasTasks() throws Exception {
+        when(taskRepository.findAgentTasksPage(isNull(), anyInt(), any())).thenAnswer(agentTasksPage(null));
+
+        val outputStream = new ByteArrayOutputStream();
+        subject.streamAgentList().getBody().writeTo(outputStream);
+
+        assertEquals("[]", new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void test_streamAgentList_readsPagesOnUseCaseThreads_whenAsyncEnabled() throws Exception {
+        val useCaseExecutor = new UseCaseExecutor(true, 1, 1, 10000, new SimpleMeterRegistry());
+        val asyncSubject = new AgentsController(taskAllocationDetailRepository, taskRepository, new ObjectMapper(), useCaseExecutor);
+        List<String> readingThreads = new ArrayList<>();
+        when(taskRepository.findAgentTasksPage(isNull(), anyInt(), any())).thenAnswer(invocation -> {
+            readingThreads.add(Thread.currentThread().getName());
+            return agentTasksPage(null, new AgentsResponse("agentId1", Arrays.asList(task1))).answer(invocation);
+        });
+
+        try {
+            asyncSubject.streamAgentList().getBody().writeTo(new ByteArrayOutputStream());
+        } finally {
+            useCaseExecutor.shutdown();
+        }
+
+        assertEquals(Collections.singletonList("use-case-1"), readingThreads);
+    }
+
+    @Test
+    public void test_streamAgentList_isNotMappedForAgentId() throws Exception {
+        val requestMapping = AgentsController.class.getMethod("streamAgentList").getAnnotation(RequestMapping.class);
+
+        assertTrue(Arrays.asList(requestMapping.params()).contains("!agentId"));
+    }
+    //endregion
+
+    //region private
+    // Hands the given agents to the consumer, which is always the last argument, and returns where the next page starts
+    @SuppressWarnings("unchecked")
+    private static Answer<String> agentTasksPage(String nextAfterAgentId, AgentsResponse... agents) {
+        return invocation -> {
+            val arguments = invocation.getArguments();
+            val consumer = (BiConsumer<String, List<Task>>) arguments[arguments.length - 1];
+            for (AgentsResponse agent : agents) {
+                consumer.accept(agent.getAgentId(), agent.getTaskList());
+            }
+            return nextAfterAgentId;
+        };
+    }
+
+    private static String cursor(String agentId) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(agentId.getBytes(StandardCharsets.UTF_8));
+    }
+    //endregion
+}
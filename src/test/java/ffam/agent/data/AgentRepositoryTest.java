@@ -5,11 +5,17 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentMatchers;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.util.Arrays;
 
 import static org.junit.Assert.assertEquals;
-import static org.mockito.Mockito.RETURNS_SMART_NULLS;
-import static org.mockito.Mockito.mock;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.endsWith;
+import static org.mockito.Mockito.*;
 
 @RunWith(JUnit4.class)
 public class AgentRepositoryTest {
@@ -23,62 +29,16 @@ public class AgentRepositoryTest {
         subject = new AgentRepository(jdbcTemplate);
     }
 
-    //region buildSql
-    @Test
-    public void test_buildSql_whenAllSkillsTrue() {
-        val expected = "SELECT AGENT_ID, AGENT_NAME, SKILL_1, SKILL_2, SKILL_3 " +
-                "FROM AGENT_LOOKUP WHERE  SKILL_1 = 1  AND  SKILL_2 = 1  AND  SKILL_3 = 1 ";
-
-        assertEquals(expected, subject.buildSql(true, true, true));
-    }
-
-    @Test
-    public void test_buildSql_whenFirstTwoSkillsTrue() {
-        val expected = "SELECT AGENT_ID, AGENT_NAME, SKILL_1, SKILL_2, SKILL_3 " +
-                "FROM AGENT_LOOKUP WHERE  SKILL_1 = 1  AND  SKILL_2 = 1 ";
-
-        assertEquals(expected, subject.buildSql(true, true, false));
-    }
-
-    @Test
-    public void test_buildSql_whenLastTwoSkillsTrue() {
-        val expected = "SELECT AGENT_ID, AGENT_NAME, SKILL_1, SKILL_2, SKILL_3 " +
-                "FROM AGENT_LOOKUP WHERE  SKILL_2 = 1  AND  SKILL_3 = 1 ";
-
-        assertEquals(expected, subject.buildSql(false, true, true));
-    }
-
-    @Test
-    public void test_buildSql_whenFirstAndLastSkillsTrue() {
-        val expected = "SELECT AGENT_ID, AGENT_NAME, SKILL_1, SKILL_2, SKILL_3 " +
-                "FROM AGENT_LOOKUP WHERE  SKILL_1 = 1  AND  SKILL_3 = 1 ";
-
-        assertEquals(expected, subject.buildSql(true, false, true));
-    }
-
-    @Test
-    public void test_buildSql_whenOnlyFirstSkillTrue() {
-        val expected = "SELECT AGENT_ID, AGENT_NAME, SKILL_1, SKILL_2, SKILL_3 " +
-                "FROM AGENT_LOOKUP WHERE  SKILL_1 = 1 ";
-
-        assertEquals(expected, subject.buildSql(true, false, false));
-    }
-
+    //region findAll
     @Test
-    public void test_buildSql_whenOnlySecondSkillTrue() {
-        val expected = "SELECT AGENT_ID, AGENT_NAME, SKILL_1, SKILL_2, SKILL_3 " +
-                "FROM AGENT_LOOKUP WHERE  SKILL_2 = 1 ";
+    public void test_findAll_ordersByAgentId() {
+        val agent = new Agent("agentId", "agentName", true, false, true);
+        when(jdbcTemplate.query(anyString(), any(Object[].class), ArgumentMatchers.<RowMapper<Agent>>any())).thenReturn(Arrays.asList(agent));
 
-        assertEquals(expected, subject.buildSql(false, true, false));
-    }
-
-    @Test
-    public void test_buildSql_whenOnlyThirdSkillTrue() {
-        val expected = "SELECT AGENT_ID, AGENT_NAME, SKILL_1, SKILL_2, SKILL_3 " +
-                "FROM AGENT_LOOKUP WHERE  SKILL_3 = 1 ";
+        assertEquals(Arrays.asList(agent), subject.findAll());
 
-        assertEquals(expected, subject.buildSql(false, false, true));
+        verify(jdbcTemplate, times(1)).query(endsWith("ORDER BY AGENT_ID"), any(Object[].class), ArgumentMatchers.<RowMapper<Agent>>any());
     }
     //endregion
 
-}
\ No newline at end of file
+}
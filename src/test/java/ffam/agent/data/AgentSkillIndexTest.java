@@ -0,0 +1,116 @@
+package ffam.agent.data;
+
+import lombok.val;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.OptionalInt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class AgentSkillIndexTest {
+    private final Agent captainMarvel = new Agent("agentId1", "CaptainMarvel", true, true, true);
+    private final Agent thor = new Agent("agentId2", "Thor", true, true, false);
+    private final Agent hulk = new Agent("agentId3", "Hulk", false, true, true);
+    private final Agent vision = new Agent("agentId4", "Vision", false, false, true);
+
+    private AgentRepository agentRepository;
+    private ApplicationEventPublisher applicationEventPublisher;
+    private AgentSkillIndex subject;
+
+    @Before
+    public void setUp() {
+        agentRepository = mock(AgentRepository.class, RETURNS_SMART_NULLS);
+        when(agentRepository.findAll()).thenReturn(Arrays.asList(captainMarvel, thor, hulk, vision));
+        applicationEventPublisher = mock(ApplicationEventPublisher.class, RETURNS_SMART_NULLS);
+        subject = new AgentSkillIndex(agentRepository, applicationEventPublisher);
+        subject.load();
+    }
+
+    //region findBySkillSet
+    @Test
+    public void test_findBySkillSet_returnsAgentsWithAllRequiredSkillsInRosterOrder() {
+        assertEquals(Arrays.asList(captainMarvel), subject.findBySkillSet(true, true, true));
+        assertEquals(Arrays.asList(captainMarvel, thor), subject.findBySkillSet(true, true, false));
+        assertEquals(Arrays.asList(captainMarvel, hulk), subject.findBySkillSet(false, true, true));
+        assertEquals(Arrays.asList(captainMarvel, hulk, vision), subject.findBySkillSet(false, false, true));
+        assertEquals(Arrays.asList(captainMarvel, thor, hulk), subject.findBySkillSet(false, true, false));
+    }
+
+    @Test
+    public void test_findBySkillSet_returnsEmptyList_whenNoAgentHasTheSkills() {
+        when(agentRepository.findAll()).thenReturn(Arrays.asList(vision));
+        subject.refresh();
+
+        assertTrue(subject.findBySkillSet(true, false, false).isEmpty());
+    }
+
+    @Test
+    public void test_findBySkillSet_doesNotGoToTheDatabase() {
+        subject.findBySkillSet(true, false, false);
+        subject.findBySkillSet(false, true, true);
+
+        verify(agentRepository, times(1)).findAll();
+        verifyNoMoreInteractions(agentRepository);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void test_findBySkillSet_returnsImmutableList() {
+        subject.findBySkillSet(true, false, false).add(vision);
+    }
+    //endregion
+
+    //region findSkillMask
+    @Test
+    public void test_findSkillMask_returnsMaskOfRosterAgent() {
+        assertEquals(OptionalInt.of(SkillMask.ALL), subject.findSkillMask("agentId1"));
+        assertEquals(OptionalInt.of(SkillMask.of(false, true, true)), subject.findSkillMask("agentId3"));
+    }
+
+    @Test
+    public void test_findSkillMask_returnsEmpty_whenAgentNotOnRoster() {
+        assertFalse(subject.findSkillMask("agentId9").isPresent());
+    }
+    //endregion
+
+    //region refresh
+    @Test
+    public void test_refresh_keepsSnapshot_whenRosterUnchanged() {
+        val before = subject.findBySkillSet(false, false, true);
+        subject.refresh();
+
+        assertSame(before, subject.findBySkillSet(false, false, true));
+        verifyZeroInteractions(applicationEventPublisher);
+    }
+
+    @Test
+    public void test_refresh_rebuildsSnapshot_whenRosterChanged() {
+        val ironMan = new Agent("agentId5", "IronMan", true, false, true);
+        when(agentRepository.findAll()).thenReturn(Arrays.asList(captainMarvel, thor, hulk, vision, ironMan));
+        subject.refresh();
+
+        assertEquals(Arrays.asList(captainMarvel, ironMan), subject.findBySkillSet(true, false, true));
+        verify(applicationEventPublisher, times(1)).publishEvent(any(AgentRosterChangedEvent.class));
+    }
+
+    @Test
+    public void test_refresh_removesAgents_whenRosterShrinks() {
+        when(agentRepository.findAll()).thenReturn(Collections.emptyList());
+        subject.refresh();
+
+        assertTrue(subject.findBySkillSet(false, false, true).isEmpty());
+        assertTrue(subject.findAll().isEmpty());
+    }
+    //endregion
+}
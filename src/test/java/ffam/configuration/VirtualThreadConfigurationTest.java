@@ -0,0 +1,31 @@
+package ffam.configuration;
+
+import lombok.val;
+import org.apache.catalina.connector.Connector;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertSame;
+
+@RunWith(JUnit4.class)
+public class VirtualThreadConfigurationTest {
+
+    //region virtualThreadTomcatCustomizer
+    @Test
+    public void test_virtualThreadTomcatCustomizer_connectorUsesRequestExecutor() {
+        val requestExecutor = Executors.newSingleThreadExecutor();
+        val factory = new TomcatServletWebServerFactory();
+        new VirtualThreadConfiguration().virtualThreadTomcatCustomizer(requestExecutor).customize(factory);
+
+        val connector = new Connector(TomcatServletWebServerFactory.DEFAULT_PROTOCOL);
+        factory.getTomcatConnectorCustomizers().forEach(customizer -> customizer.customize(connector));
+
+        assertSame(requestExecutor, connector.getProtocolHandler().getExecutor());
+        requestExecutor.shutdown();
+    }
+    //endregion
+}
@@ -0,0 +1,59 @@
+package ffam.configuration;
+
+import lombok.val;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// The build runs on JDK 8, where only the fallback is exercised. On JDK 21 or later the virtual path runs instead
+@RunWith(JUnit4.class)
+public class VirtualThreadsTest {
+
+    //region isAvailable
+    @Test
+    public void test_isAvailable_fromJdk21() {
+        assertEquals(featureVersion() >= 21, VirtualThreads.isAvailable());
+    }
+    //endregion
+
+    //region newVirtualThreadPerTaskExecutor
+    @Test
+    public void test_newVirtualThreadPerTaskExecutor_runsOnVirtualThread_orFailsBeforeJdk21() throws Exception {
+        if (!VirtualThreads.isAvailable()) {
+            try {
+                VirtualThreads.newVirtualThreadPerTaskExecutor();
+                fail();
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            return;
+        }
+
+        val executor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+        assertTrue(executor.submit(() -> VirtualThreads.isVirtual(Thread.currentThread())).get(5, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+    //endregion
+
+    //region isVirtual
+    @Test
+    public void test_isVirtual_platformThread() {
+        assertFalse(VirtualThreads.isVirtual(Thread.currentThread()));
+    }
+    //endregion
+
+    //region private
+    // "1.8" before JDK 9, then "9", "10", ...
+    private static int featureVersion() {
+        val version = System.getProperty("java.specification.version");
+        return version.startsWith("1.") ? Integer.parseInt(version.substring(2)) : Integer.parseInt(version);
+    }
+    //endregion
+}
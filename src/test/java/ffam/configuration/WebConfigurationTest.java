@@ -0,0 +1,38 @@
+package ffam.configuration;
+
+import ffam.general.CompletedResultReturnValueHandler;
+import lombok.val;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class WebConfigurationTest {
+
+    //region completedResultReturnValueHandlerInstaller
+    @Test
+    public void test_completedResultReturnValueHandlerInstaller_putsHandlerFirst() {
+        val requestMappingHandlerAdapter = new RequestMappingHandlerAdapter();
+        requestMappingHandlerAdapter.setMessageConverters(Collections.singletonList(new MappingJackson2HttpMessageConverter()));
+        val applicationContext = new StaticApplicationContext();
+        applicationContext.refresh();
+        requestMappingHandlerAdapter.setApplicationContext(applicationContext);
+        requestMappingHandlerAdapter.afterPropertiesSet();
+        val defaultHandlerCount = requestMappingHandlerAdapter.getReturnValueHandlers().size();
+
+        new WebConfiguration().completedResultReturnValueHandlerInstaller(requestMappingHandlerAdapter).afterSingletonsInstantiated();
+
+        val returnValueHandlers = requestMappingHandlerAdapter.getReturnValueHandlers();
+        assertEquals(defaultHandlerCount + 1, returnValueHandlers.size());
+        assertTrue(returnValueHandlers.get(0) instanceof CompletedResultReturnValueHandler);
+    }
+    //endregion
+}
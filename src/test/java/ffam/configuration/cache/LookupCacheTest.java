@@ -0,0 +1,195 @@
+package ffam.configuration.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class LookupCacheTest {
+    private SimpleMeterRegistry meterRegistry;
+    private LookupCache<String, String> subject;
+    private AtomicInteger loads;
+
+    @Before
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        subject = LookupCache.create("test", 2, meterRegistry);
+        loads = new AtomicInteger();
+    }
+
+    @After
+    public void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    //region get
+    @Test
+    public void test_get_loadsOnce_andCountsHitsAndMisses() {
+        assertEquals("value-key1", subject.get("key1", this::load));
+        assertEquals("value-key1", subject.get("key1", this::load));
+
+        assertEquals(1, loads.get());
+        assertEquals(1, meterRegistry.get("cache.gets").tag("cache", "test").tag("result", "hit").functionCounter().count(), 0);
+        assertEquals(1, meterRegistry.get("cache.gets").tag("cache", "test").tag("result", "miss").functionCounter().count(), 0);
+    }
+
+    @Test
+    public void test_get_doesNotKeepValue_whenInvalidatedWhileLoading() {
+        subject.get("key1", key -> {
+            subject.invalidate("key1");
+            return load(key);
+        });
+        subject.get("key1", this::load);
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void test_get_evictsPastMaximumSize() {
+        subject.get("key1", this::load);
+        subject.get("key2", this::load);
+        subject.get("key3", this::load);
+
+        assertEquals(2, meterRegistry.get("cache.size").tag("cache", "test").gauge().value(), 0);
+        assertEquals(1, meterRegistry.get("cache.evictions").tag("cache", "test").functionCounter().count(), 0);
+    }
+
+    @Test
+    public void test_get_doesNotKeepValue_whenTransactionCommitsWhileLoading() throws Exception {
+        TransactionSynchronizationManager.initSynchronization();
+        subject.invalidateAll(Collections.singletonList("key1"));
+        val synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        val loading = new CountDownLatch(1);
+        val committed = new CountDownLatch(1);
+        val executor = Executors.newSingleThreadExecutor();
+        try {
+            // A reader on another connection loads the row as it was before the commit
+            val reader = executor.submit(() -> subject.get("key1", key -> {
+                loading.countDown();
+                await(committed);
+                return "old";
+            }));
+            await(loading);
+            synchronizations.forEach(TransactionSynchronization::afterCommit);
+            committed.countDown();
+
+            assertEquals("old", reader.get(5, TimeUnit.SECONDS));
+            assertEquals("value-key1", subject.get("key1", this::load));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void test_get_neverKeepsValueOlderThanLastInvalidation_whenInvalidationsRace() throws Exception {
+        val row = new AtomicInteger();
+        val executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int round = 0; round < 2000; round++) {
+                val start = new CountDownLatch(1);
+                val reader = executor.submit(() -> {
+                    await(start);
+                    return subject.get("key1", key -> String.valueOf(row.get()));
+                });
+                val writer = executor.submit(() -> {
+                    await(start);
+                    row.incrementAndGet();
+                    subject.invalidate("key1");
+                });
+                start.countDown();
+                reader.get(5, TimeUnit.SECONDS);
+                writer.get(5, TimeUnit.SECONDS);
+
+                assertEquals(String.valueOf(row.get()), subject.get("key1", key -> String.valueOf(row.get())));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    //endregion
+
+    //region invalidate
+    @Test
+    public void test_invalidate_reloadsOnlyThatKey() {
+        subject.get("key1", this::load);
+        subject.get("key2", this::load);
+        subject.invalidate("key1");
+        subject.get("key1", this::load);
+        subject.get("key2", this::load);
+
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void test_invalidateAll_discardsOnlyOnceTransactionCommits() {
+        subject.get("key1", key -> "old");
+        TransactionSynchronizationManager.initSynchronization();
+        subject.invalidateAll(Collections.singletonList("key1"));
+        // Other connections still see the old row until the commit
+        assertEquals("old", subject.get("key1", this::load));
+
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCommit();
+        }
+        assertEquals("value-key1", subject.get("key1", this::load));
+    }
+
+    @Test
+    public void test_invalidateAll_keepsValue_whenTransactionRollsBack() {
+        subject.get("key1", key -> "old");
+        TransactionSynchronizationManager.initSynchronization();
+        subject.invalidateAll(Collections.singletonList("key1"));
+
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        }
+        assertEquals("old", subject.get("key1", this::load));
+    }
+
+    //endregion
+
+    //region clear
+    @Test
+    public void test_clear_reloadsEveryKey() {
+        subject.get("key1", this::load);
+        subject.get("key2", this::load);
+        subject.clear();
+        subject.get("key1", this::load);
+        subject.get("key2", this::load);
+
+        assertEquals(4, loads.get());
+    }
+    //endregion
+
+    //region private
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String load(String key) {
+        loads.incrementAndGet();
+        return "value-" + key;
+    }
+    //endregion
+}
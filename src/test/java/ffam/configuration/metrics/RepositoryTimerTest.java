@@ -0,0 +1,69 @@
+package ffam.configuration.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.stereotype.Repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+@RunWith(JUnit4.class)
+public class RepositoryTimerTest {
+    private SimpleMeterRegistry meterRegistry;
+    private SampleRepository subject;
+
+    @Before
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        val proxyFactory = new AspectJProxyFactory(new SampleRepository());
+        proxyFactory.addAspect(new RepositoryTimer(meterRegistry));
+        subject = proxyFactory.getProxy();
+    }
+
+    //region time
+    @Test
+    public void test_time_taggedWithMethod() {
+        subject.find();
+        subject.find();
+
+        val timer = meterRegistry.get(RepositoryTimer.REPOSITORY)
+                .tag("method", "SampleRepository.find")
+                .tag("exception", RepositoryTimer.NONE)
+                .timer();
+        assertEquals(2, timer.count());
+    }
+
+    @Test
+    public void test_time_exception_taggedWithException() {
+        try {
+            subject.fail();
+            fail();
+        } catch (EmptyResultDataAccessException e) {
+            // expected
+        }
+
+        val timer = meterRegistry.get(RepositoryTimer.REPOSITORY)
+                .tag("method", "SampleRepository.fail")
+                .tag("exception", "EmptyResultDataAccessException")
+                .timer();
+        assertEquals(1, timer.count());
+    }
+    //endregion
+
+    @Repository
+    public static class SampleRepository {
+        public String find() {
+            return "found";
+        }
+
+        public String fail() {
+            throw new EmptyResultDataAccessException(1);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package ffam.configuration.metrics;
+
+import ffam.task.api.TaskRequest;
+import ffam.task.api.TaskRequestBusinessErrorResponse;
+import ffam.task.domain.TaskPriority;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.http.ResponseEntity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+@RunWith(JUnit4.class)
+public class UseCaseTimerTest {
+    private SimpleMeterRegistry meterRegistry;
+    private SampleUseCase subject;
+
+    @Before
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        val proxyFactory = new AspectJProxyFactory(new SampleUseCase());
+        proxyFactory.addAspect(new UseCaseTimer(meterRegistry));
+        subject = proxyFactory.getProxy();
+    }
+
+    //region time
+    @Test
+    public void test_time_success_taggedWithPriorityAndSkillMask() {
+        subject.createTask(new TaskRequest(TaskPriority.HIGH, true, false, true));
+
+        val timer = meterRegistry.get(UseCaseTimer.USE_CASE)
+                .tag("usecase", "SampleUseCase.createTask")
+                .tag("outcome", UseCaseTimer.SUCCESS)
+                .tag("priority", "HIGH")
+                .tag("skills", "5")
+                .timer();
+        assertEquals(1, timer.count());
+    }
+
+    @Test
+    public void test_time_errorResponse_taggedWithErrorCode() {
+        subject.createTask(new TaskRequest(TaskPriority.LOW, false, true, false));
+
+        val timer = meterRegistry.get(UseCaseTimer.USE_CASE)
+                .tag("outcome", "V006")
+                .tag("priority", "LOW")
+                .tag("skills", "2")
+                .timer();
+        assertEquals(1, timer.count());
+    }
+
+    @Test
+    public void test_time_noTaskRequest_taggedNone() {
+        subject.finishTask("taskId");
+
+        val timer = meterRegistry.get(UseCaseTimer.USE_CASE)
+                .tag("usecase", "SampleUseCase.finishTask")
+                .tag("outcome", "V101")
+                .tag("priority", UseCaseTimer.NONE)
+                .tag("skills", UseCaseTimer.NONE)
+                .timer();
+        assertEquals(1, timer.count());
+    }
+
+    @Test
+    public void test_time_exception_taggedWithException() {
+        try {
+            subject.createTask(null);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        val timer = meterRegistry.get(UseCaseTimer.USE_CASE)
+                .tag("outcome", "IllegalStateException")
+                .timer();
+        assertEquals(1, timer.count());
+    }
+
+    @Test
+    public void test_time_notAnnotated_notTimed() {
+        subject.notTimed();
+
+        assertEquals(0, meterRegistry.getMeters().size());
+    }
+    //endregion
+
+    public static class SampleUseCase {
+        @TimedUseCase
+        public ResponseEntity<?> createTask(TaskRequest taskRequest) {
+            if (taskRequest == null) {
+                throw new IllegalStateException();
+            }
+            if (taskRequest.getTaskPriority() == TaskPriority.LOW) {
+                return ResponseEntity.unprocessableEntity().body(new TaskRequestBusinessErrorResponse("V006", "All Agents are busy at this time"));
+            }
+            return ResponseEntity.ok().build();
+        }
+
+        @TimedUseCase
+        public ResponseEntity<?> finishTask(String taskId) {
+            return ResponseEntity.unprocessableEntity().body(new TaskRequestBusinessErrorResponse("V101", "Unable to delete the task at this time"));
+        }
+
+        public ResponseEntity<?> notTimed() {
+            return ResponseEntity.ok().build();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package ffam.configuration.pool;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(JUnit4.class)
+public class ConnectionPoolMetricsTest {
+    private SimpleMeterRegistry meterRegistry;
+    private ConnectionPoolMetrics subject;
+
+    @Before
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        DataSource dataSource = new DataSource();
+        dataSource.setMaxActive(7);
+        subject = new ConnectionPoolMetrics(meterRegistry, dataSource);
+    }
+
+    //region recordStatementCache
+    @Test
+    public void test_recordStatementCache_countsHitsAndMissesAndTheirRatio() {
+        assertEquals(0.0, meterRegistry.get(ConnectionPoolMetrics.STATEMENT_CACHE + ".hit.ratio").gauge().value(), 0.0);
+
+        subject.recordStatementCache(true);
+        subject.recordStatementCache(true);
+        subject.recordStatementCache(true);
+        subject.recordStatementCache(false);
+
+        assertEquals(3.0, meterRegistry.get(ConnectionPoolMetrics.STATEMENT_CACHE).tag("result", "hit").counter().count(), 0.0);
+        assertEquals(1.0, meterRegistry.get(ConnectionPoolMetrics.STATEMENT_CACHE).tag("result", "miss").counter().count(), 0.0);
+        assertEquals(0.75, meterRegistry.get(ConnectionPoolMetrics.STATEMENT_CACHE + ".hit.ratio").gauge().value(), 0.0);
+    }
+    //endregion
+
+    //region gauges
+    @Test
+    public void test_gauges_readThePool() {
+        assertEquals(7.0, meterRegistry.get("ffam.pool.max").gauge().value(), 0.0);
+    }
+    //endregion
+}
@@ -0,0 +1,68 @@
+package ffam.configuration.pool;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.Connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class MeteredDataSourceTest {
+    private DataSource pool;
+    private Connection connection;
+    private SimpleMeterRegistry meterRegistry;
+    private ConnectionPoolMetrics connectionPoolMetrics;
+
+    @Before
+    public void setUp() throws Exception {
+        pool = mock(DataSource.class, RETURNS_SMART_NULLS);
+        connection = mock(Connection.class, RETURNS_SMART_NULLS);
+        meterRegistry = new SimpleMeterRegistry();
+        connectionPoolMetrics = new ConnectionPoolMetrics(meterRegistry, new DataSource());
+        when(pool.getConnection()).thenReturn(connection);
+    }
+
+    //region getConnection
+    @Test
+    public void test_getConnection_timesBorrowAndHold_taggedWithCaller() throws Exception {
+        val subject = new MeteredDataSource(pool, connectionPoolMetrics, 40);
+
+        val borrowed = subject.getConnection();
+        borrowed.close();
+        borrowed.close();
+
+        assertEquals(1, meterRegistry.get(ConnectionPoolMetrics.BORROW).tag(ConnectionPoolMetrics.CALLER_TAG, PoolCaller.UNKNOWN).timer().count());
+        assertEquals(1, meterRegistry.get(ConnectionPoolMetrics.HELD).tag(ConnectionPoolMetrics.CALLER_TAG, PoolCaller.UNKNOWN).timer().count());
+        assertNull(meterRegistry.find(ConnectionPoolMetrics.ABANDONED).counter());
+        verify(connection, times(2)).close();
+    }
+
+    @Test
+    public void test_getConnection_countsAbandoned_whenHeldPastSuspectTimeout() throws Exception {
+        val subject = new MeteredDataSource(pool, connectionPoolMetrics, 0);
+
+        val borrowed = subject.getConnection();
+        Thread.sleep(1);
+        borrowed.close();
+
+        assertEquals(1.0, meterRegistry.get(ConnectionPoolMetrics.ABANDONED).counter().count(), 0.0);
+    }
+
+    @Test
+    public void test_getConnection_forwardsCallsToThePooledConnection() throws Exception {
+        val subject = new MeteredDataSource(pool, connectionPoolMetrics, 40);
+        when(connection.getAutoCommit()).thenReturn(true);
+
+        assertTrue(subject.getConnection().getAutoCommit());
+    }
+    //endregion
+}
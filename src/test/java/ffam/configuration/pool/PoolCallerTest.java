@@ -0,0 +1,33 @@
+package ffam.configuration.pool;
+
+import lombok.val;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.stereotype.Repository;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(JUnit4.class)
+public class PoolCallerTest {
+
+    //region tag
+    @Test
+    public void test_tag_namesRepositoryMethod_whileItRuns() {
+        val proxyFactory = new AspectJProxyFactory(new SampleRepository());
+        proxyFactory.addAspect(new PoolCaller());
+        SampleRepository subject = proxyFactory.getProxy();
+
+        assertEquals("SampleRepository.find", subject.find());
+        assertEquals(PoolCaller.UNKNOWN, PoolCaller.current());
+    }
+    //endregion
+
+    @Repository
+    public static class SampleRepository {
+        public String find() {
+            return PoolCaller.current();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package ffam.configuration.pool;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.apache.tomcat.jdbc.pool.PooledConnection;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class TimedValidatorTest {
+    private Connection connection;
+    private Statement statement;
+    private SimpleMeterRegistry meterRegistry;
+    private TimedValidator subject;
+
+    @Before
+    public void setUp() throws Exception {
+        connection = mock(Connection.class, RETURNS_SMART_NULLS);
+        statement = mock(Statement.class, RETURNS_SMART_NULLS);
+        meterRegistry = new SimpleMeterRegistry();
+        subject = new TimedValidator("SELECT 1 FROM DUAL",
+                new ConnectionPoolMetrics(meterRegistry, new DataSource()));
+        when(connection.createStatement()).thenReturn(statement);
+    }
+
+    //region validate
+    @Test
+    public void test_validate_runsQueryAndTimesIt() throws Exception {
+        assertTrue(subject.validate(connection, PooledConnection.VALIDATE_BORROW));
+
+        verify(statement, times(1)).execute("SELECT 1 FROM DUAL");
+        verify(statement, times(1)).close();
+        assertEquals(1, meterRegistry.get(ConnectionPoolMetrics.VALIDATION).timer().count());
+    }
+
+    @Test
+    public void test_validate_returnsFalse_whenQueryFails() throws Exception {
+        when(statement.execute("SELECT 1 FROM DUAL")).thenThrow(new SQLException("closed"));
+
+        assertFalse(subject.validate(connection, PooledConnection.VALIDATE_BORROW));
+        assertEquals(1, meterRegistry.get(ConnectionPoolMetrics.VALIDATION).timer().count());
+    }
+    //endregion
+}
@@ -0,0 +1,266 @@
+package ffam.features;
+
+import ffam.TestApplication;
+import ffam.agent.data.AgentRepository;
+import ffam.configuration.cache.LookupCache;
+import ffam.task.data.AllocationChange;
+import ffam.task.data.TaskAllocationDetailRepository;
+import ffam.task.data.TaskRepository;
+import ffam.task.domain.PlannedAllocation;
+import ffam.task.domain.PlannedRemoval;
+import ffam.task.domain.Task;
+import ffam.task.domain.TaskAllocationDetail;
+import ffam.task.domain.TaskPriority;
+import ffam.task.domain.TaskStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.Invocation;
+import org.mockito.invocation.InvocationOnMock;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.*;
+
+/**
+ * Explains every statement the repositories send and fails if any of them scans a whole table or index.
+ * The statements are recorded by calling each public repository method against a recording JdbcTemplate, so new
+ * repository methods are covered without touching this test.
+ * Table statistics are set to production-like sizes first, otherwise the optimizer rightly prefers scanning tiny tables.
+ */
+@WebAppConfiguration
+@SpringBootTest(classes = TestApplication.class)
+@RunWith(SpringJUnit4ClassRunner.class)
+public class QueryPlanTest {
+    private static final List<String> TABLES = Arrays.asList("AGENT_LOOKUP", "TASK", "TASK_ALLOCATION", "TASK_ALLOCATION_ITEM", "TASK_HISTORY");
+
+    // Methods that read every row by design, and the tables they may scan
+    private static final Map<String, Set<String>> FULL_SCAN_ALLOWED = new HashMap<>();
+
+    static {
+        // AGENT_LOOKUP is a small, mostly static roster held in memory by AgentSkillIndex
+        FULL_SCAN_ALLOWED.put("AgentRepository.findAll", set("AGENT_LOOKUP"));
+        // Startup load of the occupancy engine
+        FULL_SCAN_ALLOWED.put("TaskAllocationDetailRepository.findAll", set("TASK_ALLOCATION", "TASK_ALLOCATION_ITEM"));
+    }
+
+    // Methods that send a statement of their own when the first argument is null, so they are recorded both ways
+    private static final Set<String> NULL_FIRST_ARGUMENT = set("TaskRepository.findAgentTasksPage");
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    private JdbcTemplate recordingJdbcTemplate;
+
+    @Before
+    public void setUp() {
+        recordingJdbcTemplate = mock(JdbcTemplate.class, QueryPlanTest::recordedAnswer);
+        for (String table : TABLES) {
+            jdbcTemplate.execute("BEGIN DBMS_STATS.SET_TABLE_STATS(ownname => USER, tabname => '" + table + "', " +
+                    "numrows => 1000000, numblks => 20000); END;");
+        }
+    }
+
+    @After
+    public void cleanUp() {
+        for (String table : TABLES) {
+            jdbcTemplate.execute("BEGIN DBMS_STATS.DELETE_TABLE_STATS(ownname => USER, tabname => '" + table + "'); END;");
+        }
+        jdbcTemplate.execute("DELETE FROM PLAN_TABLE WHERE STATEMENT_ID LIKE 'FFAM_%'");
+    }
+
+    @Test
+    public void test_agentRepository_hasNoFullScans() {
+        assertNoFullScans(new AgentRepository(recordingJdbcTemplate));
+    }
+
+    @Test
+    public void test_taskRepository_hasNoFullScans() {
+        assertNoFullScans(new TaskRepository(recordingJdbcTemplate, LookupCache.create("tasks", 100, new SimpleMeterRegistry())));
+    }
+
+    @Test
+    public void test_taskAllocationDetailRepository_hasNoFullScans() {
+        assertNoFullScans(new TaskAllocationDetailRepository(recordingJdbcTemplate,
+                LookupCache.create("taskAllocations", 100, new SimpleMeterRegistry())));
+    }
+
+    //region private
+    private void assertNoFullScans(Object repository) {
+        val statements = recordStatements(repository);
+        assertTrue("No statements recorded for " + repository.getClass().getSimpleName(), !statements.isEmpty());
+
+        List<String> failures = new ArrayList<>();
+        int statementNumber = 0;
+        for (Map.Entry<String, List<String>> entry : statements.entrySet()) {
+            val allowed = FULL_SCAN_ALLOWED.getOrDefault(entry.getKey(), Collections.emptySet());
+            for (String sql : entry.getValue()) {
+                val statementId = "FFAM_" + (++statementNumber);
+                jdbcTemplate.execute("EXPLAIN PLAN SET STATEMENT_ID = '" + statementId + "' FOR " + namedBinds(sql));
+                val steps = jdbcTemplate.queryForList(
+                        "SELECT OPERATION, OPTIONS, OBJECT_NAME FROM PLAN_TABLE WHERE STATEMENT_ID = ? ORDER BY ID",
+                        statementId);
+                for (Map<String, Object> step : steps) {
+                    val options = String.valueOf(step.get("OPTIONS"));
+                    val objectName = String.valueOf(step.get("OBJECT_NAME"));
+                    if (options.contains("FULL") && !allowed.contains(tableOf(objectName))) {
+                        failures.add(entry.getKey() + " : " + step.get("OPERATION") + " " + options + " " + objectName + "\n    " + sql);
+                    }
+                }
+            }
+        }
+        if (!failures.isEmpty()) {
+            fail("Full scans found:\n" + String.join("\n", failures));
+        }
+    }
+
+    // Calls every public method of the repository with sample arguments and records the SQL each one sends
+    private Map<String, List<String>> recordStatements(Object repository) {
+        Map<String, List<String>> statements = new LinkedHashMap<>();
+        for (Method method : repository.getClass().getDeclaredMethods()) {
+            if (!Modifier.isPublic(method.getModifiers()) || method.isSynthetic()) {
+                continue;
+            }
+            val key = repository.getClass().getSimpleName() + "." + method.getName();
+            clearInvocations(recordingJdbcTemplate);
+            try {
+                method.invoke(repository, sampleArguments(method));
+                if (NULL_FIRST_ARGUMENT.contains(key)) {
+                    val arguments = sampleArguments(method);
+                    arguments[0] = null;
+                    method.invoke(repository, arguments);
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException("Unable to record " + method, e);
+            }
+            List<String> sqls = new ArrayList<>();
+            for (Invocation invocation : mockingDetails(recordingJdbcTemplate).getInvocations()) {
+                if (invocation.getArguments().length > 0 && invocation.getArguments()[0] instanceof String) {
+                    sqls.add((String) invocation.getArguments()[0]);
+                }
+            }
+            statements.merge(key, sqls, (a, b) -> { a.addAll(b); return a; });
+        }
+        return statements;
+    }
+
+    private static Object[] sampleArguments(Method method) {
+        Type[] types = method.getGenericParameterTypes();
+        Object[] arguments = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            arguments[i] = sampleValue(types[i], method);
+        }
+        return arguments;
+    }
+
+    private static Object sampleValue(Type genericType, Method method) {
+        Class<?> type = genericType instanceof ParameterizedType
+                ? (Class<?>) ((ParameterizedType) genericType).getRawType()
+                : (Class<?>) genericType;
+        if (type == String.class) {
+            return "sample";
+        } else if (type == boolean.class) {
+            return true;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == int.class) {
+            return 1;
+        } else if (type == TaskPriority.class) {
+            return TaskPriority.HIGH;
+        } else if (type == TaskStatus.class) {
+            return TaskStatus.IN_PROGRESS;
+        } else if (type == ZonedDateTime.class) {
+            return ZonedDateTime.now();
+        } else if (type == BiConsumer.class) {
+            return (BiConsumer<Object, Object>) (first, second) -> { };
+        } else if (type == Task.class) {
+            return new Task("sample", TaskPriority.HIGH, true, false, false, TaskStatus.IN_PROGRESS, "sample");
+        } else if (type == PlannedAllocation.class) {
+            return new PlannedAllocation(
+                    new TaskAllocationDetail("sample", Collections.singletonList("sample"), TaskPriority.HIGH, ZonedDateTime.now(), 1L),
+                    0L,
+                    Collections.singletonList((Task) sampleValue(Task.class, method)));
+        } else if (type == PlannedRemoval.class) {
+            return new PlannedRemoval(
+                    new TaskAllocationDetail("sample", Collections.singletonList("sample"), TaskPriority.LOW, ZonedDateTime.now(), 1L),
+                    0L,
+                    Collections.singletonList("sample"));
+        } else if (Collection.class.isAssignableFrom(type) && genericType instanceof ParameterizedType
+                && ((ParameterizedType) genericType).getActualTypeArguments()[0] == AllocationChange.class) {
+            // One agent released, one with a task removed and one with a task added, so every statement is sent
+            return Arrays.asList(
+                    AllocationChange.removed(new TaskAllocationDetail("sample1", Collections.emptyList(), TaskPriority.LOW, ZonedDateTime.now(), 1L), "sample1"),
+                    AllocationChange.removed(new TaskAllocationDetail("sample2", Collections.singletonList("sample3"), TaskPriority.LOW, ZonedDateTime.now(), 1L), "sample2"),
+                    AllocationChange.added(new TaskAllocationDetail("sample3", Collections.singletonList("sample4"), TaskPriority.HIGH, ZonedDateTime.now(), 1L), "sample4", TaskPriority.HIGH));
+        } else if (Collection.class.isAssignableFrom(type) && genericType instanceof ParameterizedType) {
+            return Collections.singletonList(sampleValue(((ParameterizedType) genericType).getActualTypeArguments()[0], method));
+        }
+        throw new IllegalStateException("Add a sample value for " + genericType + " used by " + method);
+    }
+
+    // Writes report one row changed and reads return nothing, so each method runs its whole happy path
+    private static Object recordedAnswer(InvocationOnMock invocation) throws Throwable {
+        Class<?> returnType = invocation.getMethod().getReturnType();
+        if (returnType == int.class) {
+            return 1;
+        }
+        if (returnType == int[].class) {
+            return new int[0];
+        }
+        if (returnType == Object.class || List.class.isAssignableFrom(returnType)) {
+            return new ArrayList<>();
+        }
+        return RETURNS_DEFAULTS.answer(invocation);
+    }
+
+    // EXPLAIN PLAN takes named binds, not JDBC placeholders
+    private static String namedBinds(String sql) {
+        StringBuilder stringBuilder = new StringBuilder();
+        int bind = 0;
+        for (char c : sql.toCharArray()) {
+            if (c == '?') {
+                stringBuilder.append(":b").append(++bind);
+            } else {
+                stringBuilder.append(c);
+            }
+        }
+        return stringBuilder.toString();
+    }
+
+    // Index scans are attributed to the index's table, so an allowed table covers its indexes too
+    private String tableOf(String objectName) {
+        val tables = jdbcTemplate.queryForList(
+                "SELECT TABLE_NAME FROM USER_INDEXES WHERE INDEX_NAME = ?", String.class, objectName);
+        return tables.isEmpty() ? objectName : tables.get(0);
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+    //endregion
+}
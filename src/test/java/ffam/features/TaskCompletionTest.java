@@ -2,9 +2,10 @@ package ffam.features;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import ffam.TestApplication;
-import ffam.agent.data.AgentRepository;
+import ffam.agent.data.AgentSkillIndex;
 import ffam.task.data.TaskAllocationDetailRepository;
 import ffam.task.data.TaskRepository;
+import ffam.task.domain.AgentOccupancyEngine;
 import ffam.task.domain.TaskPriority;
 import ffam.task.domain.TaskStatus;
 import lombok.val;
@@ -19,6 +20,11 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.ResultHandler;
+import org.springframework.test.web.servlet.ResultMatcher;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 
@@ -26,10 +32,12 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
@@ -48,7 +56,7 @@ public class TaskCompletionTest {
     JdbcTemplate jdbcTemplate;
 
     @Autowired
-    AgentRepository agentRepository;
+    AgentSkillIndex agentSkillIndex;
 
     @Autowired
     TaskRepository taskRepository;
@@ -56,6 +64,9 @@ public class TaskCompletionTest {
     @Autowired
     TaskAllocationDetailRepository taskAllocationDetailRepository;
 
+    @Autowired
+    AgentOccupancyEngine agentOccupancyEngine;
+
     @Before
     public void setUp() throws Exception {
         this.mockMvc = MockMvcBuilders.webAppContextSetup(wac).build();
@@ -65,6 +76,9 @@ public class TaskCompletionTest {
     public void cleanUp() throws Exception {
         jdbcTemplate.execute("DELETE from TASK_ALLOCATION");
         jdbcTemplate.execute("DELETE from TASK");
+        taskRepository.clearCache();
+        taskAllocationDetailRepository.clearCache();
+        agentOccupancyEngine.rebuild();
     }
 
     /**
@@ -78,9 +92,9 @@ public class TaskCompletionTest {
                 "skill2", true,
                 "skill3", true));
 
-        val agent = agentRepository.findBySkillSet(true, true, true);
+        val agent = agentSkillIndex.findBySkillSet(true, true, true);
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson))
                 .andExpect(status().isOk())
@@ -100,7 +114,7 @@ public class TaskCompletionTest {
 
         val taskId = jdbcTemplate.queryForObject("SELECT TASK_ID FROM TASK WHERE PRIORITY = '0'", String.class);
 
-        mockMvc.perform(patch("/task")
+        perform(patch("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .param("taskId", taskId))
                 .andExpect(status().isOk())
@@ -130,9 +144,9 @@ public class TaskCompletionTest {
                 "skill2", true,
                 "skill3", true));
 
-        val agent = agentRepository.findBySkillSet(true, true, true);
+        val agent = agentSkillIndex.findBySkillSet(true, true, true);
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson))
                 .andExpect(status().isOk())
@@ -156,7 +170,7 @@ public class TaskCompletionTest {
                 "skill2", true,
                 "skill3", true));
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson1))
                 .andExpect(status().isOk())
@@ -166,7 +180,7 @@ public class TaskCompletionTest {
 
         val taskId = jdbcTemplate.queryForObject("SELECT TASK_ID FROM TASK WHERE PRIORITY = '1'", String.class);
 
-        mockMvc.perform(patch("/task")
+        perform(patch("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .param("taskId", taskId))
                 .andExpect(status().isOk())
@@ -198,9 +212,9 @@ public class TaskCompletionTest {
                 "skill2", true,
                 "skill3", true));
 
-        val agent = agentRepository.findBySkillSet(true, true, true);
+        val agent = agentSkillIndex.findBySkillSet(true, true, true);
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson))
                 .andExpect(status().isOk())
@@ -224,7 +238,7 @@ public class TaskCompletionTest {
                 "skill2", true,
                 "skill3", true));
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson1))
                 .andExpect(status().isOk())
@@ -234,7 +248,7 @@ public class TaskCompletionTest {
 
         val taskId = jdbcTemplate.queryForObject("SELECT TASK_ID FROM TASK WHERE PRIORITY = '0'", String.class);
 
-        mockMvc.perform(patch("/task")
+        perform(patch("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .param("taskId", taskId))
                 .andExpect(status().isOk())
@@ -266,9 +280,9 @@ public class TaskCompletionTest {
                 "skill2", true,
                 "skill3", true));
 
-        val agent = agentRepository.findBySkillSet(true, true, true);
+        val agent = agentSkillIndex.findBySkillSet(true, true, true);
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson))
                 .andExpect(status().isOk())
@@ -292,7 +306,7 @@ public class TaskCompletionTest {
                 "skill2", true,
                 "skill3", true));
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson1))
                 .andExpect(status().isOk())
@@ -302,7 +316,7 @@ public class TaskCompletionTest {
 
         val taskId = jdbcTemplate.queryForObject("SELECT TASK_ID FROM TASK WHERE PRIORITY = '0'", String.class);
 
-        mockMvc.perform(patch("/task")
+        perform(patch("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .param("taskId", taskId))
                 .andExpect(status().isOk())
@@ -321,7 +335,7 @@ public class TaskCompletionTest {
         assertEquals(taskOptional1.get().getTaskStatus(), TaskStatus.COMPLETE);
 
         val taskId1 = jdbcTemplate.queryForObject("SELECT TASK_ID FROM TASK WHERE PRIORITY = '1'", String.class);
-        mockMvc.perform(patch("/task")
+        perform(patch("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .param("taskId", taskId1))
                 .andExpect(status().isOk())
@@ -340,6 +354,33 @@ public class TaskCompletionTest {
     }
 
     //region private
+    // Controllers answer through a DeferredResult. Waits for it and dispatches the request again, as the container would
+    private ResultActions perform(RequestBuilder requestBuilder) throws Exception {
+        val mvcResult = mockMvc.perform(requestBuilder).andReturn();
+        if (mvcResult.getRequest().isAsyncStarted()) {
+            mvcResult.getAsyncResult(TimeUnit.SECONDS.toMillis(30));
+            return mockMvc.perform(asyncDispatch(mvcResult));
+        }
+        return new ResultActions() {
+            @Override
+            public ResultActions andExpect(ResultMatcher matcher) throws Exception {
+                matcher.match(mvcResult);
+                return this;
+            }
+
+            @Override
+            public ResultActions andDo(ResultHandler handler) throws Exception {
+                handler.handle(mvcResult);
+                return this;
+            }
+
+            @Override
+            public MvcResult andReturn() {
+                return mvcResult;
+            }
+        };
+    }
+
     private static String stringify(Map<String, Object> json) throws IOException {
         return new ObjectMapper().writeValueAsString(json);
     }
@@ -2,9 +2,10 @@ package ffam.features;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import ffam.TestApplication;
-import ffam.agent.data.AgentRepository;
+import ffam.agent.data.AgentSkillIndex;
 import ffam.task.data.TaskAllocationDetailRepository;
 import ffam.task.data.TaskRepository;
+import ffam.task.domain.AgentOccupancyEngine;
 import ffam.task.domain.TaskPriority;
 import lombok.val;
 import org.junit.After;
@@ -18,6 +19,11 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.ResultHandler;
+import org.springframework.test.web.servlet.ResultMatcher;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 
@@ -25,10 +31,12 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
@@ -47,7 +55,7 @@ public class TaskCreationTest {
     JdbcTemplate jdbcTemplate;
 
     @Autowired
-    AgentRepository agentRepository;
+    AgentSkillIndex agentSkillIndex;
 
     @Autowired
     TaskRepository taskRepository;
@@ -55,6 +63,9 @@ public class TaskCreationTest {
     @Autowired
     TaskAllocationDetailRepository taskAllocationDetailRepository;
 
+    @Autowired
+    AgentOccupancyEngine agentOccupancyEngine;
+
     @Before
     public void setUp() throws Exception {
         this.mockMvc = MockMvcBuilders.webAppContextSetup(wac).build();
@@ -64,6 +75,9 @@ public class TaskCreationTest {
     public void cleanUp() throws Exception {
         jdbcTemplate.execute("DELETE from TASK_ALLOCATION");
         jdbcTemplate.execute("DELETE from TASK");
+        taskRepository.clearCache();
+        taskAllocationDetailRepository.clearCache();
+        agentOccupancyEngine.rebuild();
     }
 
     /**
@@ -78,9 +92,9 @@ public class TaskCreationTest {
                 "skill2", true,
                 "skill3", true));
 
-        val agent = agentRepository.findBySkillSet(true, true, true);
+        val agent = agentSkillIndex.findBySkillSet(true, true, true);
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson))
                 .andExpect(status().isOk())
@@ -113,9 +127,9 @@ public class TaskCreationTest {
                 "skill2", true,
                 "skill3", true));
 
-        val agent = agentRepository.findBySkillSet(true, true, true);
+        val agent = agentSkillIndex.findBySkillSet(true, true, true);
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson))
                 .andExpect(status().isOk())
@@ -133,7 +147,7 @@ public class TaskCreationTest {
         assertTrue(taskOptional.get().isSkill3());
         assertEquals(taskOptional.get().getTaskPriority(), TaskPriority.LOW);
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson))
                 .andExpect(status().isUnprocessableEntity())
@@ -155,9 +169,9 @@ public class TaskCreationTest {
                 "skill2", true,
                 "skill3", true));
 
-        val agent = agentRepository.findBySkillSet(true, true, true);
+        val agent = agentSkillIndex.findBySkillSet(true, true, true);
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson))
                 .andExpect(status().isOk())
@@ -181,7 +195,7 @@ public class TaskCreationTest {
                 "skill2", true,
                 "skill3", true));
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson1))
                 .andExpect(status().isOk())
@@ -204,9 +218,9 @@ public class TaskCreationTest {
                 "skill2", true,
                 "skill3", true));
 
-        val agent = agentRepository.findBySkillSet(true, true, true);
+        val agent = agentSkillIndex.findBySkillSet(true, true, true);
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson))
                 .andExpect(status().isOk())
@@ -230,7 +244,7 @@ public class TaskCreationTest {
                 "skill2", true,
                 "skill3", true));
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson1))
                 .andExpect(status().isOk())
@@ -255,9 +269,9 @@ public class TaskCreationTest {
                 "skill2", true,
                 "skill3", true));
 
-        val agent = agentRepository.findBySkillSet(true, true, true);
+        val agent = agentSkillIndex.findBySkillSet(true, true, true);
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson))
                 .andExpect(status().isOk())
@@ -281,7 +295,7 @@ public class TaskCreationTest {
                 "skill2", true,
                 "skill3", true));
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson1))
                 .andExpect(status().isOk())
@@ -295,7 +309,7 @@ public class TaskCreationTest {
                 "skill2", true,
                 "skill3", true));
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson2))
                 .andExpect(status().isUnprocessableEntity())
@@ -319,9 +333,9 @@ public class TaskCreationTest {
                 "skill2", true,
                 "skill3", true));
 
-        val agent = agentRepository.findBySkillSet(true, true, true);
+        val agent = agentSkillIndex.findBySkillSet(true, true, true);
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson))
                 .andExpect(status().isOk())
@@ -345,7 +359,7 @@ public class TaskCreationTest {
                 "skill2", true,
                 "skill3", true));
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson1))
                 .andExpect(status().isOk())
@@ -359,7 +373,7 @@ public class TaskCreationTest {
                 "skill2", true,
                 "skill3", true));
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson2))
                 .andExpect(status().isUnprocessableEntity())
@@ -385,9 +399,9 @@ public class TaskCreationTest {
                 "skill2", true,
                 "skill3", true));
 
-        val agent = agentRepository.findBySkillSet(true, true, true);
+        val agent = agentSkillIndex.findBySkillSet(true, true, true);
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson))
                 .andExpect(status().isOk())
@@ -411,7 +425,7 @@ public class TaskCreationTest {
                 "skill2", true,
                 "skill3", true));
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson1))
                 .andExpect(status().isOk())
@@ -421,13 +435,13 @@ public class TaskCreationTest {
 
         val taskId = jdbcTemplate.queryForObject("SELECT TASK_ID FROM TASK WHERE PRIORITY = '1'", String.class);
 
-        mockMvc.perform(patch("/task")
+        perform(patch("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .param("taskId", taskId))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.taskStatus").value("COMPLETE"));
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson1))
                 .andExpect(status().isOk())
@@ -454,9 +468,9 @@ public class TaskCreationTest {
                 "skill2", true,
                 "skill3", true));
 
-        val agent = agentRepository.findBySkillSet(true, true, true);
+        val agent = agentSkillIndex.findBySkillSet(true, true, true);
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson))
                 .andExpect(status().isOk())
@@ -480,7 +494,7 @@ public class TaskCreationTest {
                 "skill2", true,
                 "skill3", true));
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson1))
                 .andExpect(status().isOk())
@@ -490,13 +504,13 @@ public class TaskCreationTest {
 
         val taskId = jdbcTemplate.queryForObject("SELECT TASK_ID FROM TASK WHERE PRIORITY = '1'", String.class);
 
-        mockMvc.perform(patch("/task")
+        perform(patch("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .param("taskId", taskId))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.taskStatus").value("COMPLETE"));
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson))
                 .andExpect(status().isUnprocessableEntity())
@@ -521,9 +535,9 @@ public class TaskCreationTest {
                 "skill2", true,
                 "skill3", true));
 
-        val agent = agentRepository.findBySkillSet(false, true, true);
+        val agent = agentSkillIndex.findBySkillSet(false, true, true);
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson))
                 .andExpect(status().isOk())
@@ -546,7 +560,7 @@ public class TaskCreationTest {
                 "skill1", false,
                 "skill2", true,
                 "skill3", true));
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson1))
                 .andExpect(status().isOk())
@@ -559,7 +573,7 @@ public class TaskCreationTest {
                 "skill1", false,
                 "skill2", true,
                 "skill3", true));
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson4))
                 .andExpect(status().isUnprocessableEntity())
@@ -585,9 +599,9 @@ public class TaskCreationTest {
                 "skill2", true,
                 "skill3", true));
 
-        val agent = agentRepository.findBySkillSet(false, true, true);
+        val agent = agentSkillIndex.findBySkillSet(false, true, true);
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson))
                 .andExpect(status().isOk())
@@ -610,7 +624,7 @@ public class TaskCreationTest {
                 "skill1", false,
                 "skill2", true,
                 "skill3", true));
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson1))
                 .andExpect(status().isOk())
@@ -623,7 +637,7 @@ public class TaskCreationTest {
                 "skill1", false,
                 "skill2", true,
                 "skill3", true));
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson2))
                 .andExpect(status().isOk())
@@ -636,7 +650,7 @@ public class TaskCreationTest {
                 "skill1", false,
                 "skill2", true,
                 "skill3", true));
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson3))
                 .andExpect(status().isOk())
@@ -649,7 +663,7 @@ public class TaskCreationTest {
                 "skill1", false,
                 "skill2", true,
                 "skill3", true));
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson4))
                 .andExpect(status().isUnprocessableEntity())
@@ -665,9 +679,9 @@ public class TaskCreationTest {
                 "skill2", true,
                 "skill3", true));
 
-        val agent = agentRepository.findBySkillSet(false, true, true);
+        val agent = agentSkillIndex.findBySkillSet(false, true, true);
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson))
                 .andExpect(status().isOk())
@@ -690,7 +704,7 @@ public class TaskCreationTest {
                 "skill1", false,
                 "skill2", true,
                 "skill3", true));
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson1))
                 .andExpect(status().isOk())
@@ -703,7 +717,7 @@ public class TaskCreationTest {
                 "skill1", false,
                 "skill2", true,
                 "skill3", true));
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson2))
                 .andExpect(status().isOk())
@@ -716,7 +730,7 @@ public class TaskCreationTest {
                 "skill1", false,
                 "skill2", true,
                 "skill3", true));
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson3))
                 .andExpect(status().isOk())
@@ -725,13 +739,13 @@ public class TaskCreationTest {
                 .andExpect(jsonPath("$.agentId").value(agent.get(0).getAgentId()));
 
         val taskId = jdbcTemplate.queryForObject("SELECT TASK_ID FROM TASK WHERE PRIORITY = '1' AND AGENT_ID = ?", String.class, agent.get(0).getAgentId());
-        mockMvc.perform(patch("/task")
+        perform(patch("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .param("taskId", taskId))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.taskStatus").value("COMPLETE"));
 
-        mockMvc.perform(post("/task")
+        perform(post("/task")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(addTaskJson3))
                 .andExpect(status().isOk())
@@ -741,6 +755,33 @@ public class TaskCreationTest {
     }
 
     //region private
+    // Controllers answer through a DeferredResult. Waits for it and dispatches the request again, as the container would
+    private ResultActions perform(RequestBuilder requestBuilder) throws Exception {
+        val mvcResult = mockMvc.perform(requestBuilder).andReturn();
+        if (mvcResult.getRequest().isAsyncStarted()) {
+            mvcResult.getAsyncResult(TimeUnit.SECONDS.toMillis(30));
+            return mockMvc.perform(asyncDispatch(mvcResult));
+        }
+        return new ResultActions() {
+            @Override
+            public ResultActions andExpect(ResultMatcher matcher) throws Exception {
+                matcher.match(mvcResult);
+                return this;
+            }
+
+            @Override
+            public ResultActions andDo(ResultHandler handler) throws Exception {
+                handler.handle(mvcResult);
+                return this;
+            }
+
+            @Override
+            public MvcResult andReturn() {
+                return mvcResult;
+            }
+        };
+    }
+
     private static String stringify(Map<String, Object> json) throws IOException {
         return new ObjectMapper().writeValueAsString(json);
     }
@@ -0,0 +1,85 @@
+package ffam.general;
+
+import lombok.val;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.method.support.ModelAndViewContainer;
+import org.springframework.web.servlet.mvc.method.annotation.HttpEntityMethodProcessor;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class CompletedResultReturnValueHandlerTest {
+    private HandlerMethodReturnValueHandler deferredResultHandler;
+    private CompletedResultReturnValueHandler subject;
+
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+    private ServletWebRequest webRequest;
+    private ModelAndViewContainer mavContainer;
+    private MethodParameter returnType;
+
+    @Before
+    public void setUp() throws Exception {
+        deferredResultHandler = mock(HandlerMethodReturnValueHandler.class, RETURNS_SMART_NULLS);
+        subject = new CompletedResultReturnValueHandler(
+                new HttpEntityMethodProcessor(Collections.singletonList(new MappingJackson2HttpMessageConverter())),
+                deferredResultHandler);
+
+        request = new MockHttpServletRequest("GET", "/task");
+        request.setAsyncSupported(true);
+        response = new MockHttpServletResponse();
+        webRequest = new ServletWebRequest(request, response);
+        mavContainer = new ModelAndViewContainer();
+        returnType = new MethodParameter(CompletedResultReturnValueHandlerTest.class.getDeclaredMethod("handle"), -1);
+    }
+
+    //region handleReturnValue
+    @Test
+    public void test_handleReturnValue_writesResponseOnRequestThread_whenResultAlreadySet() throws Exception {
+        assertTrue(subject.supportsReturnType(returnType));
+
+        subject.handleReturnValue(UseCaseExecutor.completed(ResponseEntity.status(HttpStatus.CREATED).body(Collections.singletonMap("taskId", "taskId1"))),
+                returnType, mavContainer, webRequest);
+
+        assertTrue(mavContainer.isRequestHandled());
+        assertFalse(request.isAsyncStarted());
+        assertEquals(201, response.getStatus());
+        assertEquals("{\"taskId\":\"taskId1\"}", response.getContentAsString());
+        verifyZeroInteractions(deferredResultHandler);
+    }
+
+    @Test
+    public void test_handleReturnValue_leavesPendingResultToSpring() throws Exception {
+        val deferredResult = new DeferredResult<ResponseEntity<?>>();
+
+        subject.handleReturnValue(deferredResult, returnType, mavContainer, webRequest);
+
+        verify(deferredResultHandler, times(1)).handleReturnValue(deferredResult, returnType, mavContainer, webRequest);
+        assertEquals("", response.getContentAsString());
+    }
+    //endregion
+
+    //region private
+    // Shaped like the controller methods
+    private DeferredResult<ResponseEntity<?>> handle() {
+        return null;
+    }
+    //endregion
+}
@@ -0,0 +1,243 @@
+package ffam.general;
+
+import ffam.task.api.TaskRequestServerErrorResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.DeferredResultProcessingInterceptor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(JUnit4.class)
+public class UseCaseExecutorTest {
+    private SimpleMeterRegistry meterRegistry;
+    private UseCaseExecutor subject;
+
+    @Before
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        subject = new UseCaseExecutor(true, 1, 1, 10000, meterRegistry);
+    }
+
+    @After
+    public void cleanUp() throws InterruptedException {
+        subject.shutdown();
+    }
+
+    //region submit
+    @Test
+    public void test_submit_syncMode_runsOnCallingThread() {
+        val syncSubject = new UseCaseExecutor(false, 1, 1, 10000, meterRegistry);
+        val callingThread = Thread.currentThread().getName();
+
+        val result = syncSubject.submit(() -> ResponseEntity.ok(Thread.currentThread().getName()));
+
+        assertTrue(result.hasResult());
+        assertEquals(callingThread, ((ResponseEntity<?>) result.getResult()).getBody());
+    }
+
+    @Test
+    public void test_submit_asyncMode_runsOnUseCaseThread() throws InterruptedException {
+        val result = subject.submit(() -> ResponseEntity.ok(Thread.currentThread().getName()));
+
+        awaitResult(result);
+        assertEquals("use-case-1", ((ResponseEntity<?>) result.getResult()).getBody());
+        assertEquals(1, meterRegistry.get(UseCaseExecutor.WAIT).timer().count());
+    }
+
+    @Test
+    public void test_submit_useCaseThrows_errorResult() throws InterruptedException {
+        val exception = new IllegalStateException("failed");
+
+        val result = subject.submit(() -> {
+            throw exception;
+        });
+
+        awaitResult(result);
+        assertEquals(exception, result.getResult());
+    }
+
+    @Test
+    public void test_submit_queueFull_rejected() throws InterruptedException {
+        val running = new CountDownLatch(1);
+        val release = new CountDownLatch(1);
+        val first = subject.submit(() -> {
+            running.countDown();
+            await(release);
+            return ResponseEntity.ok().build();
+        });
+        running.await(5, TimeUnit.SECONDS);
+        val second = subject.submit(() -> ResponseEntity.ok().build());
+
+        val third = subject.submit(() -> ResponseEntity.ok().build());
+
+        assertEquals(1.0, meterRegistry.get(UseCaseExecutor.QUEUED).gauge().value(), 0);
+        assertEquals(1.0, meterRegistry.get(UseCaseExecutor.ACTIVE).gauge().value(), 0);
+        assertTrue(third.hasResult());
+        val rejected = (ResponseEntity<?>) third.getResult();
+        assertEquals(503, rejected.getStatusCode().value());
+        assertEquals(new TaskRequestServerErrorResponse("V008", "Server is busy, try again later"), rejected.getBody());
+        assertEquals(1.0, meterRegistry.get(UseCaseExecutor.REJECTED).counter().count(), 0);
+        assertFalse(second.hasResult());
+
+        release.countDown();
+        awaitResult(first);
+        awaitResult(second);
+    }
+
+    @Test
+    public void test_submit_timesOutQueuedRequest_withoutRunningIt() throws InterruptedException {
+        val running = new CountDownLatch(1);
+        val release = new CountDownLatch(1);
+        val first = subject.submit(() -> {
+            running.countDown();
+            await(release);
+            return ResponseEntity.ok().build();
+        });
+        running.await(5, TimeUnit.SECONDS);
+        val ran = new AtomicBoolean();
+        val second = subject.submit(() -> {
+            ran.set(true);
+            return ResponseEntity.ok().build();
+        });
+
+        timeOut(second);
+        release.countDown();
+        awaitResult(first);
+        subject.shutdown();
+
+        val timedOut = (ResponseEntity<?>) second.getResult();
+        assertEquals(503, timedOut.getStatusCode().value());
+        assertEquals(new TaskRequestServerErrorResponse("V009", "Request timed out"), timedOut.getBody());
+        assertFalse(ran.get());
+        assertEquals(1.0, meterRegistry.get(UseCaseExecutor.TIMEOUTS).counter().count(), 0);
+    }
+
+    @Test
+    public void test_submit_answersStillProcessing_whenRunningRequestTimesOut() throws InterruptedException {
+        val running = new CountDownLatch(1);
+        val release = new CountDownLatch(1);
+        val result = subject.submit(() -> {
+            running.countDown();
+            await(release);
+            return ResponseEntity.ok().build();
+        });
+        running.await(5, TimeUnit.SECONDS);
+
+        timeOut(result);
+        release.countDown();
+        subject.shutdown();
+
+        val stillProcessing = (ResponseEntity<?>) result.getResult();
+        assertEquals(202, stillProcessing.getStatusCode().value());
+        assertEquals(new TaskRequestServerErrorResponse("V010", "Request is still being processed, check its outcome before retrying"),
+                stillProcessing.getBody());
+    }
+    //endregion
+
+    //region call
+    @Test
+    public void test_call_syncMode_runsOnCallingThread() {
+        val syncSubject = new UseCaseExecutor(false, 1, 1, 10000, meterRegistry);
+
+        assertEquals(Thread.currentThread().getName(), syncSubject.call(() -> Thread.currentThread().getName()));
+    }
+
+    @Test
+    public void test_call_asyncMode_waitsForUseCaseThread() {
+        assertEquals("use-case-1", subject.call(() -> Thread.currentThread().getName()));
+    }
+
+    @Test
+    public void test_call_stepThrows_rethrows() {
+        val exception = new IllegalStateException("failed");
+
+        try {
+            subject.call(() -> {
+                throw exception;
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(exception, e);
+        }
+    }
+
+    @Test
+    public void test_call_queueFull_rejected() throws InterruptedException {
+        val running = new CountDownLatch(1);
+        val release = new CountDownLatch(1);
+        val first = subject.submit(() -> {
+            running.countDown();
+            await(release);
+            return ResponseEntity.ok().build();
+        });
+        running.await(5, TimeUnit.SECONDS);
+        val second = subject.submit(() -> ResponseEntity.ok().build());
+
+        try {
+            subject.call(() -> "page");
+            fail();
+        } catch (RejectedExecutionException e) {
+            assertEquals(1.0, meterRegistry.get(UseCaseExecutor.REJECTED).counter().count(), 0);
+        }
+
+        release.countDown();
+        awaitResult(first);
+        awaitResult(second);
+    }
+    //endregion
+
+    //region completed
+    @Test
+    public void test_completed_hasResult() {
+        val result = UseCaseExecutor.completed(ResponseEntity.badRequest().build());
+
+        assertTrue(result.hasResult());
+        assertEquals(400, ((ResponseEntity<?>) result.getResult()).getStatusCode().value());
+    }
+    //endregion
+
+    //region private
+    private static void awaitResult(DeferredResult<?> result) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!result.hasResult() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(result.hasResult());
+    }
+
+    // What Spring does when the async request times out
+    private static void timeOut(DeferredResult<?> result) {
+        DeferredResultProcessingInterceptor interceptor = ReflectionTestUtils.invokeMethod(result, "getInterceptor");
+        try {
+            interceptor.handleTimeout(null, result);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    //endregion
+}
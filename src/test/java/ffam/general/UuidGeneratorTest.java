@@ -0,0 +1,60 @@
+package ffam.general;
+
+import lombok.val;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class UuidGeneratorTest {
+
+    //region randomUUID
+    @Test
+    public void test_randomUUID_returnsVersion4_whenModeRandom() {
+        val uuid = new UuidGenerator(UuidGenerator.Mode.RANDOM).randomUUID();
+
+        assertEquals(4, uuid.version());
+        assertEquals(2, uuid.variant());
+    }
+
+    @Test
+    public void test_randomUUID_returnsVersion7WithTheTimeFirst_whenModeTimeOrdered() {
+        val millis = 1_700_000_000_123L;
+        val uuid = new UuidGenerator(UuidGenerator.Mode.TIME_ORDERED, () -> millis).randomUUID();
+
+        assertEquals(7, uuid.version());
+        assertEquals(2, uuid.variant());
+        assertEquals(millis, uuid.getMostSignificantBits() >>> 16);
+        assertEquals(36, uuid.toString().length());
+        assertEquals(uuid, UUID.fromString(uuid.toString()));
+    }
+
+    @Test
+    public void test_randomUUID_staysOrdered_withinAMillisecondAndWhenClockStepsBack() {
+        val clock = new AtomicLong(1_700_000_000_000L);
+        val subject = new UuidGenerator(UuidGenerator.Mode.TIME_ORDERED, clock::get);
+
+        List<String> ids = new ArrayList<>();
+        // More ids than one millisecond has sequence numbers for
+        for (int i = 0; i < 5000; i++) {
+            ids.add(subject.randomUUID().toString());
+        }
+        clock.addAndGet(-10);
+        ids.add(subject.randomUUID().toString());
+        clock.addAndGet(1000);
+        ids.add(subject.randomUUID().toString());
+
+        for (int i = 1; i < ids.size(); i++) {
+            assertTrue(ids.get(i - 1) + " < " + ids.get(i), ids.get(i - 1).compareTo(ids.get(i)) < 0);
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,90 @@
+package ffam.general;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentMatchers;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class ZonedDateTimeProviderTest {
+    private JdbcTemplate jdbcTemplate;
+    private SimpleMeterRegistry meterRegistry;
+    private AtomicLong nanoTime;
+    private ZonedDateTimeProvider subject;
+
+    private final Instant dbNow = Instant.parse("2024-01-01T10:00:00Z");
+    private final Instant jvmNow = Instant.parse("2024-01-01T10:00:02Z");
+
+    @Before
+    public void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class, RETURNS_SMART_NULLS);
+        meterRegistry = new SimpleMeterRegistry();
+        nanoTime = new AtomicLong(TimeUnit.SECONDS.toNanos(100));
+        subject = new ZonedDateTimeProvider(jdbcTemplate, meterRegistry, nanoTime::get, () -> jvmNow);
+    }
+
+    //region now
+    @Test
+    public void test_now_extrapolatesFromTheLastSync_withoutQueryingTheDb() {
+        dbReturns(dbNow);
+        subject.load();
+
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(1500));
+        assertEquals(dbNow.plusMillis(1500), subject.now().toInstant());
+        assertEquals(dbNow.plusMillis(1500), subject.now().toInstant());
+
+        verify(jdbcTemplate, times(1)).query(anyString(), ArgumentMatchers.<RowMapper<Timestamp>>any());
+        assertEquals(-2000.0, meterRegistry.get("ffam.clock.db.offset").gauge().value(), 0.0);
+    }
+    //endregion
+
+    //region refresh
+    @Test
+    public void test_refresh_correctsDrift_whenDbClockMovedDifferently() {
+        dbReturns(dbNow);
+        subject.load();
+
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        dbReturns(dbNow.plusSeconds(30).plusMillis(40));
+        subject.refresh();
+
+        assertEquals(dbNow.plusSeconds(30).plusMillis(40), subject.now().toInstant());
+        assertEquals(40.0, meterRegistry.get("ffam.clock.db.drift").gauge().value(), 0.0);
+    }
+
+    @Test
+    public void test_refresh_keepsPreviousSync_whenDbUnavailable() {
+        dbReturns(dbNow);
+        subject.load();
+
+        when(jdbcTemplate.query(anyString(), ArgumentMatchers.<RowMapper<Timestamp>>any())).thenThrow(new QueryTimeoutException("timeout"));
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        subject.refresh();
+
+        assertEquals(dbNow.plusSeconds(30), subject.now().toInstant());
+    }
+    //endregion
+
+    //region private
+    @SuppressWarnings("unchecked")
+    private void dbReturns(Instant instant) {
+        doReturn(Collections.singletonList(Timestamp.from(instant))).when(jdbcTemplate).query(anyString(), ArgumentMatchers.<RowMapper<Timestamp>>any());
+    }
+    //endregion
+}
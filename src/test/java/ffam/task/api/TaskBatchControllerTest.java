@@ -0,0 +1,97 @@
+package ffam.task.api;
+
+import ffam.general.UseCaseExecutor;
+import ffam.task.domain.TaskPriority;
+import ffam.task.domain.TaskStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Collections;
+import java.util.List;
+import org.springframework.http.ResponseEntity;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class TaskBatchControllerTest {
+
+    private TaskBatchControllerUseCase taskBatchControllerUseCase;
+    private TaskBatchController subject;
+
+    @Before
+    public void setUp() {
+        taskBatchControllerUseCase = mock(TaskBatchControllerUseCase.class, RETURNS_SMART_NULLS);
+        subject = new TaskBatchController(taskBatchControllerUseCase, new UseCaseExecutor(false, 1, 1, 1000, new SimpleMeterRegistry()));
+    }
+
+    //region addTasks
+    @Test
+    public void test_addTasks_returnsBadRequest_whenBatchEmptyOrTooLarge() {
+        val taskRequest = new TaskRequest(TaskPriority.HIGH, true, false, false);
+        val expected = new TaskRequestValidationErrorResponse("V104", "Batch must contain between 1 and 500 tasks");
+
+        val emptyResponse = (ResponseEntity<?>) subject.addTasks(Collections.emptyList()).getResult();
+        assertEquals(400, emptyResponse.getStatusCode().value());
+        assertEquals(expected, emptyResponse.getBody());
+
+        val nullResponse = (ResponseEntity<?>) subject.addTasks(null).getResult();
+        assertEquals(400, nullResponse.getStatusCode().value());
+
+        val tooLargeResponse = (ResponseEntity<?>) subject.addTasks(Collections.nCopies(TaskBatchController.MAX_BATCH_SIZE + 1, taskRequest)).getResult();
+        assertEquals(400, tooLargeResponse.getStatusCode().value());
+        assertEquals(expected, tooLargeResponse.getBody());
+
+        verifyZeroInteractions(taskBatchControllerUseCase);
+    }
+
+    @Test
+    public void test_addTasks_returnsItemResponses_whenBatchValid() {
+        List<TaskRequest> taskRequests = Collections.singletonList(new TaskRequest(TaskPriority.HIGH, true, false, false));
+        val responses = Collections.singletonList(TaskBatchItemResponse.of("taskId1", "agentId1", TaskStatus.IN_PROGRESS));
+        when(taskBatchControllerUseCase.createTasks(taskRequests)).thenReturn(responses);
+
+        val taskResponse = (ResponseEntity<?>) subject.addTasks(taskRequests).getResult();
+        assertEquals(200, taskResponse.getStatusCode().value());
+        assertEquals(responses, taskResponse.getBody());
+
+        verify(taskBatchControllerUseCase, times(1)).createTasks(taskRequests);
+        verifyNoMoreInteractions(taskBatchControllerUseCase);
+    }
+    //endregion
+
+    //region finishTasks
+    @Test
+    public void test_finishTasks_returnsBadRequest_whenBatchEmptyOrTooLarge() {
+        val expected = new TaskRequestValidationErrorResponse("V104", "Batch must contain between 1 and 500 tasks");
+
+        val emptyResponse = (ResponseEntity<?>) subject.finishTasks(Collections.emptyList()).getResult();
+        assertEquals(400, emptyResponse.getStatusCode().value());
+        assertEquals(expected, emptyResponse.getBody());
+
+        val tooLargeResponse = (ResponseEntity<?>) subject.finishTasks(Collections.nCopies(TaskBatchController.MAX_BATCH_SIZE + 1, "taskId1")).getResult();
+        assertEquals(400, tooLargeResponse.getStatusCode().value());
+        assertEquals(expected, tooLargeResponse.getBody());
+
+        verifyZeroInteractions(taskBatchControllerUseCase);
+    }
+
+    @Test
+    public void test_finishTasks_returnsItemResponses_whenBatchValid() {
+        val taskIds = Collections.singletonList("taskId1");
+        val responses = Collections.singletonList(TaskBatchItemResponse.of("taskId1", "agentId1", TaskStatus.COMPLETE));
+        when(taskBatchControllerUseCase.finishTasks(taskIds)).thenReturn(responses);
+
+        val taskResponse = (ResponseEntity<?>) subject.finishTasks(taskIds).getResult();
+        assertEquals(200, taskResponse.getStatusCode().value());
+        assertEquals(responses, taskResponse.getBody());
+
+        verify(taskBatchControllerUseCase, times(1)).finishTasks(taskIds);
+        verifyNoMoreInteractions(taskBatchControllerUseCase);
+    }
+    //endregion
+}
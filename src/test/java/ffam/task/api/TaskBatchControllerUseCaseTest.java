@@ -0,0 +1,189 @@
+package ffam.task.api;
+
+import ffam.task.domain.AgentOccupancyEngine;
+import ffam.task.domain.PlannedAllocation;
+import ffam.task.domain.PlannedRemoval;
+import ffam.task.domain.Task;
+import ffam.task.domain.TaskAllocationDetail;
+import ffam.task.domain.TaskAllocationDetailUseCase;
+import ffam.task.domain.TaskBatchPlan;
+import ffam.task.domain.TaskBatchPlanner;
+import ffam.task.domain.TaskBatchWriter;
+import ffam.task.domain.TaskCompletionPlan;
+import ffam.task.domain.TaskCompletionPlanner;
+import ffam.task.domain.TaskPriority;
+import ffam.task.domain.TaskStatus;
+import lombok.val;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static ffam.task.data.TaskAllocationDetailRepository.NO_VERSION;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class TaskBatchControllerUseCaseTest {
+    private TaskBatchPlanner taskBatchPlanner;
+    private TaskCompletionPlanner taskCompletionPlanner;
+    private TaskBatchWriter taskBatchWriter;
+    private AgentOccupancyEngine agentOccupancyEngine;
+    private TaskAllocationDetailUseCase taskAllocationDetailUseCase;
+    private TaskBatchControllerUseCase subject;
+
+    private final List<TaskRequest> taskRequests = Arrays.asList(
+            new TaskRequest(TaskPriority.LOW, true, false, false),
+            new TaskRequest(TaskPriority.LOW, false, false, true));
+    private final TaskAllocationDetail taskAllocationDetail =
+            new TaskAllocationDetail("agentId1", Collections.singletonList("taskId1"), TaskPriority.LOW, ZonedDateTime.now(), NO_VERSION + 1);
+    private final List<PlannedAllocation> plannedAllocations = Collections.singletonList(new PlannedAllocation(
+            taskAllocationDetail,
+            NO_VERSION,
+            Collections.singletonList(new Task("taskId1", TaskPriority.LOW, true, false, false, TaskStatus.IN_PROGRESS, "agentId1"))));
+    private final List<TaskBatchItemResponse> responses = Arrays.asList(
+            TaskBatchItemResponse.of("taskId1", "agentId1", TaskStatus.IN_PROGRESS),
+            TaskBatchItemResponse.error("V004", "No Agents Available with the SkillSet"));
+
+    @Before
+    public void setUp() {
+        taskBatchPlanner = mock(TaskBatchPlanner.class, RETURNS_SMART_NULLS);
+        taskCompletionPlanner = mock(TaskCompletionPlanner.class, RETURNS_SMART_NULLS);
+        taskBatchWriter = mock(TaskBatchWriter.class, RETURNS_SMART_NULLS);
+        agentOccupancyEngine = mock(AgentOccupancyEngine.class, RETURNS_SMART_NULLS);
+        taskAllocationDetailUseCase = mock(TaskAllocationDetailUseCase.class, RETURNS_SMART_NULLS);
+        subject = new TaskBatchControllerUseCase(taskBatchPlanner, taskCompletionPlanner, taskBatchWriter, agentOccupancyEngine, taskAllocationDetailUseCase);
+    }
+
+    //region createTasks
+    @Test
+    public void test_createTasks_returnsResponsesWithoutWriting_whenNothingPlanned() {
+        val errors = Collections.singletonList(TaskBatchItemResponse.error("V004", "No Agents Available with the SkillSet"));
+        when(taskBatchPlanner.plan(taskRequests)).thenReturn(new TaskBatchPlan(errors, Collections.emptyList()));
+
+        assertEquals(errors, subject.createTasks(taskRequests));
+
+        verifyZeroInteractions(taskBatchWriter);
+        verifyZeroInteractions(agentOccupancyEngine);
+    }
+
+    @Test
+    public void test_createTasks_updatesOccupancy_whenWritten() {
+        when(taskBatchPlanner.plan(taskRequests)).thenReturn(new TaskBatchPlan(responses, plannedAllocations));
+        when(taskBatchWriter.write(plannedAllocations)).thenReturn(Collections.emptySet());
+
+        assertEquals(responses, subject.createTasks(taskRequests));
+
+        verify(taskBatchWriter, times(1)).write(plannedAllocations);
+        verify(taskBatchWriter, times(1)).isWriteBehind();
+        verifyNoMoreInteractions(taskBatchWriter);
+
+        verify(agentOccupancyEngine, times(1)).update(taskAllocationDetail);
+        verifyNoMoreInteractions(agentOccupancyEngine);
+
+        verifyZeroInteractions(taskAllocationDetailUseCase);
+    }
+
+    @Test
+    public void test_createTasks_leavesOccupancyAlone_whenWrittenBehind() {
+        when(taskBatchPlanner.plan(taskRequests)).thenReturn(new TaskBatchPlan(responses, plannedAllocations));
+        when(taskBatchWriter.write(plannedAllocations)).thenReturn(Collections.emptySet());
+        when(taskBatchWriter.isWriteBehind()).thenReturn(true);
+
+        assertEquals(responses, subject.createTasks(taskRequests));
+
+        verify(taskBatchWriter, times(1)).write(plannedAllocations);
+        verifyZeroInteractions(agentOccupancyEngine, taskAllocationDetailUseCase);
+    }
+
+    @Test
+    public void test_createTasks_reloadsConflictsAndPlansAgain_whenVersionChanged() {
+        when(taskBatchPlanner.plan(taskRequests)).thenReturn(new TaskBatchPlan(responses, plannedAllocations));
+        when(taskBatchWriter.write(plannedAllocations))
+                .thenReturn(Collections.singleton("agentId1"))
+                .thenThrow(new DuplicateKeyException("PK_TASK_ALLOCATION_AGENT_ID"))
+                .thenReturn(Collections.emptySet());
+
+        assertEquals(responses, subject.createTasks(taskRequests));
+
+        verify(taskBatchPlanner, times(3)).plan(taskRequests);
+        verify(taskAllocationDetailUseCase, times(2)).reload("agentId1");
+        verifyNoMoreInteractions(taskAllocationDetailUseCase);
+        verify(agentOccupancyEngine, times(1)).update(taskAllocationDetail);
+    }
+
+    @Test
+    public void test_createTasks_returnsServerErrorForPlannedItems_whenConflictsPersist() {
+        when(taskBatchPlanner.plan(taskRequests)).thenReturn(new TaskBatchPlan(responses, plannedAllocations));
+        when(taskBatchWriter.write(plannedAllocations)).thenReturn(Collections.singleton("agentId1"));
+
+        assertEquals(Arrays.asList(
+                TaskBatchItemResponse.error("V005", "Can't Create a Task At this time"),
+                TaskBatchItemResponse.error("V004", "No Agents Available with the SkillSet")),
+                subject.createTasks(taskRequests));
+
+        verify(taskBatchWriter, times(TaskBatchControllerUseCase.MAX_ATTEMPTS)).write(plannedAllocations);
+        verify(taskAllocationDetailUseCase, times(TaskBatchControllerUseCase.MAX_ATTEMPTS)).reload("agentId1");
+        verifyZeroInteractions(agentOccupancyEngine);
+    }
+    //endregion
+
+    //region finishTasks
+    @Test
+    public void test_finishTasks_releasesAndUpdatesOccupancy_whenCompleted() {
+        val taskIds = Arrays.asList("taskId1", "taskId2", "taskId3");
+        val released = new PlannedRemoval(
+                new TaskAllocationDetail("agentId1", Collections.emptyList(), TaskPriority.LOW, ZonedDateTime.now(), 5),
+                4,
+                Collections.singletonList("taskId1"));
+        val remaining = new PlannedRemoval(
+                new TaskAllocationDetail("agentId2", Collections.singletonList("taskId0"), TaskPriority.LOW, ZonedDateTime.now(), 2),
+                1,
+                Collections.singletonList("taskId2"));
+        val completionResponses = Arrays.asList(
+                TaskBatchItemResponse.of("taskId1", "agentId1", TaskStatus.COMPLETE),
+                TaskBatchItemResponse.of("taskId2", "agentId2", TaskStatus.COMPLETE),
+                TaskBatchItemResponse.error("V102", "No such task present"));
+        when(taskCompletionPlanner.plan(taskIds)).thenReturn(new TaskCompletionPlan(completionResponses, Arrays.asList(released, remaining)));
+        when(taskBatchWriter.complete(Arrays.asList(released, remaining))).thenReturn(Collections.emptySet());
+
+        assertEquals(completionResponses, subject.finishTasks(taskIds));
+
+        verify(taskBatchWriter, times(1)).complete(Arrays.asList(released, remaining));
+        verify(taskBatchWriter, times(1)).isWriteBehind();
+        verifyNoMoreInteractions(taskBatchWriter);
+
+        verify(agentOccupancyEngine, times(1)).release("agentId1", 4);
+        verify(agentOccupancyEngine, times(1)).update(remaining.getTaskAllocationDetail());
+        verifyNoMoreInteractions(agentOccupancyEngine);
+    }
+
+    @Test
+    public void test_finishTasks_returnsErrorForPlannedItems_whenConflictsPersist() {
+        val taskIds = Arrays.asList("taskId1", "taskId2");
+        val plannedRemovals = Collections.singletonList(new PlannedRemoval(
+                new TaskAllocationDetail("agentId1", Collections.emptyList(), TaskPriority.LOW, ZonedDateTime.now(), 5),
+                4,
+                Collections.singletonList("taskId1")));
+        when(taskCompletionPlanner.plan(taskIds)).thenReturn(new TaskCompletionPlan(Arrays.asList(
+                TaskBatchItemResponse.of("taskId1", "agentId1", TaskStatus.COMPLETE),
+                TaskBatchItemResponse.error("V102", "No such task present")), plannedRemovals));
+        when(taskBatchWriter.complete(plannedRemovals)).thenReturn(Collections.singleton("agentId1"));
+
+        assertEquals(Arrays.asList(
+                TaskBatchItemResponse.error("V101", "Unable to delete the task at this time"),
+                TaskBatchItemResponse.error("V102", "No such task present")),
+                subject.finishTasks(taskIds));
+
+        verify(taskCompletionPlanner, times(TaskBatchControllerUseCase.MAX_ATTEMPTS)).plan(taskIds);
+        verify(taskAllocationDetailUseCase, times(TaskBatchControllerUseCase.MAX_ATTEMPTS)).reload("agentId1");
+        verifyZeroInteractions(agentOccupancyEngine);
+    }
+    //endregion
+}
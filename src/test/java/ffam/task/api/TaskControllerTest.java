@@ -1,6 +1,8 @@
 package ffam.task.api;
 
+import ffam.general.UseCaseExecutor;
 import ffam.task.domain.TaskPriority;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.val;
 import org.apache.commons.lang3.StringUtils;
 import org.junit.Before;
@@ -22,12 +24,14 @@ public class TaskControllerTest {
     private TaskController subject;
     private TaskRequestValidator taskRequestValidator;
     private TaskControllerUseCase taskControllerUseCase;
+    private TaskRequestDispatcher taskRequestDispatcher;
 
     @Before
     public void setUp(){
         taskRequestValidator = mock(TaskRequestValidator.class, RETURNS_SMART_NULLS);
         taskControllerUseCase = mock(TaskControllerUseCase.class, RETURNS_SMART_NULLS);
-        subject = new TaskController(taskRequestValidator, taskControllerUseCase);
+        taskRequestDispatcher = mock(TaskRequestDispatcher.class, RETURNS_SMART_NULLS);
+        subject = new TaskController(taskRequestValidator, taskControllerUseCase, new UseCaseExecutor(false, 1, 1, 1000, new SimpleMeterRegistry()), taskRequestDispatcher);
     }
 
     //region addTask
@@ -36,7 +40,7 @@ public class TaskControllerTest {
         val taskRequest = new TaskRequest(TaskPriority.HIGH, false, false, false);
         when(taskRequestValidator.isValid(taskRequest)).thenReturn(Optional.of(new TaskRequestValidationErrorResponse("V001", "Error")));
 
-        val taskResponse = subject.addTask(taskRequest);
+        val taskResponse = (ResponseEntity<?>) subject.addTask(taskRequest).getResult();
         assertEquals(400, taskResponse.getStatusCode().value());
         assertEquals(new TaskRequestValidationErrorResponse("V001", "Error"), (TaskRequestValidationErrorResponse)taskResponse.getBody());
 
@@ -51,7 +55,7 @@ public class TaskControllerTest {
         val taskRequest = new TaskRequest(TaskPriority.HIGH, true, false, false);
         when(taskRequestValidator.isValid(taskRequest)).thenReturn(Optional.empty());
         when(taskControllerUseCase.createTask(taskRequest)).thenReturn(ResponseEntity.ok().build());
-        val taskResponse = subject.addTask(taskRequest);
+        val taskResponse = (ResponseEntity<?>) subject.addTask(taskRequest).getResult();
         assertEquals(200, taskResponse.getStatusCode().value());
 
         verify(taskRequestValidator, times(1)).isValid(taskRequest);
@@ -60,16 +64,30 @@ public class TaskControllerTest {
         verify(taskControllerUseCase, times(1)).createTask(taskRequest);
         verifyNoMoreInteractions(taskControllerUseCase);
     }
+
+    @Test
+    public void testWhenRequestValidAndDispatcherEnabledReturnsDispatcherResult(){
+        val taskRequest = new TaskRequest(TaskPriority.HIGH, true, false, false);
+        val dispatched = UseCaseExecutor.completed(ResponseEntity.ok().build());
+        when(taskRequestValidator.isValid(taskRequest)).thenReturn(Optional.empty());
+        when(taskRequestDispatcher.isEnabled()).thenReturn(true);
+        when(taskRequestDispatcher.submit(taskRequest)).thenReturn(dispatched);
+
+        assertEquals(dispatched, subject.addTask(taskRequest));
+
+        verify(taskRequestDispatcher, times(1)).submit(taskRequest);
+        verifyZeroInteractions(taskControllerUseCase);
+    }
     //endregion
 
     //region finishTask
     @Test
     public void testFinishTaskWhenRequestInvalid(){
-        val taskResponse = subject.finishTask(null);
+        val taskResponse = (ResponseEntity<?>) subject.finishTask(null).getResult();
         assertEquals(400, taskResponse.getStatusCode().value());
         assertEquals(new TaskRequestValidationErrorResponse("V103", "Given Request is Invalid"), (TaskRequestValidationErrorResponse)taskResponse.getBody());
 
-        val taskResponse1 = subject.finishTask("");
+        val taskResponse1 = (ResponseEntity<?>) subject.finishTask("").getResult();
         assertEquals(400, taskResponse.getStatusCode().value());
         assertEquals(new TaskRequestValidationErrorResponse("V103", "Given Request is Invalid"), (TaskRequestValidationErrorResponse)taskResponse1.getBody());
 
@@ -80,7 +98,7 @@ public class TaskControllerTest {
     @Test
     public void testFinishTaskWhenRequestValidReturnsControllerUseCaseResponse(){
         when(taskControllerUseCase.finishTask("taskId")).thenReturn(ResponseEntity.ok().build());
-        val taskResponse = subject.finishTask("taskId");
+        val taskResponse = (ResponseEntity<?>) subject.finishTask("taskId").getResult();
         assertEquals(200, taskResponse.getStatusCode().value());
 
         verify(taskControllerUseCase, times(1)).finishTask("taskId");
@@ -1,7 +1,7 @@
 package ffam.task.api;
 
 import ffam.agent.data.Agent;
-import ffam.agent.data.AgentRepository;
+import ffam.agent.data.AgentSkillIndex;
 import ffam.task.data.TaskRepository;
 import ffam.task.domain.*;
 import lombok.val;
@@ -11,18 +11,22 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import org.springframework.http.ResponseEntity;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
 @RunWith(JUnit4.class)
 public class TaskControllerUseCaseTest {
     private AddTaskUseCase addTaskUseCase;
     private AddTaskWhenAgentBusyUseCase addTaskWhenAgentBusyUseCase;
-    private AgentRepository agentRepository;
+    private AgentSkillIndex agentSkillIndex;
+    private AgentOccupancyEngine agentOccupancyEngine;
     private TaskRepository taskRepository;
     private TaskAllocationDetailUseCase taskAllocationDetailUseCase;
 
@@ -32,29 +36,32 @@ public class TaskControllerUseCaseTest {
     public void setUp() {
         addTaskUseCase = mock(AddTaskUseCase.class, RETURNS_SMART_NULLS);
         addTaskWhenAgentBusyUseCase = mock(AddTaskWhenAgentBusyUseCase.class, RETURNS_SMART_NULLS);
-        agentRepository = mock(AgentRepository.class, RETURNS_SMART_NULLS);
+        agentSkillIndex = mock(AgentSkillIndex.class, RETURNS_SMART_NULLS);
+        agentOccupancyEngine = mock(AgentOccupancyEngine.class, RETURNS_SMART_NULLS);
         taskRepository = mock(TaskRepository.class, RETURNS_SMART_NULLS);
         taskAllocationDetailUseCase = mock(TaskAllocationDetailUseCase.class, RETURNS_SMART_NULLS);
-        subject = new TaskControllerUseCase(agentRepository,
+        subject = new TaskControllerUseCase(agentSkillIndex,
                 taskRepository,
                 addTaskUseCase,
                 addTaskWhenAgentBusyUseCase,
-                taskAllocationDetailUseCase);
+                taskAllocationDetailUseCase,
+                new FirstIdleAssignmentStrategy(agentOccupancyEngine));
     }
 
     //region createTask
     @Test
     public void test_createTask_returnsUnProcessableEntity_whenNoEligibleAgents() {
         val taskRequest = new TaskRequest(TaskPriority.HIGH, false, false, false);
-        when(agentRepository.findBySkillSet(false, false, false)).thenReturn(Collections.emptyList());
+        when(agentSkillIndex.findBySkillSet(false, false, false)).thenReturn(Collections.emptyList());
 
         val taskResponse = subject.createTask(taskRequest);
         assertEquals(422, taskResponse.getStatusCode().value());
         assertEquals(new TaskRequestBusinessErrorResponse("V004", "No Agents Available with the SkillSet"), (TaskRequestBusinessErrorResponse) taskResponse.getBody());
 
-        verify(agentRepository, times(1)).findBySkillSet(taskRequest.isSkill1(), taskRequest.isSkill2(), taskRequest.isSkill3());
-        verifyNoMoreInteractions(agentRepository);
+        verify(agentSkillIndex, times(1)).findBySkillSet(taskRequest.isSkill1(), taskRequest.isSkill2(), taskRequest.isSkill3());
+        verifyNoMoreInteractions(agentSkillIndex);
 
+        verifyZeroInteractions(agentOccupancyEngine);
         verifyZeroInteractions(taskRepository);
         verifyZeroInteractions(addTaskUseCase);
         verifyZeroInteractions(addTaskWhenAgentBusyUseCase);
@@ -65,18 +72,20 @@ public class TaskControllerUseCaseTest {
         val taskRequest = new TaskRequest(TaskPriority.HIGH, true, false, false);
         val agent = new Agent("agentId", "agentName", true, false, false);
 
-        when(agentRepository.findBySkillSet(true, false, false)).thenReturn(Arrays.asList(agent));
-        when(taskRepository.findByAgentIdAndStatus("agentId", TaskStatus.IN_PROGRESS)).thenReturn(Collections.EMPTY_LIST);
+        when(agentSkillIndex.findBySkillSet(true, false, false)).thenReturn(Arrays.asList(agent));
+        when(agentOccupancyEngine.findIdleAgent(any(), any())).thenReturn(Optional.of(agent));
         when(addTaskUseCase.addTask("agentId", taskRequest)).thenReturn(ResponseEntity.ok().build());
 
         val taskResponse = subject.createTask(taskRequest);
         assertEquals(200, taskResponse.getStatusCode().value());
 
-        verify(agentRepository, times(1)).findBySkillSet(taskRequest.isSkill1(), taskRequest.isSkill2(), taskRequest.isSkill3());
-        verifyNoMoreInteractions(agentRepository);
+        verify(agentSkillIndex, times(1)).findBySkillSet(taskRequest.isSkill1(), taskRequest.isSkill2(), taskRequest.isSkill3());
+        verifyNoMoreInteractions(agentSkillIndex);
 
-        verify(taskRepository, times(1)).findByAgentIdAndStatus("agentId", TaskStatus.IN_PROGRESS);
-        verifyNoMoreInteractions(taskRepository);
+        verify(agentOccupancyEngine, times(1)).findIdleAgent(any(), any());
+        verifyNoMoreInteractions(agentOccupancyEngine);
+
+        verifyZeroInteractions(taskRepository);
 
         verify(addTaskUseCase, times(1)).addTask("agentId", taskRequest);
         verifyNoMoreInteractions(addTaskUseCase);
@@ -88,20 +97,21 @@ public class TaskControllerUseCaseTest {
     public void test_createTask_returnsUnProcessableEntity_whenEligibleAgentsHasTaskListButRequestIsLowPriority() {
         val taskRequest = new TaskRequest(TaskPriority.LOW, true, false, false);
         val agent = new Agent("agentId", "agentName", true, false, false);
-        val existingTask = new Task("taskId", TaskPriority.LOW, true, false, false, TaskStatus.IN_PROGRESS, "agentId");
 
-        when(agentRepository.findBySkillSet(true, false, false)).thenReturn(Arrays.asList(agent));
-        when(taskRepository.findByAgentIdAndStatus("agentId", TaskStatus.IN_PROGRESS)).thenReturn(Arrays.asList(existingTask));
+        when(agentSkillIndex.findBySkillSet(true, false, false)).thenReturn(Arrays.asList(agent));
+        when(agentOccupancyEngine.findIdleAgent(any(), any())).thenReturn(Optional.empty());
 
         val taskResponse = subject.createTask(taskRequest);
         assertEquals(422, taskResponse.getStatusCode().value());
         assertEquals(new TaskRequestBusinessErrorResponse("V006", "All Agents are busy at this time"), (TaskRequestBusinessErrorResponse) taskResponse.getBody());
 
-        verify(agentRepository, times(1)).findBySkillSet(taskRequest.isSkill1(), taskRequest.isSkill2(), taskRequest.isSkill3());
-        verifyNoMoreInteractions(agentRepository);
+        verify(agentSkillIndex, times(1)).findBySkillSet(taskRequest.isSkill1(), taskRequest.isSkill2(), taskRequest.isSkill3());
+        verifyNoMoreInteractions(agentSkillIndex);
 
-        verify(taskRepository, times(1)).findByAgentIdAndStatus("agentId", TaskStatus.IN_PROGRESS);
-        verifyNoMoreInteractions(taskRepository);
+        verify(agentOccupancyEngine, times(1)).findIdleAgent(any(), any());
+        verifyNoMoreInteractions(agentOccupancyEngine);
+
+        verifyZeroInteractions(taskRepository);
 
         verifyZeroInteractions(addTaskUseCase);
         verifyZeroInteractions(addTaskWhenAgentBusyUseCase);
@@ -111,26 +121,68 @@ public class TaskControllerUseCaseTest {
     public void test_createTask_returnsAddTaskWhenAgentBusyUseCase_whenEligibleAgentsHasTaskListAndRequestIsHighPriority() {
         val taskRequest = new TaskRequest(TaskPriority.HIGH, true, false, false);
         val agent = new Agent("agentId", "agentName", true, false, false);
-        val existingTask = new Task("taskId", TaskPriority.LOW, true, false, false, TaskStatus.IN_PROGRESS, "agentId");
 
-        when(agentRepository.findBySkillSet(true, false, false)).thenReturn(Arrays.asList(agent));
-        when(taskRepository.findByAgentIdAndStatus("agentId", TaskStatus.IN_PROGRESS)).thenReturn(Arrays.asList(existingTask));
-        when(addTaskWhenAgentBusyUseCase.addTask(Arrays.asList(agent), taskRequest)).thenReturn(ResponseEntity.ok().build());
+        when(agentSkillIndex.findBySkillSet(true, false, false)).thenReturn(Arrays.asList(agent));
+        when(agentOccupancyEngine.findIdleAgent(any(), any())).thenReturn(Optional.empty());
+        when(addTaskWhenAgentBusyUseCase.addTask(taskRequest)).thenReturn(ResponseEntity.ok().build());
 
         val taskResponse = subject.createTask(taskRequest);
         assertEquals(200, taskResponse.getStatusCode().value());
 
-        verify(agentRepository, times(1)).findBySkillSet(taskRequest.isSkill1(), taskRequest.isSkill2(), taskRequest.isSkill3());
-        verifyNoMoreInteractions(agentRepository);
+        verify(agentSkillIndex, times(1)).findBySkillSet(taskRequest.isSkill1(), taskRequest.isSkill2(), taskRequest.isSkill3());
+        verifyNoMoreInteractions(agentSkillIndex);
 
-        verify(taskRepository, times(1)).findByAgentIdAndStatus("agentId", TaskStatus.IN_PROGRESS);
-        verifyNoMoreInteractions(taskRepository);
+        verify(agentOccupancyEngine, times(1)).findIdleAgent(any(), any());
+        verifyNoMoreInteractions(agentOccupancyEngine);
+
+        verifyZeroInteractions(taskRepository);
 
-        verify(addTaskWhenAgentBusyUseCase, times(1)).addTask(Arrays.asList(agent), taskRequest);
+        verify(addTaskWhenAgentBusyUseCase, times(1)).addTask(taskRequest);
         verifyNoMoreInteractions(addTaskWhenAgentBusyUseCase);
 
         verifyZeroInteractions(addTaskUseCase);
     }
+
+    @Test
+    public void test_createTask_decidesWithoutQuerying_regardlessOfRosterSize() {
+        val taskRequest = new TaskRequest(TaskPriority.LOW, true, false, false);
+        for (int rosterSize : new int[]{1, 10, 500}) {
+            List<Agent> roster = new ArrayList<>();
+            for (int i = 0; i < rosterSize; i++) {
+                roster.add(new Agent("agentId" + i, "agentName" + i, true, false, false));
+            }
+            reset(agentSkillIndex, agentOccupancyEngine, taskRepository);
+            when(agentSkillIndex.findBySkillSet(true, false, false)).thenReturn(roster);
+            when(agentOccupancyEngine.findIdleAgent(any(), any())).thenReturn(Optional.empty());
+
+            val taskResponse = subject.createTask(taskRequest);
+            assertEquals(422, taskResponse.getStatusCode().value());
+
+            verify(agentOccupancyEngine, times(1)).findIdleAgent(any(), any());
+            verifyZeroInteractions(taskRepository);
+            verifyZeroInteractions(taskAllocationDetailUseCase);
+        }
+    }
+
+    @Test
+    public void test_createTask_assignsTheIdleAgentTheStrategySelects() {
+        val assignmentStrategy = mock(AssignmentStrategy.class, RETURNS_SMART_NULLS);
+        subject = new TaskControllerUseCase(agentSkillIndex, taskRepository, addTaskUseCase,
+                addTaskWhenAgentBusyUseCase, taskAllocationDetailUseCase, assignmentStrategy);
+        val taskRequest = new TaskRequest(TaskPriority.LOW, true, false, false);
+        val generalist = new Agent("agentId1", "CaptainMarvel", true, true, true);
+        val specialist = new Agent("agentId2", "DrStrange", true, false, false);
+
+        when(agentSkillIndex.findBySkillSet(true, false, false)).thenReturn(Arrays.asList(generalist, specialist));
+        when(assignmentStrategy.select(0b001)).thenReturn(Optional.of(specialist));
+        when(addTaskUseCase.addTask("agentId2", taskRequest)).thenReturn(ResponseEntity.ok().build());
+
+        val taskResponse = subject.createTask(taskRequest);
+        assertEquals(200, taskResponse.getStatusCode().value());
+
+        verify(addTaskUseCase, times(1)).addTask("agentId2", taskRequest);
+        verifyNoMoreInteractions(addTaskUseCase);
+    }
     //endregion
 
     //region finishTask
@@ -144,7 +196,8 @@ public class TaskControllerUseCaseTest {
         verify(taskRepository, times(1)).findByTaskId("taskId");
         verifyNoMoreInteractions(taskRepository);
 
-        verifyZeroInteractions(agentRepository);
+        verifyZeroInteractions(agentSkillIndex);
+        verifyZeroInteractions(agentOccupancyEngine);
         verifyZeroInteractions(addTaskUseCase);
         verifyZeroInteractions(addTaskWhenAgentBusyUseCase);
     }
@@ -164,7 +217,8 @@ public class TaskControllerUseCaseTest {
         verify(taskAllocationDetailUseCase, times(1)).deleteTask(task.getAgentId(), "taskId", task.getTaskPriority());
         verifyNoMoreInteractions(taskAllocationDetailUseCase);
 
-        verifyZeroInteractions(agentRepository);
+        verifyZeroInteractions(agentSkillIndex);
+        verifyZeroInteractions(agentOccupancyEngine);
         verifyZeroInteractions(addTaskUseCase);
         verifyZeroInteractions(addTaskWhenAgentBusyUseCase);
     }
@@ -186,7 +240,8 @@ public class TaskControllerUseCaseTest {
         verify(taskAllocationDetailUseCase, times(1)).deleteTask(task.getAgentId(), "taskId", task.getTaskPriority());
         verifyNoMoreInteractions(taskAllocationDetailUseCase);
 
-        verifyZeroInteractions(agentRepository);
+        verifyZeroInteractions(agentSkillIndex);
+        verifyZeroInteractions(agentOccupancyEngine);
         verifyZeroInteractions(addTaskUseCase);
         verifyZeroInteractions(addTaskWhenAgentBusyUseCase);
     }
@@ -208,7 +263,8 @@ public class TaskControllerUseCaseTest {
         verify(taskAllocationDetailUseCase, times(1)).deleteTask(task.getAgentId(), "taskId", task.getTaskPriority());
         verifyNoMoreInteractions(taskAllocationDetailUseCase);
 
-        verifyZeroInteractions(agentRepository);
+        verifyZeroInteractions(agentSkillIndex);
+        verifyZeroInteractions(agentOccupancyEngine);
         verifyZeroInteractions(addTaskUseCase);
         verifyZeroInteractions(addTaskWhenAgentBusyUseCase);
     }
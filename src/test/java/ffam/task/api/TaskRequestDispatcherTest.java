@@ -0,0 +1,190 @@
+package ffam.task.api;
+
+import ffam.task.domain.TaskPriority;
+import ffam.task.domain.TaskStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.DeferredResultProcessingInterceptor;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class TaskRequestDispatcherTest {
+    private TaskBatchControllerUseCase taskBatchControllerUseCase;
+    private SimpleMeterRegistry meterRegistry;
+    private TaskRequestDispatcher subject;
+
+    private final TaskRequest highPriority = new TaskRequest(TaskPriority.HIGH, true, false, false);
+    private final TaskRequest lowPriority = new TaskRequest(TaskPriority.LOW, false, true, false);
+
+    @Before
+    public void setUp() {
+        taskBatchControllerUseCase = mock(TaskBatchControllerUseCase.class, RETURNS_SMART_NULLS);
+        meterRegistry = new SimpleMeterRegistry();
+        subject = new TaskRequestDispatcher(true, 0, 2, 2, 10000, taskBatchControllerUseCase, meterRegistry);
+    }
+
+    @After
+    public void cleanUp() throws InterruptedException {
+        subject.shutdown();
+    }
+
+    //region nextBatch
+    @Test
+    public void test_nextBatch_takesUpToMaxBatchSize_andLeavesTheRestForTheNext() throws InterruptedException {
+        subject = new TaskRequestDispatcher(true, 0, 2, 3, 10000, taskBatchControllerUseCase, meterRegistry);
+        subject.submit(highPriority);
+        subject.submit(lowPriority);
+        subject.submit(highPriority);
+
+        assertEquals(2, subject.nextBatch().size());
+        assertEquals(1, subject.nextBatch().size());
+        assertTrue(subject.nextBatch().isEmpty());
+    }
+    //endregion
+
+    //region run
+    @Test
+    public void test_run_createsTasksOfTheBatchTogether_andAnswersEachRequest() throws InterruptedException {
+        when(taskBatchControllerUseCase.createTasks(Arrays.asList(highPriority, lowPriority))).thenReturn(Arrays.asList(
+                TaskBatchItemResponse.of("taskId1", "agentId1", TaskStatus.IN_PROGRESS),
+                TaskBatchItemResponse.error("V006", "All Agents are busy at this time")));
+        val first = subject.submit(highPriority);
+        val second = subject.submit(lowPriority);
+
+        subject.run(subject.nextBatch());
+
+        assertEquals(ResponseEntity.ok().body(new TaskResponse("taskId1", "agentId1", TaskStatus.IN_PROGRESS)), first.getResult());
+        assertEquals(ResponseEntity.unprocessableEntity().body(new TaskRequestBusinessErrorResponse("V006", "All Agents are busy at this time")),
+                second.getResult());
+        assertEquals(2, meterRegistry.get(TaskRequestDispatcher.BATCH_SIZE).summary().totalAmount(), 0);
+    }
+
+    @Test
+    public void test_run_answersEveryRequestWithTheError_whenBatchFails() throws InterruptedException {
+        val exception = new IllegalStateException("failed");
+        when(taskBatchControllerUseCase.createTasks(anyList())).thenThrow(exception);
+        val first = subject.submit(highPriority);
+        val second = subject.submit(lowPriority);
+
+        subject.run(subject.nextBatch());
+
+        assertEquals(exception, first.getResult());
+        assertEquals(exception, second.getResult());
+    }
+
+    @Test
+    public void test_run_leavesOutRequestsThatTimedOut() throws InterruptedException {
+        val batch = Arrays.asList(new TaskRequestDispatcher.PendingTask(highPriority, new DeferredResult<>()),
+                timedOut(lowPriority));
+        when(taskBatchControllerUseCase.createTasks(Collections.singletonList(highPriority))).thenReturn(Collections.singletonList(
+                TaskBatchItemResponse.of("taskId1", "agentId1", TaskStatus.IN_PROGRESS)));
+
+        subject.run(batch);
+
+        verify(taskBatchControllerUseCase, times(1)).createTasks(Collections.singletonList(highPriority));
+    }
+    //endregion
+
+    //region submit
+    @Test
+    public void test_submit_turnsRequestAway_whenQueueFull() {
+        subject = new TaskRequestDispatcher(true, 0, 2, 1, 10000, taskBatchControllerUseCase, meterRegistry);
+        subject.submit(highPriority);
+
+        val rejected = (ResponseEntity<?>) subject.submit(lowPriority).getResult();
+
+        assertEquals(503, rejected.getStatusCode().value());
+        assertEquals(new TaskRequestServerErrorResponse("V008", "Server is busy, try again later"), rejected.getBody());
+        assertEquals(1, meterRegistry.get(TaskRequestDispatcher.REJECTED).counter().count(), 0);
+    }
+
+    @Test
+    public void test_submit_isAnsweredByDispatcherThread_whenStarted() throws InterruptedException {
+        when(taskBatchControllerUseCase.createTasks(anyList())).thenReturn(Collections.singletonList(
+                TaskBatchItemResponse.of("taskId1", "agentId1", TaskStatus.IN_PROGRESS)));
+        subject.start();
+
+        val result = subject.submit(highPriority);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!result.hasResult() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(200, ((ResponseEntity<?>) result.getResult()).getStatusCode().value());
+    }
+
+    @Test
+    public void test_submit_timesOutRequestStillWaiting_andLeavesItOutOfTheBatch() throws InterruptedException {
+        val result = subject.submit(highPriority);
+
+        timeOut(result);
+        subject.run(subject.nextBatch());
+
+        val timedOut = (ResponseEntity<?>) result.getResult();
+        assertEquals(503, timedOut.getStatusCode().value());
+        assertEquals(new TaskRequestServerErrorResponse("V009", "Request timed out"), timedOut.getBody());
+        verifyZeroInteractions(taskBatchControllerUseCase);
+    }
+
+    @Test
+    public void test_submit_answersStillProcessing_whenTimedOutAfterTheBatchTookIt() throws InterruptedException {
+        val result = subject.submit(highPriority);
+        val batch = subject.nextBatch();
+        when(taskBatchControllerUseCase.createTasks(anyList())).thenAnswer(invocation -> {
+            timeOut(result);
+            return Collections.singletonList(TaskBatchItemResponse.of("taskId1", "agentId1", TaskStatus.IN_PROGRESS));
+        });
+
+        subject.run(batch);
+
+        val stillProcessing = (ResponseEntity<?>) result.getResult();
+        assertEquals(202, stillProcessing.getStatusCode().value());
+        assertEquals("V010", ((TaskRequestServerErrorResponse) stillProcessing.getBody()).getErrorCode());
+        assertEquals(1, meterRegistry.get(TaskRequestDispatcher.TIMEOUTS).counter().count(), 0);
+    }
+
+    @Test
+    public void test_submit_doesNothing_whenNotStarted() {
+        subject.submit(highPriority);
+
+        assertFalse(subject.submit(lowPriority).hasResult());
+        verifyZeroInteractions(taskBatchControllerUseCase);
+    }
+    //endregion
+
+    //region private
+    // What Spring does when the async request times out
+    private static void timeOut(DeferredResult<?> result) {
+        DeferredResultProcessingInterceptor interceptor = ReflectionTestUtils.invokeMethod(result, "getInterceptor");
+        try {
+            interceptor.handleTimeout(null, result);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static TaskRequestDispatcher.PendingTask timedOut(TaskRequest taskRequest) {
+        val deferredResult = new DeferredResult<ResponseEntity<?>>(1L);
+        val pendingTask = new TaskRequestDispatcher.PendingTask(taskRequest, deferredResult);
+        pendingTask.claim();
+        return pendingTask;
+    }
+    //endregion
+}
@@ -0,0 +1,169 @@
+package ffam.task.data;
+
+import ffam.task.domain.TaskAllocationDetail;
+import ffam.task.domain.TaskPriority;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class AllocationJournalTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File directory;
+    private MeterRegistry meterRegistry;
+    private AllocationJournal subject;
+
+    private final ZonedDateTime now = ZonedDateTime.now();
+    private final TaskAllocationDetail busy = new TaskAllocationDetail("agentId1", Arrays.asList("taskId1", "taskId2"), TaskPriority.HIGH, now, 4);
+    private final AllocationChange added = AllocationChange.added(busy, "taskId2", TaskPriority.HIGH);
+    private final AllocationChange removed = AllocationChange.removed(
+            new TaskAllocationDetail("agentId1", Collections.singletonList("taskId2"), TaskPriority.LOW, now, 5), "taskId1");
+    private final AllocationChange released = AllocationChange.removed(
+            new TaskAllocationDetail("agentId1", Collections.emptyList(), TaskPriority.LOW, now, 6), "taskId2");
+
+    @Before
+    public void setUp() throws Exception {
+        directory = temporaryFolder.newFolder("journal");
+        meterRegistry = new SimpleMeterRegistry();
+        subject = new AllocationJournal(true, directory.getPath(), meterRegistry);
+    }
+
+    //region sync & recover
+    @Test
+    public void test_recover_readsBackEverySyncedChange_inOrder() {
+        subject.append(Collections.singletonList(added));
+        subject.sync();
+        subject.append(Arrays.asList(removed, released));
+        subject.sync();
+
+        assertEquals(Arrays.asList(added, removed, released), newJournal().recover());
+    }
+
+    @Test
+    public void test_sync_writesChangesAppendedTogetherWithOneFsync() {
+        subject.append(Collections.singletonList(added));
+        subject.append(Collections.singletonList(removed));
+        subject.sync();
+        subject.sync();
+
+        val syncChanges = meterRegistry.get(AllocationJournal.SYNC_CHANGES).summary();
+        assertEquals(1, syncChanges.count());
+        assertEquals(2, syncChanges.totalAmount(), 0);
+    }
+
+    @Test
+    public void test_recover_skipsPartlyWrittenLastChange() throws Exception {
+        subject.append(Collections.singletonList(added));
+        subject.sync();
+        val segment = directory.listFiles()[0].toPath();
+        Files.write(segment, "REMOVE\tagentId1\ttask".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        assertEquals(Collections.singletonList(added), newJournal().recover());
+    }
+
+    @Test
+    public void test_sync_keepsChangesPending_whenJournalCannotBeWritten() throws Exception {
+        val notADirectory = temporaryFolder.newFile("not-a-directory");
+        subject = new AllocationJournal(true, notADirectory.getPath(), meterRegistry);
+        subject.append(Collections.singletonList(added));
+        subject.sync();
+
+        assertEquals(1, meterRegistry.get(AllocationJournal.SYNC_FAILURES).counter().count(), 0);
+        assertEquals(Collections.singletonList(added), subject.takePending().getChanges());
+    }
+
+    @Test
+    public void test_sync_startsNewSegment_afterFailedWrite() throws Exception {
+        subject.append(Collections.singletonList(added));
+        subject.sync();
+        ((FileChannel) ReflectionTestUtils.getField(subject, "channel")).close();
+        subject.append(Collections.singletonList(removed));
+        subject.sync();
+        val segment = directory.listFiles()[0].toPath();
+        Files.write(segment, "REMOVE\tagentId1\ttask".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        subject.append(Collections.singletonList(released));
+        subject.sync();
+
+        assertEquals(2, directory.listFiles().length);
+        assertEquals(Arrays.asList(added, released), newJournal().recover());
+        assertEquals(Arrays.asList(added, removed, released), subject.takePending().getChanges());
+    }
+    //endregion
+
+    //region takePending & discard
+    @Test
+    public void test_takePending_returnsChangesNotFlushedYet_andRestorePutsThemBackInFront() {
+        subject.append(Arrays.asList(added, removed));
+        val taken = subject.takePending();
+        assertEquals(Arrays.asList(added, removed), taken.getChanges());
+        assertEquals(2, taken.getSequence());
+
+        subject.append(Collections.singletonList(released));
+        subject.restore(taken);
+        assertEquals(Arrays.asList(added, removed, released), subject.takePending().getChanges());
+        assertTrue(subject.takePending().getChanges().isEmpty());
+        assertEquals(0, meterRegistry.get(AllocationJournal.PENDING).gauge().value(), 0);
+    }
+
+    @Test
+    public void test_discard_deletesFlushedSegments_butKeepsTheOneWrittenTo() {
+        subject.append(Collections.singletonList(added));
+        subject.sync();
+        val taken = subject.takePending();
+        subject.append(Collections.singletonList(removed));
+        subject.sync();
+        assertEquals(2, directory.listFiles().length);
+
+        subject.discard(taken.getSequence());
+
+        assertEquals(Collections.singletonList(removed), newJournal().recover());
+    }
+
+    @Test
+    public void test_close_deletesEverySegment_whenEverythingWasFlushed() throws Exception {
+        subject.append(Collections.singletonList(added));
+        subject.sync();
+        subject.takePending();
+        subject.close();
+
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void test_close_keepsSegments_whenChangesArePending() throws Exception {
+        subject.append(Collections.singletonList(added));
+        subject.sync();
+        subject.close();
+
+        assertEquals(Collections.singletonList(added), newJournal().recover());
+    }
+    //endregion
+
+    //region private
+    private AllocationJournal newJournal() {
+        return new AllocationJournal(true, directory.getPath(), new SimpleMeterRegistry());
+    }
+    //endregion
+}
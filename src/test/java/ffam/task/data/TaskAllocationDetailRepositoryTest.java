@@ -0,0 +1,333 @@
+package ffam.task.data;
+
+import ffam.configuration.cache.LookupCache;
+import ffam.task.domain.PlannedAllocation;
+import ffam.task.domain.PlannedRemoval;
+import ffam.task.domain.Task;
+import ffam.task.domain.TaskAllocationDetail;
+import ffam.task.domain.TaskPriority;
+import ffam.task.domain.TaskStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static ffam.task.data.TaskAllocationDetailRepository.NO_VERSION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.endsWith;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class TaskAllocationDetailRepositoryTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private TaskAllocationDetailRepository subject;
+
+    private final ZonedDateTime now = ZonedDateTime.now();
+
+    @Before
+    public void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class, RETURNS_SMART_NULLS);
+        subject = new TaskAllocationDetailRepository(jdbcTemplate, LookupCache.create("taskAllocations", 100, new SimpleMeterRegistry()));
+    }
+
+    //region findAll
+    @Test
+    public void test_findAll_foldsItemRowsIntoOneDetailPerAgent() throws Exception {
+        ArgumentCaptor<ResultSetExtractor<List<TaskAllocationDetail>>> extractorCaptor = captorOf(ResultSetExtractor.class);
+        when(jdbcTemplate.query(anyString(), any(Object[].class), extractorCaptor.capture())).thenReturn(null);
+        subject.findAll();
+
+        val rs = mock(ResultSet.class, RETURNS_SMART_NULLS);
+        val created = Timestamp.from(now.toInstant());
+        when(rs.next()).thenReturn(true, true, true, false);
+        when(rs.getString("AGENT_ID")).thenReturn("agentId1", "agentId1", "agentId2");
+        when(rs.getString("TASK_ID")).thenReturn("taskId1", "taskId2", "taskId3");
+        when(rs.getInt("TASK_PRIORITY")).thenReturn(1, 0);
+        when(rs.getTimestamp("DATE_CREATED")).thenReturn(created);
+        when(rs.getLong("VERSION")).thenReturn(4L, 0L);
+
+        val results = extractorCaptor.getValue().extractData(rs);
+
+        assertEquals(2, results.size());
+        assertEquals("agentId1", results.get(0).getAgentId());
+        assertEquals(Arrays.asList("taskId1", "taskId2"), results.get(0).getTaskId());
+        assertEquals(TaskPriority.HIGH, results.get(0).getTaskPriority());
+        assertEquals(4L, results.get(0).getVersion());
+        assertEquals("agentId2", results.get(1).getAgentId());
+        assertEquals(Arrays.asList("taskId3"), results.get(1).getTaskId());
+        assertEquals(TaskPriority.LOW, results.get(1).getTaskPriority());
+        assertEquals(0L, results.get(1).getVersion());
+    }
+    //endregion
+
+    //region findByAgentId
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_findByAgentId_queriesOnce_whenAgentLookedUpAgain() {
+        when(jdbcTemplate.query(anyString(), any(Object[].class), any(ResultSetExtractor.class))).thenReturn(Collections.emptyList());
+
+        assertFalse(subject.findByAgentId("agentId1").isPresent());
+        assertFalse(subject.findByAgentId("agentId1").isPresent());
+
+        verify(jdbcTemplate, times(1)).query(anyString(), any(Object[].class), any(ResultSetExtractor.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_findByAgentId_queriesAgain_whenWriteLostToAnotherOne() {
+        when(jdbcTemplate.query(anyString(), any(Object[].class), any(ResultSetExtractor.class))).thenReturn(Collections.emptyList());
+        when(jdbcTemplate.update(startsWith("MERGE INTO TASK_ALLOCATION"), (Object[]) any())).thenReturn(0);
+
+        subject.findByAgentId("agentId1");
+        assertFalse(subject.addTask("agentId1", "taskId1", TaskPriority.HIGH, now, NO_VERSION));
+        subject.findByAgentId("agentId1");
+
+        verify(jdbcTemplate, times(2)).query(anyString(), any(Object[].class), any(ResultSetExtractor.class));
+    }
+    //endregion
+
+    //region addTask
+    @Test
+    public void test_addTask_insertsItem_whenAllocationWritten() {
+        when(jdbcTemplate.update(startsWith("MERGE INTO TASK_ALLOCATION"), (Object[]) any())).thenReturn(1);
+        when(jdbcTemplate.update(startsWith("INSERT INTO TASK_ALLOCATION_ITEM"), (Object[]) any())).thenReturn(1);
+
+        assertTrue(subject.addTask("agentId1", "taskId1", TaskPriority.HIGH, now, NO_VERSION));
+
+        verify(jdbcTemplate, times(1)).update(startsWith("MERGE INTO TASK_ALLOCATION"), (Object[]) any());
+        verify(jdbcTemplate, times(1)).update(startsWith("INSERT INTO TASK_ALLOCATION_ITEM"), (Object[]) any());
+        verifyNoMoreInteractions(jdbcTemplate);
+    }
+
+    @Test
+    public void test_addTask_skipsItem_whenVersionChanged() {
+        when(jdbcTemplate.update(startsWith("MERGE INTO TASK_ALLOCATION"), (Object[]) any())).thenReturn(0);
+
+        assertFalse(subject.addTask("agentId1", "taskId1", TaskPriority.HIGH, now, 3));
+
+        verify(jdbcTemplate, times(1)).update(startsWith("MERGE INTO TASK_ALLOCATION"), (Object[]) any());
+        verifyNoMoreInteractions(jdbcTemplate);
+    }
+
+    @Test
+    public void test_addTask_returnsFalse_whenAllocationInsertedConcurrently() {
+        when(jdbcTemplate.update(startsWith("MERGE INTO TASK_ALLOCATION"), (Object[]) any()))
+                .thenThrow(new DuplicateKeyException("PK_TASK_ALLOCATION_AGENT_ID"));
+
+        assertFalse(subject.addTask("agentId1", "taskId1", TaskPriority.LOW, now, NO_VERSION));
+
+        verify(jdbcTemplate, times(1)).update(startsWith("MERGE INTO TASK_ALLOCATION"), (Object[]) any());
+        verifyNoMoreInteractions(jdbcTemplate);
+    }
+    //endregion
+
+    //region lockVersions
+    @Test
+    public void test_lockVersions_locksRowsForUpdate() throws Exception {
+        val handlerCaptor = ArgumentCaptor.forClass(RowCallbackHandler.class);
+        doNothing().when(jdbcTemplate).query(anyString(), any(Object[].class), handlerCaptor.capture());
+
+        val versions = subject.lockVersions(Arrays.asList("agentId1", "agentId2"));
+
+        val rs = mock(ResultSet.class, RETURNS_SMART_NULLS);
+        when(rs.getString("AGENT_ID")).thenReturn("agentId2");
+        when(rs.getLong("VERSION")).thenReturn(7L);
+        handlerCaptor.getValue().processRow(rs);
+
+        assertEquals(Collections.singletonMap("agentId2", 7L), versions);
+        verify(jdbcTemplate, times(1)).query(
+                endsWith("WHERE AGENT_ID IN (?, ?) FOR UPDATE"),
+                eq(new Object[]{"agentId1", "agentId2"}),
+                any(RowCallbackHandler.class));
+        verifyNoMoreInteractions(jdbcTemplate);
+    }
+    //endregion
+
+    //region addTasks
+    @Test
+    public void test_addTasks_batchesAllocationsThenItems() {
+        val plannedAllocation = new PlannedAllocation(
+                new TaskAllocationDetail("agentId1", Arrays.asList("taskId0", "taskId1", "taskId2"), TaskPriority.HIGH, now, 3),
+                2,
+                Arrays.asList(
+                        new Task("taskId1", TaskPriority.LOW, true, false, false, TaskStatus.IN_PROGRESS, "agentId1"),
+                        new Task("taskId2", TaskPriority.HIGH, true, false, false, TaskStatus.IN_PROGRESS, "agentId1")));
+        ArgumentCaptor<List<Object[]>> argumentsCaptor = captorOf(List.class);
+
+        subject.addTasks(Collections.singletonList(plannedAllocation));
+
+        val inOrder = inOrder(jdbcTemplate);
+        inOrder.verify(jdbcTemplate, times(1)).batchUpdate(startsWith("MERGE INTO TASK_ALLOCATION"), argumentsCaptor.capture());
+        inOrder.verify(jdbcTemplate, times(1)).batchUpdate(startsWith("INSERT INTO TASK_ALLOCATION_ITEM"), argumentsCaptor.capture());
+        verifyNoMoreInteractions(jdbcTemplate);
+
+        val allocationArguments = argumentsCaptor.getAllValues().get(0);
+        assertEquals(1, allocationArguments.size());
+        assertEquals("agentId1", allocationArguments.get(0)[0]);
+        assertEquals(1, allocationArguments.get(0)[1]);
+        assertEquals(2L, allocationArguments.get(0)[3]);
+
+        val itemArguments = argumentsCaptor.getAllValues().get(1);
+        assertEquals(2, itemArguments.size());
+        assertEquals("taskId1", itemArguments.get(0)[1]);
+        assertEquals(0, itemArguments.get(0)[2]);
+        assertEquals("taskId2", itemArguments.get(1)[1]);
+        assertEquals(1, itemArguments.get(1)[2]);
+    }
+    //endregion
+
+    //region removeTask
+    @Test
+    public void test_removeTask_deletesOnlyThatItem_whenAllocationWritten() {
+        when(jdbcTemplate.update(startsWith("UPDATE TASK_ALLOCATION"), (Object[]) any())).thenReturn(1);
+        when(jdbcTemplate.update(startsWith("DELETE FROM TASK_ALLOCATION_ITEM"), (Object[]) any())).thenReturn(1);
+
+        assertTrue(subject.removeTask("agentId1", "taskId1", TaskPriority.LOW, 2));
+
+        verify(jdbcTemplate, times(1)).update(startsWith("UPDATE TASK_ALLOCATION"), eq(0), eq("agentId1"), eq(2L));
+        verify(jdbcTemplate, times(1)).update(startsWith("DELETE FROM TASK_ALLOCATION_ITEM"), eq("agentId1"), eq("taskId1"));
+        verifyNoMoreInteractions(jdbcTemplate);
+    }
+
+    @Test
+    public void test_removeTask_skipsItem_whenVersionChanged() {
+        when(jdbcTemplate.update(startsWith("UPDATE TASK_ALLOCATION"), (Object[]) any())).thenReturn(0);
+
+        assertFalse(subject.removeTask("agentId1", "taskId1", TaskPriority.LOW, 2));
+
+        verify(jdbcTemplate, times(1)).update(startsWith("UPDATE TASK_ALLOCATION"), (Object[]) any());
+        verifyNoMoreInteractions(jdbcTemplate);
+    }
+    //endregion
+
+    //region removeTasks
+    @Test
+    public void test_removeTasks_deletesReleasedRowsAndUpdatesTheRest() {
+        val released = new PlannedRemoval(
+                new TaskAllocationDetail("agentId1", Collections.emptyList(), TaskPriority.LOW, now, 5),
+                4,
+                Collections.singletonList("taskId1"));
+        val remaining = new PlannedRemoval(
+                new TaskAllocationDetail("agentId2", Collections.singletonList("taskId0"), TaskPriority.LOW, now, 2),
+                1,
+                Arrays.asList("taskId2", "taskId3"));
+        ArgumentCaptor<List<Object[]>> argumentsCaptor = captorOf(List.class);
+
+        subject.removeTasks(Arrays.asList(released, remaining));
+
+        verify(jdbcTemplate, times(1)).batchUpdate(startsWith("DELETE FROM TASK_ALLOCATION WHERE"), argumentsCaptor.capture());
+        verify(jdbcTemplate, times(1)).batchUpdate(startsWith("UPDATE TASK_ALLOCATION"), argumentsCaptor.capture());
+        verify(jdbcTemplate, times(1)).batchUpdate(startsWith("DELETE FROM TASK_ALLOCATION_ITEM"), argumentsCaptor.capture());
+        verifyNoMoreInteractions(jdbcTemplate);
+
+        val deleteArguments = argumentsCaptor.getAllValues().get(0);
+        assertEquals(1, deleteArguments.size());
+        assertEquals(Arrays.asList("agentId1", 4L), Arrays.asList(deleteArguments.get(0)));
+
+        val updateArguments = argumentsCaptor.getAllValues().get(1);
+        assertEquals(1, updateArguments.size());
+        assertEquals(Arrays.asList(0, "agentId2", 1L), Arrays.asList(updateArguments.get(0)));
+
+        val itemArguments = argumentsCaptor.getAllValues().get(2);
+        assertEquals(2, itemArguments.size());
+        assertEquals(Arrays.asList("agentId2", "taskId2"), Arrays.asList(itemArguments.get(0)));
+        assertEquals(Arrays.asList("agentId2", "taskId3"), Arrays.asList(itemArguments.get(1)));
+    }
+    //endregion
+
+    //region applyChanges
+    @Test
+    public void test_applyChanges_writesOneRowPerAgent_whenAgentChangedManyTimes() {
+        val first = new TaskAllocationDetail("agentId1", Arrays.asList("taskId0", "taskId1"), TaskPriority.LOW, now.minusSeconds(2), 3);
+        val second = new TaskAllocationDetail("agentId1", Arrays.asList("taskId0", "taskId1", "taskId2"), TaskPriority.HIGH, now.minusSeconds(1), 4);
+        val third = new TaskAllocationDetail("agentId1", Arrays.asList("taskId0", "taskId2"), TaskPriority.HIGH, now.minusSeconds(1), 5);
+        val fourth = new TaskAllocationDetail("agentId1", Collections.singletonList("taskId2"), TaskPriority.HIGH, now.minusSeconds(1), 6);
+        ArgumentCaptor<List<Object[]>> argumentsCaptor = captorOf(List.class);
+
+        assertEquals(1, subject.applyChanges(Arrays.asList(
+                AllocationChange.added(first, "taskId1", TaskPriority.LOW),
+                AllocationChange.added(second, "taskId2", TaskPriority.HIGH),
+                AllocationChange.removed(third, "taskId1"),
+                AllocationChange.removed(fourth, "taskId0"))));
+
+        val inOrder = inOrder(jdbcTemplate);
+        inOrder.verify(jdbcTemplate, times(1)).batchUpdate(startsWith("MERGE INTO TASK_ALLOCATION a"), argumentsCaptor.capture());
+        inOrder.verify(jdbcTemplate, times(1)).batchUpdate(startsWith("DELETE FROM TASK_ALLOCATION_ITEM"), argumentsCaptor.capture());
+        inOrder.verify(jdbcTemplate, times(1)).batchUpdate(startsWith("MERGE INTO TASK_ALLOCATION_ITEM"), argumentsCaptor.capture());
+        verifyNoMoreInteractions(jdbcTemplate);
+
+        val rowArguments = argumentsCaptor.getAllValues().get(0);
+        assertEquals(1, rowArguments.size());
+        assertEquals("agentId1", rowArguments.get(0)[0]);
+        assertEquals(1, rowArguments.get(0)[1]);
+        assertEquals(6L, rowArguments.get(0)[3]);
+
+        // taskId1 was added and removed before the flush, it never reaches the database
+        val removedItemArguments = argumentsCaptor.getAllValues().get(1);
+        assertEquals(1, removedItemArguments.size());
+        assertEquals(Arrays.asList("agentId1", "taskId0"), Arrays.asList(removedItemArguments.get(0)));
+
+        val addedItemArguments = argumentsCaptor.getAllValues().get(2);
+        assertEquals(1, addedItemArguments.size());
+        assertEquals(Arrays.asList("taskId2", "agentId1", 1), Arrays.asList(addedItemArguments.get(0)).subList(0, 3));
+    }
+
+    @Test
+    public void test_applyChanges_deletesRowFirst_whenAgentReleasedAndGivenATaskAgain() {
+        val remaining = new TaskAllocationDetail("agentId1", Collections.emptyList(), TaskPriority.LOW, now, 5);
+        val added = new TaskAllocationDetail("agentId1", Collections.singletonList("taskId2"), TaskPriority.LOW, now, 0);
+        val released = new TaskAllocationDetail("agentId2", Collections.emptyList(), TaskPriority.LOW, now, 2);
+        ArgumentCaptor<List<Object[]>> argumentsCaptor = captorOf(List.class);
+
+        assertEquals(2, subject.applyChanges(Arrays.asList(
+                AllocationChange.removed(remaining, "taskId1"),
+                AllocationChange.removed(released, "taskId3"),
+                AllocationChange.added(added, "taskId2", TaskPriority.LOW))));
+
+        val inOrder = inOrder(jdbcTemplate);
+        inOrder.verify(jdbcTemplate, times(1)).batchUpdate(startsWith("DELETE FROM TASK_ALLOCATION WHERE"), argumentsCaptor.capture());
+        inOrder.verify(jdbcTemplate, times(1)).batchUpdate(startsWith("MERGE INTO TASK_ALLOCATION a"), argumentsCaptor.capture());
+        inOrder.verify(jdbcTemplate, times(1)).batchUpdate(startsWith("MERGE INTO TASK_ALLOCATION_ITEM"), argumentsCaptor.capture());
+        verifyNoMoreInteractions(jdbcTemplate);
+
+        val releaseArguments = argumentsCaptor.getAllValues().get(0);
+        assertEquals(2, releaseArguments.size());
+        assertEquals(Collections.singletonList("agentId1"), Arrays.asList(releaseArguments.get(0)));
+        assertEquals(Collections.singletonList("agentId2"), Arrays.asList(releaseArguments.get(1)));
+
+        val rowArguments = argumentsCaptor.getAllValues().get(1);
+        assertEquals(1, rowArguments.size());
+        assertEquals("agentId1", rowArguments.get(0)[0]);
+        assertEquals(0L, rowArguments.get(0)[3]);
+    }
+    //endregion
+
+    //region private
+    // ArgumentCaptor.forClass only takes a raw class, so the captor gets its type argument here
+    @SuppressWarnings("unchecked")
+    private static <T> ArgumentCaptor<T> captorOf(Class<? super T> type) {
+        return ArgumentCaptor.forClass((Class<T>) type);
+    }
+    //endregion
+}
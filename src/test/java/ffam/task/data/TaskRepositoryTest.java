@@ -0,0 +1,245 @@
+package ffam.task.data;
+
+import ffam.configuration.cache.LookupCache;
+import ffam.task.domain.Task;
+import ffam.task.domain.TaskPriority;
+import ffam.task.domain.TaskStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class TaskRepositoryTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private TaskRepository subject;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class, RETURNS_SMART_NULLS);
+        subject = new TaskRepository(jdbcTemplate, LookupCache.create("tasks", 100, new SimpleMeterRegistry()));
+        when(jdbcTemplate.query(anyString(), any(Object[].class), any(RowMapper.class))).thenReturn(Collections.emptyList());
+    }
+
+    //region findByTaskId
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_findByTaskId_queriesOnce_whenTaskLookedUpAgain() {
+        val task = new Task("taskId1", TaskPriority.LOW, true, false, false, TaskStatus.IN_PROGRESS, "agentId1");
+        when(jdbcTemplate.query(anyString(), any(Object[].class), any(RowMapper.class))).thenReturn(Arrays.asList(task));
+
+        assertEquals(task, subject.findByTaskId("taskId1").get());
+        assertEquals(task, subject.findByTaskId("taskId1").get());
+
+        verify(jdbcTemplate, times(1)).query(anyString(), any(Object[].class), any(RowMapper.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_findByTaskId_queriesAgain_whenStatusUpdated() {
+        subject.findByTaskId("taskId1");
+        subject.updateTaskStatus("taskId1", TaskStatus.COMPLETE);
+        subject.findByTaskId("taskId1");
+        subject.findByTaskId("taskId2");
+
+        verify(jdbcTemplate, times(3)).query(contains("FROM TASK WHERE"), any(Object[].class), any(RowMapper.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_findByTaskId_looksInHistory_whenTaskArchived() {
+        val task = new Task("taskId1", TaskPriority.LOW, true, false, false, TaskStatus.COMPLETE, "agentId1");
+        when(jdbcTemplate.query(contains("FROM TASK_HISTORY"), any(Object[].class), any(RowMapper.class))).thenReturn(Arrays.asList(task));
+
+        assertEquals(task, subject.findByTaskId("taskId1").get());
+
+        val inOrder = inOrder(jdbcTemplate);
+        inOrder.verify(jdbcTemplate, times(1)).query(contains("FROM TASK WHERE"), eq(new Object[]{"taskId1"}), any(RowMapper.class));
+        inOrder.verify(jdbcTemplate, times(1)).query(contains("FROM TASK_HISTORY"), eq(new Object[]{"taskId1"}), any(RowMapper.class));
+    }
+    //endregion
+
+    //region findByTaskIds
+    @Test
+    public void test_findByTaskIds_doesNotQuery_whenNoTaskIds() {
+        assertTrue(subject.findByTaskIds(Collections.emptyList()).isEmpty());
+
+        verifyZeroInteractions(jdbcTemplate);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_findByTaskIds_returnsTasksOfEveryChunk() {
+        val task1 = new Task("taskId1", TaskPriority.LOW, true, false, false, TaskStatus.IN_PROGRESS, "agentId1");
+        val task2 = new Task("taskId2", TaskPriority.HIGH, true, false, false, TaskStatus.IN_PROGRESS, "agentId2");
+        when(jdbcTemplate.query(contains("FROM TASK WHERE"), any(Object[].class), any(RowMapper.class)))
+                .thenReturn(Arrays.asList(task1), Arrays.asList(task2));
+
+        assertEquals(Arrays.asList(task1, task2), subject.findByTaskIds(taskIds(TaskRepository.IN_LIST_CHUNK_SIZE + 1)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_findByTaskIds_sendsOneQueryPerChunk() {
+        subject.findByTaskIds(taskIds(TaskRepository.IN_LIST_CHUNK_SIZE * 2 + 3));
+
+        val argumentsCaptor = ArgumentCaptor.forClass(Object[].class);
+        verify(jdbcTemplate, times(3)).query(contains("FROM TASK WHERE"), argumentsCaptor.capture(), any(RowMapper.class));
+        // None of them exist, so the same chunks are looked up in the history
+        verify(jdbcTemplate, times(3)).query(contains("FROM TASK_HISTORY"), any(Object[].class), any(RowMapper.class));
+        verifyNoMoreInteractions(jdbcTemplate);
+
+        assertEquals(TaskRepository.IN_LIST_CHUNK_SIZE, argumentsCaptor.getAllValues().get(0).length);
+        assertEquals(TaskRepository.IN_LIST_CHUNK_SIZE, argumentsCaptor.getAllValues().get(1).length);
+        // 3 ids padded up to 4 with the last one
+        assertArrayEquals(new Object[]{"taskId1024", "taskId1025", "taskId1026", "taskId1026"}, argumentsCaptor.getAllValues().get(2));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_findByTaskIds_sendsEachTaskIdOnce() {
+        subject.findByTaskIds(Arrays.asList("taskId1", "taskId2", "taskId1"));
+
+        val sqlCaptor = ArgumentCaptor.forClass(String.class);
+        val argumentsCaptor = ArgumentCaptor.forClass(Object[].class);
+        // Once in TASK, then once more in TASK_HISTORY as neither was found
+        verify(jdbcTemplate, times(2)).query(sqlCaptor.capture(), argumentsCaptor.capture(), any(RowMapper.class));
+
+        assertTrue(sqlCaptor.getAllValues().get(0).contains("FROM TASK WHERE TASK_ID IN (?, ?) "));
+        assertArrayEquals(new Object[]{"taskId1", "taskId2"}, argumentsCaptor.getAllValues().get(0));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_findByTaskIds_looksUpOnlyMissingTasksInHistory() {
+        val task1 = new Task("taskId1", TaskPriority.LOW, true, false, false, TaskStatus.IN_PROGRESS, "agentId1");
+        val task2 = new Task("taskId2", TaskPriority.HIGH, true, false, false, TaskStatus.COMPLETE, "agentId2");
+        when(jdbcTemplate.query(contains("FROM TASK WHERE"), any(Object[].class), any(RowMapper.class))).thenReturn(Arrays.asList(task1));
+        when(jdbcTemplate.query(contains("FROM TASK_HISTORY"), any(Object[].class), any(RowMapper.class))).thenReturn(Arrays.asList(task2));
+
+        assertEquals(Arrays.asList(task1, task2), subject.findByTaskIds(Arrays.asList("taskId1", "taskId2")));
+
+        verify(jdbcTemplate, times(1)).query(contains("FROM TASK_HISTORY"), eq(new Object[]{"taskId2"}), any(RowMapper.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_findByTaskIds_doesNotLookInHistory_whenEveryTaskFound() {
+        val task1 = new Task("taskId1", TaskPriority.LOW, true, false, false, TaskStatus.IN_PROGRESS, "agentId1");
+        when(jdbcTemplate.query(contains("FROM TASK WHERE"), any(Object[].class), any(RowMapper.class))).thenReturn(Arrays.asList(task1));
+
+        subject.findByTaskIds(Arrays.asList("taskId1", "taskId1"));
+
+        verify(jdbcTemplate, never()).query(contains("FROM TASK_HISTORY"), any(Object[].class), any(RowMapper.class));
+    }
+    //endregion
+
+    //region archiveCompleted
+    @Test
+    public void test_archiveCompleted_copiesLockedTasksToHistoryThenDeletesThem() {
+        val completedBefore = ZonedDateTime.now();
+        when(jdbcTemplate.queryForList(anyString(), any(Object[].class), eq(String.class))).thenReturn(Arrays.asList("taskId1", "taskId2"));
+
+        assertEquals(2, subject.archiveCompleted(completedBefore, 500));
+
+        val inOrder = inOrder(jdbcTemplate);
+        inOrder.verify(jdbcTemplate, times(1)).queryForList(contains("FOR UPDATE SKIP LOCKED"),
+                eq(new Object[]{"COMPLETE", Timestamp.from(completedBefore.toInstant()), 500}), eq(String.class));
+        inOrder.verify(jdbcTemplate, times(1)).update(startsWith("INSERT INTO TASK_HISTORY"), eq("taskId1"), eq("taskId2"));
+        inOrder.verify(jdbcTemplate, times(1)).update(startsWith("DELETE FROM TASK"), eq("taskId1"), eq("taskId2"));
+    }
+
+    @Test
+    public void test_archiveCompleted_writesNothing_whenNoTaskToArchive() {
+        when(jdbcTemplate.queryForList(anyString(), any(Object[].class), eq(String.class))).thenReturn(Collections.emptyList());
+
+        assertEquals(0, subject.archiveCompleted(ZonedDateTime.now(), 500));
+
+        verify(jdbcTemplate, never()).update(anyString(), (Object[]) any());
+    }
+    //endregion
+
+    //region findAgentTasksPage
+    @Test
+    public void test_findAgentTasksPage_continuesAfterLastAllocation_whenItsTasksAreMissing() throws Exception {
+        val rs = mock(ResultSet.class, RETURNS_SMART_NULLS);
+        when(rs.getString("ALLOCATION_AGENT_ID")).thenReturn("agentId1", "agentId2");
+        when(rs.getString("TASK_ID")).thenReturn("taskId1");
+        // agentId2 comes back from the outer join without a task
+        when(rs.getString("STATUS")).thenReturn("IN_PROGRESS", "IN_PROGRESS", null);
+        doAnswer(invocation -> {
+            val handler = (RowCallbackHandler) invocation.getArguments()[2];
+            for (int row = 0; row < 2; row++) {
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(jdbcTemplate).query(anyString(), eq(new Object[]{"agentId0", 2}), any(RowCallbackHandler.class));
+
+        Map<String, List<String>> agentTasks = new LinkedHashMap<>();
+        val nextAfterAgentId = subject.findAgentTasksPage("agentId0", 2, (agentId, taskList) -> {
+            List<String> taskIds = new ArrayList<>();
+            taskList.forEach(task -> taskIds.add(task.getTaskId()));
+            agentTasks.put(agentId, taskIds);
+        });
+
+        assertEquals(Collections.singletonMap("agentId1", Arrays.asList("taskId1")), agentTasks);
+        assertEquals("agentId2", nextAfterAgentId);
+    }
+
+    @Test
+    public void test_findAgentTasksPage_boundsFirstPageByAgentId() {
+        doNothing().when(jdbcTemplate).query(anyString(), any(Object[].class), any(RowCallbackHandler.class));
+
+        subject.findAgentTasksPage(null, 2, (agentId, taskList) -> fail());
+
+        verify(jdbcTemplate, times(1)).query(contains("WHERE AGENT_ID >= CHR(0) "), eq(new Object[]{2}), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    public void test_findAgentTasksPage_returnsNoNextAgent_whenPageIsShort() {
+        doNothing().when(jdbcTemplate).query(anyString(), any(Object[].class), any(RowCallbackHandler.class));
+
+        assertNull(subject.findAgentTasksPage(null, 2, (agentId, taskList) -> fail()));
+    }
+    //endregion
+
+    //region private
+    private static List<String> taskIds(int count) {
+        List<String> taskIds = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            taskIds.add("taskId" + i);
+        }
+        return taskIds;
+    }
+    //endregion
+}
@@ -0,0 +1,278 @@
+package ffam.task.domain;
+
+import ffam.agent.data.Agent;
+import ffam.agent.data.AgentSkillIndex;
+import ffam.agent.data.SkillMask;
+import ffam.task.data.TaskAllocationDetailRepository;
+import lombok.val;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+
+import static ffam.task.data.TaskAllocationDetailRepository.NO_VERSION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class AgentOccupancyEngineTest {
+    private final ZonedDateTime now = ZonedDateTime.now();
+
+    private TaskAllocationDetailRepository taskAllocationDetailRepository;
+    private AgentSkillIndex agentSkillIndex;
+    private AgentOccupancyEngine subject;
+
+    @Before
+    public void setUp() {
+        taskAllocationDetailRepository = mock(TaskAllocationDetailRepository.class, RETURNS_SMART_NULLS);
+        when(taskAllocationDetailRepository.findAll()).thenReturn(Arrays.asList(
+                new TaskAllocationDetail("agentId1", Arrays.asList("taskId1"), TaskPriority.LOW, now.minusDays(1), 0),
+                new TaskAllocationDetail("agentId2", Arrays.asList("taskId2", "taskId3"), TaskPriority.HIGH, now.minusDays(2), 3)));
+        agentSkillIndex = mock(AgentSkillIndex.class, RETURNS_SMART_NULLS);
+        when(agentSkillIndex.findSkillMask(anyString())).thenReturn(OptionalInt.empty());
+        when(agentSkillIndex.findSkillMask("agentId1")).thenReturn(OptionalInt.of(SkillMask.ALL));
+        when(agentSkillIndex.findSkillMask("agentId2")).thenReturn(OptionalInt.of(SkillMask.of(true, true, false)));
+        when(agentSkillIndex.findSkillMask("agentId3")).thenReturn(OptionalInt.of(SkillMask.of(true, false, false)));
+        subject = new AgentOccupancyEngine(taskAllocationDetailRepository, agentSkillIndex);
+        subject.rebuild();
+    }
+
+    //region rebuild
+    @Test
+    public void test_rebuild_loadsStateFromTaskAllocation() {
+        assertEquals(Optional.of(TaskPriority.LOW), priorityOf("agentId1"));
+        assertEquals(Optional.of(TaskPriority.HIGH), priorityOf("agentId2"));
+        assertFalse(subject.findByAgentId("agentId3").isPresent());
+        assertEquals(now.minusDays(1), subject.findByAgentId("agentId1").get().getDateCreated());
+    }
+
+    @Test
+    public void test_rebuild_dropsAgentsNoLongerAllocated() {
+        when(taskAllocationDetailRepository.findAll()).thenReturn(Collections.emptyList());
+        subject.rebuild();
+
+        assertFalse(subject.findByAgentId("agentId1").isPresent());
+        assertFalse(subject.findByAgentId("agentId2").isPresent());
+    }
+    //endregion
+
+    //region findAll
+    @Test
+    public void test_findAll_returnsAllocationsByDateCreatedDescending() {
+        subject.update(new TaskAllocationDetail("agentId3", Arrays.asList("taskId4"), TaskPriority.LOW, now, 0));
+
+        val results = subject.findAll();
+        assertEquals(Arrays.asList("agentId3", "agentId1", "agentId2"),
+                Arrays.asList(results.get(0).getAgentId(), results.get(1).getAgentId(), results.get(2).getAgentId()));
+    }
+    //endregion
+
+    //region findPreemptionCandidate
+    @Test
+    public void test_findPreemptionCandidate_returnsMostRecentlyStartedLowPriorityAgentWithTheSkills() {
+        subject.update(new TaskAllocationDetail("agentId3", Arrays.asList("taskId4"), TaskPriority.LOW, now, 0));
+
+        assertEquals("agentId3", subject.findPreemptionCandidate(SkillMask.of(true, false, false)).get().getAgentId());
+        assertEquals("agentId1", subject.findPreemptionCandidate(SkillMask.of(false, false, true)).get().getAgentId());
+    }
+
+    @Test
+    public void test_findPreemptionCandidate_skipsHighPriorityAgents() {
+        assertEquals("agentId1", subject.findPreemptionCandidate(SkillMask.of(true, true, false)).get().getAgentId());
+
+        subject.update(new TaskAllocationDetail("agentId1", Arrays.asList("taskId1", "taskId4"), TaskPriority.HIGH, now, 1));
+        assertFalse(subject.findPreemptionCandidate(SkillMask.of(true, true, false)).isPresent());
+    }
+
+    @Test
+    public void test_findPreemptionCandidate_returnsEmpty_whenLowPriorityAgentReleased() {
+        subject.release("agentId1", 0);
+
+        assertFalse(subject.findPreemptionCandidate(SkillMask.NONE).isPresent());
+    }
+
+    @Test
+    public void test_findPreemptionCandidate_followsRosterChanges() {
+        when(agentSkillIndex.findSkillMask("agentId1")).thenReturn(OptionalInt.of(SkillMask.of(true, false, false)));
+        subject.reindex();
+
+        assertFalse(subject.findPreemptionCandidate(SkillMask.of(false, false, true)).isPresent());
+        assertEquals("agentId1", subject.findPreemptionCandidate(SkillMask.of(true, false, false)).get().getAgentId());
+    }
+    //endregion
+
+    //region findIdleAgent
+    @Test
+    public void test_findIdleAgent_takesEarlierTierFirst_andRosterOrderWithinATier() {
+        rosterOf(agent("agentId1", SkillMask.ALL), agent("agentId2", SkillMask.of(true, true, false)), agent("agentId3", SkillMask.of(true, false, false)));
+        int[][] oneTier = {{0b001, 0b011, 0b101, 0b111}};
+        int[][] bySurplusSkills = {{0b001}, {0b011, 0b101}, {0b111}};
+
+        assertEquals("agentId3", subject.findIdleAgent(oneTier, agentId -> false).get().getAgentId());
+        subject.release("agentId2", 3);
+        assertEquals("agentId2", subject.findIdleAgent(oneTier, agentId -> false).get().getAgentId());
+        assertEquals("agentId3", subject.findIdleAgent(bySurplusSkills, agentId -> false).get().getAgentId());
+        assertEquals("agentId2", subject.findIdleAgent(bySurplusSkills, "agentId3"::equals).get().getAgentId());
+
+        subject.update(new TaskAllocationDetail("agentId3", Arrays.asList("taskId4"), TaskPriority.LOW, now, 0));
+        subject.update(new TaskAllocationDetail("agentId2", Arrays.asList("taskId5"), TaskPriority.LOW, now, 4));
+        assertFalse(subject.findIdleAgent(oneTier, agentId -> false).isPresent());
+    }
+
+    @Test
+    public void test_findIdleAgent_followsRosterChanges() {
+        rosterOf(agent("agentId3", SkillMask.of(true, false, false)));
+        assertEquals("agentId3", subject.findIdleAgent(new int[][]{{0b001}}, agentId -> false).get().getAgentId());
+
+        rosterOf(agent("agentId3", SkillMask.of(false, true, false)), agent("agentId4", SkillMask.of(true, false, false)));
+
+        assertEquals("agentId4", subject.findIdleAgent(new int[][]{{0b001}}, agentId -> false).get().getAgentId());
+        assertEquals("agentId3", subject.findIdleAgent(new int[][]{{0b010}}, agentId -> false).get().getAgentId());
+        subject.release("agentId1", 0);
+        assertFalse(subject.findIdleAgent(new int[][]{{0b111}}, agentId -> false).isPresent());
+    }
+    //endregion
+
+    //region update & release
+    @Test
+    public void test_update_marksAgentBusy_andKeepsAnImmutableCopy() {
+        List<String> taskIdList = new ArrayList<>(Arrays.asList("taskId4"));
+        subject.update(new TaskAllocationDetail("agentId3", taskIdList, TaskPriority.HIGH, now, 0));
+        taskIdList.add("taskId5");
+
+        assertTrue(subject.findByAgentId("agentId3").isPresent());
+        assertEquals(Optional.of(TaskPriority.HIGH), priorityOf("agentId3"));
+        assertEquals(Arrays.asList("taskId4"), subject.findByAgentId("agentId3").get().getTaskId());
+    }
+
+    @Test
+    public void test_release_marksAgentIdle() {
+        subject.release("agentId2", 3);
+
+        assertFalse(subject.findByAgentId("agentId2").isPresent());
+    }
+
+    @Test
+    public void test_update_ignoresOlderVersion() {
+        subject.update(new TaskAllocationDetail("agentId2", Arrays.asList("taskId2"), TaskPriority.LOW, now, 2));
+
+        assertEquals(Optional.of(TaskPriority.HIGH), priorityOf("agentId2"));
+        assertEquals(3, subject.findByAgentId("agentId2").get().getVersion());
+    }
+
+    @Test
+    public void test_release_keepsNewerVersion() {
+        subject.release("agentId2", 2);
+
+        assertTrue(subject.findByAgentId("agentId2").isPresent());
+    }
+
+    @Test
+    public void test_reset_replacesStateRegardlessOfVersion() {
+        subject.reset("agentId2", Optional.of(new TaskAllocationDetail("agentId2", Arrays.asList("taskId2"), TaskPriority.LOW, now, 0)));
+        assertEquals(Optional.of(TaskPriority.LOW), priorityOf("agentId2"));
+
+        assertEquals("agentId2", subject.findPreemptionCandidate(SkillMask.of(true, true, false)).get().getAgentId());
+
+        subject.reset("agentId2", Optional.empty());
+        assertFalse(subject.findByAgentId("agentId2").isPresent());
+    }
+
+    @Test
+    public void test_stateChanges_doNotQueryTheDatabase() {
+        subject.update(new TaskAllocationDetail("agentId3", Arrays.asList("taskId4"), TaskPriority.LOW, now, 0));
+        subject.release("agentId1", 0);
+        subject.findByAgentId("agentId3");
+        subject.findAll();
+
+        verify(taskAllocationDetailRepository, times(1)).findAll();
+        verifyNoMoreInteractions(taskAllocationDetailRepository);
+    }
+    //endregion
+
+    //region compareAndSet
+    @Test
+    public void test_compareAndSet_takesAllocationAndRunsOnChange_whenVersionMatches() {
+        val onChange = mock(Runnable.class);
+        assertTrue(subject.compareAndSet("agentId3", NO_VERSION,
+                new TaskAllocationDetail("agentId3", Arrays.asList("taskId4"), TaskPriority.LOW, now, 0), onChange));
+        assertTrue(subject.compareAndSet("agentId2", 3,
+                new TaskAllocationDetail("agentId2", Collections.emptyList(), TaskPriority.LOW, now, 4), onChange));
+
+        verify(onChange, times(2)).run();
+        assertEquals(Optional.of(TaskPriority.LOW), priorityOf("agentId3"));
+        assertFalse(subject.findByAgentId("agentId2").isPresent());
+        assertEquals("agentId3", subject.findPreemptionCandidate(SkillMask.of(true, false, false)).get().getAgentId());
+    }
+
+    @Test
+    public void test_compareAndSet_changesNothing_whenVersionChanged() {
+        val onChange = mock(Runnable.class);
+        assertFalse(subject.compareAndSet("agentId1", 1,
+                new TaskAllocationDetail("agentId1", Arrays.asList("taskId1", "taskId4"), TaskPriority.HIGH, now, 2), onChange));
+        assertFalse(subject.compareAndSet("agentId3", 0,
+                new TaskAllocationDetail("agentId3", Arrays.asList("taskId4"), TaskPriority.LOW, now, 1), onChange));
+
+        verifyZeroInteractions(onChange);
+        assertEquals(Optional.of(TaskPriority.LOW), priorityOf("agentId1"));
+        assertFalse(subject.findByAgentId("agentId3").isPresent());
+    }
+
+    @Test
+    public void test_compareAndSetAll_changesEveryAgent_whenAllVersionsMatch() {
+        val onChange = mock(Runnable.class);
+        val expectedVersions = new HashMap<String, Long>();
+        expectedVersions.put("agentId1", 0L);
+        expectedVersions.put("agentId3", NO_VERSION);
+        assertTrue(subject.compareAndSetAll(expectedVersions, Arrays.asList(
+                new TaskAllocationDetail("agentId1", Collections.emptyList(), TaskPriority.LOW, now, 1),
+                new TaskAllocationDetail("agentId3", Arrays.asList("taskId4"), TaskPriority.HIGH, now, 0)), onChange).isEmpty());
+
+        verify(onChange, times(1)).run();
+        assertFalse(subject.findByAgentId("agentId1").isPresent());
+        assertEquals(Optional.of(TaskPriority.HIGH), priorityOf("agentId3"));
+    }
+
+    @Test
+    public void test_compareAndSetAll_changesNoAgent_whenAnyVersionChanged() {
+        val onChange = mock(Runnable.class);
+        val expectedVersions = new HashMap<String, Long>();
+        expectedVersions.put("agentId1", 0L);
+        expectedVersions.put("agentId2", 2L);
+        assertEquals(Collections.singleton("agentId2"), subject.compareAndSetAll(expectedVersions, Arrays.asList(
+                new TaskAllocationDetail("agentId1", Collections.emptyList(), TaskPriority.LOW, now, 1),
+                new TaskAllocationDetail("agentId2", Arrays.asList("taskId2"), TaskPriority.LOW, now, 3)), onChange));
+
+        verifyZeroInteractions(onChange);
+        assertEquals(Optional.of(TaskPriority.LOW), priorityOf("agentId1"));
+        assertEquals(Optional.of(TaskPriority.HIGH), priorityOf("agentId2"));
+    }
+    //endregion
+
+    //region private
+    private Optional<TaskPriority> priorityOf(String agentId) {
+        return subject.findByAgentId(agentId).map(TaskAllocationDetail::getTaskPriority);
+    }
+
+    private void rosterOf(Agent... agents) {
+        when(agentSkillIndex.findAll()).thenReturn(Arrays.asList(agents));
+        subject.reindex();
+    }
+
+    private static Agent agent(String agentId, int skillMask) {
+        return new Agent(agentId, agentId, (skillMask & 0b001) != 0, (skillMask & 0b010) != 0, (skillMask & 0b100) != 0);
+    }
+    //endregion
+}
@@ -0,0 +1,105 @@
+package ffam.task.domain;
+
+import ffam.task.data.AllocationChange;
+import ffam.task.data.AllocationJournal;
+import ffam.task.data.PendingAllocationChanges;
+import ffam.task.data.TaskAllocationDetailRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class AllocationFlusherTest {
+    private AllocationJournal allocationJournal;
+    private TaskAllocationDetailRepository taskAllocationDetailRepository;
+    private AgentOccupancyEngine agentOccupancyEngine;
+    private MeterRegistry meterRegistry;
+    private AllocationFlusher subject;
+
+    private final List<AllocationChange> changes = Arrays.asList(
+            AllocationChange.added(new TaskAllocationDetail("agentId1", Collections.singletonList("taskId1"), TaskPriority.LOW, ZonedDateTime.now(), 0),
+                    "taskId1", TaskPriority.LOW),
+            AllocationChange.removed(new TaskAllocationDetail("agentId2", Collections.emptyList(), TaskPriority.LOW, ZonedDateTime.now(), 3),
+                    "taskId2"));
+
+    @Before
+    public void setUp() {
+        allocationJournal = mock(AllocationJournal.class, RETURNS_SMART_NULLS);
+        taskAllocationDetailRepository = mock(TaskAllocationDetailRepository.class, RETURNS_SMART_NULLS);
+        agentOccupancyEngine = mock(AgentOccupancyEngine.class, RETURNS_SMART_NULLS);
+        meterRegistry = new SimpleMeterRegistry();
+        subject = new AllocationFlusher(allocationJournal, taskAllocationDetailRepository, agentOccupancyEngine, meterRegistry);
+        when(allocationJournal.isEnabled()).thenReturn(true);
+    }
+
+    //region recover
+    @Test
+    public void test_recover_writesLeftoverChangesAndRebuildsOccupancy() {
+        when(allocationJournal.recover()).thenReturn(changes);
+        subject.recover();
+
+        val inOrder = inOrder(taskAllocationDetailRepository, allocationJournal, agentOccupancyEngine);
+        inOrder.verify(taskAllocationDetailRepository, times(1)).applyChanges(changes);
+        inOrder.verify(allocationJournal, times(1)).discard(0);
+        inOrder.verify(agentOccupancyEngine, times(1)).rebuild();
+    }
+
+    @Test
+    public void test_recover_doesNothing_whenJournalEmpty() {
+        when(allocationJournal.recover()).thenReturn(Collections.emptyList());
+        subject.recover();
+
+        verifyZeroInteractions(taskAllocationDetailRepository, agentOccupancyEngine);
+    }
+    //endregion
+
+    //region flush
+    @Test
+    public void test_flush_writesPendingChangesThenDiscardsTheirSegments() {
+        when(allocationJournal.takePending()).thenReturn(new PendingAllocationChanges(changes, 7));
+        when(taskAllocationDetailRepository.applyChanges(changes)).thenReturn(2);
+        subject.flush();
+
+        val inOrder = inOrder(taskAllocationDetailRepository, allocationJournal);
+        inOrder.verify(taskAllocationDetailRepository, times(1)).applyChanges(changes);
+        inOrder.verify(allocationJournal, times(1)).discard(7);
+        assertEquals(2, meterRegistry.get(AllocationFlusher.FLUSH_AGENTS).summary().totalAmount(), 0);
+    }
+
+    @Test
+    public void test_flush_keepsChangesForNextFlush_whenDatabaseUnavailable() {
+        val pending = new PendingAllocationChanges(changes, 7);
+        when(allocationJournal.takePending()).thenReturn(pending);
+        when(taskAllocationDetailRepository.applyChanges(changes)).thenThrow(new DataAccessResourceFailureException("down"));
+        subject.flush();
+
+        verify(allocationJournal, times(1)).restore(pending);
+        verify(allocationJournal, never()).discard(anyLong());
+        assertEquals(1, meterRegistry.get(AllocationFlusher.FLUSH_FAILURES).counter().count(), 0);
+    }
+
+    @Test
+    public void test_flush_doesNothing_whenWriteBehindDisabled() {
+        when(allocationJournal.isEnabled()).thenReturn(false);
+        subject.flush();
+
+        verify(allocationJournal, never()).takePending();
+        verify(taskAllocationDetailRepository, never()).applyChanges(anyList());
+    }
+    //endregion
+}
@@ -0,0 +1,52 @@
+package ffam.task.domain;
+
+import ffam.agent.data.Agent;
+import ffam.agent.data.AgentSkillIndex;
+import ffam.agent.data.SkillMask;
+import ffam.task.data.TaskAllocationDetailRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class FirstIdleAssignmentStrategyTest {
+    private final Agent captainMarvel = new Agent("agentId1", "CaptainMarvel", true, true, true);
+    private final Agent drStrange = new Agent("agentId2", "DrStrange", true, false, false);
+
+    private AgentOccupancyEngine agentOccupancyEngine;
+    private FirstIdleAssignmentStrategy subject;
+
+    @Before
+    public void setUp() {
+        TaskAllocationDetailRepository taskAllocationDetailRepository = mock(TaskAllocationDetailRepository.class, RETURNS_SMART_NULLS);
+        when(taskAllocationDetailRepository.findAll()).thenReturn(Collections.emptyList());
+        AgentSkillIndex agentSkillIndex = mock(AgentSkillIndex.class, RETURNS_SMART_NULLS);
+        when(agentSkillIndex.findAll()).thenReturn(Arrays.asList(captainMarvel, drStrange));
+        agentOccupancyEngine = new AgentOccupancyEngine(taskAllocationDetailRepository, agentSkillIndex);
+        agentOccupancyEngine.rebuild();
+        subject = new FirstIdleAssignmentStrategy(agentOccupancyEngine);
+    }
+
+    //region select
+    @Test
+    public void test_select_returnsFirstIdleAgentInRosterOrder() {
+        int requiredMask = SkillMask.of(true, false, false);
+
+        assertEquals(Optional.of(captainMarvel), subject.select(requiredMask));
+        assertEquals(Optional.of(drStrange), subject.select(requiredMask, agentId -> agentId.equals("agentId1")));
+        agentOccupancyEngine.update(new TaskAllocationDetail("agentId1", Collections.singletonList("taskId"),
+                TaskPriority.LOW, ZonedDateTime.now(), 0));
+        assertEquals(Optional.of(drStrange), subject.select(requiredMask));
+        assertEquals(Optional.empty(), subject.select(SkillMask.ALL));
+    }
+    //endregion
+}
@@ -0,0 +1,84 @@
+package ffam.task.domain;
+
+import ffam.agent.data.Agent;
+import ffam.agent.data.AgentSkillIndex;
+import ffam.agent.data.SkillMask;
+import ffam.task.data.TaskAllocationDetailRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class ScarcityAwareAssignmentStrategyTest {
+    private final Agent captainMarvel = new Agent("agentId1", "CaptainMarvel", true, true, true);
+    private final Agent thor = new Agent("agentId2", "Thor", true, true, false);
+    private final Agent ironMan = new Agent("agentId3", "IronMan", true, false, true);
+    private final Agent drStrange = new Agent("agentId4", "DrStrange", true, false, false);
+
+    private AgentOccupancyEngine agentOccupancyEngine;
+    private ScarcityAwareAssignmentStrategy subject;
+
+    @Before
+    public void setUp() {
+        TaskAllocationDetailRepository taskAllocationDetailRepository = mock(TaskAllocationDetailRepository.class, RETURNS_SMART_NULLS);
+        when(taskAllocationDetailRepository.findAll()).thenReturn(Collections.emptyList());
+        AgentSkillIndex agentSkillIndex = mock(AgentSkillIndex.class, RETURNS_SMART_NULLS);
+        when(agentSkillIndex.findAll()).thenReturn(Arrays.asList(captainMarvel, thor, ironMan, drStrange));
+        agentOccupancyEngine = new AgentOccupancyEngine(taskAllocationDetailRepository, agentSkillIndex);
+        agentOccupancyEngine.rebuild();
+        subject = new ScarcityAwareAssignmentStrategy(agentOccupancyEngine);
+    }
+
+    //region select
+    @Test
+    public void test_select_prefersAgentWithFewestSurplusSkills_rosterOrderAmongEquals() {
+        int requiredMask = SkillMask.of(true, false, false);
+
+        assertEquals(Optional.of(drStrange), subject.select(requiredMask));
+        busy(drStrange);
+        assertEquals(Optional.of(thor), subject.select(requiredMask));
+        busy(thor);
+        assertEquals(Optional.of(ironMan), subject.select(requiredMask));
+        busy(ironMan);
+        assertEquals(Optional.of(captainMarvel), subject.select(requiredMask));
+        busy(captainMarvel);
+        assertEquals(Optional.empty(), subject.select(requiredMask));
+    }
+
+    @Test
+    public void test_select_passesOverExcludedAgents() {
+        assertEquals(Optional.of(ironMan), subject.select(SkillMask.of(true, false, false),
+                agentId -> agentId.equals("agentId4") || agentId.equals("agentId2")));
+    }
+
+    @Test
+    public void test_select_takesTheGeneralist_whenOnlyTheyHaveTheSkills() {
+        assertEquals(Optional.of(captainMarvel), subject.select(SkillMask.ALL));
+    }
+    //endregion
+
+    //region tiersBySurplusSkills
+    @Test
+    public void test_tiersBySurplusSkills_groupsCoveringSkillMasksBySurplusSkills() {
+        assertArrayEquals(new int[][]{{0b001}, {0b011, 0b101}, {0b111}}, ScarcityAwareAssignmentStrategy.tiersBySurplusSkills(0b001));
+        assertArrayEquals(new int[][]{{0b111}}, ScarcityAwareAssignmentStrategy.tiersBySurplusSkills(SkillMask.ALL));
+    }
+    //endregion
+
+    //region private
+    private void busy(Agent agent) {
+        agentOccupancyEngine.update(new TaskAllocationDetail(agent.getAgentId(), Collections.singletonList("taskId"),
+                TaskPriority.LOW, ZonedDateTime.now(), 0));
+    }
+    //endregion
+}
@@ -1,5 +1,8 @@
 package ffam.task.domain;
 
+import ffam.general.ZonedDateTimeProvider;
+import ffam.task.data.AllocationChange;
+import ffam.task.data.AllocationJournal;
 import ffam.task.data.TaskAllocationDetailRepository;
 import lombok.val;
 import org.junit.Before;
@@ -8,143 +11,266 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.time.ZonedDateTime;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
+import java.util.Collections;
 import java.util.Optional;
 
-import static org.junit.Assert.assertEquals;
+import static ffam.task.data.TaskAllocationDetailRepository.NO_VERSION;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @RunWith(JUnit4.class)
 public class TaskAllocationDetailUseCaseTest {
     private TaskAllocationDetailRepository taskAllocationDetailRepository;
+    private AgentOccupancyEngine agentOccupancyEngine;
+    private ZonedDateTimeProvider zonedDateTimeProvider;
+    private AllocationJournal allocationJournal;
     private TaskAllocationDetailUseCase subject;
 
+    private final ZonedDateTime now = ZonedDateTime.now();
+
     @Before
     public void setUp(){
         taskAllocationDetailRepository = mock(TaskAllocationDetailRepository.class, RETURNS_SMART_NULLS);
-        subject = new TaskAllocationDetailUseCase(taskAllocationDetailRepository);
+        agentOccupancyEngine = mock(AgentOccupancyEngine.class, RETURNS_SMART_NULLS);
+        zonedDateTimeProvider = mock(ZonedDateTimeProvider.class, RETURNS_SMART_NULLS);
+        allocationJournal = mock(AllocationJournal.class, RETURNS_SMART_NULLS);
+        subject = new TaskAllocationDetailUseCase(taskAllocationDetailRepository, agentOccupancyEngine, zonedDateTimeProvider, allocationJournal);
+        when(zonedDateTimeProvider.now()).thenReturn(now);
     }
 
     //region createOrUpdate
     @Test
-    public void test_createOrUpdate_callsCreate_whenNoPreviousTasksForAgentPresent(){
-        when(taskAllocationDetailRepository.findByAgentId("agentId1")).thenReturn(Optional.empty());
-        when(taskAllocationDetailRepository.create("agentId1", "taskId1", TaskPriority.HIGH)).thenReturn(true);
+    public void test_createOrUpdate_insertsRow_whenNoPreviousTasksForAgentPresent(){
+        when(agentOccupancyEngine.findByAgentId("agentId1")).thenReturn(Optional.empty());
+        when(taskAllocationDetailRepository.addTask("agentId1", "taskId1", TaskPriority.HIGH, now, NO_VERSION)).thenReturn(true);
         assertTrue(subject.createOrUpdate("agentId1", "taskId1", TaskPriority.HIGH));
 
-        verify(taskAllocationDetailRepository, times(1)).findByAgentId("agentId1");
-        verify(taskAllocationDetailRepository, times(1)).create("agentId1", "taskId1", TaskPriority.HIGH);
+        verify(taskAllocationDetailRepository, times(1)).addTask("agentId1", "taskId1", TaskPriority.HIGH, now, NO_VERSION);
         verifyNoMoreInteractions(taskAllocationDetailRepository);
 
+        verify(agentOccupancyEngine, times(1)).findByAgentId("agentId1");
+        verify(agentOccupancyEngine, times(1)).update(new TaskAllocationDetail("agentId1", Collections.singletonList("taskId1"), TaskPriority.HIGH, now, 0));
+        verifyNoMoreInteractions(agentOccupancyEngine);
     }
 
     @Test
-    public void test_createOrUpdate_callsUpdate_whenPreviousTasksForAgentPresent(){
-        List<String> taskIdList = new ArrayList<>();
-        taskIdList.add("taskId1");
-        taskIdList.add("taskId2");
-
-        val taskAllocationDetail = new TaskAllocationDetail("agentId1", taskIdList, TaskPriority.LOW, ZonedDateTime.now().minusDays(3));
-        when(taskAllocationDetailRepository.findByAgentId("agentId1")).thenReturn(Optional.of(taskAllocationDetail));
-        when(taskAllocationDetailRepository.update("agentId1", TaskPriority.HIGH, Arrays.asList("taskId1", "taskId2", "taskId3"), Optional.empty())).thenReturn(true);
+    public void test_createOrUpdate_addsTask_whenPreviousTasksForAgentPresent(){
+        val taskAllocationDetail = new TaskAllocationDetail("agentId1", Arrays.asList("taskId1", "taskId2"), TaskPriority.LOW, ZonedDateTime.now().minusDays(3), 4);
+        when(agentOccupancyEngine.findByAgentId("agentId1")).thenReturn(Optional.of(taskAllocationDetail));
+        when(taskAllocationDetailRepository.addTask("agentId1", "taskId3", TaskPriority.HIGH, now, 4)).thenReturn(true);
         assertTrue(subject.createOrUpdate("agentId1", "taskId3", TaskPriority.HIGH));
 
+        verify(taskAllocationDetailRepository, times(1)).addTask("agentId1", "taskId3", TaskPriority.HIGH, now, 4);
+        verifyNoMoreInteractions(taskAllocationDetailRepository);
+
+        verify(agentOccupancyEngine, times(1)).findByAgentId("agentId1");
+        verify(agentOccupancyEngine, times(1)).update(new TaskAllocationDetail("agentId1", Arrays.asList("taskId1", "taskId2", "taskId3"), TaskPriority.HIGH, now, 5));
+        verifyNoMoreInteractions(agentOccupancyEngine);
+    }
+
+    @Test
+    public void test_createOrUpdate_reloadsAndRetries_whenRowChangedConcurrently(){
+        val concurrentlyCreated = Optional.of(new TaskAllocationDetail("agentId1", Arrays.asList("taskId2"), TaskPriority.LOW, now.minusSeconds(1), 0));
+        when(agentOccupancyEngine.findByAgentId("agentId1")).thenReturn(Optional.empty());
+        when(taskAllocationDetailRepository.addTask("agentId1", "taskId1", TaskPriority.HIGH, now, NO_VERSION)).thenReturn(false);
+        when(taskAllocationDetailRepository.findByAgentId("agentId1")).thenReturn(concurrentlyCreated);
+        when(taskAllocationDetailRepository.addTask("agentId1", "taskId1", TaskPriority.HIGH, now, 0)).thenReturn(true);
+        assertTrue(subject.createOrUpdate("agentId1", "taskId1", TaskPriority.HIGH));
+
+        verify(taskAllocationDetailRepository, times(1)).addTask("agentId1", "taskId1", TaskPriority.HIGH, now, NO_VERSION);
         verify(taskAllocationDetailRepository, times(1)).findByAgentId("agentId1");
-        verify(taskAllocationDetailRepository, times(1)).update("agentId1", TaskPriority.HIGH, Arrays.asList("taskId1", "taskId2", "taskId3"), Optional.empty());
+        verify(taskAllocationDetailRepository, times(1)).addTask("agentId1", "taskId1", TaskPriority.HIGH, now, 0);
         verifyNoMoreInteractions(taskAllocationDetailRepository);
+
+        verify(agentOccupancyEngine, times(1)).reset("agentId1", concurrentlyCreated);
+        verify(agentOccupancyEngine, times(1)).update(new TaskAllocationDetail("agentId1", Arrays.asList("taskId2", "taskId1"), TaskPriority.HIGH, now, 1));
+    }
+
+    @Test
+    public void test_createOrUpdate_givesUp_afterMaxAttempts(){
+        val taskAllocationDetail = Optional.of(new TaskAllocationDetail("agentId1", Arrays.asList("taskId2"), TaskPriority.LOW, now.minusSeconds(1), 0));
+        when(agentOccupancyEngine.findByAgentId("agentId1")).thenReturn(taskAllocationDetail);
+        when(taskAllocationDetailRepository.addTask(anyString(), anyString(), any(TaskPriority.class), any(ZonedDateTime.class), anyLong())).thenReturn(false);
+        when(taskAllocationDetailRepository.findByAgentId("agentId1")).thenReturn(taskAllocationDetail);
+        assertFalse(subject.createOrUpdate("agentId1", "taskId1", TaskPriority.HIGH));
+
+        verify(taskAllocationDetailRepository, times(TaskAllocationDetailUseCase.MAX_ATTEMPTS)).addTask(anyString(), anyString(), any(TaskPriority.class), any(ZonedDateTime.class), anyLong());
+        verify(agentOccupancyEngine, never()).update(any(TaskAllocationDetail.class));
     }
     //endregion
 
     //region deleteTask
     @Test
     public void test_deleteTask_returnsFalse_whenNoPreviousTasksForAgentPresent(){
-        when(taskAllocationDetailRepository.findByAgentId("agentId1")).thenReturn(Optional.empty());
+        when(agentOccupancyEngine.findByAgentId("agentId1")).thenReturn(Optional.empty());
         assertFalse(subject.deleteTask("agentId1", "taskId3", TaskPriority.HIGH));
 
-        verify(taskAllocationDetailRepository, times(1)).findByAgentId("agentId1");
-        verifyNoMoreInteractions(taskAllocationDetailRepository);
+        verify(agentOccupancyEngine, times(1)).findByAgentId("agentId1");
+        verifyNoMoreInteractions(agentOccupancyEngine);
+        verifyZeroInteractions(taskAllocationDetailRepository);
     }
 
     @Test
     public void test_deleteTask_returnsFalse_whenPreviousTasksForAgentPresentButTaskIdDoesNotExist(){
-        List<String> taskIdList = new ArrayList<>();
-        taskIdList.add("taskId1");
-        taskIdList.add("taskId2");
-
-        val taskAllocationDetail = new TaskAllocationDetail("agentId1", taskIdList, TaskPriority.LOW, ZonedDateTime.now().minusDays(3));
-        when(taskAllocationDetailRepository.findByAgentId("agentId1")).thenReturn(Optional.of(taskAllocationDetail));
+        val taskAllocationDetail = new TaskAllocationDetail("agentId1", Arrays.asList("taskId1", "taskId2"), TaskPriority.LOW, ZonedDateTime.now().minusDays(3), 0);
+        when(agentOccupancyEngine.findByAgentId("agentId1")).thenReturn(Optional.of(taskAllocationDetail));
         assertFalse(subject.deleteTask("agentId1", "taskId3", TaskPriority.HIGH));
 
-        verify(taskAllocationDetailRepository, times(1)).findByAgentId("agentId1");
-        verifyNoMoreInteractions(taskAllocationDetailRepository);
+        verify(agentOccupancyEngine, times(1)).findByAgentId("agentId1");
+        verifyNoMoreInteractions(agentOccupancyEngine);
+        verifyZeroInteractions(taskAllocationDetailRepository);
     }
 
     @Test
     public void test_deleteTask_callsDelete_whenPreviousTasksAndTaskIdPresentAndIsOnlyTask(){
-        List<String> taskIdList = new ArrayList<>();
-        taskIdList.add("taskId1");
-
-        val taskAllocationDetail = new TaskAllocationDetail("agentId1", taskIdList, TaskPriority.LOW, ZonedDateTime.now().minusDays(3));
-        when(taskAllocationDetailRepository.findByAgentId("agentId1")).thenReturn(Optional.of(taskAllocationDetail));
-        when(taskAllocationDetailRepository.delete("agentId1")).thenReturn(true);
+        val taskAllocationDetail = new TaskAllocationDetail("agentId1", Arrays.asList("taskId1"), TaskPriority.LOW, ZonedDateTime.now().minusDays(3), 2);
+        when(agentOccupancyEngine.findByAgentId("agentId1")).thenReturn(Optional.of(taskAllocationDetail));
+        when(taskAllocationDetailRepository.delete("agentId1", 2)).thenReturn(true);
         assertTrue(subject.deleteTask("agentId1", "taskId1", TaskPriority.HIGH));
 
-        verify(taskAllocationDetailRepository, times(1)).findByAgentId("agentId1");
-        verify(taskAllocationDetailRepository, times(1)).delete("agentId1");
+        verify(taskAllocationDetailRepository, times(1)).delete("agentId1", 2);
         verifyNoMoreInteractions(taskAllocationDetailRepository);
+
+        verify(agentOccupancyEngine, times(1)).findByAgentId("agentId1");
+        verify(agentOccupancyEngine, times(1)).release("agentId1", 2);
+        verifyNoMoreInteractions(agentOccupancyEngine);
     }
 
     @Test
-    public void test_deleteTask_callsUpdate_whenPreviousTasksAndTaskIdPresentAndMultipleTasks(){
-        List<String> taskIdList = new ArrayList<>();
-        taskIdList.add("taskId1");
-        taskIdList.add("taskId2");
-
-        val taskAllocationDetail = new TaskAllocationDetail("agentId1", taskIdList, TaskPriority.LOW, ZonedDateTime.now().minusDays(3));
-        when(taskAllocationDetailRepository.findByAgentId("agentId1")).thenReturn(Optional.of(taskAllocationDetail));
-        when(taskAllocationDetailRepository.update("agentId1", TaskPriority.LOW, Arrays.asList("taskId2"), Optional.of(taskAllocationDetail.getDateCreated()))).thenReturn(true);
+    public void test_deleteTask_callsRemoveTask_whenPreviousTasksAndTaskIdPresentAndMultipleTasks(){
+        val taskAllocationDetail = new TaskAllocationDetail("agentId1", Arrays.asList("taskId1", "taskId2"), TaskPriority.LOW, ZonedDateTime.now().minusDays(3), 1);
+        when(agentOccupancyEngine.findByAgentId("agentId1")).thenReturn(Optional.of(taskAllocationDetail));
+        when(taskAllocationDetailRepository.removeTask("agentId1", "taskId1", TaskPriority.LOW, 1)).thenReturn(true);
         assertTrue(subject.deleteTask("agentId1", "taskId1", TaskPriority.HIGH));
 
-        verify(taskAllocationDetailRepository, times(1)).findByAgentId("agentId1");
-        verify(taskAllocationDetailRepository, times(1)).update("agentId1", TaskPriority.LOW, Arrays.asList("taskId2"), Optional.of(taskAllocationDetail.getDateCreated()));
+        verify(taskAllocationDetailRepository, times(1)).removeTask("agentId1", "taskId1", TaskPriority.LOW, 1);
         verifyNoMoreInteractions(taskAllocationDetailRepository);
+
+        verify(agentOccupancyEngine, times(1)).findByAgentId("agentId1");
+        verify(agentOccupancyEngine, times(1)).update(new TaskAllocationDetail("agentId1", Arrays.asList("taskId2"), TaskPriority.LOW, taskAllocationDetail.getDateCreated(), 2));
+        verifyNoMoreInteractions(agentOccupancyEngine);
     }
 
     @Test
-    public void test_deleteTask_callsUpdate_whenPreviousTasksHIGHAndTaskIdPresentLOWAndMultipleTasks(){
-        List<String> taskIdList = new ArrayList<>();
-        taskIdList.add("taskId1");
-        taskIdList.add("taskId2");
-
-        val taskAllocationDetail = new TaskAllocationDetail("agentId1", taskIdList, TaskPriority.HIGH, ZonedDateTime.now().minusDays(3));
-        when(taskAllocationDetailRepository.findByAgentId("agentId1")).thenReturn(Optional.of(taskAllocationDetail));
-        when(taskAllocationDetailRepository.update("agentId1", TaskPriority.HIGH, Arrays.asList("taskId2"), Optional.of(taskAllocationDetail.getDateCreated()))).thenReturn(true);
+    public void test_deleteTask_callsRemoveTask_whenPreviousTasksHIGHAndTaskIdPresentLOWAndMultipleTasks(){
+        val taskAllocationDetail = new TaskAllocationDetail("agentId1", Arrays.asList("taskId1", "taskId2"), TaskPriority.HIGH, ZonedDateTime.now().minusDays(3), 0);
+        when(agentOccupancyEngine.findByAgentId("agentId1")).thenReturn(Optional.of(taskAllocationDetail));
+        when(taskAllocationDetailRepository.removeTask("agentId1", "taskId1", TaskPriority.HIGH, 0)).thenReturn(true);
         assertTrue(subject.deleteTask("agentId1", "taskId1", TaskPriority.LOW));
 
-        verify(taskAllocationDetailRepository, times(1)).findByAgentId("agentId1");
-        verify(taskAllocationDetailRepository, times(1)).update("agentId1", TaskPriority.HIGH, Arrays.asList("taskId2"), Optional.of(taskAllocationDetail.getDateCreated()));
+        verify(taskAllocationDetailRepository, times(1)).removeTask("agentId1", "taskId1", TaskPriority.HIGH, 0);
+        verifyNoMoreInteractions(taskAllocationDetailRepository);
+
+        verify(agentOccupancyEngine, times(1)).update(new TaskAllocationDetail("agentId1", Arrays.asList("taskId2"), TaskPriority.HIGH, taskAllocationDetail.getDateCreated(), 1));
+    }
+
+    @Test
+    public void test_deleteTask_callsRemoveTask_whenPreviousTasksLOWAndTaskIdPresentLOWAndMultipleTasks(){
+        val taskAllocationDetail = new TaskAllocationDetail("agentId1", Arrays.asList("taskId1", "taskId2"), TaskPriority.LOW, ZonedDateTime.now().minusDays(3), 0);
+        when(agentOccupancyEngine.findByAgentId("agentId1")).thenReturn(Optional.of(taskAllocationDetail));
+        when(taskAllocationDetailRepository.removeTask("agentId1", "taskId1", TaskPriority.LOW, 0)).thenReturn(true);
+        assertTrue(subject.deleteTask("agentId1", "taskId1", TaskPriority.LOW));
+
+        verify(taskAllocationDetailRepository, times(1)).removeTask("agentId1", "taskId1", TaskPriority.LOW, 0);
         verifyNoMoreInteractions(taskAllocationDetailRepository);
+
+        verify(agentOccupancyEngine, times(1)).update(new TaskAllocationDetail("agentId1", Arrays.asList("taskId2"), TaskPriority.LOW, taskAllocationDetail.getDateCreated(), 1));
     }
 
     @Test
-    public void test_deleteTask_callsUpdate_whenPreviousTasksLOWAndTaskIdPresentLOWAndMultipleTasks(){
-        List<String> taskIdList = new ArrayList<>();
-        taskIdList.add("taskId1");
-        taskIdList.add("taskId2");
-
-        val taskAllocationDetail = new TaskAllocationDetail("agentId1", taskIdList, TaskPriority.LOW, ZonedDateTime.now().minusDays(3));
-        when(taskAllocationDetailRepository.findByAgentId("agentId1")).thenReturn(Optional.of(taskAllocationDetail));
-        when(taskAllocationDetailRepository.update("agentId1", TaskPriority.LOW, Arrays.asList("taskId2"), Optional.of(taskAllocationDetail.getDateCreated()))).thenReturn(true);
+    public void test_deleteTask_reloadsAndRetries_whenRowChangedConcurrently(){
+        val stale = new TaskAllocationDetail("agentId1", Arrays.asList("taskId1"), TaskPriority.LOW, now.minusDays(1), 0);
+        val current = Optional.of(new TaskAllocationDetail("agentId1", Arrays.asList("taskId1", "taskId2"), TaskPriority.HIGH, now, 1));
+        when(agentOccupancyEngine.findByAgentId("agentId1")).thenReturn(Optional.of(stale));
+        when(taskAllocationDetailRepository.delete("agentId1", 0)).thenReturn(false);
+        when(taskAllocationDetailRepository.findByAgentId("agentId1")).thenReturn(current);
+        when(taskAllocationDetailRepository.removeTask("agentId1", "taskId1", TaskPriority.HIGH, 1)).thenReturn(true);
         assertTrue(subject.deleteTask("agentId1", "taskId1", TaskPriority.LOW));
 
+        verify(taskAllocationDetailRepository, times(1)).delete("agentId1", 0);
         verify(taskAllocationDetailRepository, times(1)).findByAgentId("agentId1");
-        verify(taskAllocationDetailRepository, times(1)).update("agentId1", TaskPriority.LOW, Arrays.asList("taskId2"), Optional.of(taskAllocationDetail.getDateCreated()));
+        verify(taskAllocationDetailRepository, times(1)).removeTask("agentId1", "taskId1", TaskPriority.HIGH, 1);
         verifyNoMoreInteractions(taskAllocationDetailRepository);
+
+        verify(agentOccupancyEngine, times(1)).reset("agentId1", current);
+        verify(agentOccupancyEngine, times(1)).update(new TaskAllocationDetail("agentId1", Arrays.asList("taskId2"), TaskPriority.HIGH, now, 2));
     }
 
+    @Test
+    public void test_deleteTask_returnsFalse_whenRowDeletedConcurrently(){
+        val stale = new TaskAllocationDetail("agentId1", Arrays.asList("taskId1", "taskId2"), TaskPriority.LOW, now.minusDays(1), 0);
+        when(agentOccupancyEngine.findByAgentId("agentId1")).thenReturn(Optional.of(stale));
+        when(taskAllocationDetailRepository.removeTask("agentId1", "taskId1", TaskPriority.LOW, 0)).thenReturn(false);
+        when(taskAllocationDetailRepository.findByAgentId("agentId1")).thenReturn(Optional.empty());
+        assertFalse(subject.deleteTask("agentId1", "taskId1", TaskPriority.LOW));
+
+        verify(agentOccupancyEngine, times(1)).reset("agentId1", Optional.empty());
+        verify(agentOccupancyEngine, never()).update(any(TaskAllocationDetail.class));
+    }
+    //endregion
+
+    //region write-behind
+    @Test
+    public void test_createOrUpdate_journalsChangeInsteadOfWritingRow_whenWriteBehindEnabled(){
+        val previous = new TaskAllocationDetail("agentId1", Arrays.asList("taskId1"), TaskPriority.LOW, now.minusDays(1), 4);
+        val updated = new TaskAllocationDetail("agentId1", Arrays.asList("taskId1", "taskId2"), TaskPriority.HIGH, now, 5);
+        when(allocationJournal.isEnabled()).thenReturn(true);
+        when(agentOccupancyEngine.findByAgentId("agentId1")).thenReturn(Optional.of(previous));
+        whenCompareAndSet(4, updated, true);
+        assertTrue(subject.createOrUpdate("agentId1", "taskId2", TaskPriority.HIGH));
+
+        verify(allocationJournal, times(1)).append(Collections.singletonList(AllocationChange.added(updated, "taskId2", TaskPriority.HIGH)));
+        verify(allocationJournal, times(1)).sync();
+        verify(agentOccupancyEngine, never()).update(any(TaskAllocationDetail.class));
+        verifyZeroInteractions(taskAllocationDetailRepository);
+    }
+
+    @Test
+    public void test_createOrUpdate_retriesFromOccupancy_whenAgentChangedConcurrentlyAndWriteBehindEnabled(){
+        val concurrentlyCreated = new TaskAllocationDetail("agentId1", Arrays.asList("taskId2"), TaskPriority.LOW, now.minusSeconds(1), 0);
+        val updated = new TaskAllocationDetail("agentId1", Arrays.asList("taskId2", "taskId1"), TaskPriority.HIGH, now, 1);
+        when(allocationJournal.isEnabled()).thenReturn(true);
+        when(agentOccupancyEngine.findByAgentId("agentId1")).thenReturn(Optional.empty()).thenReturn(Optional.of(concurrentlyCreated));
+        whenCompareAndSet(NO_VERSION, new TaskAllocationDetail("agentId1", Arrays.asList("taskId1"), TaskPriority.HIGH, now, 0), false);
+        whenCompareAndSet(0, updated, true);
+        assertTrue(subject.createOrUpdate("agentId1", "taskId1", TaskPriority.HIGH));
+
+        verify(allocationJournal, times(1)).append(Collections.singletonList(AllocationChange.added(updated, "taskId1", TaskPriority.HIGH)));
+        verify(agentOccupancyEngine, never()).reset(anyString(), any());
+        verifyZeroInteractions(taskAllocationDetailRepository);
+    }
+
+    @Test
+    public void test_deleteTask_journalsRelease_whenOnlyTaskAndWriteBehindEnabled(){
+        val previous = new TaskAllocationDetail("agentId1", Arrays.asList("taskId1"), TaskPriority.HIGH, now.minusDays(1), 2);
+        val released = new TaskAllocationDetail("agentId1", Collections.emptyList(), TaskPriority.LOW, previous.getDateCreated(), 3);
+        when(allocationJournal.isEnabled()).thenReturn(true);
+        when(agentOccupancyEngine.findByAgentId("agentId1")).thenReturn(Optional.of(previous));
+        whenCompareAndSet(2, released, true);
+        assertTrue(subject.deleteTask("agentId1", "taskId1", TaskPriority.HIGH));
+
+        verify(allocationJournal, times(1)).append(Collections.singletonList(AllocationChange.removed(released, "taskId1")));
+        verify(allocationJournal, times(1)).sync();
+        verify(agentOccupancyEngine, never()).release(anyString(), anyLong());
+        verifyZeroInteractions(taskAllocationDetailRepository);
+    }
+    //endregion
+
+    //region private
+    // The occupancy runs the journal append when it takes the change
+    private void whenCompareAndSet(long expectedVersion, TaskAllocationDetail updated, boolean changed) {
+        doAnswer(invocation -> {
+            if (changed) {
+                ((Runnable) invocation.getArgument(3)).run();
+            }
+            return changed;
+        }).when(agentOccupancyEngine).compareAndSet(eq("agentId1"), eq(expectedVersion), eq(updated), any(Runnable.class));
+    }
     //endregion
-}
\ No newline at end of file
+}
@@ -0,0 +1,66 @@
+package ffam.task.domain;
+
+import ffam.general.ZonedDateTimeProvider;
+import ffam.task.data.TaskRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.time.ZonedDateTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class TaskArchiverTest {
+    private TaskRepository taskRepository;
+    private ZonedDateTimeProvider zonedDateTimeProvider;
+    private MeterRegistry meterRegistry;
+    private TaskArchiver subject;
+
+    private final ZonedDateTime now = ZonedDateTime.now();
+
+    @Before
+    public void setUp() {
+        taskRepository = mock(TaskRepository.class, RETURNS_SMART_NULLS);
+        zonedDateTimeProvider = mock(ZonedDateTimeProvider.class, RETURNS_SMART_NULLS);
+        meterRegistry = new SimpleMeterRegistry();
+        subject = new TaskArchiver(true, 24, 500, taskRepository, zonedDateTimeProvider, meterRegistry);
+        when(zonedDateTimeProvider.now()).thenReturn(now);
+    }
+
+    //region archive
+    @Test
+    public void test_archive_movesOneBatchCompletedBeforeRetentionWindow() {
+        when(taskRepository.archiveCompleted(now.minusHours(24), 500)).thenReturn(500);
+        subject.archive();
+
+        verify(taskRepository, times(1)).archiveCompleted(now.minusHours(24), 500);
+        assertEquals(500, meterRegistry.get(TaskArchiver.ARCHIVED).counter().count(), 0);
+        assertEquals(1, meterRegistry.get(TaskArchiver.BATCH).timer().count());
+    }
+
+    @Test
+    public void test_archive_countsFailure_whenDatabaseUnavailable() {
+        when(taskRepository.archiveCompleted(any(ZonedDateTime.class), anyInt())).thenThrow(new DataAccessResourceFailureException("down"));
+        subject.archive();
+
+        assertEquals(1, meterRegistry.get(TaskArchiver.FAILURES).counter().count(), 0);
+        assertEquals(0, meterRegistry.get(TaskArchiver.ARCHIVED).counter().count(), 0);
+    }
+
+    @Test
+    public void test_archive_doesNothing_whenDisabled() {
+        subject = new TaskArchiver(false, 24, 500, taskRepository, zonedDateTimeProvider, new SimpleMeterRegistry());
+        subject.archive();
+
+        verifyZeroInteractions(taskRepository);
+    }
+    //endregion
+}
@@ -0,0 +1,186 @@
+package ffam.task.domain;
+
+import ffam.agent.data.Agent;
+import ffam.agent.data.AgentSkillIndex;
+import ffam.agent.data.SkillMask;
+import ffam.general.UuidGenerator;
+import ffam.general.ZonedDateTimeProvider;
+import ffam.task.api.TaskBatchItemResponse;
+import ffam.task.api.TaskRequest;
+import ffam.task.api.TaskRequestValidationErrorResponse;
+import ffam.task.api.TaskRequestValidator;
+import lombok.val;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+import static ffam.task.data.TaskAllocationDetailRepository.NO_VERSION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class TaskBatchPlannerTest {
+    private TaskRequestValidator taskRequestValidator;
+    private AgentSkillIndex agentSkillIndex;
+    private AgentOccupancyEngine agentOccupancyEngine;
+    private UuidGenerator uuidGenerator;
+    private ZonedDateTimeProvider zonedDateTimeProvider;
+    private TaskBatchPlanner subject;
+
+    private final ZonedDateTime now = ZonedDateTime.now();
+    private final UUID uuid1 = UUID.randomUUID();
+    private final UUID uuid2 = UUID.randomUUID();
+
+    private final Agent agent1 = new Agent("agentId1", "agentName1", true, false, false);
+    private final Agent agent2 = new Agent("agentId2", "agentName2", true, true, false);
+
+    @Before
+    public void setUp() {
+        taskRequestValidator = mock(TaskRequestValidator.class, RETURNS_SMART_NULLS);
+        agentSkillIndex = mock(AgentSkillIndex.class, RETURNS_SMART_NULLS);
+        agentOccupancyEngine = mock(AgentOccupancyEngine.class, RETURNS_SMART_NULLS);
+        uuidGenerator = mock(UuidGenerator.class, RETURNS_SMART_NULLS);
+        zonedDateTimeProvider = mock(ZonedDateTimeProvider.class, RETURNS_SMART_NULLS);
+        subject = new TaskBatchPlanner(taskRequestValidator, agentSkillIndex, agentOccupancyEngine, uuidGenerator, zonedDateTimeProvider,
+                new FirstIdleAssignmentStrategy(agentOccupancyEngine));
+
+        when(zonedDateTimeProvider.now()).thenReturn(now);
+        when(uuidGenerator.randomUUID()).thenReturn(uuid1, uuid2);
+        when(taskRequestValidator.isValid(any())).thenReturn(Optional.empty());
+        when(agentOccupancyEngine.findByAgentId(anyString())).thenReturn(Optional.empty());
+        when(agentSkillIndex.findSkillMask("agentId1")).thenReturn(OptionalInt.of(SkillMask.of(agent1)));
+        when(agentSkillIndex.findSkillMask("agentId2")).thenReturn(OptionalInt.of(SkillMask.of(agent2)));
+    }
+
+    //region plan
+    @Test
+    public void test_plan_returnsItemErrors_whenRequestInvalidOrNoAgentHasTheSkills() {
+        val invalid = new TaskRequest(null, true, false, false);
+        val unskilled = new TaskRequest(TaskPriority.LOW, false, false, true);
+        when(taskRequestValidator.isValid(invalid)).thenReturn(Optional.of(new TaskRequestValidationErrorResponse("V001", "Priority is Invalid")));
+        when(agentSkillIndex.findBySkillSet(false, false, true)).thenReturn(Collections.emptyList());
+
+        val taskBatchPlan = subject.plan(Arrays.asList(invalid, unskilled));
+
+        assertEquals(Arrays.asList(
+                TaskBatchItemResponse.error("V001", "Priority is Invalid"),
+                TaskBatchItemResponse.error("V004", "No Agents Available with the SkillSet")),
+                taskBatchPlan.getResponses());
+        assertTrue(taskBatchPlan.getPlannedAllocations().isEmpty());
+        verifyZeroInteractions(uuidGenerator);
+    }
+
+    @Test
+    public void test_plan_givesEachTaskItsOwnIdleAgent() {
+        val taskRequest = new TaskRequest(TaskPriority.LOW, true, false, false);
+        when(agentSkillIndex.findBySkillSet(true, false, false)).thenReturn(Arrays.asList(agent1, agent2));
+        idle(agent1, agent2);
+
+        val taskBatchPlan = subject.plan(Arrays.asList(taskRequest, taskRequest));
+
+        assertEquals(Arrays.asList(
+                TaskBatchItemResponse.of(uuid1.toString(), "agentId1", TaskStatus.IN_PROGRESS),
+                TaskBatchItemResponse.of(uuid2.toString(), "agentId2", TaskStatus.IN_PROGRESS)),
+                taskBatchPlan.getResponses());
+        assertEquals(Arrays.asList(
+                new PlannedAllocation(
+                        new TaskAllocationDetail("agentId1", Collections.singletonList(uuid1.toString()), TaskPriority.LOW, now, NO_VERSION + 1),
+                        NO_VERSION,
+                        Collections.singletonList(new Task(uuid1.toString(), TaskPriority.LOW, true, false, false, TaskStatus.IN_PROGRESS, "agentId1"))),
+                new PlannedAllocation(
+                        new TaskAllocationDetail("agentId2", Collections.singletonList(uuid2.toString()), TaskPriority.LOW, now, NO_VERSION + 1),
+                        NO_VERSION,
+                        Collections.singletonList(new Task(uuid2.toString(), TaskPriority.LOW, true, false, false, TaskStatus.IN_PROGRESS, "agentId2")))),
+                taskBatchPlan.getPlannedAllocations());
+    }
+
+    @Test
+    public void test_plan_returnsBusy_whenLowPriorityTaskHasNoIdleAgentLeft() {
+        val taskRequest = new TaskRequest(TaskPriority.LOW, true, false, false);
+        when(agentSkillIndex.findBySkillSet(true, false, false)).thenReturn(Collections.singletonList(agent1));
+        idle(agent1);
+
+        val taskBatchPlan = subject.plan(Arrays.asList(taskRequest, taskRequest));
+
+        assertEquals(TaskBatchItemResponse.error("V006", "All Agents are busy at this time"), taskBatchPlan.getResponses().get(1));
+        assertEquals(1, taskBatchPlan.getPlannedAllocations().size());
+    }
+
+    @Test
+    public void test_plan_preemptsLowPriorityTaskOfTheSameBatch_whenHighPriorityTaskHasNoIdleAgent() {
+        val low = new TaskRequest(TaskPriority.LOW, true, false, false);
+        val high = new TaskRequest(TaskPriority.HIGH, true, false, false);
+        when(agentSkillIndex.findBySkillSet(true, false, false)).thenReturn(Collections.singletonList(agent1));
+        idle(agent1);
+
+        val taskBatchPlan = subject.plan(Arrays.asList(low, high));
+
+        assertEquals(TaskBatchItemResponse.of(uuid2.toString(), "agentId1", TaskStatus.IN_PROGRESS), taskBatchPlan.getResponses().get(1));
+        assertEquals(1, taskBatchPlan.getPlannedAllocations().size());
+        val plannedAllocation = taskBatchPlan.getPlannedAllocations().get(0);
+        assertEquals(Arrays.asList(uuid1.toString(), uuid2.toString()), plannedAllocation.getTaskAllocationDetail().getTaskId());
+        assertEquals(TaskPriority.HIGH, plannedAllocation.getTaskAllocationDetail().getTaskPriority());
+        assertEquals(2, plannedAllocation.getAddedTasks().size());
+        verify(agentOccupancyEngine, never()).findPreemptionCandidate(anyInt(), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_plan_preemptsBusyAgentNotPlannedYet_whenHighPriorityTaskHasNoIdleAgent() {
+        val high = new TaskRequest(TaskPriority.HIGH, true, false, false);
+        val candidate = new TaskAllocationDetail("agentId2", Collections.singletonList("taskId1"), TaskPriority.LOW, now.minusHours(1), 4);
+        when(agentSkillIndex.findBySkillSet(true, false, false)).thenReturn(Arrays.asList(agent1, agent2));
+        idle();
+        when(agentOccupancyEngine.hasBusyAgents()).thenReturn(true);
+        when(agentOccupancyEngine.findPreemptionCandidate(eq(SkillMask.of(true, false, false)), any(Predicate.class))).thenReturn(Optional.of(candidate));
+        when(agentOccupancyEngine.findByAgentId("agentId2")).thenReturn(Optional.of(candidate));
+
+        val taskBatchPlan = subject.plan(Collections.singletonList(high));
+
+        assertEquals(TaskBatchItemResponse.of(uuid1.toString(), "agentId2", TaskStatus.IN_PROGRESS), taskBatchPlan.getResponses().get(0));
+        assertEquals(new PlannedAllocation(
+                        new TaskAllocationDetail("agentId2", Arrays.asList("taskId1", uuid1.toString()), TaskPriority.HIGH, now, 5),
+                        4,
+                        Collections.singletonList(new Task(uuid1.toString(), TaskPriority.HIGH, true, false, false, TaskStatus.IN_PROGRESS, "agentId2"))),
+                taskBatchPlan.getPlannedAllocations().get(0));
+    }
+
+    @Test
+    public void test_plan_returnsServerError_whenNoAgentIsIdleOrBusy() {
+        val high = new TaskRequest(TaskPriority.HIGH, true, false, false);
+        when(agentSkillIndex.findBySkillSet(true, false, false)).thenReturn(Collections.singletonList(agent1));
+        idle();
+        when(agentOccupancyEngine.hasBusyAgents()).thenReturn(false);
+
+        val taskBatchPlan = subject.plan(Collections.singletonList(high));
+
+        assertEquals(TaskBatchItemResponse.error("V007", "Internal Server Error"), taskBatchPlan.getResponses().get(0));
+        assertTrue(taskBatchPlan.getPlannedAllocations().isEmpty());
+    }
+    //endregion
+
+    //region private
+    // The engine hands out the first of these agents the planner did not exclude
+    @SuppressWarnings("unchecked")
+    private void idle(Agent... agents) {
+        when(agentOccupancyEngine.findIdleAgent(any(), any(Predicate.class))).thenAnswer(invocation -> {
+            Predicate<String> excluded = invocation.getArgument(1);
+            return Arrays.stream(agents).filter(agent -> !excluded.test(agent.getAgentId())).findFirst();
+        });
+    }
+    //endregion
+}
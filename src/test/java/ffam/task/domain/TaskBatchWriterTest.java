@@ -0,0 +1,221 @@
+package ffam.task.domain;
+
+import ffam.agent.data.AgentSkillIndex;
+import ffam.task.data.AllocationChange;
+import ffam.task.data.AllocationJournal;
+import ffam.task.data.TaskAllocationDetailRepository;
+import ffam.task.data.TaskRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static ffam.task.data.TaskAllocationDetailRepository.NO_VERSION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class TaskBatchWriterTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private TaskRepository taskRepository;
+    private TaskAllocationDetailRepository taskAllocationDetailRepository;
+    private AgentOccupancyEngine agentOccupancyEngine;
+    private AllocationJournal allocationJournal;
+    private TaskBatchWriter subject;
+
+    private final ZonedDateTime now = ZonedDateTime.now();
+    private final Task task1 = new Task("taskId1", TaskPriority.LOW, true, false, false, TaskStatus.IN_PROGRESS, "agentId1");
+    private final Task task2 = new Task("taskId2", TaskPriority.HIGH, true, false, false, TaskStatus.IN_PROGRESS, "agentId2");
+    private final PlannedAllocation newAgent = new PlannedAllocation(
+            new TaskAllocationDetail("agentId1", Collections.singletonList("taskId1"), TaskPriority.LOW, now, NO_VERSION + 1),
+            NO_VERSION,
+            Collections.singletonList(task1));
+    private final PlannedAllocation busyAgent = new PlannedAllocation(
+            new TaskAllocationDetail("agentId2", Arrays.asList("taskId0", "taskId2"), TaskPriority.HIGH, now, 3),
+            2,
+            Collections.singletonList(task2));
+
+    @Before
+    public void setUp() {
+        taskRepository = mock(TaskRepository.class, RETURNS_SMART_NULLS);
+        taskAllocationDetailRepository = mock(TaskAllocationDetailRepository.class, RETURNS_SMART_NULLS);
+        agentOccupancyEngine = mock(AgentOccupancyEngine.class, RETURNS_SMART_NULLS);
+        allocationJournal = mock(AllocationJournal.class, RETURNS_SMART_NULLS);
+        subject = new TaskBatchWriter(taskRepository, taskAllocationDetailRepository, agentOccupancyEngine, allocationJournal);
+    }
+
+    //region write
+    @Test
+    public void test_write_writesAllTasksAndAllocations_whenVersionsUnchanged() {
+        val versions = new HashMap<String, Long>();
+        versions.put("agentId2", 2L);
+        when(taskAllocationDetailRepository.lockVersions(Arrays.asList("agentId1", "agentId2"))).thenReturn(versions);
+
+        assertTrue(subject.write(Arrays.asList(newAgent, busyAgent)).isEmpty());
+
+        verify(taskAllocationDetailRepository, times(1)).lockVersions(Arrays.asList("agentId1", "agentId2"));
+        verify(taskAllocationDetailRepository, times(1)).addTasks(Arrays.asList(newAgent, busyAgent));
+        verifyNoMoreInteractions(taskAllocationDetailRepository);
+
+        verify(taskRepository, times(1)).createAll(Arrays.asList(task1, task2));
+        verifyNoMoreInteractions(taskRepository);
+    }
+
+    @Test
+    public void test_write_returnsConflictsAndWritesNothing_whenVersionsChanged() {
+        val versions = new HashMap<String, Long>();
+        versions.put("agentId1", 0L);
+        versions.put("agentId2", 3L);
+        when(taskAllocationDetailRepository.lockVersions(Arrays.asList("agentId1", "agentId2"))).thenReturn(versions);
+
+        assertEquals(new HashSet<>(Arrays.asList("agentId1", "agentId2")), subject.write(Arrays.asList(newAgent, busyAgent)));
+
+        verify(taskAllocationDetailRepository, times(1)).lockVersions(Arrays.asList("agentId1", "agentId2"));
+        verifyNoMoreInteractions(taskAllocationDetailRepository);
+
+        verifyZeroInteractions(taskRepository);
+    }
+    //endregion
+
+    //region complete
+    @Test
+    public void test_complete_removesTasksThenMarksThemComplete_whenVersionsUnchanged() {
+        val plannedRemoval = new PlannedRemoval(
+                new TaskAllocationDetail("agentId2", Collections.singletonList("taskId0"), TaskPriority.LOW, now, 3),
+                2,
+                Arrays.asList("taskId1", "taskId2"));
+        when(taskAllocationDetailRepository.lockVersions(Collections.singletonList("agentId2"))).thenReturn(Collections.singletonMap("agentId2", 2L));
+
+        assertTrue(subject.complete(Collections.singletonList(plannedRemoval)).isEmpty());
+
+        val inOrder = inOrder(taskAllocationDetailRepository, taskRepository);
+        inOrder.verify(taskAllocationDetailRepository, times(1)).lockVersions(Collections.singletonList("agentId2"));
+        inOrder.verify(taskAllocationDetailRepository, times(1)).removeTasks(Collections.singletonList(plannedRemoval));
+        inOrder.verify(taskRepository, times(1)).updateTaskStatuses(Arrays.asList("taskId1", "taskId2"), TaskStatus.COMPLETE);
+        verifyNoMoreInteractions(taskAllocationDetailRepository, taskRepository);
+    }
+
+    @Test
+    public void test_complete_returnsConflictsAndWritesNothing_whenRowGone() {
+        val plannedRemoval = new PlannedRemoval(
+                new TaskAllocationDetail("agentId2", Collections.emptyList(), TaskPriority.LOW, now, 3),
+                2,
+                Collections.singletonList("taskId1"));
+        when(taskAllocationDetailRepository.lockVersions(Collections.singletonList("agentId2"))).thenReturn(Collections.emptyMap());
+
+        assertEquals(Collections.singleton("agentId2"), subject.complete(Collections.singletonList(plannedRemoval)));
+
+        verify(taskAllocationDetailRepository, times(1)).lockVersions(Collections.singletonList("agentId2"));
+        verifyNoMoreInteractions(taskAllocationDetailRepository);
+        verifyZeroInteractions(taskRepository);
+    }
+    //endregion
+
+    //region write-behind
+    @Test
+    public void test_write_journalsAllocationsAndWritesOnlyTasks_whenWriteBehindEnabled() {
+        when(allocationJournal.isEnabled()).thenReturn(true);
+        whenCompareAndSetAll(Collections.emptySet());
+
+        assertTrue(subject.write(Arrays.asList(newAgent, busyAgent)).isEmpty());
+
+        val inOrder = inOrder(agentOccupancyEngine, allocationJournal, taskRepository);
+        inOrder.verify(agentOccupancyEngine, times(1)).compareAndSetAll(eq(expectedVersions()),
+                eq(Arrays.asList(newAgent.getTaskAllocationDetail(), busyAgent.getTaskAllocationDetail())), any(Runnable.class));
+        inOrder.verify(taskRepository, times(1)).createAll(Arrays.asList(task1, task2));
+        inOrder.verify(allocationJournal, times(1)).append(Arrays.asList(
+                AllocationChange.added(newAgent.getTaskAllocationDetail(), "taskId1", TaskPriority.LOW),
+                AllocationChange.added(busyAgent.getTaskAllocationDetail(), "taskId2", TaskPriority.HIGH)));
+        inOrder.verify(allocationJournal, times(1)).sync();
+        verifyZeroInteractions(taskAllocationDetailRepository);
+    }
+
+    @Test
+    public void test_write_leavesOccupancyAndJournalUnchanged_whenTaskWriteFailsAndWriteBehindEnabled() {
+        val journal = new AllocationJournal(true, temporaryFolder.getRoot().getPath(), new SimpleMeterRegistry());
+        val engine = new AgentOccupancyEngine(taskAllocationDetailRepository, mock(AgentSkillIndex.class, RETURNS_SMART_NULLS));
+        val writeBehindSubject = new TaskBatchWriter(taskRepository, taskAllocationDetailRepository, engine, journal);
+        doThrow(new DataIntegrityViolationException("TASK_PK")).when(taskRepository).createAll(anyList());
+
+        try {
+            writeBehindSubject.write(Collections.singletonList(newAgent));
+            fail();
+        } catch (DataIntegrityViolationException e) {
+            assertEquals("TASK_PK", e.getMessage());
+        }
+
+        assertTrue(engine.findAll().isEmpty());
+        assertTrue(journal.takePending().getChanges().isEmpty());
+    }
+
+    @Test
+    public void test_write_returnsConflictsAndWritesNothing_whenOccupancyChangedAndWriteBehindEnabled() {
+        when(allocationJournal.isEnabled()).thenReturn(true);
+        whenCompareAndSetAll(Collections.singleton("agentId2"));
+
+        assertEquals(Collections.singleton("agentId2"), subject.write(Arrays.asList(newAgent, busyAgent)));
+
+        verify(allocationJournal, never()).append(anyList());
+        verify(allocationJournal, never()).sync();
+        verifyZeroInteractions(taskRepository, taskAllocationDetailRepository);
+    }
+
+    @Test
+    public void test_complete_journalsRemovalsAndMarksTasksComplete_whenWriteBehindEnabled() {
+        val released = new TaskAllocationDetail("agentId2", Collections.emptyList(), TaskPriority.LOW, now, 3);
+        val plannedRemoval = new PlannedRemoval(released, 2, Arrays.asList("taskId1", "taskId2"));
+        when(allocationJournal.isEnabled()).thenReturn(true);
+        whenCompareAndSetAll(Collections.emptySet());
+
+        assertTrue(subject.complete(Collections.singletonList(plannedRemoval)).isEmpty());
+
+        verify(allocationJournal, times(1)).append(Arrays.asList(
+                AllocationChange.removed(released, "taskId1"),
+                AllocationChange.removed(released, "taskId2")));
+        verify(allocationJournal, times(1)).sync();
+        verify(taskRepository, times(1)).updateTaskStatuses(Arrays.asList("taskId1", "taskId2"), TaskStatus.COMPLETE);
+        verifyZeroInteractions(taskAllocationDetailRepository);
+    }
+    //endregion
+
+    //region private
+    private static Map<String, Long> expectedVersions() {
+        Map<String, Long> expectedVersions = new LinkedHashMap<>();
+        expectedVersions.put("agentId1", NO_VERSION);
+        expectedVersions.put("agentId2", 2L);
+        return expectedVersions;
+    }
+
+    // The occupancy runs the journal append when it takes the changes
+    private void whenCompareAndSetAll(Set<String> conflicts) {
+        doAnswer(invocation -> {
+            if (conflicts.isEmpty()) {
+                ((Runnable) invocation.getArgument(2)).run();
+            }
+            return conflicts;
+        }).when(agentOccupancyEngine).compareAndSetAll(anyMap(), anyList(), any(Runnable.class));
+    }
+    //endregion
+}
@@ -0,0 +1,100 @@
+package ffam.task.domain;
+
+import ffam.task.api.TaskBatchItemResponse;
+import ffam.task.data.TaskRepository;
+import lombok.val;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class TaskCompletionPlannerTest {
+    private TaskRepository taskRepository;
+    private AgentOccupancyEngine agentOccupancyEngine;
+    private TaskCompletionPlanner subject;
+
+    private final ZonedDateTime started = ZonedDateTime.now().minusHours(1);
+
+    @Before
+    public void setUp() {
+        taskRepository = mock(TaskRepository.class, RETURNS_SMART_NULLS);
+        agentOccupancyEngine = mock(AgentOccupancyEngine.class, RETURNS_SMART_NULLS);
+        subject = new TaskCompletionPlanner(taskRepository, agentOccupancyEngine);
+    }
+
+    //region plan
+    @Test
+    public void test_plan_groupsTasksByAgent_intoOneRemovalEach() {
+        val taskIds = Arrays.asList("taskId1", "taskId2", "taskId3");
+        when(taskRepository.findByTaskIds(taskIds)).thenReturn(Arrays.asList(
+                task("taskId1", TaskPriority.LOW, "agentId1"),
+                task("taskId2", TaskPriority.HIGH, "agentId1"),
+                task("taskId3", TaskPriority.LOW, "agentId2")));
+        when(agentOccupancyEngine.findByAgentId("agentId1")).thenReturn(Optional.of(
+                new TaskAllocationDetail("agentId1", Arrays.asList("taskId0", "taskId1", "taskId2"), TaskPriority.HIGH, started, 6)));
+        when(agentOccupancyEngine.findByAgentId("agentId2")).thenReturn(Optional.of(
+                new TaskAllocationDetail("agentId2", Collections.singletonList("taskId3"), TaskPriority.LOW, started, 2)));
+
+        val taskCompletionPlan = subject.plan(taskIds);
+
+        assertEquals(Arrays.asList(
+                TaskBatchItemResponse.of("taskId1", "agentId1", TaskStatus.COMPLETE),
+                TaskBatchItemResponse.of("taskId2", "agentId1", TaskStatus.COMPLETE),
+                TaskBatchItemResponse.of("taskId3", "agentId2", TaskStatus.COMPLETE)),
+                taskCompletionPlan.getResponses());
+        assertEquals(Arrays.asList(
+                new PlannedRemoval(
+                        new TaskAllocationDetail("agentId1", Collections.singletonList("taskId0"), TaskPriority.LOW, started, 7),
+                        6,
+                        Arrays.asList("taskId1", "taskId2")),
+                new PlannedRemoval(
+                        new TaskAllocationDetail("agentId2", Collections.emptyList(), TaskPriority.LOW, started, 3),
+                        2,
+                        Collections.singletonList("taskId3"))),
+                taskCompletionPlan.getPlannedRemovals());
+        assertTrue(taskCompletionPlan.getPlannedRemovals().get(1).isReleased());
+
+        verify(taskRepository, times(1)).findByTaskIds(taskIds);
+        verifyNoMoreInteractions(taskRepository);
+    }
+
+    @Test
+    public void test_plan_returnsItemErrors_whenTaskInvalidMissingOrNotAllocated() {
+        val taskIds = Arrays.asList("", "taskId1", "taskId2", "taskId3", "taskId3");
+        when(taskRepository.findByTaskIds(Arrays.asList("taskId1", "taskId2", "taskId3", "taskId3"))).thenReturn(Arrays.asList(
+                task("taskId2", TaskPriority.LOW, "agentId1"),
+                task("taskId3", TaskPriority.LOW, "agentId2")));
+        when(agentOccupancyEngine.findByAgentId("agentId1")).thenReturn(Optional.empty());
+        when(agentOccupancyEngine.findByAgentId("agentId2")).thenReturn(Optional.of(
+                new TaskAllocationDetail("agentId2", Collections.singletonList("taskId3"), TaskPriority.LOW, started, 2)));
+
+        val taskCompletionPlan = subject.plan(taskIds);
+
+        assertEquals(Arrays.asList(
+                TaskBatchItemResponse.error("V103", "Given Request is Invalid"),
+                TaskBatchItemResponse.error("V102", "No such task present"),
+                TaskBatchItemResponse.error("V101", "Unable to delete the task at this time"),
+                TaskBatchItemResponse.of("taskId3", "agentId2", TaskStatus.COMPLETE),
+                TaskBatchItemResponse.error("V101", "Unable to delete the task at this time")),
+                taskCompletionPlan.getResponses());
+        assertEquals(1, taskCompletionPlan.getPlannedRemovals().size());
+        assertEquals(Collections.singletonList("taskId3"), taskCompletionPlan.getPlannedRemovals().get(0).getRemovedTaskIds());
+    }
+    //endregion
+
+    //region private
+    private static Task task(String taskId, TaskPriority taskPriority, String agentId) {
+        return new Task(taskId, taskPriority, true, false, false, TaskStatus.IN_PROGRESS, agentId);
+    }
+    //endregion
+}